@@ -44,6 +44,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -57,6 +58,7 @@ import nom.tam.util.ArrayFuncs;
 import nom.tam.util.ColumnTable;
 import nom.tam.util.Cursor;
 import nom.tam.util.FitsIO;
+import nom.tam.util.PositionalReader;
 import nom.tam.util.RandomAccess;
 import nom.tam.util.TableException;
 import nom.tam.util.type.PrimitiveTypeHandler;
@@ -185,8 +187,6 @@ public class BinaryTable extends AbstractTableData {
         }
     }
 
-    private static final long MAX_INTEGER_VALUE = Integer.MAX_VALUE;
-
     private static final int MAX_EMPTY_BLOCK_SIZE = 4000000;
 
     private static final Logger LOG = Logger.getLogger(BinaryTable.class.getName());
@@ -199,16 +199,7 @@ public class BinaryTable extends AbstractTableData {
     /**
      * The number of bytes between the end of the data and the heap
      */
-    private int heapOffset;
-
-    /**
-     * Switched to an initial value of true TAM, 11/20/12, since the heap may be
-     * generated without any I/O. In that case it's valid. We set
-     * heapReadFromStream to false when we skip input.
-     */
-    private boolean heapReadFromStream = true;
-
-    private boolean warnedOnVariableConversion = false;
+    private long heapOffset;
 
     /**
      * A list describing each of the columns in the table
@@ -216,9 +207,10 @@ public class BinaryTable extends AbstractTableData {
     private List<ColumnDesc> columnList = new ArrayList<ColumnDesc>();
 
     /**
-     * The number of rows in the table.
+     * The number of rows in the table. Only a deferred table may have more
+     * than 2 G rows.
      */
-    private int nRow;
+    private long nRow;
 
     /**
      * The length in bytes of each row.
@@ -226,9 +218,10 @@ public class BinaryTable extends AbstractTableData {
     private int rowLen;
 
     /**
-     * Where the data is actually stored.
+     * Where the data is actually stored. Volatile since a deferred table may be
+     * loaded by one thread while others read rows from the file.
      */
-    private ColumnTable<SaveState> table;
+    private volatile ColumnTable<SaveState> table;
 
     /**
      * The stream used to input the data. This is saved so that we possibly skip
@@ -271,10 +264,10 @@ public class BinaryTable extends AbstractTableData {
         }
         try {
             this.table = tab.copy();
+            this.heap = extra.heap.copy();
         } catch (Exception e) {
             throw new IllegalStateException("Unexpected Exception", e);
         }
-        this.heap = extra.heap.copy();
         this.nRow = tab.getNRows();
         saveExtraState();
     }
@@ -288,21 +281,10 @@ public class BinaryTable extends AbstractTableData {
      *             if the specified header is not usable for a binary table
      */
     public BinaryTable(Header myHeader) throws FitsException {
-        long heapSizeL = myHeader.getLongValue(PCOUNT);
-        long heapOffsetL = myHeader.getLongValue(THEAP);
-        if (heapOffsetL > MAX_INTEGER_VALUE) {
-            throw new FitsException("Heap Offset > 2GB");
-        }
-        if (heapSizeL > MAX_INTEGER_VALUE) {
-            throw new FitsException("Heap size > 2 GB");
-        }
-        if (heapSizeL - heapOffsetL > MAX_INTEGER_VALUE) {
-            throw new FitsException("Unable to allocate heap > 2GB");
-        }
-        this.heapOffset = (int) heapOffsetL;
-        int heapSize = (int) heapSizeL;
+        long heapSize = myHeader.getLongValue(PCOUNT);
+        this.heapOffset = myHeader.getLongValue(THEAP);
         int rwsz = myHeader.getIntValue(NAXIS1);
-        this.nRow = myHeader.getIntValue(NAXIS2);
+        this.nRow = myHeader.getLongValue(NAXIS2);
 
         // Subtract out the size of the regular table from
         // the heap offset.
@@ -313,6 +295,9 @@ public class BinaryTable extends AbstractTableData {
         if (this.heapOffset < 0 || this.heapOffset > heapSize) {
             throw new FitsException("Inconsistent THEAP and PCOUNT");
         }
+        if (heapSize - this.heapOffset > FitsHeap.MAX_SIZE) {
+            throw new FitsException("Heap size too large");
+        }
 
         this.heap = new FitsHeap(heapSize - this.heapOffset);
         int nCol = myHeader.getIntValue(TFIELDS);
@@ -520,28 +505,55 @@ public class BinaryTable extends AbstractTableData {
 
     @Override
     public int addRow(Object[] o) throws FitsException {
+        return addRows(new Object[][]{
+            o
+        });
+    }
+
+    /**
+     * Add a set of rows at the end of the table, reserving room for all of
+     * them in the underlying column arrays up front.
+     *
+     * @param rows
+     *            the rows to add, each laid out as for
+     *            {@link #addRow(Object[])}
+     * @return the number of rows in the adapted table
+     * @throws FitsException
+     *             if one of the rows does not fit the table, the table is
+     *             left unchanged then.
+     */
+    public int addRows(Object[][] rows) throws FitsException {
         ensureData();
-        if (this.columnList.size() == 0 && this.nRow == 0) {
-            for (Object element : o) {
+        if (this.columnList.size() == 0 && this.nRow == 0 && rows.length > 0) {
+            // the first row defines the columns.
+            for (Object element : rows[0]) {
                 if (element == null) {
                     throw new FitsException("Cannot add initial rows with nulls");
                 }
                 addColumn(encapsulate(element));
             }
             createTable();
-
-        } else {
-            Object[] flatRow = new Object[getNCols()];
-            for (int i = 0; i < getNCols(); i++) {
-                Object x = ArrayFuncs.flatten(o[i]);
-                ColumnDesc colDesc = this.columnList.get(i);
-                flatRow[i] = arrayToColumn(colDesc, x);
+            return addRows(Arrays.copyOfRange(rows, 1, rows.length));
+        }
+        long heapSize = this.heap.getSize();
+        boolean added = false;
+        try {
+            Object[][] flatRows = new Object[rows.length][getNCols()];
+            for (int row = 0; row < rows.length; row++) {
+                for (int col = 0; col < flatRows[row].length; col++) {
+                    flatRows[row][col] = arrayToColumn(this.columnList.get(col), ArrayFuncs.flatten(rows[row][col]));
+                }
+            }
+            this.table.addRows(flatRows);
+            added = true;
+        } finally {
+            if (!added) {
+                // drop the variable length data of the rows converted so far.
+                this.heap.truncate(heapSize);
             }
-            this.table.addRow(flatRow);
-            this.nRow++;
         }
-
-        return this.nRow;
+        this.nRow += rows.length;
+        return getNRows();
     }
 
     /**
@@ -595,8 +607,8 @@ public class BinaryTable extends AbstractTableData {
             h.setBitpix(BasicHDU.BITPIX_BYTE);
             h.setNaxes(2);
             h.setNaxis(1, this.rowLen);
-            h.setNaxis(2, this.nRow);
-            h.addValue(PCOUNT, this.heap.size());
+            h.setNaxis(2, getNRows());
+            h.addValue(PCOUNT, this.heap.getSize());
             h.addValue(GCOUNT, 1);
             Cursor<String, HeaderCard> iter = h.iterator();
             iter.setKey(GCOUNT.key());
@@ -630,10 +642,7 @@ public class BinaryTable extends AbstractTableData {
      */
     @Override
     public Object getColumn(int col) throws FitsException {
-        ensureData();
-        Object res = getFlattenedColumn(col);
-        res = encurl(res, col, this.nRow);
-        return res;
+        return encurl(getFlattenedColumn(col), col, getNRows());
     }
 
     @Override
@@ -642,11 +651,16 @@ public class BinaryTable extends AbstractTableData {
             if (this.currInput == null) {
                 throw new FitsException("Cannot find input for deferred read");
             }
-            this.table = createTable();
-            long currentOffset = FitsUtil.findOffset(this.currInput);
-            FitsUtil.reposition(this.currInput, this.fileOffset);
-            readTrueData(this.input);
-            FitsUtil.reposition(this.currInput, currentOffset);
+            synchronized (this.currInput) {
+                if (this.table == null) {
+                    ColumnTable<SaveState> loading = createTable();
+                    long currentOffset = FitsUtil.findOffset(this.currInput);
+                    FitsUtil.reposition(this.currInput, this.fileOffset);
+                    readTrueData(this.input, loading);
+                    FitsUtil.reposition(this.currInput, currentOffset);
+                    this.table = loading;
+                }
+            }
         }
         return this.table;
     }
@@ -677,14 +691,11 @@ public class BinaryTable extends AbstractTableData {
 
         ColumnDesc colDesc = this.columnList.get(j);
         Object ele;
-        if (colDesc.isVarying) {
-            // Have to read in entire data set.
-            ensureData();
-        }
-
         if (this.table == null) {
             // This is really inefficient.
             // Need to either save the row, or just read the one element.
+            // Variable length elements are read directly from the heap in
+            // the file.
             Object[] row = getRow(i);
             ele = row[j];
 
@@ -709,35 +720,51 @@ public class BinaryTable extends AbstractTableData {
      * @return column in flattened format. For large tables getting a column in
      *         standard format can be inefficient because a separate object is
      *         needed for each row. Leaving the data in flattened format means
-     *         that only a single object is created.
+     *         that only a single object is created. If the table was not read
+     *         yet, only this column (and its heap data) is read from the file.
      * @param col
      *            the column to flatten
      * @throws FitsException
      *             if the column could not be flattened
      */
     public Object getFlattenedColumn(int col) throws FitsException {
-        ensureData();
         if (!validColumn(col)) {
             throw new FitsException("Invalid column");
         }
-        Object res = this.table.getColumn(col);
-        ColumnDesc colDesc = this.columnList.get(col);
-        return columnToArray(colDesc, res, this.nRow);
+        Object res;
+        if (this.table == null && this.currInput instanceof RandomAccess) {
+            res = DeferredColumnReader.read(this, (RandomAccess) this.currInput, col);
+        } else {
+            res = getData().getColumn(col);
+        }
+        return columnToArray(this.columnList.get(col), res, getNRows());
+    }
+
+    /** @deprecated use {@link #getHeapOffsetLong()}, fails beyond 2 GB. */
+    @Deprecated
+    public int getHeapOffset() {
+        return FitsUtil.checkedInt(getHeapOffsetLong(), "heap offset");
     }
 
     /**
      * @return the offset to the heap
      */
-    public int getHeapOffset() {
+    public long getHeapOffsetLong() {
         return this.heapOffset;
     }
 
+    /** @deprecated use {@link #getHeapSizeLong()}, fails beyond 2 GB. */
+    @Deprecated
+    public int getHeapSize() {
+        return FitsUtil.checkedInt(getHeapSizeLong(), "heap size");
+    }
+
     /**
      * @return the size of the heap -- including the offset from the end of the
      *         table data.
      */
-    public int getHeapSize() {
-        return this.heapOffset + this.heap.size();
+    public long getHeapSizeLong() {
+        return this.heapOffset + this.heap.getSize();
     }
 
     /**
@@ -760,10 +787,19 @@ public class BinaryTable extends AbstractTableData {
     }
 
     /**
-     * Get the number of rows in the table
+     * Get the number of rows in the table, failing for tables of more than 2 G
+     * rows, which need {@link #getNRowsLong()}.
      */
     @Override
     public int getNRows() {
+        return FitsUtil.checkedInt(this.nRow, "number of rows");
+    }
+
+    /**
+     * @return the number of rows in the table, which for a deferred table may
+     *         exceed 2 G.
+     */
+    public long getNRowsLong() {
         return this.nRow;
     }
 
@@ -819,9 +855,9 @@ public class BinaryTable extends AbstractTableData {
      */
     @Override
     public long getTrueSize() {
-        long len = (long) this.nRow * this.rowLen;
-        if (this.heap.size() > 0) {
-            len += this.heap.size() + this.heapOffset;
+        long len = this.nRow * this.rowLen;
+        if (this.heap.getSize() > 0) {
+            len += this.heap.getSize() + this.heapOffset;
         }
         return len;
     }
@@ -845,7 +881,7 @@ public class BinaryTable extends AbstractTableData {
 
             try {
                 i.skipAllBytes(getTrueSize());
-                this.heapReadFromStream = false;
+                this.heap.attach((RandomAccess) i, this.fileOffset + this.nRow * this.rowLen + this.heapOffset);
             } catch (IOException e) {
                 throw new FitsException("Unable to skip binary table HDU:" + e, e);
             }
@@ -887,7 +923,9 @@ public class BinaryTable extends AbstractTableData {
      */
     @Override
     public void setColumn(int col, Object xcol) throws FitsException {
-
+        // variable length data is appended to the heap, so the existing heap
+        // must be read first.
+        ensureData();
         ColumnDesc colDesc = this.columnList.get(col);
         xcol = arrayToColumn(colDesc, xcol);
         xcol = ArrayFuncs.flatten(xcol);
@@ -914,8 +952,7 @@ public class BinaryTable extends AbstractTableData {
             int size = Array.getLength(o);
             // The offset for the row is the offset to the heap plus the
             // offset within the heap.
-            int offset = (int) this.heap.getSize();
-            this.heap.putData(o);
+            long offset = this.heap.putData(o);
             if (colDesc.isLongVary) {
                 this.table.setElement(i, j, new long[]{
                     size,
@@ -924,7 +961,7 @@ public class BinaryTable extends AbstractTableData {
             } else {
                 this.table.setElement(i, j, new int[]{
                     size,
-                    offset
+                    FitsUtil.heapPointer(offset)
                 });
             }
 
@@ -1003,7 +1040,7 @@ public class BinaryTable extends AbstractTableData {
 
             this.table.write(os);
             if (this.heapOffset > 0) {
-                int off = this.heapOffset;
+                long off = this.heapOffset;
                 // Minimize memory usage. This also accommodates
                 // the possibility that heapOffset > 2GB.
                 // Previous code might have allocated up to 2GB
@@ -1012,7 +1049,7 @@ public class BinaryTable extends AbstractTableData {
                 int arrSiz = MAX_EMPTY_BLOCK_SIZE;
                 while (off > 0) {
                     if (arrSiz > off) {
-                        arrSiz = off;
+                        arrSiz = (int) off;
                     }
                     os.write(new byte[arrSiz]);
                     off -= arrSiz;
@@ -1020,7 +1057,7 @@ public class BinaryTable extends AbstractTableData {
             }
 
             // Now check if we need to write the heap
-            if (this.heap.size() > 0) {
+            if (this.heap.getSize() > 0) {
                 this.heap.write(os);
             }
 
@@ -1079,7 +1116,7 @@ public class BinaryTable extends AbstractTableData {
                 o = xo;
             }
             // Write all rows of data onto the heap.
-            int offset = this.heap.putData(o);
+            long offset = this.heap.putData(o);
             int blen = ArrayFuncs.getBaseLength(o);
             // Handle an addRow of a variable length element.
             // In this case we only get a one-d array, but we just
@@ -1103,7 +1140,7 @@ public class BinaryTable extends AbstractTableData {
                     int len = Array.getLength(x[i]);
                     descrip[2 * i] = len;
                     descrip[2 * i + 1] = offset;
-                    offset += len * blen * factor;
+                    offset += (long) len * blen * factor;
                 }
                 o = descrip;
             } else {
@@ -1115,8 +1152,8 @@ public class BinaryTable extends AbstractTableData {
                 for (int i = 0; i < nrow; i++) {
                     int len = Array.getLength(x[i]);
                     descrip[2 * i] = len;
-                    descrip[2 * i + 1] = offset;
-                    offset += len * blen * factor;
+                    descrip[2 * i + 1] = FitsUtil.heapPointer(offset);
+                    offset += (long) len * blen * factor;
                 }
                 o = descrip;
             }
@@ -1179,24 +1216,9 @@ public class BinaryTable extends AbstractTableData {
         // If a varying length column use the descriptors to
         // extract appropriate information from the headers.
         if (colDesc.isVarying) {
-            // A. Kovacs (4/1/08)
-            // Ensure that the heap has been initialized
-            if (!this.heapReadFromStream) {
-                readHeap(this.currInput);
-            }
-            int[] descrip;
-            if (colDesc.isLongVary) {
-                // Convert longs to int's. This is dangerous.
-                if (!this.warnedOnVariableConversion) {
-                    LOG.log(Level.WARNING, "Warning: converting long variable array pointers to int's");
-                    this.warnedOnVariableConversion = true;
-
-                }
-                descrip = (int[]) ArrayFuncs.convertArray(o, int.class);
-            } else {
-                descrip = (int[]) o;
-            }
-            int nrow = descrip.length / 2;
+            // If the heap was skipped on a random access input the elements
+            // are read one by one from the file, see FitsHeap.getData().
+            int nrow = Array.getLength(o) / 2;
             Object[] res; // Res will be the result of extracting from the heap.
             int[] dims; // Used to create result arrays.
             if (colDesc.isComplex) {
@@ -1230,8 +1252,15 @@ public class BinaryTable extends AbstractTableData {
             // Now read in each requested row.
             for (int i = 0; i < nrow; i++) {
                 Object row;
-                int offset = descrip[2 * i + 1];
-                int dim = descrip[2 * i];
+                long offset;
+                int dim;
+                if (colDesc.isLongVary) {
+                    offset = ((long[]) o)[2 * i + 1];
+                    dim = (int) ((long[]) o)[2 * i];
+                } else {
+                    offset = ((int[]) o)[2 * i + 1];
+                    dim = ((int[]) o)[2 * i];
+                }
                 if (colDesc.isComplex) {
                     dims[0] = dim;
                     row = ArrayFuncs.newInstance(colDesc.base, dims);
@@ -1293,6 +1322,9 @@ public class BinaryTable extends AbstractTableData {
      * failed
      */
     private ColumnTable<SaveState> createTable() throws FitsException {
+        if (this.nRow > Integer.MAX_VALUE) {
+            throw new FitsException("Tables with more than 2 G rows can only be read in deferred mode, e.g. with a RowCursor");
+        }
         int nfields = this.columnList.size();
         Object[] arrCol = new Object[nfields];
         int[] sizes = new int[nfields];
@@ -1303,7 +1335,7 @@ public class BinaryTable extends AbstractTableData {
                 arrCol[i] = desc.column;
                 desc.column = null;
             } else {
-                arrCol[i] = desc.newInstance(this.nRow);
+                arrCol[i] = desc.newInstance(getNRows());
             }
         }
         this.table = createColumnTable(arrCol, sizes);
@@ -1384,9 +1416,11 @@ public class BinaryTable extends AbstractTableData {
             data[col] = colDesc.newInstance(1);
         }
 
+        if (!(this.currInput instanceof RandomAccess)) {
+            throw new FitsException("Cannot read row " + row + " from a stream that is not random access");
+        }
         try {
-            FitsUtil.reposition(this.currInput, this.fileOffset + (long) row * (long) this.rowLen);
-            this.currInput.readLArray(data);
+            PositionalReader.readArray((RandomAccess) this.currInput, this.fileOffset + (long) row * (long) this.rowLen, data);
         } catch (IOException e) {
             throw new FitsException("Error in deferred row read", e);
         }
@@ -1648,7 +1682,6 @@ public class BinaryTable extends AbstractTableData {
     protected void readHeap(ArrayDataInput input) throws FitsException {
         FitsUtil.reposition(input, this.fileOffset + this.nRow * this.rowLen + this.heapOffset);
         this.heap.read(input);
-        this.heapReadFromStream = true;
     }
 
     /**
@@ -1660,12 +1693,14 @@ public class BinaryTable extends AbstractTableData {
      *             if the reading failed
      */
     protected void readTrueData(ArrayDataInput i) throws FitsException {
+        readTrueData(i, this.table);
+    }
+
+    private void readTrueData(ArrayDataInput i, ColumnTable<SaveState> target) throws FitsException {
         try {
-            this.table.read(i);
+            target.read(i, FitsFactory.getUseParallelTableReads() ? FitsFactory.threadPool() : null);
             i.skipAllBytes(this.heapOffset);
             this.heap.read(i);
-            this.heapReadFromStream = true;
-
         } catch (IOException e) {
             throw new FitsException("Error reading binary table data:" + e, e);
         }
@@ -1697,7 +1732,7 @@ public class BinaryTable extends AbstractTableData {
      * @return <code>true</code> if the row is valid
      */
     protected boolean validRow(int i) {
-        return getNRows() > 0 && i >= 0 && i < getNRows();
+        return this.nRow > 0 && i >= 0 && i < this.nRow;
     }
 
     /**
@@ -151,6 +151,22 @@ public class BinaryTableHDU extends TableHDU<BinaryTable> {
         return super.addColumn(data);
     }
 
+    /**
+     * Add a set of rows to the end of the table, updating the header only once.
+     *
+     * @param newRows
+     *            the rows to add, each laid out as for
+     *            {@link #addRow(Object[])}
+     * @return the number of rows in the adapted table
+     * @throws FitsException
+     *             if the operation failed
+     */
+    public int addRows(Object[][] newRows) throws FitsException {
+        int row = this.myData.addRows(newRows);
+        this.myHeader.addValue(NAXIS2, getNRows());
+        return row;
+    }
+
     /**
      * What are the standard column stems for a binary table?
      */
@@ -186,17 +202,17 @@ public class BinaryTableHDU extends TableHDU<BinaryTable> {
         }
 
         stream.println("      Data Information:");
-        if (myData == null || this.myData.getNRows() == 0 || this.myData.getNCols() == 0) {
+        if (myData == null || this.myData.getNRowsLong() == 0 || this.myData.getNCols() == 0) {
             stream.println("         No data present");
-            if (this.myData.getHeapSize() > 0) {
-                stream.println("         Heap size is: " + this.myData.getHeapSize() + " bytes");
+            if (this.myData.getHeapSizeLong() > 0) {
+                stream.println("         Heap size is: " + this.myData.getHeapSizeLong() + " bytes");
             }
         } else {
 
-            stream.println("          Number of rows=" + this.myData.getNRows());
+            stream.println("          Number of rows=" + this.myData.getNRowsLong());
             stream.println("          Number of columns=" + this.myData.getNCols());
-            if (this.myData.getHeapSize() > 0) {
-                stream.println("          Heap size is: " + this.myData.getHeapSize() + " bytes");
+            if (this.myData.getHeapSizeLong() > 0) {
+                stream.println("          Heap size is: " + this.myData.getHeapSizeLong() + " bytes");
             }
             Object[] cols = this.myData.getFlatColumns();
             for (int i = 0; i < cols.length; i += 1) {
@@ -290,16 +306,16 @@ public class BinaryTableHDU extends TableHDU<BinaryTable> {
     @Override
     public void write(ArrayDataOutput ado) throws FitsException {
 
-        int oldSize = this.myHeader.getIntValue(PCOUNT);
-        if (oldSize != this.myData.getHeapSize()) {
-            this.myHeader.addValue(PCOUNT, this.myData.getHeapSize());
+        long oldSize = this.myHeader.getLongValue(PCOUNT);
+        if (oldSize != this.myData.getHeapSizeLong()) {
+            this.myHeader.addValue(PCOUNT, this.myData.getHeapSizeLong());
         }
 
-        if (this.myHeader.getIntValue(PCOUNT) == 0) {
+        if (this.myHeader.getLongValue(PCOUNT) == 0) {
             this.myHeader.deleteKey(THEAP);
         } else {
             this.myHeader.getIntValue(TFIELDS);
-            int offset = this.myHeader.getIntValue(NAXIS1) * this.myHeader.getIntValue(NAXIS2) + this.myData.getHeapOffset();
+            long offset = this.myHeader.getIntValue(NAXIS1) * this.myHeader.getLongValue(NAXIS2) + this.myData.getHeapOffsetLong();
             this.myHeader.addValue(THEAP, offset);
         }
 
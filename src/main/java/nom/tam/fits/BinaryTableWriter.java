@@ -0,0 +1,531 @@
+package nom.tam.fits;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import static nom.tam.fits.header.Standard.NAXIS1;
+import static nom.tam.fits.header.Standard.NAXIS2;
+import static nom.tam.fits.header.Standard.PCOUNT;
+import static nom.tam.fits.header.Standard.TFIELDS;
+import static nom.tam.fits.header.Standard.TFORMn;
+import static nom.tam.fits.header.Standard.THEAP;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+
+import nom.tam.util.ArrayDataOutput;
+import nom.tam.util.ArrayFuncs;
+import nom.tam.util.BufferedDataOutputStream;
+import nom.tam.util.FitsIO;
+import nom.tam.util.RandomAccess;
+import nom.tam.util.SafeClose;
+
+/**
+ * Writes a binary table HDU row by row without building a
+ * {@link nom.tam.util.ColumnTable} in memory. The layout of the table is taken
+ * from a header (e.g. one created with
+ * {@link BinaryTableHDU#manufactureHeader(Data)} from a small template table),
+ * which is written immediately. Rows are encoded straight to the output, while
+ * the data of variable length columns is spooled to a temporary file and
+ * appended as the heap when the writer is closed.
+ * <p>
+ * On close, NAXIS2 and PCOUNT are patched in place if the output is a
+ * {@link RandomAccess}. For other outputs the header must already contain the
+ * final row count and heap size, otherwise closing fails. Closing the writer
+ * does not close the underlying output, so further HDUs may follow.
+ */
+public class BinaryTableWriter implements Closeable {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final ArrayDataOutput out;
+
+    private final Header header;
+
+    private final Column[] columns;
+
+    private final int rowLen;
+
+    private final long headerOffset;
+
+    private final long headerSize;
+
+    private long nRow;
+
+    private long heapSize;
+
+    private File heapFile;
+
+    private BufferedDataOutputStream heap;
+
+    private boolean closed;
+
+    /**
+     * Create a writer and write the header of the table.
+     *
+     * @param out
+     *            the output to write the HDU to
+     * @param header
+     *            the header describing the table. NAXIS2 and PCOUNT are used
+     *            as provisional values (added as 0 if missing) and THEAP is
+     *            removed, since the heap directly follows the rows.
+     * @throws FitsException
+     *             if the header does not describe a supported binary table or
+     *             could not be written
+     */
+    public BinaryTableWriter(ArrayDataOutput out, Header header) throws FitsException {
+        this.out = out;
+        this.header = header;
+        int nCol = header.getIntValue(TFIELDS);
+        this.columns = new Column[nCol];
+        int len = 0;
+        for (int col = 0; col < nCol; col++) {
+            String tform = header.getStringValue(TFORMn.n(col + 1));
+            if (tform == null) {
+                throw new FitsException("Missing TFORM for column " + (col + 1));
+            }
+            this.columns[col] = new Column(tform.trim());
+            len += this.columns[col].byteSize();
+        }
+        if (len != header.getIntValue(NAXIS1)) {
+            throw new FitsException("NAXIS1 " + header.getIntValue(NAXIS1) + " does not match the column formats (" + len + ")");
+        }
+        this.rowLen = len;
+        header.deleteKey(THEAP);
+        if (!header.containsKey(NAXIS2)) {
+            header.addValue(NAXIS2, 0);
+        }
+        if (!header.containsKey(PCOUNT)) {
+            header.addValue(PCOUNT, 0);
+        }
+        this.headerOffset = FitsUtil.findOffset(out);
+        header.write(out);
+        this.headerSize = header.getSize();
+    }
+
+    /**
+     * Write a batch of rows given in column order. Each entry is the data of
+     * one column for all rows of the batch, laid out as for
+     * {@link BinaryTable#BinaryTable(Object[])}; one-dimensional primitive
+     * columns are written directly from the supplied arrays. The whole batch
+     * is checked before anything is written, so a batch that does not fit the
+     * table leaves the output unchanged.
+     *
+     * @param data
+     *            the columns of the batch
+     * @throws FitsException
+     *             if the data does not fit the table or could not be written
+     */
+    public void writeColumns(Object[] data) throws FitsException {
+        checkColumnCount(data.length);
+        int rows = -1;
+        for (int col = 0; col < data.length; col++) {
+            int colRows = this.columns[col].rowsOf(data[col]);
+            if (rows >= 0 && colRows != rows) {
+                throw new FitsException("Column " + (col + 1) + " has a different number of rows");
+            }
+            rows = colRows;
+        }
+        Object[][] converted = new Object[data.length][];
+        for (int col = 0; col < data.length; col++) {
+            Column column = this.columns[col];
+            if (column.isFlat(data[col])) {
+                column.checkFlat(data[col]);
+            } else {
+                converted[col] = new Object[rows];
+                for (int row = 0; row < rows; row++) {
+                    converted[col][row] = column.convert(((Object[]) data[col])[row]);
+                }
+            }
+        }
+        long heapEnd = this.heapSize;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < data.length; col++) {
+                if (converted[col] != null) {
+                    heapEnd = checkHeap(this.columns[col], converted[col][row], heapEnd);
+                }
+            }
+        }
+        try {
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < data.length; col++) {
+                    Column column = this.columns[col];
+                    if (converted[col] == null) {
+                        column.writeSlice(this.out, data[col], row * column.count);
+                    } else {
+                        writeValue(column, converted[col][row]);
+                    }
+                }
+                this.nRow++;
+            }
+        } catch (IOException e) {
+            throw new FitsException("Unable to write table rows: " + e, e);
+        }
+    }
+
+    /**
+     * Write a single row, laid out as for {@link BinaryTable#addRow(Object[])}.
+     * All elements are checked before the row is written, so a row that does
+     * not fit the table leaves the output unchanged.
+     *
+     * @param row
+     *            the elements of the row, one per column
+     * @throws FitsException
+     *             if the row does not fit the table or could not be written
+     */
+    public void writeRow(Object[] row) throws FitsException {
+        checkColumnCount(row.length);
+        Object[] values = new Object[row.length];
+        long heapEnd = this.heapSize;
+        for (int col = 0; col < row.length; col++) {
+            values[col] = this.columns[col].convert(row[col]);
+            heapEnd = checkHeap(this.columns[col], values[col], heapEnd);
+        }
+        try {
+            for (int col = 0; col < row.length; col++) {
+                writeValue(this.columns[col], values[col]);
+            }
+        } catch (IOException e) {
+            throw new FitsException("Unable to write table row: " + e, e);
+        }
+        this.nRow++;
+    }
+
+    /**
+     * @return the number of rows written so far
+     */
+    public long getNRows() {
+        return this.nRow;
+    }
+
+    /**
+     * @return the number of heap bytes written so far
+     */
+    public long getHeapSize() {
+        return this.heapSize;
+    }
+
+    /**
+     * Append the heap and the padding and fix up the header. The underlying
+     * output stays open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            copyHeap();
+            long size = this.nRow * this.rowLen + this.heapSize;
+            FitsUtil.pad(this.out, size);
+            if (this.header.getLongValue(NAXIS2) != this.nRow || this.header.getLongValue(PCOUNT) != this.heapSize) {
+                patchHeader();
+            }
+            this.out.flush();
+        } catch (FitsException e) {
+            throw new IOException("Unable to complete binary table: " + e.getMessage(), e);
+        } finally {
+            if (this.heapFile != null && !this.heapFile.delete()) {
+                this.heapFile.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Check that a P column can still address the heap where the element will
+     * be stored.
+     *
+     * @return the heap size after the element
+     */
+    private static long checkHeap(Column column, Object data, long heapEnd) throws FitsException {
+        if (!column.isVarying) {
+            return heapEnd;
+        }
+        if (!column.isLongVary && heapEnd > Integer.MAX_VALUE) {
+            throw new FitsException("Heap exceeds 2GB, use a Q column format instead of " + column.tform);
+        }
+        return heapEnd + (long) Array.getLength(data) * ArrayFuncs.getBaseLength(data);
+    }
+
+    private void checkColumnCount(int count) throws FitsException {
+        if (this.closed) {
+            throw new FitsException("Binary table writer already closed");
+        }
+        if (count != this.columns.length) {
+            throw new FitsException("Expected " + this.columns.length + " columns but got " + count);
+        }
+    }
+
+    private void copyHeap() throws IOException {
+        if (this.heap == null) {
+            return;
+        }
+        this.heap.close();
+        InputStream in = new FileInputStream(this.heapFile);
+        try {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                this.out.write(buffer, 0, n);
+            }
+        } finally {
+            SafeClose.close(in);
+        }
+    }
+
+    private void patchHeader() throws FitsException, IOException {
+        if (!(this.out instanceof RandomAccess)) {
+            throw new FitsException("Header declares NAXIS2=" + this.header.getLongValue(NAXIS2) + " and PCOUNT=" + this.header.getLongValue(PCOUNT) + " but " + this.nRow
+                    + " rows and " + this.heapSize + " heap bytes were written to an output that cannot be repositioned");
+        }
+        long end = FitsUtil.findOffset(this.out);
+        this.header.addValue(NAXIS2, this.nRow);
+        this.header.addValue(PCOUNT, this.heapSize);
+        if (this.header.getSize() != this.headerSize) {
+            throw new FitsException("Header no longer fits the " + this.headerSize + " bytes written for it");
+        }
+        FitsUtil.reposition(this.out, this.headerOffset);
+        this.header.write(this.out);
+        FitsUtil.reposition(this.out, end);
+    }
+
+    /**
+     * Write an element already converted by {@link Column#convert(Object)}.
+     */
+    private void writeValue(Column column, Object data) throws IOException {
+        if (!column.isVarying) {
+            this.out.writeArray(data);
+            return;
+        }
+        if (this.heap == null) {
+            this.heapFile = File.createTempFile("fits-heap", ".tmp");
+            this.heap = new BufferedDataOutputStream(new FileOutputStream(this.heapFile));
+        }
+        int length = Array.getLength(data);
+        int count = column.isComplex ? length / 2 : length;
+        if (column.isLongVary) {
+            this.out.writeLong(count);
+            this.out.writeLong(this.heapSize);
+        } else {
+            this.out.writeInt(count);
+            this.out.writeInt((int) this.heapSize);
+        }
+        this.heap.writeArray(data);
+        this.heapSize += (long) length * ArrayFuncs.getBaseLength(data);
+    }
+
+    /**
+     * The parsed TFORM of a column.
+     */
+    private static final class Column {
+
+        private final String tform;
+
+        private final boolean isVarying;
+
+        private final boolean isLongVary;
+
+        private final boolean isComplex;
+
+        private final char type;
+
+        /** number of primitive values per row, for fixed length columns */
+        private final int count;
+
+        /** the primitive type in which the values are written */
+        private final Class<?> base;
+
+        private Column(String tform) throws FitsException {
+            this.tform = tform;
+            int pos = 0;
+            while (pos < tform.length() && Character.isDigit(tform.charAt(pos))) {
+                pos++;
+            }
+            int repeat = pos == 0 ? 1 : Integer.parseInt(tform.substring(0, pos));
+            if (pos >= tform.length()) {
+                throw new FitsException("Invalid TFORM " + tform);
+            }
+            char code = tform.charAt(pos);
+            this.isVarying = code == 'P' || code == 'Q';
+            this.isLongVary = code == 'Q';
+            if (this.isVarying) {
+                if (pos + 1 >= tform.length()) {
+                    throw new FitsException("Invalid TFORM " + tform);
+                }
+                code = tform.charAt(pos + 1);
+            }
+            this.type = code;
+            this.isComplex = code == 'C' || code == 'M';
+            this.base = baseOf(code);
+            if (this.base == null) {
+                throw new FitsException("Unsupported column format " + tform);
+            }
+            this.count = this.isComplex ? 2 * repeat : repeat;
+        }
+
+        private static Class<?> baseOf(char code) {
+            switch (code) {
+                case 'L':
+                case 'B':
+                case 'A':
+                    return byte.class;
+                case 'I':
+                    return short.class;
+                case 'J':
+                    return int.class;
+                case 'K':
+                    return long.class;
+                case 'E':
+                case 'C':
+                    return float.class;
+                case 'D':
+                case 'M':
+                    return double.class;
+                default:
+                    return null;
+            }
+        }
+
+        private int byteSize() {
+            if (this.isVarying) {
+                return this.isLongVary ? 2 * FitsIO.BYTES_IN_LONG : 2 * FitsIO.BYTES_IN_INTEGER;
+            }
+            return this.count * ArrayFuncs.getBaseLength(Array.newInstance(this.base, 0));
+        }
+
+        /**
+         * @return true if the column batch is a one-dimensional primitive
+         *         array that can be written without per-row conversion.
+         */
+        private boolean isFlat(Object data) {
+            return !this.isVarying && this.type != 'A' && this.count > 0 && data.getClass().isArray() && data.getClass().getComponentType().isPrimitive();
+        }
+
+        private int rowsOf(Object data) throws FitsException {
+            int length = Array.getLength(data);
+            if (!isFlat(data)) {
+                return length;
+            }
+            if (length % this.count != 0) {
+                throw new FitsException("Column length " + length + " is not a multiple of the row size of column format " + this.tform);
+            }
+            return length / this.count;
+        }
+
+        /**
+         * Convert an element to the primitive representation that is written,
+         * i.e. flatten arrays and turn booleans and strings into bytes.
+         */
+        private Object toBytes(Object element) throws FitsException {
+            if (element instanceof String) {
+                return stringBytes(new String[]{
+                    (String) element
+                });
+            }
+            Object flat = ArrayFuncs.flatten(element);
+            if (flat instanceof boolean[]) {
+                return FitsUtil.booleanToByte((boolean[]) flat);
+            }
+            if (flat instanceof String[]) {
+                return stringBytes((String[]) flat);
+            }
+            return flat;
+        }
+
+        private byte[] stringBytes(String[] strings) throws FitsException {
+            if (this.isVarying) {
+                return FitsUtil.stringsToByteArray(strings, FitsUtil.maxLength(strings));
+            }
+            if (strings.length == 0 || this.count % strings.length != 0) {
+                throw new FitsException("Cannot fit " + strings.length + " strings into column format " + this.tform);
+            }
+            return FitsUtil.stringsToByteArray(strings, this.count / strings.length);
+        }
+
+        /**
+         * Convert an element to the primitive representation that is written
+         * and check that it fits the column.
+         */
+        private Object convert(Object element) throws FitsException {
+            Object data = toBytes(element);
+            int length = Array.getLength(data);
+            boolean fits;
+            if (this.isVarying) {
+                fits = ArrayFuncs.getBaseClass(data) == this.base && !(this.isComplex && length % 2 != 0);
+            } else {
+                fits = length == this.count && ArrayFuncs.getBaseClass(data) == this.base;
+            }
+            if (!fits) {
+                throw new FitsException("Element of type " + element.getClass().getName() + " does not fit column format " + this.tform);
+            }
+            return data;
+        }
+
+        /**
+         * Check that a one-dimensional primitive batch column can be written
+         * with {@link #writeSlice(ArrayDataOutput, Object, int)}.
+         */
+        private void checkFlat(Object data) throws FitsException {
+            if (!(data instanceof boolean[] && this.type == 'L') && data.getClass().getComponentType() != this.base) {
+                throw new FitsException("Column of type " + data.getClass().getName() + " does not fit column format " + this.tform);
+            }
+        }
+
+        private void writeSlice(ArrayDataOutput out, Object data, int offset) throws IOException {
+            if (data instanceof boolean[]) {
+                boolean[] values = (boolean[]) data;
+                for (int i = offset; i < offset + this.count; i++) {
+                    out.writeByte(values[i] ? 'T' : 'F');
+                }
+                return;
+            }
+            if (data instanceof byte[]) {
+                out.write((byte[]) data, offset, this.count);
+            } else if (data instanceof short[]) {
+                out.write((short[]) data, offset, this.count);
+            } else if (data instanceof int[]) {
+                out.write((int[]) data, offset, this.count);
+            } else if (data instanceof long[]) {
+                out.write((long[]) data, offset, this.count);
+            } else if (data instanceof float[]) {
+                out.write((float[]) data, offset, this.count);
+            } else {
+                out.write((double[]) data, offset, this.count);
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package nom.tam.fits;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+
+import nom.tam.util.ArrayFuncs;
+import nom.tam.util.FitsIO;
+import nom.tam.util.PositionalReader;
+import nom.tam.util.RandomAccess;
+
+/**
+ * Reads a single column of a binary table directly from the file, without
+ * reading the rest of the table. If the other columns of a row are narrow the
+ * rows are read in large blocks and the column is picked out of them, else only
+ * the bytes of the column are read from each row.
+ */
+final class DeferredColumnReader {
+
+    /**
+     * the preferred number of bytes read at once when reading blocks of rows.
+     */
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * the number of bytes between two cells of the column above which the bytes
+     * in between are skipped instead of read.
+     */
+    private static final int MAX_READ_GAP = 16 * 1024;
+
+    /**
+     * Utility class, do not instantiate it.
+     */
+    private DeferredColumnReader() {
+    }
+
+    /**
+     * @return the flattened column in the representation of the column table,
+     *         i.e. before strings, booleans or variable length data are
+     *         converted.
+     * @param table
+     *            the binary table whose data was not read yet
+     * @param in
+     *            the input the table was read from
+     * @param col
+     *            the column to read
+     * @throws FitsException
+     *             if the column could not be read
+     */
+    static Object read(BinaryTable table, RandomAccess in, int col) throws FitsException {
+        int rowLen = 0;
+        int colStart = 0;
+        for (int i = 0; i < table.getNCols(); i++) {
+            Object cell = table.getDescriptor(i).newInstance(1);
+            if (i == col) {
+                colStart = rowLen;
+            }
+            rowLen += Array.getLength(cell) * ArrayFuncs.getBaseLength(cell);
+        }
+        if (table.getNRowsLong() > Integer.MAX_VALUE) {
+            throw new FitsException("Columns of more than 2 G rows cannot be read into an array, use a RowCursor");
+        }
+        int nRow = table.getNRows();
+        Object column = table.getDescriptor(col).newInstance(nRow);
+        if (nRow == 0 || Array.getLength(column) == 0) {
+            return column;
+        }
+        int count = Array.getLength(column) / nRow;
+        int cellBytes = count * ArrayFuncs.getBaseLength(column);
+        long start = table.getFileOffset();
+        try {
+            if (rowLen - cellBytes > MAX_READ_GAP) {
+                ByteBuffer cell = ByteBuffer.wrap(new byte[cellBytes]);
+                for (int row = 0; row < nRow; row++) {
+                    PositionalReader.readFully(in, start + (long) row * rowLen + colStart, cell.array(), 0, cellBytes);
+                    decode(cell, 0, column, row * count, count);
+                }
+            } else {
+                int blockRows = Math.max(1, Math.min(nRow, BLOCK_SIZE / rowLen));
+                ByteBuffer block = ByteBuffer.wrap(new byte[blockRows * rowLen]);
+                for (int row = 0; row < nRow; row += blockRows) {
+                    int rows = Math.min(blockRows, nRow - row);
+                    PositionalReader.readFully(in, start + (long) row * rowLen, block.array(), 0, rows * rowLen);
+                    for (int i = 0; i < rows; i++) {
+                        decode(block, i * rowLen + colStart, column, (row + i) * count, count);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new FitsException("Error in deferred column read", e);
+        }
+        return column;
+    }
+
+    private static void decode(ByteBuffer buffer, int position, Object column, int offset, int count) throws FitsException {
+        if (column instanceof byte[]) {
+            System.arraycopy(buffer.array(), position, column, offset, count);
+        } else if (column instanceof short[]) {
+            short[] values = (short[]) column;
+            for (int i = 0; i < count; i++) {
+                values[offset + i] = buffer.getShort(position + i * FitsIO.BYTES_IN_SHORT);
+            }
+        } else if (column instanceof int[]) {
+            int[] values = (int[]) column;
+            for (int i = 0; i < count; i++) {
+                values[offset + i] = buffer.getInt(position + i * FitsIO.BYTES_IN_INTEGER);
+            }
+        } else if (column instanceof long[]) {
+            long[] values = (long[]) column;
+            for (int i = 0; i < count; i++) {
+                values[offset + i] = buffer.getLong(position + i * FitsIO.BYTES_IN_LONG);
+            }
+        } else if (column instanceof float[]) {
+            float[] values = (float[]) column;
+            for (int i = 0; i < count; i++) {
+                values[offset + i] = buffer.getFloat(position + i * FitsIO.BYTES_IN_FLOAT);
+            }
+        } else if (column instanceof double[]) {
+            double[] values = (double[]) column;
+            for (int i = 0; i < count; i++) {
+                values[offset + i] = buffer.getDouble(position + i * FitsIO.BYTES_IN_DOUBLE);
+            }
+        } else {
+            throw new FitsException("Unsupported column type for deferred read: " + column.getClass().getName());
+        }
+    }
+}
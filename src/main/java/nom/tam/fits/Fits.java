@@ -31,6 +31,9 @@ package nom.tam.fits;
  * #L%
  */
 
+import static nom.tam.fits.header.Standard.EXTNAME;
+import static nom.tam.fits.header.Standard.EXTVER;
+
 import java.io.Closeable;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
@@ -41,7 +44,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.logging.Level;
@@ -55,6 +60,7 @@ import nom.tam.util.ArrayDataOutput;
 import nom.tam.util.BufferedDataInputStream;
 import nom.tam.util.BufferedDataOutputStream;
 import nom.tam.util.BufferedFile;
+import nom.tam.util.MappedFile;
 import nom.tam.util.RandomAccess;
 import nom.tam.util.SafeClose;
 
@@ -155,6 +161,22 @@ public class Fits implements Closeable {
      */
     private long lastFileOffset = -1;
 
+    /**
+     * The file opened for random access, or null.
+     */
+    private File randomFile;
+
+    /**
+     * The index of the HDUs in the input, or null if it was not built.
+     */
+    private HDUIndex index;
+
+    /**
+     * HDUs read through the index ahead of the sequential reads, by the file
+     * offset of their header.
+     */
+    private final Map<Long, BasicHDU<?>> indexedHDUs = new HashMap<Long, BasicHDU<?>>();
+
     /**
      * Create an empty Fits object which is not associated with an input stream.
      */
@@ -487,6 +509,9 @@ public class Fits implements Closeable {
      */
     public BasicHDU<?> getHDU(int n) throws FitsException, IOException {
         int size = getNumberOfHDUs();
+        if (n > size && this.index != null) {
+            return n < this.index.size() ? readIndexedHDU(n) : null;
+        }
         for (int i = size; i <= n; i += 1) {
             BasicHDU<?> hdu = readHDU();
             if (hdu == null) {
@@ -496,6 +521,97 @@ public class Fits implements Closeable {
         return this.hduList.get(n);
     }
 
+    /**
+     * @return the first HDU with the given EXTNAME, or null if there is none.
+     *         Without an index (see {@link #getIndex()}) the HDUs are read
+     *         until the extension is found.
+     * @param extName
+     *            the extension name
+     * @throws FitsException
+     *             if a header could not be read
+     * @throws IOException
+     *             if the underlying buffer threw an error
+     */
+    public BasicHDU<?> getHDU(String extName) throws FitsException, IOException {
+        return getHDU(extName, -1);
+    }
+
+    /**
+     * @return the first HDU with the given EXTNAME and EXTVER, or null if there
+     *         is none.
+     * @param extName
+     *            the extension name
+     * @param extVer
+     *            the extension version, or -1 to match any version
+     * @throws FitsException
+     *             if a header could not be read
+     * @throws IOException
+     *             if the underlying buffer threw an error
+     */
+    public BasicHDU<?> getHDU(String extName, int extVer) throws FitsException, IOException {
+        if (this.index != null) {
+            int n = extVer < 0 ? this.index.indexOf(extName) : this.index.indexOf(extName, extVer);
+            return n < 0 ? null : getHDU(n);
+        }
+        for (int n = 0;; n++) {
+            BasicHDU<?> hdu = getHDU(n);
+            if (hdu == null) {
+                return null;
+            }
+            String name = hdu.getHeader().getStringValue(EXTNAME);
+            if (name != null && name.trim().equals(extName) && (extVer < 0 || hdu.getHeader().getIntValue(EXTVER, 1) == extVer)) {
+                return hdu;
+            }
+        }
+    }
+
+    /**
+     * Build an index of the HDUs of the file with one scan over its headers.
+     * Once built, {@link #getHDU(int)}, {@link #getHDU(String)} and
+     * {@link #skipHDU()} no longer need to parse the headers in front of the
+     * requested HDU.
+     * 
+     * @return the index of the HDUs in the file
+     * @throws FitsException
+     *             if the Fits object was not opened for random access, or the
+     *             file could not be scanned
+     */
+    public HDUIndex getIndex() throws FitsException {
+        if (this.index == null) {
+            if (!(this.dataStr instanceof RandomAccess)) {
+                throw new FitsException("An HDU index requires a random access input");
+            }
+            this.index = HDUIndex.scan((RandomAccess) this.dataStr);
+        }
+        return this.index;
+    }
+
+    /**
+     * Like {@link #getIndex()}, but the index is read from the sidecar file if
+     * that still matches the length and modification time of the FITS file,
+     * and saved to it otherwise.
+     * 
+     * @param sidecar
+     *            the file keeping the index
+     * @return the index of the HDUs in the file
+     * @throws FitsException
+     *             if the file could not be scanned
+     * @throws IOException
+     *             if the sidecar could not be read or written
+     */
+    public HDUIndex getIndex(File sidecar) throws FitsException, IOException {
+        if (this.index == null && this.randomFile != null) {
+            this.index = HDUIndex.read(sidecar, this.randomFile);
+        }
+        if (this.index == null) {
+            getIndex();
+            if (this.randomFile != null) {
+                this.index.write(sidecar, this.randomFile);
+            }
+        }
+        return this.index;
+    }
+
     /**
      * Get the current number of HDUs in the Fits object.
      * 
@@ -560,7 +676,8 @@ public class Fits implements Closeable {
     }
 
     /**
-     * Initialize using buffered random access. This implies that the data is
+     * Initialize using buffered (or memory mapped if enabled in the
+     * {@link FitsFactory}) random access. This implies that the data is
      * uncompressed.
      * 
      * @param file
@@ -578,8 +695,13 @@ public class Fits implements Closeable {
             permissions += "w";
         }
         try {
-            this.dataStr = new BufferedFile(file, permissions);
-            ((BufferedFile) this.dataStr).seek(0);
+            this.randomFile = file;
+            if (FitsFactory.getUseMappedFiles()) {
+                this.dataStr = new MappedFile(file, permissions);
+            } else {
+                this.dataStr = new BufferedFile(file, permissions);
+            }
+            ((RandomAccess) this.dataStr).seek(0);
         } catch (IOException e) {
             throw new FitsException("Unable to open file " + file.getPath(), e);
         }
@@ -641,6 +763,14 @@ public class Fits implements Closeable {
         if (this.dataStr instanceof RandomAccess && this.lastFileOffset > 0) {
             FitsUtil.reposition(this.dataStr, this.lastFileOffset);
         }
+        BasicHDU<?> indexed = this.indexedHDUs.remove(FitsUtil.findOffset(this.dataStr));
+        if (indexed != null) {
+            this.lastFileOffset = indexedEnd(indexed.getHeader().getFileOffset());
+            // leave the stream behind the HDU, as after a sequential read.
+            FitsUtil.reposition(this.dataStr, this.lastFileOffset);
+            this.hduList.add(indexed);
+            return indexed;
+        }
         Header hdr = Header.readHeader(this.dataStr);
         if (hdr == null) {
             this.atEOF = true;
@@ -659,6 +789,41 @@ public class Fits implements Closeable {
         return nextHDU;
     }
 
+    /**
+     * Read an HDU beyond the ones read so far, at the position given by the
+     * index. The HDU joins the list of HDUs when the sequential reads reach it.
+     */
+    private BasicHDU<?> readIndexedHDU(int n) throws FitsException, IOException {
+        long offset = this.index.getHeaderOffset(n);
+        BasicHDU<?> hdu = this.indexedHDUs.get(offset);
+        if (hdu == null) {
+            long position = FitsUtil.findOffset(this.dataStr);
+            try {
+                FitsUtil.reposition(this.dataStr, offset);
+                Header hdr = Header.readHeader(this.dataStr);
+                if (hdr == null) {
+                    return null;
+                }
+                Data data = hdr.makeData();
+                data.read(this.dataStr);
+                hdu = FitsFactory.hduFactory(hdr, data);
+                this.indexedHDUs.put(offset, hdu);
+            } finally {
+                FitsUtil.reposition(this.dataStr, position);
+            }
+        }
+        return hdu;
+    }
+
+    /**
+     * @return the file offset following the HDU with the given header offset
+     *         according to the index, or -1 if it is not indexed.
+     */
+    private long indexedEnd(long headerOffset) {
+        int n = this.index == null ? -1 : this.index.indexOfOffset(headerOffset);
+        return n < 0 ? -1 : this.index.getDataOffset(n) + this.index.getDataSize(n);
+    }
+
     /**
      * Read to the end of the associated input stream
      * 
@@ -746,8 +911,12 @@ public class Fits implements Closeable {
      *             if the underlying stream failed
      */
     public void skipHDU() throws FitsException, IOException {
+        long end = this.dataStr instanceof RandomAccess ? indexedEnd(FitsUtil.findOffset(this.dataStr)) : -1;
         if (this.atEOF) {
             return;
+        } else if (end >= 0) {
+            FitsUtil.reposition(this.dataStr, end);
+            this.lastFileOffset = end;
         } else {
             Header hdr = new Header(this.dataStr);
             int dataSize = (int) hdr.getDataSize();
@@ -826,6 +995,12 @@ public class Fits implements Closeable {
             } catch (IOException e) {
                 throw new FitsException("Error resizing the FITS output stream: " + e, e);
             }
+        } else if (obs instanceof MappedFile) {
+            try {
+                ((MappedFile) obs).setLength(((MappedFile) obs).getFilePointer());
+            } catch (IOException e) {
+                throw new FitsException("Error resizing the FITS output stream: " + e, e);
+            }
         }
     }
 
@@ -1,5 +1,6 @@
 package nom.tam.fits;
 
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -10,6 +11,7 @@ import nom.tam.image.compression.hdu.CompressedImageData;
 import nom.tam.image.compression.hdu.CompressedImageHDU;
 import nom.tam.image.compression.hdu.CompressedTableData;
 import nom.tam.image.compression.hdu.CompressedTableHDU;
+import nom.tam.image.tile.operation.IExecutableTile;
 
 /*
  * #%L
@@ -64,6 +66,16 @@ public final class FitsFactory {
 
         private boolean longStringsEnabled = false;
 
+        private boolean useMappedFiles = false;
+
+        private boolean useParallelTableReads = false;
+
+        private long heapCacheSize = 0;
+
+        private ExecutorService threadPool;
+
+        private int maxPendingTiles = DEFAULT_MAX_PENDING_TILES;
+
         private IHierarchKeyFormatter hierarchKeyFormatter = new StandardIHierarchKeyFormatter();
 
         private FitsSettings copy() {
@@ -73,12 +85,23 @@ public final class FitsFactory {
             settings.checkAsciiStrings = this.checkAsciiStrings;
             settings.allowTerminalJunk = this.allowTerminalJunk;
             settings.longStringsEnabled = this.longStringsEnabled;
+            settings.useMappedFiles = this.useMappedFiles;
+            settings.useParallelTableReads = this.useParallelTableReads;
+            settings.heapCacheSize = this.heapCacheSize;
+            settings.threadPool = this.threadPool;
+            settings.maxPendingTiles = this.maxPendingTiles;
             settings.hierarchKeyFormatter = this.hierarchKeyFormatter;
             return settings;
         }
 
     }
 
+    /**
+     * default number of tiles submitted to the thread pool before the
+     * submitting thread waits for the oldest one to finish.
+     */
+    private static final int DEFAULT_MAX_PENDING_TILES = Runtime.getRuntime().availableProcessors() * 4;
+
     private static final FitsSettings GLOBAL_SETTINGS = new FitsSettings();
 
     private static final ThreadLocal<FitsSettings> LOCAL_SETTINGS = new ThreadLocal<FitsSettings>();
@@ -143,6 +166,22 @@ public final class FitsFactory {
         return current().checkAsciiStrings;
     }
 
+    /**
+     * @return the number of bytes of the heap of a binary table that are
+     *         cached when variable length data is read directly from the file.
+     */
+    public static long getHeapCacheSize() {
+        return current().heapCacheSize;
+    }
+
+    /**
+     * @return the maximum number of tiles that are submitted to the thread
+     *         pool at the same time.
+     */
+    public static int getMaxPendingTiles() {
+        return current().maxPendingTiles;
+    }
+
     /**
      * @return <code>true</code> if we are processing HIERARCH style keywords
      */
@@ -150,6 +189,22 @@ public final class FitsFactory {
         return current().useHierarch;
     }
 
+    /**
+     * @return <code>true</code> if uncompressed files are accessed through
+     *         memory mapped windows instead of a buffered file.
+     */
+    public static boolean getUseMappedFiles() {
+        return current().useMappedFiles;
+    }
+
+    /**
+     * @return <code>true</code> if the columns of binary tables are decoded
+     *         concurrently on the {@link #threadPool()} when a table is read.
+     */
+    public static boolean getUseParallelTableReads() {
+        return current().useParallelTableReads;
+    }
+
     /**
      * @return Given Header and data objects return the appropriate type of HDU.
      * @param hdr
@@ -303,6 +358,22 @@ public final class FitsFactory {
         current().checkAsciiStrings = checkAsciiStrings;
     }
 
+    /**
+     * Limit the number of tiles that are submitted to the thread pool at the
+     * same time, when the limit is reached the submitting thread waits for the
+     * oldest tile to finish. This keeps the memory for the pending tiles (and
+     * the queue of the pool) bounded for large images and tables.
+     *
+     * @param maxPendingTiles
+     *            the maximum number of pending tiles, at least 1.
+     */
+    public static void setMaxPendingTiles(int maxPendingTiles) {
+        if (maxPendingTiles < 1) {
+            throw new IllegalArgumentException("at least one tile must be allowed to be pending");
+        }
+        current().maxPendingTiles = maxPendingTiles;
+    }
+
     /**
      * Enable/Disable longstring support.
      *
@@ -352,13 +423,93 @@ public final class FitsFactory {
         current().useHierarch = useHierarch;
     }
 
+    /**
+     * Enable/Disable the use of memory mapped files (see
+     * {@link nom.tam.util.MappedFile}) when a Fits object is associated with
+     * an uncompressed file. Disabled by default.
+     *
+     * @param useMappedFiles
+     *            value to set
+     */
+    public static void setUseMappedFiles(boolean useMappedFiles) {
+        current().useMappedFiles = useMappedFiles;
+    }
+
+    /**
+     * Set the number of bytes of a heap that are cached in pages (least
+     * recently used first out) when variable length data of a binary table is
+     * read directly from a random access file instead of loading the whole
+     * heap. 0, the default, disables the cache, so every element is read from
+     * the file.
+     *
+     * @param heapCacheSize
+     *            the cache size in bytes
+     */
+    public static void setHeapCacheSize(long heapCacheSize) {
+        current().heapCacheSize = heapCacheSize;
+    }
+
+    /**
+     * Enable/Disable decoding the columns of binary tables concurrently on the
+     * {@link #threadPool()} when the table is read. Disabled by default.
+     *
+     * @param useParallelTableReads
+     *            value to set
+     */
+    public static void setUseParallelTableReads(boolean useParallelTableReads) {
+        current().useParallelTableReads = useParallelTableReads;
+    }
+
+    /**
+     * Use the given executor to process the tiles of compressed images and
+     * tables, instead of the shared default pool of the library. Together with
+     * {@link #useThreadLocalSettings(boolean)} every job can use its own
+     * executor. Any {@link ExecutorService} can be used, on java 7 or later
+     * that includes a work stealing <code>ForkJoinPool</code>. The executor
+     * is not shut down by the library.
+     *
+     * @param threadPool
+     *            the executor to use or null to use the default pool again.
+     */
+    public static void setThreadPool(ExecutorService threadPool) {
+        current().threadPool = threadPool;
+    }
+
+    /**
+     * @return the executor to process the tiles of compressed images and
+     *         tables with, the one set by {@link #setThreadPool(ExecutorService)}
+     *         or the shared default pool.
+     */
     public static ExecutorService threadPool() {
+        ExecutorService settingsPool = current().threadPool;
+        if (settingsPool != null) {
+            return settingsPool;
+        }
         if (threadPool == null) {
             initializeThreadPool();
         }
         return threadPool;
     }
 
+    /**
+     * submit the tiles to the {@link #threadPool()}, but never more than
+     * {@link #getMaxPendingTiles()} at once. Tiles are waited for in submission
+     * order, that also respects the dependency of a tile on its predecessor.
+     *
+     * @param tiles
+     *            the tiles to process
+     */
+    public static void executeTiles(List<? extends IExecutableTile> tiles) {
+        ExecutorService pool = threadPool();
+        int maxPendingTiles = getMaxPendingTiles();
+        for (int index = 0; index < tiles.size(); index++) {
+            if (index >= maxPendingTiles) {
+                tiles.get(index - maxPendingTiles).waitForResult();
+            }
+            tiles.get(index).execute(pool);
+        }
+    }
+
     /**
      * Use thread local settings for the current thread instead of the global
      * ones if the parameter is set to true, else use the shared global
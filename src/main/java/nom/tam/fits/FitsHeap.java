@@ -31,76 +31,192 @@ package nom.tam.fits;
  * #L%
  */
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import nom.tam.util.ArrayDataInput;
 import nom.tam.util.ArrayDataOutput;
 import nom.tam.util.ArrayFuncs;
-import nom.tam.util.BufferedDataInputStream;
-import nom.tam.util.BufferedDataOutputStream;
+import nom.tam.util.AsciiFuncs;
+import nom.tam.util.FitsIO;
+import nom.tam.util.PositionalReader;
+import nom.tam.util.RandomAccess;
 
 /**
  * This class supports the FITS heap. This is currently used for variable length
- * columns in binary tables.
+ * columns in binary tables. A heap that was skipped on a random access input is
+ * not loaded until it is modified or written; until then elements are read
+ * directly from the file, optionally through a LRU cache of heap pages (see
+ * {@link FitsFactory#setHeapCacheSize(long)}). Elements are decoded and encoded
+ * directly at their absolute offset in the heap buffer, so the order in which
+ * they are accessed does not matter. The heap is addressed with long offsets
+ * and kept in segments, so that it may grow beyond 2 GB. Elements of a file
+ * backed heap may be read by several threads at once.
  */
 public class FitsHeap implements FitsElement {
 
     private static final int MINIMUM_HEAP_SIZE = 16384;
 
     /**
-     * The storage buffer
+     * size of the pages cached for a heap that is read from the file.
      */
-    private byte[] heap;
+    static final int PAGE_SIZE = 64 * 1024;
 
     /**
-     * The current used size of the buffer <= heap.length
+     * the size of the segments of a heap in memory.
      */
-    private int heapSize;
+    static final int SEGMENT_SIZE = 1024 * 1024 * 1024;
 
     /**
-     * Our current offset into the heap. When we read from the heap we use a
-     * byte array input stream. So long as we continue to read further into the
-     * heap, we can continue to use the same stream, but we need to recreate the
-     * stream whenever we skip backwards.
+     * the largest heap that can be held in segments.
      */
-    private int heapOffset = 0;
+    static final long MAX_SIZE = (long) Integer.MAX_VALUE * SEGMENT_SIZE;
 
     /**
-     * A stream used to read the heap data
+     * A LRU cache of the pages of a file backed heap.
      */
-    private BufferedDataInputStream bstr;
+    private static final class PageCache extends LinkedHashMap<Long, byte[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxPages;
+
+        private PageCache(int maxPages) {
+            super(maxPages, DEFAULT_LOAD_FACTOR, true);
+            this.maxPages = maxPages;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > this.maxPages;
+        }
+    }
+
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    /**
+     * The size of all segments but the last one.
+     */
+    private final int segmentSize;
+
+    /**
+     * The storage buffer, split in segments. Only the last segment may be
+     * shorter than the segment size.
+     */
+    private byte[][] segments;
+
+    /**
+     * Big endian views of the segments, only accessed with absolute indexes.
+     */
+    private ByteBuffer[] views;
+
+    /**
+     * The current used size of the segments.
+     */
+    private long heapSize;
+
+    /**
+     * The file the heap is read from while it is not loaded, or null.
+     */
+    private RandomAccess input;
+
+    /**
+     * The position of the heap in the input.
+     */
+    private long inputOffset;
+
+    /**
+     * The cached pages of the file backed heap, or null if not cached.
+     */
+    private PageCache pages;
 
     /**
      * Create a heap of a given size.
      */
-    FitsHeap(int size) {
+    FitsHeap(long size) {
+        this(size, SEGMENT_SIZE);
+    }
+
+    /**
+     * Create a heap of a given size, stored in segments of the given size.
+     */
+    FitsHeap(long size, int segmentSize) {
         this.heapSize = size;
+        this.segmentSize = segmentSize;
         if (size < 0) {
             throw new IllegalArgumentException("Illegal size for FITS heap:" + size);
         }
     }
 
-    private void allocate() {
-        if (this.heap == null) {
-            this.heap = new byte[this.heapSize];
+    private void allocate() throws FitsException {
+        if (this.segments == null) {
+            byte[][] bytes = new byte[(int) ((this.heapSize + this.segmentSize - 1) / this.segmentSize)][];
+            for (int index = 0; index < bytes.length; index++) {
+                bytes[index] = new byte[(int) Math.min(this.segmentSize, this.heapSize - (long) index * this.segmentSize)];
+            }
+            setSegments(bytes);
+            if (this.input != null) {
+                this.pages = null;
+                for (int index = 0; index < bytes.length; index++) {
+                    readFromInput(this.input, null, (long) index * this.segmentSize, bytes[index], bytes[index].length);
+                }
+                detach();
+            }
+        }
+    }
+
+    /**
+     * Read the heap from the given position of a random access input on
+     * demand, instead of loading it.
+     *
+     * @param in
+     *            the input containing the heap
+     * @param offset
+     *            the position of the heap in the input
+     */
+    synchronized void attach(RandomAccess in, long offset) {
+        this.input = in;
+        this.inputOffset = offset;
+        setSegments(null);
+        long cacheSize = FitsFactory.getHeapCacheSize();
+        this.pages = cacheSize > 0 ? new PageCache((int) Math.max(1, Math.min(Integer.MAX_VALUE, cacheSize / PAGE_SIZE))) : null;
+    }
+
+    private void setSegments(byte[][] bytes) {
+        this.segments = bytes;
+        if (bytes == null) {
+            this.views = null;
+        } else {
+            this.views = new ByteBuffer[bytes.length];
+            for (int index = 0; index < bytes.length; index++) {
+                this.views[index] = ByteBuffer.wrap(bytes[index]);
+            }
         }
     }
 
+    private void detach() {
+        this.input = null;
+        this.pages = null;
+    }
+
     /**
      * Add a copy constructor to allow us to duplicate a heap. This would be
      * necessary if we wanted to copy an HDU that included variable length
      * columns.
      */
-    FitsHeap copy() {
-        FitsHeap copy = new FitsHeap(0);
-        if (this.heap != null) {
-            copy.heap = this.heap.clone();
+    synchronized FitsHeap copy() throws FitsException {
+        allocate();
+        FitsHeap copy = new FitsHeap(0, this.segmentSize);
+        byte[][] bytes = new byte[this.segments.length][];
+        for (int index = 0; index < bytes.length; index++) {
+            bytes[index] = this.segments[index].clone();
         }
+        copy.setSegments(bytes);
         copy.heapSize = this.heapSize;
-        copy.heapOffset = this.heapOffset;
         return copy;
     }
 
@@ -108,21 +224,30 @@ public class FitsHeap implements FitsElement {
      * Check if the Heap can accommodate a given requirement. If not expand the
      * heap.
      */
-    void expandHeap(int need) {
-
-        // Invalidate any existing input stream to the heap.
-        this.bstr = null;
+    synchronized void expandHeap(long need) throws FitsException {
         allocate();
-
-        if (this.heapSize + need > this.heap.length) {
-            int newlen = (this.heapSize + need) * 2;
-            if (newlen < MINIMUM_HEAP_SIZE) {
-                newlen = MINIMUM_HEAP_SIZE;
+        long required = this.heapSize + need;
+        int count = this.segments.length;
+        if (count > 0 && required <= (long) (count - 1) * this.segmentSize + this.segments[count - 1].length) {
+            return;
+        }
+        if ((required + this.segmentSize - 1) / this.segmentSize > Integer.MAX_VALUE) {
+            throw new FitsException("FITS Heap too large");
+        }
+        byte[][] grown = Arrays.copyOf(this.segments, (int) ((required + this.segmentSize - 1) / this.segmentSize));
+        for (int index = Math.max(0, count - 1); index < grown.length; index++) {
+            long start = (long) index * this.segmentSize;
+            int length = this.segmentSize;
+            if (index == grown.length - 1) {
+                length = (int) Math.min(this.segmentSize, Math.max(MINIMUM_HEAP_SIZE, (required - start) * 2));
+            }
+            byte[] segment = new byte[length];
+            if (index < count) {
+                System.arraycopy(this.segments[index], 0, segment, 0, this.segments[index].length);
             }
-            byte[] newHeap = new byte[newlen];
-            System.arraycopy(this.heap, 0, newHeap, 0, this.heapSize);
-            this.heap = newHeap;
+            grown[index] = segment;
         }
+        setSegments(grown);
     }
 
     /**
@@ -135,22 +260,239 @@ public class FitsHeap implements FitsElement {
      * @throws FitsException
      *             if the operation failed
      */
-    public void getData(int offset, Object array) throws FitsException {
+    public void getData(long offset, Object array) throws FitsException {
+        if (offset < 0 || offset > this.heapSize) {
+            throw new FitsException("Error decoding heap area at offset=" + offset + ", beyond the end of the heap");
+        }
+        RandomAccess in;
+        PageCache cache;
+        synchronized (this) {
+            in = this.segments == null ? this.input : null;
+            cache = this.pages;
+            if (in == null) {
+                getDataFromMemory(offset, array);
+                return;
+            }
+        }
+        getDataFromInput(in, cache, offset, array);
+    }
+
+    private void getDataFromMemory(long offset, Object array) throws FitsException {
         allocate();
-        try {
-            // Can we reuse the existing byte stream?
-            if (this.bstr == null || this.heapOffset > offset) {
-                this.heapOffset = 0;
-                this.bstr = new BufferedDataInputStream(new ByteArrayInputStream(this.heap));
+        int size = (int) Math.min(ArrayFuncs.computeLSize(array), this.heapSize - offset);
+        int position = (int) (offset % this.segmentSize);
+        if (size == 0) {
+            return;
+        } else if (position + size <= this.segmentSize) {
+            decode(this.views[(int) (offset / this.segmentSize)], position, position + size, array);
+        } else {
+            byte[] bytes = new byte[size];
+            transfer(offset, bytes, size, false);
+            decode(ByteBuffer.wrap(bytes), 0, size, array);
+        }
+    }
+
+    /**
+     * Decode an array from the given absolute position of a big endian buffer.
+     * Like a stream that hits its end, elements that would extend beyond limit
+     * are left untouched.
+     * 
+     * @return the position following the decoded data
+     */
+    private static int decode(ByteBuffer buffer, int position, int limit, Object array) throws FitsException {
+        int pos = position;
+        if (array instanceof byte[]) {
+            byte[] b = (byte[]) array;
+            int n = Math.max(0, Math.min(b.length, limit - pos));
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + pos, b, 0, n);
+            pos += n;
+        } else if (array instanceof boolean[]) {
+            boolean[] b = (boolean[]) array;
+            for (int i = 0; i < b.length && pos < limit; i++, pos += FitsIO.BYTES_IN_BOOLEAN) {
+                b[i] = buffer.get(pos) == 1;
             }
+        } else if (array instanceof short[]) {
+            short[] s = (short[]) array;
+            for (int i = 0; i < s.length && pos + FitsIO.BYTES_IN_SHORT <= limit; i++, pos += FitsIO.BYTES_IN_SHORT) {
+                s[i] = buffer.getShort(pos);
+            }
+        } else if (array instanceof char[]) {
+            char[] c = (char[]) array;
+            for (int i = 0; i < c.length && pos + FitsIO.BYTES_IN_CHAR <= limit; i++, pos += FitsIO.BYTES_IN_CHAR) {
+                c[i] = buffer.getChar(pos);
+            }
+        } else if (array instanceof int[]) {
+            int[] n = (int[]) array;
+            for (int i = 0; i < n.length && pos + FitsIO.BYTES_IN_INTEGER <= limit; i++, pos += FitsIO.BYTES_IN_INTEGER) {
+                n[i] = buffer.getInt(pos);
+            }
+        } else if (array instanceof long[]) {
+            long[] l = (long[]) array;
+            for (int i = 0; i < l.length && pos + FitsIO.BYTES_IN_LONG <= limit; i++, pos += FitsIO.BYTES_IN_LONG) {
+                l[i] = buffer.getLong(pos);
+            }
+        } else if (array instanceof float[]) {
+            float[] f = (float[]) array;
+            for (int i = 0; i < f.length && pos + FitsIO.BYTES_IN_FLOAT <= limit; i++, pos += FitsIO.BYTES_IN_FLOAT) {
+                f[i] = buffer.getFloat(pos);
+            }
+        } else if (array instanceof double[]) {
+            double[] d = (double[]) array;
+            for (int i = 0; i < d.length && pos + FitsIO.BYTES_IN_DOUBLE <= limit; i++, pos += FitsIO.BYTES_IN_DOUBLE) {
+                d[i] = buffer.getDouble(pos);
+            }
+        } else if (array instanceof Object[] && !(array instanceof String[])) {
+            for (Object element : (Object[]) array) {
+                pos = decode(buffer, pos, limit, element);
+            }
+        } else {
+            throw new FitsException("Cannot decode heap data into " + (array == null ? null : array.getClass().getName()));
+        }
+        return pos;
+    }
+
+    /**
+     * Encode an array at the given absolute position of a big endian buffer.
+     * 
+     * @return the position following the encoded data
+     */
+    private static int encode(ByteBuffer buffer, int position, Object array) throws FitsException {
+        int pos = position;
+        if (array instanceof byte[]) {
+            byte[] b = (byte[]) array;
+            System.arraycopy(b, 0, buffer.array(), buffer.arrayOffset() + pos, b.length);
+            pos += b.length;
+        } else if (array instanceof boolean[]) {
+            boolean[] b = (boolean[]) array;
+            for (int i = 0; i < b.length; i++, pos += FitsIO.BYTES_IN_BOOLEAN) {
+                buffer.put(pos, b[i] ? (byte) 1 : (byte) 0);
+            }
+        } else if (array instanceof short[]) {
+            short[] s = (short[]) array;
+            for (int i = 0; i < s.length; i++, pos += FitsIO.BYTES_IN_SHORT) {
+                buffer.putShort(pos, s[i]);
+            }
+        } else if (array instanceof char[]) {
+            char[] c = (char[]) array;
+            for (int i = 0; i < c.length; i++, pos += FitsIO.BYTES_IN_CHAR) {
+                buffer.putChar(pos, c[i]);
+            }
+        } else if (array instanceof int[]) {
+            int[] n = (int[]) array;
+            for (int i = 0; i < n.length; i++, pos += FitsIO.BYTES_IN_INTEGER) {
+                buffer.putInt(pos, n[i]);
+            }
+        } else if (array instanceof long[]) {
+            long[] l = (long[]) array;
+            for (int i = 0; i < l.length; i++, pos += FitsIO.BYTES_IN_LONG) {
+                buffer.putLong(pos, l[i]);
+            }
+        } else if (array instanceof float[]) {
+            float[] f = (float[]) array;
+            for (int i = 0; i < f.length; i++, pos += FitsIO.BYTES_IN_FLOAT) {
+                buffer.putFloat(pos, f[i]);
+            }
+        } else if (array instanceof double[]) {
+            double[] d = (double[]) array;
+            for (int i = 0; i < d.length; i++, pos += FitsIO.BYTES_IN_DOUBLE) {
+                buffer.putDouble(pos, d[i]);
+            }
+        } else if (array instanceof String[]) {
+            for (String string : (String[]) array) {
+                pos = encode(buffer, pos, AsciiFuncs.getBytes(string));
+            }
+        } else if (array instanceof Object[]) {
+            for (Object element : (Object[]) array) {
+                pos = encode(buffer, pos, element);
+            }
+        } else {
+            throw new FitsException("Cannot encode " + (array == null ? null : array.getClass().getName()) + " in the heap");
+        }
+        return pos;
+    }
 
-            this.bstr.skipAllBytes(offset - this.heapOffset);
-            this.heapOffset = offset;
-            this.heapOffset += this.bstr.readLArray(array);
+    /**
+     * Copy bytes between the segments and a buffer, for data that crosses a
+     * segment boundary.
+     */
+    private void transfer(long offset, byte[] bytes, int length, boolean store) {
+        int done = 0;
+        while (done < length) {
+            long pos = offset + done;
+            byte[] segment = this.segments[(int) (pos / this.segmentSize)];
+            int inSegment = (int) (pos % this.segmentSize);
+            int n = Math.min(length - done, segment.length - inSegment);
+            if (store) {
+                System.arraycopy(bytes, done, segment, inSegment, n);
+            } else {
+                System.arraycopy(segment, inSegment, bytes, done, n);
+            }
+            done += n;
+        }
+    }
+
+    /**
+     * Read an element of the file backed heap. The file is read with
+     * positional reads, so this may run in several threads at once.
+     */
+    private void getDataFromInput(RandomAccess in, PageCache cache, long offset, Object array) throws FitsException {
+        try {
+            if (cache == null) {
+                PositionalReader.readArray(in, this.inputOffset + offset, array);
+            } else {
+                int size = (int) Math.min(ArrayFuncs.computeLSize(array), this.heapSize - offset);
+                int inPage = (int) (offset % PAGE_SIZE);
+                if (inPage + size <= PAGE_SIZE) {
+                    decode(ByteBuffer.wrap(page(in, cache, offset / PAGE_SIZE)), inPage, inPage + size, array);
+                } else {
+                    byte[] bytes = new byte[size];
+                    readFromInput(in, cache, offset, bytes, size);
+                    decode(ByteBuffer.wrap(bytes), 0, size, array);
+                }
+            }
+        } catch (IOException e) {
+            throw new FitsException("Error in deferred heap read at offset=" + offset, e);
+        }
+    }
 
+    /**
+     * Copy bytes of the file backed heap, through the page cache if there is
+     * one.
+     */
+    private void readFromInput(RandomAccess in, PageCache cache, long offset, byte[] bytes, int length) throws FitsException {
+        try {
+            if (cache == null) {
+                PositionalReader.readFully(in, this.inputOffset + offset, bytes, 0, length);
+                return;
+            }
+            int done = 0;
+            while (done < length) {
+                long pos = offset + done;
+                byte[] page = page(in, cache, pos / PAGE_SIZE);
+                int inPage = (int) (pos % PAGE_SIZE);
+                int n = Math.min(length - done, page.length - inPage);
+                System.arraycopy(page, inPage, bytes, done, n);
+                done += n;
+            }
         } catch (IOException e) {
-            throw new FitsException("Error decoding heap area at offset=" + offset + ".  Exception: Exception " + e);
+            throw new FitsException("Error in deferred heap read at offset=" + offset, e);
+        }
+    }
+
+    private byte[] page(RandomAccess in, PageCache cache, long index) throws IOException {
+        byte[] page;
+        synchronized (cache) {
+            page = cache.get(index);
+        }
+        if (page == null) {
+            long start = index * PAGE_SIZE;
+            page = new byte[(int) Math.min(PAGE_SIZE, this.heapSize - start)];
+            PositionalReader.readFully(in, this.inputOffset + start, page, 0, page.length);
+            synchronized (cache) {
+                cache.put(index, page);
+            }
         }
+        return page;
     }
 
     /**
@@ -166,36 +508,46 @@ public class FitsHeap implements FitsElement {
      */
     @Override
     public long getSize() {
-        return size();
+        return this.heapSize;
     }
 
     /**
      * Add some data to the heap.
+     * 
+     * @return the offset of the data in the heap
      */
-    int putData(Object data) throws FitsException {
-
+    synchronized long putData(Object data) throws FitsException {
         long lsize = ArrayFuncs.computeLSize(data);
         if (lsize > Integer.MAX_VALUE) {
-            throw new FitsException("FITS Heap > 2 G");
+            throw new FitsException("FITS Heap > 2 GB in a single element");
         }
         int size = (int) lsize;
         expandHeap(size);
-        ByteArrayOutputStream bo = new ByteArrayOutputStream(size);
-
-        try {
-            BufferedDataOutputStream o = new BufferedDataOutputStream(bo);
-            o.writeArray(data);
-            o.flush();
-            o.close();
-        } catch (IOException e) {
-            throw new FitsException("Unable to write variable column length data", e);
+        long offset = this.heapSize;
+        int position = (int) (offset % this.segmentSize);
+        if (position + size <= this.segmentSize) {
+            if (size > 0) {
+                encode(this.views[(int) (offset / this.segmentSize)], position, data);
+            }
+        } else {
+            byte[] bytes = new byte[size];
+            encode(ByteBuffer.wrap(bytes), 0, data);
+            transfer(offset, bytes, size, true);
         }
-
-        System.arraycopy(bo.toByteArray(), 0, this.heap, this.heapSize, size);
-        int oldOffset = this.heapSize;
         this.heapSize += size;
+        return offset;
+    }
 
-        return oldOffset;
+    /**
+     * Drop the data added after the heap had the given size.
+     * 
+     * @param size
+     *            the size the heap had before
+     */
+    synchronized void truncate(long size) {
+        if (size < this.heapSize) {
+            this.heapSize = size;
+        }
     }
 
     /**
@@ -203,19 +555,21 @@ public class FitsHeap implements FitsElement {
      */
     @SuppressFBWarnings(value = "RR_NOT_CHECKED", justification = "this read will never return less than the requested length")
     @Override
-    public void read(ArrayDataInput str) throws FitsException {
+    public synchronized void read(ArrayDataInput str) throws FitsException {
+        detach();
         if (this.heapSize > 0) {
+            setSegments(null);
             allocate();
             try {
-                if (str.read(this.heap, 0, this.heapSize) < this.heapSize) {
-                    throw new FitsException("Error reading heap, no more data");
+                for (byte[] segment : this.segments) {
+                    if (str.read(segment, 0, segment.length) < segment.length) {
+                        throw new FitsException("Error reading heap, no more data");
+                    }
                 }
             } catch (IOException e) {
                 throw new FitsException("Error reading heap " + e.getMessage(), e);
             }
         }
-
-        this.bstr = null;
     }
 
     @Override
@@ -235,19 +589,23 @@ public class FitsHeap implements FitsElement {
 
     /**
      * @return the size of the Heap
+     * @deprecated use {@link #getSize()}, the heap may be larger than 2 GB.
      */
+    @Deprecated
     public int size() {
-        return this.heapSize;
+        return (int) Math.min(Integer.MAX_VALUE, this.heapSize);
     }
 
     /**
      * Write the heap
      */
     @Override
-    public void write(ArrayDataOutput str) throws FitsException {
+    public synchronized void write(ArrayDataOutput str) throws FitsException {
         allocate();
         try {
-            str.write(this.heap, 0, this.heapSize);
+            for (int index = 0; index < this.segments.length; index++) {
+                str.write(this.segments[index], 0, (int) Math.min(this.segments[index].length, this.heapSize - (long) index * this.segmentSize));
+            }
         } catch (IOException e) {
             throw new FitsException("Error writing heap:" + e.getMessage(), e);
         }
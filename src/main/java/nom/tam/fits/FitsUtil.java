@@ -187,6 +187,22 @@ public final class FitsUtil {
         return bool;
     }
 
+    /**
+     * @return the value as an int.
+     * @param value
+     *            the value to convert
+     * @param what
+     *            the name of the value for the error message
+     * @throws IllegalStateException
+     *             if the value exceeds the int range
+     */
+    static int checkedInt(long value, String what) {
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The " + what + " of " + value + " exceeds the int range");
+        }
+        return (int) value;
+    }
+
     /**
      * @return Find out where we are in a random access file .
      * @param o
@@ -227,6 +243,20 @@ public final class FitsUtil {
         }
     }
 
+    /**
+     * @return a heap offset as the pointer of a 'P' descriptor.
+     * @param offset
+     *            the offset in the heap
+     * @throws FitsException
+     *             if the offset needs a 'Q' descriptor
+     */
+    static int heapPointer(long offset) throws FitsException {
+        if (offset > Integer.MAX_VALUE) {
+            throw new FitsException("Heap offset > 2 GB needs a 'Q' descriptor column");
+        }
+        return (int) offset;
+    }
+
     /**
      * @return Get the maximum length of a String in a String array.
      * @param strings
@@ -0,0 +1,422 @@
+package nom.tam.fits;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nom.tam.util.AsciiFuncs;
+import nom.tam.util.RandomAccess;
+import nom.tam.util.SafeClose;
+
+/**
+ * An index of the HDUs of a FITS file, giving the header offset, data offset,
+ * data size, EXTNAME and EXTVER of each HDU. The index is built with one scan
+ * over the headers that only looks at the few keywords it needs, and can be
+ * saved to a sidecar file that is reused as long as the FITS file keeps its
+ * length and modification time.
+ */
+public final class HDUIndex {
+
+    private static final int MAGIC = 0x48445558;
+
+    private static final int VERSION = 1;
+
+    private static final int CARDS_PER_BLOCK = FitsFactory.FITS_BLOCK_SIZE / HeaderCard.FITS_HEADER_CARD_SIZE;
+
+    private static final int KEYWORD_LENGTH = 8;
+
+    private static final int VALUE_START = 10;
+
+    private static final int BITS_PER_BYTE = 8;
+
+    private final long[] headerOffsets;
+
+    private final long[] dataOffsets;
+
+    private final long[] dataSizes;
+
+    private final String[] extNames;
+
+    private final int[] extVers;
+
+    private final Map<String, Integer> byName = new HashMap<String, Integer>();
+
+    private HDUIndex(long[] headerOffsets, long[] dataOffsets, long[] dataSizes, String[] extNames, int[] extVers) {
+        this.headerOffsets = headerOffsets;
+        this.dataOffsets = dataOffsets;
+        this.dataSizes = dataSizes;
+        this.extNames = extNames;
+        this.extVers = extVers;
+        for (int i = extNames.length - 1; i >= 0; i--) {
+            if (extNames[i] != null) {
+                this.byName.put(extNames[i], i);
+                this.byName.put(key(extNames[i], extVers[i]), i);
+            }
+        }
+    }
+
+    /**
+     * Build the index of all HDUs in a random access input. The position of the
+     * input is restored afterwards.
+     *
+     * @param in
+     *            the input to scan
+     * @return the index
+     * @throws FitsException
+     *             if the input could not be read
+     */
+    public static HDUIndex scan(RandomAccess in) throws FitsException {
+        List<long[]> offsets = new ArrayList<long[]>();
+        List<String> names = new ArrayList<String>();
+        List<Integer> versions = new ArrayList<Integer>();
+        byte[] block = new byte[FitsFactory.FITS_BLOCK_SIZE];
+        long position = in.getFilePointer();
+        try {
+            long offset = 0;
+            while (true) {
+                HeaderSummary summary = new HeaderSummary();
+                long dataOffset = offset;
+                boolean first = true;
+                boolean end = false;
+                while (!end) {
+                    in.seek(dataOffset);
+                    try {
+                        in.readFully(block);
+                    } catch (EOFException e) {
+                        // missing or truncated header, the end of the file.
+                        return build(offsets, names, versions);
+                    }
+                    dataOffset += FitsFactory.FITS_BLOCK_SIZE;
+                    for (int card = 0; card < CARDS_PER_BLOCK && !end; card++) {
+                        int start = card * HeaderCard.FITS_HEADER_CARD_SIZE;
+                        String key = AsciiFuncs.asciiString(block, start, KEYWORD_LENGTH).trim();
+                        if (first && !"SIMPLE".equals(key) && !"XTENSION".equals(key)) {
+                            // not a FITS header, treat as the end of the file.
+                            return build(offsets, names, versions);
+                        }
+                        first = false;
+                        end = "END".equals(key);
+                        if (!end && block[start + KEYWORD_LENGTH] == '=') {
+                            summary.add(key, AsciiFuncs.asciiString(block, start + VALUE_START, HeaderCard.FITS_HEADER_CARD_SIZE - VALUE_START));
+                        }
+                    }
+                }
+                long dataSize = FitsUtil.addPadding(summary.dataSize());
+                offsets.add(new long[]{
+                    offset,
+                    dataOffset,
+                    dataSize
+                });
+                names.add(summary.extName);
+                versions.add(summary.extVer);
+                offset = dataOffset + dataSize;
+            }
+        } catch (IOException e) {
+            throw new FitsException("Unable to index FITS file: " + e, e);
+        } finally {
+            FitsUtil.reposition(in, position);
+        }
+    }
+
+    private static HDUIndex build(List<long[]> offsets, List<String> names, List<Integer> versions) {
+        int size = offsets.size();
+        long[] headerOffsets = new long[size];
+        long[] dataOffsets = new long[size];
+        long[] dataSizes = new long[size];
+        int[] extVers = new int[size];
+        for (int i = 0; i < size; i++) {
+            headerOffsets[i] = offsets.get(i)[0];
+            dataOffsets[i] = offsets.get(i)[1];
+            dataSizes[i] = offsets.get(i)[2];
+            extVers[i] = versions.get(i);
+        }
+        return new HDUIndex(headerOffsets, dataOffsets, dataSizes, names.toArray(new String[size]), extVers);
+    }
+
+    /**
+     * Read an index saved with {@link #write(File, File)}.
+     *
+     * @param sidecar
+     *            the file holding the index
+     * @param fitsFile
+     *            the FITS file the index should describe
+     * @return the index, or null if the sidecar does not exist or does not
+     *         match the current length and modification time of the FITS file.
+     * @throws IOException
+     *             if the sidecar could not be read
+     */
+    public static HDUIndex read(File sidecar, File fitsFile) throws IOException {
+        if (!sidecar.isFile()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != fitsFile.length() || in.readLong() != fitsFile.lastModified()) {
+                return null;
+            }
+            int size = in.readInt();
+            long[] headerOffsets = new long[size];
+            long[] dataOffsets = new long[size];
+            long[] dataSizes = new long[size];
+            String[] extNames = new String[size];
+            int[] extVers = new int[size];
+            for (int i = 0; i < size; i++) {
+                headerOffsets[i] = in.readLong();
+                dataOffsets[i] = in.readLong();
+                dataSizes[i] = in.readLong();
+                extNames[i] = in.readBoolean() ? in.readUTF() : null;
+                extVers[i] = in.readInt();
+            }
+            return new HDUIndex(headerOffsets, dataOffsets, dataSizes, extNames, extVers);
+        } catch (EOFException e) {
+            return null;
+        } finally {
+            SafeClose.close(in);
+        }
+    }
+
+    /**
+     * Save the index to a sidecar file, together with the length and
+     * modification time of the FITS file it describes.
+     *
+     * @param sidecar
+     *            the file to write the index to
+     * @param fitsFile
+     *            the FITS file the index describes
+     * @throws IOException
+     *             if the sidecar could not be written
+     */
+    public void write(File sidecar, File fitsFile) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fitsFile.length());
+            out.writeLong(fitsFile.lastModified());
+            out.writeInt(size());
+            for (int i = 0; i < size(); i++) {
+                out.writeLong(this.headerOffsets[i]);
+                out.writeLong(this.dataOffsets[i]);
+                out.writeLong(this.dataSizes[i]);
+                out.writeBoolean(this.extNames[i] != null);
+                if (this.extNames[i] != null) {
+                    out.writeUTF(this.extNames[i]);
+                }
+                out.writeInt(this.extVers[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the number of HDUs in the file.
+     */
+    public int size() {
+        return this.headerOffsets.length;
+    }
+
+    /**
+     * @return the file offset of the header of an HDU.
+     * @param hdu
+     *            the 0-based index of the HDU
+     */
+    public long getHeaderOffset(int hdu) {
+        return this.headerOffsets[hdu];
+    }
+
+    /**
+     * @return the file offset of the data of an HDU.
+     * @param hdu
+     *            the 0-based index of the HDU
+     */
+    public long getDataOffset(int hdu) {
+        return this.dataOffsets[hdu];
+    }
+
+    /**
+     * @return the size of the data of an HDU, including padding.
+     * @param hdu
+     *            the 0-based index of the HDU
+     */
+    public long getDataSize(int hdu) {
+        return this.dataSizes[hdu];
+    }
+
+    /**
+     * @return the EXTNAME of an HDU, or null if it has none.
+     * @param hdu
+     *            the 0-based index of the HDU
+     */
+    public String getExtName(int hdu) {
+        return this.extNames[hdu];
+    }
+
+    /**
+     * @return the EXTVER of an HDU, 1 if it has none.
+     * @param hdu
+     *            the 0-based index of the HDU
+     */
+    public int getExtVer(int hdu) {
+        return this.extVers[hdu];
+    }
+
+    /**
+     * @return the index of the first HDU with the given EXTNAME, or -1.
+     * @param extName
+     *            the extension name
+     */
+    public int indexOf(String extName) {
+        Integer hdu = this.byName.get(extName);
+        return hdu == null ? -1 : hdu;
+    }
+
+    /**
+     * @return the index of the first HDU with the given EXTNAME and EXTVER, or
+     *         -1.
+     * @param extName
+     *            the extension name
+     * @param extVer
+     *            the extension version
+     */
+    public int indexOf(String extName, int extVer) {
+        Integer hdu = this.byName.get(key(extName, extVer));
+        return hdu == null ? -1 : hdu;
+    }
+
+    /**
+     * @return the index of the HDU whose header starts at the given file
+     *         offset, or -1.
+     * @param headerOffset
+     *            the file offset of the header
+     */
+    public int indexOfOffset(long headerOffset) {
+        int hdu = Arrays.binarySearch(this.headerOffsets, headerOffset);
+        return hdu < 0 ? -1 : hdu;
+    }
+
+    private static String key(String extName, int extVer) {
+        return extName + '\n' + extVer;
+    }
+
+    /**
+     * The keywords of a header that determine its data size and name.
+     */
+    private static final class HeaderSummary {
+
+        private final Map<String, String> values = new HashMap<String, String>();
+
+        private String extName;
+
+        private int extVer = 1;
+
+        private void add(String key, String value) {
+            if ("EXTNAME".equals(key)) {
+                this.extName = stringValue(value);
+            } else if ("EXTVER".equals(key)) {
+                this.extVer = (int) longValue(value, 1);
+            } else if (key.startsWith("NAXIS") || "BITPIX".equals(key) || "PCOUNT".equals(key) || "GCOUNT".equals(key) || "GROUPS".equals(key)) {
+                this.values.put(key, value);
+            }
+        }
+
+        /**
+         * @return the unpadded data size, computed as in Header.trueDataSize().
+         */
+        private long dataSize() {
+            int naxis = (int) longValue(this.values.get("NAXIS"), 0);
+            if (naxis == 0) {
+                return 0L;
+            }
+            boolean isGroup = this.values.containsKey("GROUPS") && this.values.get("GROUPS").trim().startsWith("T");
+            long size = 1;
+            for (int axis = 1; axis <= naxis; axis++) {
+                long dim = longValue(this.values.get("NAXIS" + axis), 0);
+                if (axis > 1 || !isGroup || naxis == 1 || dim != 0) {
+                    size *= dim;
+                }
+            }
+            size += longValue(this.values.get("PCOUNT"), 0);
+            size *= longValue(this.values.get("GCOUNT"), 1);
+            return size * (Math.abs(longValue(this.values.get("BITPIX"), 0)) / BITS_PER_BYTE);
+        }
+
+        private static long longValue(String value, long dft) {
+            if (value == null) {
+                return dft;
+            }
+            String number = value;
+            int comment = number.indexOf('/');
+            if (comment >= 0) {
+                number = number.substring(0, comment);
+            }
+            try {
+                return Long.parseLong(number.trim());
+            } catch (NumberFormatException e) {
+                return dft;
+            }
+        }
+
+        private static String stringValue(String value) {
+            String text = value.trim();
+            if (!text.startsWith("'")) {
+                return null;
+            }
+            StringBuilder result = new StringBuilder();
+            for (int i = 1; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '\'') {
+                    if (i + 1 < text.length() && text.charAt(i + 1) == '\'') {
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                result.append(c);
+            }
+            return result.toString().trim();
+        }
+    }
+}
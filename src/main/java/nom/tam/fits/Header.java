@@ -53,6 +53,7 @@ import java.io.PrintStream;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -60,7 +61,6 @@ import java.util.logging.Logger;
 import nom.tam.fits.header.IFitsHeader;
 import nom.tam.util.ArrayDataInput;
 import nom.tam.util.ArrayDataOutput;
-import nom.tam.util.AsciiFuncs;
 import nom.tam.util.Cursor;
 import nom.tam.util.FitsIO;
 import nom.tam.util.HashedList;
@@ -98,6 +98,15 @@ public class Header implements FitsElement {
 
     private static final Logger LOG = Logger.getLogger(Header.class.getName());
 
+    /** Reusable block the card images are assembled in when writing. */
+    private static final ThreadLocal<byte[]> WRITE_BLOCK = new ThreadLocal<byte[]>() {
+
+        @Override
+        protected byte[] initialValue() {
+            return new byte[FitsFactory.FITS_BLOCK_SIZE];
+        }
+    };
+
     /**
      * Create a header by reading the information from the input stream.
      * 
@@ -1312,10 +1321,10 @@ public class Header implements FitsElement {
         }
 
         boolean firstCard = true;
-        HeaderCardCountingArrayDataInput cardCountingArray = new HeaderCardCountingArrayDataInput(dis);
+        HeaderBlockParser parser = new HeaderBlockParser(dis);
         try {
             while (true) {
-                HeaderCard fcard = new HeaderCard(cardCountingArray);
+                HeaderCard fcard = parser.nextCard();
                 String key = fcard.getKey();
                 if (firstCard) {
                     checkFirstCard(key);
@@ -1358,13 +1367,14 @@ public class Header implements FitsElement {
         if (this.fileOffset >= 0) {
             this.input = dis;
         }
-        this.originalCardCount = cardCountingArray.getPhysicalCardsRead();
-        // Read to the end of the current FITS block.
-        //
+        this.originalCardCount = parser.getPhysicalCardsRead();
+        // The parser reads whole blocks, so only a truncated last block leaves
+        // padding to skip.
+        long remaining = FitsUtil.addPadding((long) this.originalCardCount * HeaderCard.FITS_HEADER_CARD_SIZE) - parser.getBytesRead();
         try {
-            dis.skipAllBytes(FitsUtil.padding(this.originalCardCount * HeaderCard.FITS_HEADER_CARD_SIZE));
+            dis.skipAllBytes(remaining);
         } catch (IOException e) {
-            throw new TruncatedFileException("Failed to skip " + FitsUtil.padding(this.originalCardCount * HeaderCard.FITS_HEADER_CARD_SIZE) + " bytes", e);
+            throw new TruncatedFileException("Failed to skip " + remaining + " bytes", e);
         }
     }
 
@@ -1706,13 +1716,27 @@ public class Header implements FitsElement {
         checkBeginning();
         checkEnd();
         Cursor<String, HeaderCard> writeIterator = this.cards.iterator(0);
+        byte[] block = WRITE_BLOCK.get();
+        int used = 0;
         try {
             while (writeIterator.hasNext()) {
-                HeaderCard card = writeIterator.next();
-                byte[] b = AsciiFuncs.getBytes(card.toString());
-                dos.write(b);
+                byte[] image = writeIterator.next().toBytes();
+                int offset = 0;
+                while (offset < image.length) {
+                    int length = Math.min(image.length - offset, block.length - used);
+                    System.arraycopy(image, offset, block, used, length);
+                    offset += length;
+                    used += length;
+                    if (used == block.length) {
+                        dos.write(block, 0, used);
+                        used = 0;
+                    }
+                }
+            }
+            if (used > 0) {
+                Arrays.fill(block, used, block.length, (byte) ' ');
+                dos.write(block, 0, block.length);
             }
-            FitsUtil.pad(dos, getNumberOfPhysicalCards() * HeaderCard.FITS_HEADER_CARD_SIZE, (byte) ' ');
             dos.flush();
         } catch (IOException e) {
             throw new FitsException("IO Error writing header: " + e);
@@ -0,0 +1,364 @@
+package nom.tam.fits;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import static nom.tam.fits.header.NonStandard.CONTINUE;
+import static nom.tam.fits.header.Standard.COMMENT;
+import static nom.tam.fits.header.Standard.HISTORY;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nom.tam.fits.header.NonStandard;
+import nom.tam.fits.utilities.FitsHeaderCardParser;
+import nom.tam.fits.utilities.FitsHeaderCardParser.ParsedValue;
+import nom.tam.util.ArrayDataInput;
+import nom.tam.util.AsciiFuncs;
+
+/**
+ * Parses the cards of a header from whole 2880 byte blocks. The keyword, value
+ * and comment of a card are located by their byte offsets in the block, and
+ * only the parts that are present are turned into Strings. Cards the byte
+ * tokenizer does not handle (HIERARCH keywords, non ASCII bytes, unusual
+ * quoting) go through {@link FitsHeaderCardParser}, so the resulting cards are
+ * the same as those read one by one with
+ * {@link HeaderCard#HeaderCard(ArrayDataInput)}. Since whole blocks are read,
+ * the input is left at the end of the last block, which is where a header ends
+ * anyway.
+ */
+final class HeaderBlockParser {
+
+    private static final int CARD_SIZE = HeaderCard.FITS_HEADER_CARD_SIZE;
+
+    private static final int KEY_SIZE = HeaderCard.MAX_KEYWORD_LENGTH;
+
+    private static final int BITS_PER_BYTE = 8;
+
+    /**
+     * upper limit for the number of distinct keywords that are shared.
+     */
+    private static final int MAX_SHARED_KEYWORDS = 8192;
+
+    /**
+     * Keyword strings by their 8 byte image packed in a long, so that the
+     * keywords that appear in every header are not allocated again and again.
+     */
+    private static final Map<Long, String> KEYWORDS = new ConcurrentHashMap<Long, String>();
+
+    private static final byte[] HIERARCH_WITH_BLANK = AsciiFuncs.getBytes(NonStandard.HIERARCH.key() + " ");
+
+    private static final byte[] CONTINUE_KEY = AsciiFuncs.getBytes(CONTINUE.key());
+
+    private final ArrayDataInput input;
+
+    private final byte[] block = new byte[FitsFactory.FITS_BLOCK_SIZE];
+
+    /**
+     * the number of valid bytes in the block.
+     */
+    private int filled;
+
+    /**
+     * the offset in the block of the next card.
+     */
+    private int position;
+
+    private boolean endOfInput;
+
+    private int cardsRead;
+
+    private long bytesRead;
+
+    HeaderBlockParser(ArrayDataInput input) {
+        this.input = input;
+    }
+
+    /**
+     * @return the number of bytes read from the input, whole blocks unless the
+     *         input ended.
+     */
+    long getBytesRead() {
+        return this.bytesRead;
+    }
+
+    /**
+     * @return the number of 80 byte cards parsed so far.
+     */
+    int getPhysicalCardsRead() {
+        return this.cardsRead;
+    }
+
+    /**
+     * Parse the next card, including the CONTINUE cards of a long string.
+     *
+     * @return the card
+     * @throws EOFException
+     *             if the input ended before the card
+     * @throws TruncatedFileException
+     *             if the input ended within the card
+     * @throws IOException
+     *             if the input could not be read
+     */
+    HeaderCard nextCard() throws IOException, TruncatedFileException {
+        int card = peekCard();
+        this.position += CARD_SIZE;
+        this.cardsRead++;
+        byte[] b = this.block;
+        if (!isSimple(card)) {
+            String image = AsciiFuncs.asciiString(b, card, CARD_SIZE);
+            String key;
+            if (FitsFactory.getUseHierarch() && startsWith(card, HIERARCH_WITH_BLANK)) {
+                key = FitsHeaderCardParser.parseCardKey(image);
+            } else {
+                key = image.substring(0, KEY_SIZE).trim();
+                if (key.isEmpty()) {
+                    return HeaderCard.parsed(key, null, image.substring(KEY_SIZE), false);
+                } else if (key.equals(COMMENT.key()) || key.equals(HISTORY.key()) || !image.startsWith("= ", KEY_SIZE)) {
+                    return HeaderCard.parsed(key, null, image.substring(KEY_SIZE).trim(), false);
+                }
+            }
+            return valueCard(key, FitsHeaderCardParser.parseCardValue(image));
+        }
+        String key = keyword(card);
+        int end = card + CARD_SIZE;
+        if (key.isEmpty()) {
+            return HeaderCard.parsed(key, null, AsciiFuncs.asciiString(b, card + KEY_SIZE, CARD_SIZE - KEY_SIZE), false);
+        } else if (key.equals(COMMENT.key()) || key.equals(HISTORY.key()) || b[card + KEY_SIZE] != '=' || b[card + KEY_SIZE + 1] != ' ') {
+            return HeaderCard.parsed(key, null, trimmed(card + KEY_SIZE, end), false);
+        }
+        int quote = indexOf(card + KEY_SIZE + 1, end, '\'');
+        if (quote < 0) {
+            int slash = indexOf(card + KEY_SIZE + 1, end, '/');
+            String value = trimmed(card + KEY_SIZE + 1, slash < 0 ? end : slash);
+            return valueCard(key, value, slash < 0 || slash + 1 >= end ? null : trimmed(slash + 1, end), false);
+        }
+        int close = closingQuote(quote + 1, end);
+        if (close < 0 || indexOf(card, quote, '/') >= 0) {
+            return valueCard(key, FitsHeaderCardParser.parseCardValue(AsciiFuncs.asciiString(b, card, CARD_SIZE)));
+        }
+        int slash = indexOf(close + 1, end, '/');
+        return valueCard(key, unquoted(quote + 1, close), slash < 0 || slash + 1 >= end ? null : trimmed(slash + 1, end), true);
+    }
+
+    private HeaderCard valueCard(String key, ParsedValue parsedValue) throws IOException, TruncatedFileException {
+        if (parsedValue == null) {
+            throw new IllegalArgumentException("no value found in card " + key);
+        }
+        return valueCard(key, parsedValue.getValue(), parsedValue.getComment(), parsedValue.isString());
+    }
+
+    /**
+     * Make the card of a keyword with a value, following CONTINUE cards for
+     * long strings.
+     */
+    private HeaderCard valueCard(String key, String value, String comment, boolean isString) throws IOException, TruncatedFileException {
+        if (!FitsFactory.isLongStringsEnabled() || !isString || !value.endsWith("&")) {
+            if (!isString && value.indexOf('\'') >= 0) {
+                throw new IllegalArgumentException("no single quotes allowed in values");
+            }
+            return HeaderCard.parsed(key, value, comment, isString);
+        }
+        StringBuilder longValue = new StringBuilder(value);
+        StringBuilder longComment = comment == null ? null : new StringBuilder(comment);
+        ParsedValue continueCard = null;
+        do {
+            if (continueCard != null) {
+                if (continueCard.getValue() != null) {
+                    longValue.append(continueCard.getValue());
+                }
+                if (continueCard.getComment() != null) {
+                    if (longComment == null) {
+                        longComment = new StringBuilder();
+                    } else {
+                        longComment.append(' ');
+                    }
+                    longComment.append(continueCard.getComment());
+                }
+            }
+            continueCard = null;
+            if (longValue.length() > 0 && longValue.charAt(longValue.length() - 1) == '&') {
+                longValue.setLength(longValue.length() - 1);
+                int card = peekCard();
+                if (startsWith(card, CONTINUE_KEY)) {
+                    this.position += CARD_SIZE;
+                    this.cardsRead++;
+                    continueCard = FitsHeaderCardParser.parseCardValue(AsciiFuncs.asciiString(this.block, card, CARD_SIZE));
+                } else {
+                    // the & was part of the string put it back.
+                    longValue.append('&');
+                }
+            }
+        } while (continueCard != null);
+        return HeaderCard.parsed(key, longValue.toString(), longComment == null ? null : longComment.toString(), true);
+    }
+
+    /**
+     * @return the offset of the next card in the block, reading the next block
+     *         if needed, without consuming the card.
+     */
+    private int peekCard() throws IOException, TruncatedFileException {
+        if (this.position == this.filled && !this.endOfInput) {
+            fill();
+        }
+        if (this.position == this.filled) {
+            throw new EOFException("no more header cards");
+        }
+        if (this.filled - this.position < CARD_SIZE) {
+            throw new TruncatedFileException("nothing to read left");
+        }
+        return this.position;
+    }
+
+    private void fill() throws IOException {
+        this.position = 0;
+        this.filled = 0;
+        while (this.filled < this.block.length) {
+            int count;
+            try {
+                count = this.input.read(this.block, this.filled, this.block.length - this.filled);
+            } catch (EOFException e) {
+                count = -1;
+            }
+            if (count <= 0) {
+                this.endOfInput = true;
+                break;
+            }
+            this.filled += count;
+        }
+        this.bytesRead += this.filled;
+    }
+
+    /**
+     * @return true if the card only contains ASCII and its keyword field
+     *         contains no characters that need the general parser.
+     */
+    private boolean isSimple(int card) {
+        byte[] b = this.block;
+        for (int i = card; i < card + CARD_SIZE; i++) {
+            if (b[i] < 0) {
+                return false;
+            }
+        }
+        for (int i = card; i < card + KEY_SIZE; i++) {
+            if (b[i] == '=' || b[i] == '\'' || b[i] == '/') {
+                return false;
+            }
+        }
+        return !FitsFactory.getUseHierarch() || !startsWith(card, HIERARCH_WITH_BLANK);
+    }
+
+    private String keyword(int card) {
+        long packed = 0;
+        for (int i = card; i < card + KEY_SIZE; i++) {
+            packed = packed << BITS_PER_BYTE | this.block[i];
+        }
+        Long id = Long.valueOf(packed);
+        String key = KEYWORDS.get(id);
+        if (key == null) {
+            key = trimmed(card, card + KEY_SIZE);
+            if (KEYWORDS.size() < MAX_SHARED_KEYWORDS) {
+                KEYWORDS.put(id, key);
+            }
+        }
+        return key;
+    }
+
+    private boolean startsWith(int card, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (this.block[card + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(int from, int to, char c) {
+        for (int i = from; i < to; i++) {
+            if (this.block[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the offset of the quote that closes a string starting at from,
+     *         skipping doubled quotes, or -1 if the string is not closed.
+     */
+    private int closingQuote(int from, int to) {
+        int i = indexOf(from, to, '\'');
+        while (i >= 0 && i + 1 < to && this.block[i + 1] == '\'') {
+            i = indexOf(i + 2, to, '\'');
+        }
+        return i;
+    }
+
+    /**
+     * @return the bytes between from and to as a String, trimmed like
+     *         {@link String#trim()}.
+     */
+    private String trimmed(int from, int to) {
+        int start = from;
+        int end = to;
+        while (start < end && this.block[start] <= ' ') {
+            start++;
+        }
+        while (end > start && this.block[end - 1] <= ' ') {
+            end--;
+        }
+        return AsciiFuncs.asciiString(this.block, start, end - start);
+    }
+
+    /**
+     * @return the content of a quoted string with doubled quotes made single
+     *         and trailing white space removed.
+     */
+    private String unquoted(int from, int to) {
+        int end = to;
+        while (end > from && AsciiFuncs.isWhitespace((char) this.block[end - 1])) {
+            end--;
+        }
+        if (indexOf(from, end, '\'') < 0) {
+            return AsciiFuncs.asciiString(this.block, from, end - from);
+        }
+        StringBuilder builder = new StringBuilder(end - from);
+        for (int i = from; i < end; i++) {
+            builder.append((char) this.block[i]);
+            if (this.block[i] == '\'') {
+                i++;
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -17,6 +17,7 @@ import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 import nom.tam.fits.header.NonStandard;
+import nom.tam.fits.header.hierarch.IHierarchKeyFormatter;
 import nom.tam.fits.utilities.FitsHeaderCardParser;
 import nom.tam.fits.utilities.FitsHeaderCardParser.ParsedValue;
 import nom.tam.fits.utilities.FitsLineAppender;
@@ -69,6 +70,58 @@ public class HeaderCard implements CursorValue<String> {
 
     private static final Logger LOG = Logger.getLogger(HeaderCard.class.getName());
 
+    /**
+     * marks a value that was parsed and is not a number.
+     */
+    private static final Object NOT_A_NUMBER = new Object();
+
+    /**
+     * the most digits of an integer that always fit in a long.
+     */
+    private static final int MAX_SAFE_LONG_DIGITS = 18;
+
+    private static final int DECIMAL_RADIX = 10;
+
+    /**
+     * A formatted card image together with the settings it depends on.
+     */
+    private static final class CardImage {
+
+        private final String text;
+
+        /**
+         * the ASCII bytes of the text, encoded when first written.
+         */
+        private volatile byte[] bytes;
+
+        private final boolean longStrings;
+
+        private final boolean useHierarch;
+
+        private final IHierarchKeyFormatter hierarchFormatter;
+
+        private CardImage(String text) {
+            this.text = text;
+            this.longStrings = FitsFactory.isLongStringsEnabled();
+            this.useHierarch = FitsFactory.getUseHierarch();
+            this.hierarchFormatter = FitsFactory.getHierarchFormater();
+        }
+
+        private byte[] bytes() {
+            byte[] encoded = this.bytes;
+            if (encoded == null) {
+                encoded = AsciiFuncs.getBytes(this.text);
+                this.bytes = encoded;
+            }
+            return encoded;
+        }
+
+        private boolean isCurrent() {
+            return this.longStrings == FitsFactory.isLongStringsEnabled() && this.useHierarch == FitsFactory.getUseHierarch()
+                    && this.hierarchFormatter == FitsFactory.getHierarchFormater();
+        }
+    }
+
     private static final String CONTINUE_CARD_PREFIX = CONTINUE.key() + "  '";
 
     public static final int FITS_HEADER_CARD_SIZE = 80;
@@ -163,6 +216,23 @@ public class HeaderCard implements CursorValue<String> {
      */
     private String value;
 
+    /**
+     * The value parsed as a number on first access: a Long for plain integers,
+     * a BigDecimal for other numbers, NOT_A_NUMBER if it does not parse, or
+     * null if not parsed yet.
+     */
+    private Object number;
+
+    /**
+     * The double value of a BigDecimal number, cached on first access.
+     */
+    private Double doubleNumber;
+
+    /**
+     * The card image, cached until the card is modified.
+     */
+    private CardImage image;
+
     /**
      * @return a created HeaderCard from a FITS card string.
      * @param card
@@ -362,6 +432,32 @@ public class HeaderCard implements CursorValue<String> {
         }
     }
 
+    /**
+     * Create a card from parts that were already parsed from a card image, see
+     * {@link HeaderBlockParser}. No further checks are made.
+     *
+     * @param key
+     *            the keyword
+     * @param value
+     *            the unquoted value or null
+     * @param comment
+     *            the comment or null
+     * @param isString
+     *            was the value quoted?
+     * @return the new HeaderCard
+     */
+    static HeaderCard parsed(String key, String value, String comment, boolean isString) {
+        HeaderCard card = new HeaderCard();
+        card.key = key;
+        card.value = value;
+        card.comment = comment;
+        card.isString = isString;
+        return card;
+    }
+
+    private HeaderCard() {
+    }
+
     public HeaderCard(ArrayDataInput dis) throws TruncatedFileException, IOException {
         this(new HeaderCardCountingArrayDataInput(dis));
     }
@@ -702,12 +798,28 @@ public class HeaderCard implements CursorValue<String> {
         } else if (Boolean.class.isAssignableFrom(clazz)) {
             return clazz.cast(getBooleanValue((Boolean) defaultValue));
         }
-        BigDecimal parsedValue;
-        try {
-            parsedValue = new BigDecimal(this.value);
-        } catch (NumberFormatException e) {
+        Object parsed = parsedNumber();
+        if (parsed == NOT_A_NUMBER) {
             return defaultValue;
         }
+        if (parsed instanceof Long) {
+            long longValue = (Long) parsed;
+            if (Integer.class.isAssignableFrom(clazz) && longValue == (int) longValue) {
+                return clazz.cast(Integer.valueOf((int) longValue));
+            } else if (Long.class.isAssignableFrom(clazz)) {
+                return clazz.cast(parsed);
+            } else if (Double.class.isAssignableFrom(clazz)) {
+                return clazz.cast(Double.valueOf(longValue));
+            } else if (Float.class.isAssignableFrom(clazz)) {
+                return clazz.cast(Float.valueOf(longValue));
+            }
+        } else if (Double.class.isAssignableFrom(clazz)) {
+            if (this.doubleNumber == null) {
+                this.doubleNumber = ((BigDecimal) parsed).doubleValue();
+            }
+            return clazz.cast(this.doubleNumber);
+        }
+        BigDecimal parsedValue = parsed instanceof Long ? BigDecimal.valueOf((Long) parsed) : (BigDecimal) parsed;
         if (Integer.class.isAssignableFrom(clazz)) {
             return clazz.cast(parsedValue.intValueExact());
         } else if (Long.class.isAssignableFrom(clazz)) {
@@ -725,6 +837,55 @@ public class HeaderCard implements CursorValue<String> {
         }
     }
 
+    /**
+     * @return the value parsed as a number, parsing it on the first call.
+     */
+    private Object parsedNumber() {
+        Object parsed = this.number;
+        if (parsed == null) {
+            parsed = parseLong(this.value);
+            if (parsed == null) {
+                try {
+                    parsed = new BigDecimal(this.value);
+                } catch (NumberFormatException e) {
+                    parsed = NOT_A_NUMBER;
+                }
+            }
+            this.number = parsed;
+        }
+        return parsed;
+    }
+
+    /**
+     * @return the value of a plain integer that surely fits in a long, or null
+     *         if the value is anything else.
+     */
+    private static Long parseLong(String value) {
+        int start = value.charAt(0) == '-' || value.charAt(0) == '+' ? 1 : 0;
+        int length = value.length();
+        if (length == start || length - start > MAX_SAFE_LONG_DIGITS) {
+            return null;
+        }
+        long result = 0;
+        for (int index = start; index < length; index++) {
+            char c = value.charAt(index);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            result = result * DECIMAL_RADIX + (c - '0');
+        }
+        return value.charAt(0) == '-' ? -result : result;
+    }
+
+    /**
+     * Forget the parsed value and the card image after a modification.
+     */
+    private void changed() {
+        this.number = null;
+        this.doubleNumber = null;
+        this.image = null;
+    }
+
     /**
      * @return Is this a key/value card?
      */
@@ -747,6 +908,7 @@ public class HeaderCard implements CursorValue<String> {
      */
     public void setComment(String comment) {
         this.comment = comment;
+        changed();
     }
 
     /**
@@ -758,6 +920,7 @@ public class HeaderCard implements CursorValue<String> {
      */
     public HeaderCard setValue(BigDecimal update) {
         this.value = dblString(update, spaceAvailableForValue(this.key));
+        changed();
         return this;
     }
 
@@ -770,6 +933,7 @@ public class HeaderCard implements CursorValue<String> {
      */
     public HeaderCard setValue(boolean update) {
         this.value = update ? "T" : "F";
+        changed();
         return this;
     }
 
@@ -782,6 +946,7 @@ public class HeaderCard implements CursorValue<String> {
      */
     public HeaderCard setValue(double update) {
         this.value = dblString(update, spaceAvailableForValue(this.key));
+        changed();
         return this;
     }
 
@@ -796,6 +961,7 @@ public class HeaderCard implements CursorValue<String> {
      */
     public HeaderCard setValue(double update, int precision) {
         this.value = dblString(update, precision, spaceAvailableForValue(this.key));
+        changed();
         return this;
     }
 
@@ -808,6 +974,7 @@ public class HeaderCard implements CursorValue<String> {
      */
     public HeaderCard setValue(float update) {
         this.value = dblString(floatToBigDecimal(update), spaceAvailableForValue(this.key));
+        changed();
         return this;
     }
 
@@ -822,6 +989,7 @@ public class HeaderCard implements CursorValue<String> {
      */
     public HeaderCard setValue(float update, int precision) {
         this.value = dblString(floatToBigDecimal(update), precision, spaceAvailableForValue(this.key));
+        changed();
         return this;
     }
 
@@ -834,6 +1002,7 @@ public class HeaderCard implements CursorValue<String> {
      */
     public HeaderCard setValue(int update) {
         this.value = String.valueOf(update);
+        changed();
         return this;
     }
 
@@ -846,6 +1015,7 @@ public class HeaderCard implements CursorValue<String> {
      */
     public HeaderCard setValue(long update) {
         this.value = String.valueOf(update);
+        changed();
         return this;
     }
 
@@ -858,6 +1028,7 @@ public class HeaderCard implements CursorValue<String> {
      */
     public HeaderCard setValue(String update) {
         this.value = update;
+        changed();
         return this;
     }
 
@@ -869,6 +1040,27 @@ public class HeaderCard implements CursorValue<String> {
      */
     @Override
     public String toString() {
+        return currentImage().text;
+    }
+
+    /**
+     * @return the card image as ASCII bytes, as written to a file. The array
+     *         is shared with the cached image and must not be modified.
+     */
+    byte[] toBytes() {
+        return currentImage().bytes();
+    }
+
+    private CardImage currentImage() {
+        CardImage cached = this.image;
+        if (cached == null || !cached.isCurrent()) {
+            cached = new CardImage(format());
+            this.image = cached;
+        }
+        return cached;
+    }
+
+    private String format() {
         int alignSmallString = NORMAL_SMALL_STRING_ALIGN_POSITION;
         int alignPosition = NORMAL_ALIGN_POSITION;
         FitsLineAppender buf = new FitsLineAppender();
@@ -1113,5 +1305,6 @@ public class HeaderCard implements CursorValue<String> {
      */
     void setKey(String newKey) {
         this.key = newKey;
+        changed();
     }
 }
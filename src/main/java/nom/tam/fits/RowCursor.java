@@ -0,0 +1,331 @@
+package nom.tam.fits;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+
+import nom.tam.util.ArrayFuncs;
+import nom.tam.util.AsciiFuncs;
+import nom.tam.util.FitsIO;
+import nom.tam.util.PositionalReader;
+
+/**
+ * Sequential row access to a binary table in a file. A block of rows is read
+ * with a single I/O into a reusable buffer, and the values of the current row
+ * are decoded on demand by the typed getters, so scanning a table does not
+ * allocate per row. Only tables read from a random access file are supported,
+ * in which case the table data does not need to be loaded.
+ * <p>
+ * Values are returned in their FITS representation: logical columns through
+ * {@link #getBoolean(int, int)}, string columns through
+ * {@link #getString(int)}, and variable length columns as their descriptor,
+ * i.e. <code>getLong(col, 0)</code> is the number of elements and
+ * <code>getLong(col, 1)</code> the offset into the heap.
+ */
+public class RowCursor {
+
+    /**
+     * the default number of rows read with one I/O.
+     */
+    public static final int DEFAULT_ROWS_PER_READ = 1024;
+
+    private final BinaryTable table;
+
+    private final long nRow;
+
+    private final int rowLen;
+
+    /** byte offset of each column within the row */
+    private final int[] offsets;
+
+    /** number of stored values of each column */
+    private final int[] counts;
+
+    /** storage type of each column */
+    private final Class<?>[] types;
+
+    private final ByteBuffer block;
+
+    private final int blockCapacity;
+
+    private long blockStart;
+
+    private int blockRows;
+
+    private long row = -1;
+
+    /**
+     * Create a cursor that reads {@link #DEFAULT_ROWS_PER_READ} rows at a
+     * time.
+     *
+     * @param table
+     *            the table to scan
+     * @throws FitsException
+     *             if the table was not read from a random access file
+     */
+    public RowCursor(BinaryTable table) throws FitsException {
+        this(table, DEFAULT_ROWS_PER_READ);
+    }
+
+    /**
+     * Create a cursor positioned before the first row.
+     *
+     * @param table
+     *            the table to scan
+     * @param rowsPerRead
+     *            the number of rows to read with one I/O
+     * @throws FitsException
+     *             if the table was not read from a random access file
+     */
+    public RowCursor(BinaryTable table, int rowsPerRead) throws FitsException {
+        if (table.input == null || table.getFileOffset() < 0) {
+            throw new FitsException("Row cursors require a table read from a random access file");
+        }
+        if (rowsPerRead < 1) {
+            throw new IllegalArgumentException("rowsPerRead must be positive: " + rowsPerRead);
+        }
+        this.table = table;
+        this.nRow = table.getNRowsLong();
+        int nCol = table.getNCols();
+        this.offsets = new int[nCol];
+        this.counts = new int[nCol];
+        this.types = new Class<?>[nCol];
+        int len = 0;
+        for (int col = 0; col < nCol; col++) {
+            Object cell = table.getDescriptor(col).newInstance(1);
+            this.offsets[col] = len;
+            this.counts[col] = Array.getLength(cell);
+            this.types[col] = ArrayFuncs.getBaseClass(cell);
+            len += this.counts[col] * ArrayFuncs.getBaseLength(cell);
+        }
+        this.rowLen = len;
+        this.blockCapacity = (int) Math.max(1, Math.min(rowsPerRead, this.nRow));
+        this.block = ByteBuffer.wrap(new byte[this.blockCapacity * this.rowLen]);
+    }
+
+    /**
+     * Move to the next row, reading the next block of rows if needed.
+     *
+     * @return false if there are no more rows
+     * @throws FitsException
+     *             if the rows could not be read
+     */
+    public boolean next() throws FitsException {
+        if (this.row + 1 >= this.nRow) {
+            this.row = this.nRow;
+            return false;
+        }
+        this.row++;
+        if (this.row >= this.blockStart + this.blockRows) {
+            readBlock(this.row);
+        }
+        return true;
+    }
+
+    /**
+     * @return the 0-based index of the current row, -1 before the first call
+     *         of {@link #next()}.
+     */
+    public long getRow() {
+        return this.row;
+    }
+
+    /**
+     * @return the number of values stored for a column in each row.
+     * @param col
+     *            the 0-based column index
+     */
+    public int getCount(int col) {
+        return this.counts[col];
+    }
+
+    public boolean getBoolean(int col) {
+        return getBoolean(col, 0);
+    }
+
+    /**
+     * @return a value of a logical column of the current row.
+     * @param col
+     *            the 0-based column index
+     * @param idx
+     *            the index of the value within the cell
+     */
+    public boolean getBoolean(int col, int idx) {
+        return getByte(col, idx) == 'T';
+    }
+
+    public byte getByte(int col) {
+        return getByte(col, 0);
+    }
+
+    /**
+     * @return a value of a byte column of the current row.
+     * @param col
+     *            the 0-based column index
+     * @param idx
+     *            the index of the value within the cell
+     */
+    public byte getByte(int col, int idx) {
+        return this.block.get(position(col, idx, byte.class, FitsIO.BYTES_IN_BYTE));
+    }
+
+    public short getShort(int col) {
+        return getShort(col, 0);
+    }
+
+    /**
+     * @return a value of a byte or short column of the current row.
+     * @param col
+     *            the 0-based column index
+     * @param idx
+     *            the index of the value within the cell
+     */
+    public short getShort(int col, int idx) {
+        if (this.types[col] == byte.class) {
+            return getByte(col, idx);
+        }
+        return this.block.getShort(position(col, idx, short.class, FitsIO.BYTES_IN_SHORT));
+    }
+
+    public int getInt(int col) {
+        return getInt(col, 0);
+    }
+
+    /**
+     * @return a value of a byte, short or int column of the current row.
+     * @param col
+     *            the 0-based column index
+     * @param idx
+     *            the index of the value within the cell
+     */
+    public int getInt(int col, int idx) {
+        if (this.types[col] == int.class) {
+            return this.block.getInt(position(col, idx, int.class, FitsIO.BYTES_IN_INTEGER));
+        }
+        return getShort(col, idx);
+    }
+
+    public long getLong(int col) {
+        return getLong(col, 0);
+    }
+
+    /**
+     * @return a value of an integer column of the current row.
+     * @param col
+     *            the 0-based column index
+     * @param idx
+     *            the index of the value within the cell
+     */
+    public long getLong(int col, int idx) {
+        if (this.types[col] == long.class) {
+            return this.block.getLong(position(col, idx, long.class, FitsIO.BYTES_IN_LONG));
+        }
+        return getInt(col, idx);
+    }
+
+    public float getFloat(int col) {
+        return getFloat(col, 0);
+    }
+
+    /**
+     * @return a value of a float column of the current row.
+     * @param col
+     *            the 0-based column index
+     * @param idx
+     *            the index of the value within the cell
+     */
+    public float getFloat(int col, int idx) {
+        return this.block.getFloat(position(col, idx, float.class, FitsIO.BYTES_IN_FLOAT));
+    }
+
+    public double getDouble(int col) {
+        return getDouble(col, 0);
+    }
+
+    /**
+     * @return a value of a numeric column of the current row, converted to
+     *         double.
+     * @param col
+     *            the 0-based column index
+     * @param idx
+     *            the index of the value within the cell
+     */
+    public double getDouble(int col, int idx) {
+        if (this.types[col] == double.class) {
+            return this.block.getDouble(position(col, idx, double.class, FitsIO.BYTES_IN_DOUBLE));
+        } else if (this.types[col] == float.class) {
+            return getFloat(col, idx);
+        }
+        return getLong(col, idx);
+    }
+
+    /**
+     * @return the content of a fixed length string column of the current row,
+     *         without trailing blanks. Note that this creates a new String.
+     * @param col
+     *            the 0-based column index
+     */
+    public String getString(int col) {
+        int start = position(col, 0, byte.class, FitsIO.BYTES_IN_BYTE);
+        int end = start + this.counts[col];
+        while (end > start && (this.block.get(end - 1) == ' ' || this.block.get(end - 1) == 0)) {
+            end--;
+        }
+        return AsciiFuncs.asciiString(this.block.array(), start, end - start);
+    }
+
+    private int position(int col, int idx, Class<?> type, int size) {
+        if (this.row < this.blockStart || this.row >= this.blockStart + this.blockRows) {
+            throw new IllegalStateException("No current row, call next() first");
+        }
+        if (this.types[col] != type) {
+            throw new IllegalArgumentException("Column " + col + " stores " + this.types[col] + " values, not " + type);
+        }
+        if (idx < 0 || idx >= this.counts[col]) {
+            throw new ArrayIndexOutOfBoundsException(idx);
+        }
+        return (int) (this.row - this.blockStart) * this.rowLen + this.offsets[col] + idx * size;
+    }
+
+    private void readBlock(long first) throws FitsException {
+        int rows = (int) Math.min(this.blockCapacity, this.nRow - first);
+        try {
+            PositionalReader.readFully(this.table.input, this.table.getFileOffset() + first * this.rowLen, this.block.array(), 0, rows * this.rowLen);
+        } catch (IOException e) {
+            throw new FitsException("Error reading rows " + first + " to " + (first + rows) + ": " + e, e);
+        }
+        this.blockStart = first;
+        this.blockRows = rows;
+    }
+}
@@ -0,0 +1,121 @@
+package nom.tam.fits.compression.algorithm.gzip;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.zip.Deflater;
+
+import nom.tam.fits.compression.algorithm.api.ICompressOption;
+import nom.tam.fits.compression.provider.param.api.ICompressParameters;
+
+/**
+ * Options of the GZIP_1 and GZIP_2 compressions. The deflate level is not
+ * stored in the fits header, it only influences the compression.
+ */
+public class GZipCompressOption implements ICompressOption {
+
+    public static final int DEFAULT_GZIP_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * this is a circular dependency that still has to be cut.
+     */
+    private ICompressParameters parameters;
+
+    private int level = DEFAULT_GZIP_LEVEL;
+
+    @Override
+    public GZipCompressOption copy() {
+        try {
+            GZipCompressOption copy = (GZipCompressOption) clone();
+            if (this.parameters != null) {
+                copy.parameters = this.parameters.copy(copy);
+            }
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("option could not be cloned", e);
+        }
+    }
+
+    @Override
+    public ICompressParameters getCompressionParameters() {
+        return this.parameters;
+    }
+
+    /**
+     * @return the deflate level (0-9) or -1 for the default level of zlib.
+     */
+    public int getLevel() {
+        return this.level;
+    }
+
+    @Override
+    public boolean isLossyCompression() {
+        return false;
+    }
+
+    /**
+     * set the deflate level to use for the compression.
+     *
+     * @param value
+     *            the deflate level (0-9) or -1 for the default level of zlib.
+     * @return this (builder pattern)
+     */
+    public GZipCompressOption setLevel(int value) {
+        if (value < Deflater.DEFAULT_COMPRESSION || value > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("illegal deflate level " + value);
+        }
+        this.level = value;
+        return this;
+    }
+
+    @Override
+    public void setParameters(ICompressParameters parameters) {
+        this.parameters = parameters;
+    }
+
+    @Override
+    public GZipCompressOption setTileHeight(int value) {
+        return this;
+    }
+
+    @Override
+    public GZipCompressOption setTileWidth(int value) {
+        return this;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> clazz) {
+        if (clazz.isAssignableFrom(this.getClass())) {
+            return clazz.cast(this);
+        }
+        return null;
+    }
+}
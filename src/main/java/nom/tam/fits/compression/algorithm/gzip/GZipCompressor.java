@@ -1,7 +1,10 @@
 package nom.tam.fits.compression.algorithm.gzip;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.nio.Buffer;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.DoubleBuffer;
@@ -9,8 +12,15 @@ import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
 import java.nio.ShortBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
 import nom.tam.fits.compression.algorithm.api.ICompressor;
 import nom.tam.util.ArrayFuncs;
@@ -62,7 +72,11 @@ public abstract class GZipCompressor<T extends Buffer> implements ICompressor<T>
     public static class ByteGZipCompressor extends GZipCompressor<ByteBuffer> {
 
         public ByteGZipCompressor() {
-            super(1);
+            this(new GZipCompressOption());
+        }
+
+        public ByteGZipCompressor(GZipCompressOption option) {
+            super(1, option);
             this.nioBuffer = ByteBuffer.wrap(this.buffer);
         }
 
@@ -82,7 +96,11 @@ public abstract class GZipCompressor<T extends Buffer> implements ICompressor<T>
         protected static final int BYTE_SIZE_OF_DOUBLE = 8;
 
         public DoubleGZipCompressor() {
-            super(BYTE_SIZE_OF_DOUBLE);
+            this(new GZipCompressOption());
+        }
+
+        public DoubleGZipCompressor(GZipCompressOption option) {
+            super(BYTE_SIZE_OF_DOUBLE, option);
             this.nioBuffer = ByteBuffer.wrap(this.buffer).asDoubleBuffer();
         }
 
@@ -102,7 +120,11 @@ public abstract class GZipCompressor<T extends Buffer> implements ICompressor<T>
         protected static final int BYTE_SIZE_OF_FLOAT = 4;
 
         public FloatGZipCompressor() {
-            super(BYTE_SIZE_OF_FLOAT);
+            this(new GZipCompressOption());
+        }
+
+        public FloatGZipCompressor(GZipCompressOption option) {
+            super(BYTE_SIZE_OF_FLOAT, option);
             this.nioBuffer = ByteBuffer.wrap(this.buffer).asFloatBuffer();
         }
 
@@ -122,7 +144,11 @@ public abstract class GZipCompressor<T extends Buffer> implements ICompressor<T>
         protected static final int BYTE_SIZE_OF_INT = 4;
 
         public IntGZipCompressor() {
-            super(BYTE_SIZE_OF_INT);
+            this(new GZipCompressOption());
+        }
+
+        public IntGZipCompressor(GZipCompressOption option) {
+            super(BYTE_SIZE_OF_INT, option);
             this.nioBuffer = ByteBuffer.wrap(this.buffer).asIntBuffer();
         }
 
@@ -142,7 +168,11 @@ public abstract class GZipCompressor<T extends Buffer> implements ICompressor<T>
         protected static final int BYTE_SIZE_OF_LONG = 8;
 
         public LongGZipCompressor() {
-            super(BYTE_SIZE_OF_LONG);
+            this(new GZipCompressOption());
+        }
+
+        public LongGZipCompressor(GZipCompressOption option) {
+            super(BYTE_SIZE_OF_LONG, option);
             this.nioBuffer = ByteBuffer.wrap(this.buffer).asLongBuffer();
         }
 
@@ -162,7 +192,11 @@ public abstract class GZipCompressor<T extends Buffer> implements ICompressor<T>
         protected static final int BYTE_SIZE_OF_SHORT = 2;
 
         public ShortGZipCompressor() {
-            super(BYTE_SIZE_OF_SHORT);
+            this(new GZipCompressOption());
+        }
+
+        public ShortGZipCompressor(GZipCompressOption option) {
+            super(BYTE_SIZE_OF_SHORT, option);
             this.nioBuffer = ByteBuffer.wrap(this.buffer).asShortBuffer();
         }
 
@@ -214,22 +248,147 @@ public abstract class GZipCompressor<T extends Buffer> implements ICompressor<T>
 
     private static final int MINIMAL_GZIP_BUFFER_SIZE = 65536;
 
+    /**
+     * per compressor class: does it still override one of the deprecated
+     * stream factories.
+     */
+    private static final Map<Class<?>, Boolean> STREAM_HOOKS = new ConcurrentHashMap<Class<?>, Boolean>();
+
+    /**
+     * chunk size used when the compressed data is not backed by an array.
+     */
+    private static final int DIRECT_BUFFER_CHUNK_SIZE = 8192;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private static final byte[] GZIP_HEADER = {
+        (byte) GZIP_MAGIC,
+        (byte) (GZIP_MAGIC >> FitsIO.BITS_OF_1_BYTE),
+        Deflater.DEFLATED,
+        0,
+        0,
+        0,
+        0,
+        0,
+        0,
+        0
+    };
+
+    /**
+     * number of header bytes after the flags that are not needed (mtime, xfl
+     * and os).
+     */
+    private static final int GZIP_HEADER_SKIP = 6;
+
+    private static final int GZIP_FLAG_HEADER_CRC = 2;
+
+    private static final int GZIP_FLAG_EXTRA = 4;
+
+    private static final int GZIP_FLAG_NAME = 8;
+
+    private static final int GZIP_FLAG_COMMENT = 16;
+
+    private static final int GZIP_HEADER_CRC_SIZE = 2;
+
+    private static final int BYTE_MASK = 0xFF;
+
     protected final int primitiveSize;
 
     protected byte[] buffer = new byte[DEFAULT_GZIP_BUFFER_SIZE];
 
     protected T nioBuffer;
 
+    private int level;
+
+    private final boolean gzipStreams;
+
+    private final CRC32 crc = new CRC32();
+
+    private int uncompressedCount;
+
+    private byte[] directChunk;
+
     private final byte[] sizeArray = new byte[PrimitiveTypes.INT.size()];
 
     private final IntBuffer sizeBuffer = ByteBuffer.wrap(this.sizeArray).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
 
     public GZipCompressor(int primitiveSize) {
+        this(primitiveSize, new GZipCompressOption());
+    }
+
+    public GZipCompressor(int primitiveSize, GZipCompressOption option) {
         this.primitiveSize = primitiveSize;
+        setOption(option);
+        this.gzipStreams = overridesStreamHooks(getClass());
+    }
+
+    /**
+     * apply the settings of an option to this compressor, so that one
+     * compressor can be reused for tiles with different options.
+     *
+     * @param option
+     *            the option to use for the following calls, null for the
+     *            default settings.
+     */
+    public void setOption(GZipCompressOption option) {
+        this.level = option == null ? GZipCompressOption.DEFAULT_GZIP_LEVEL : option.getLevel();
     }
 
     @Override
     public boolean compress(T pixelData, ByteBuffer compressed) {
+        if (usesGZipStreams()) {
+            return compressWithStreams(pixelData, compressed);
+        }
+        this.nioBuffer.clear();
+        int pixelDataLimit = pixelData.limit();
+        startDeflate(compressed);
+        Deflater deflater = ZLibPool.deflater(this.level);
+        try {
+            while (pixelData.hasRemaining()) {
+                int count = Math.min(pixelData.remaining(), this.nioBuffer.capacity());
+                pixelData.limit(pixelData.position() + count);
+                getPixel(pixelData, null);
+                deflate(deflater, this.buffer, this.nioBuffer.position() * this.primitiveSize, compressed);
+                this.nioBuffer.rewind();
+                pixelData.limit(pixelDataLimit);
+            }
+            finishDeflate(deflater, compressed);
+        } finally {
+            ZLibPool.release(deflater);
+        }
+        compressed.limit(compressed.position());
+        return true;
+    }
+
+    @Override
+    public void decompress(ByteBuffer compressed, T pixelData) {
+        if (usesGZipStreams()) {
+            decompressWithStreams(compressed, pixelData);
+            return;
+        }
+        this.nioBuffer.clear();
+        TypeConversion<Buffer> typeConverter = getTypeConverter(compressed, pixelData.limit());
+        Inflater inflater = ZLibPool.inflater();
+        try {
+            startInflate(inflater, compressed);
+            int count;
+            while ((count = inflateMembers(inflater, compressed, this.buffer, this.buffer.length)) > 0) {
+                if (typeConverter != null) {
+                    count = typeConverter.copy(count);
+                }
+                this.nioBuffer.position(0);
+                this.nioBuffer.limit(count / this.primitiveSize);
+                setPixel(pixelData, null);
+            }
+            finishInflate(inflater, compressed);
+        } catch (IOException e) {
+            throw new IllegalStateException("could not gunzip data", e);
+        } finally {
+            ZLibPool.release(inflater);
+        }
+    }
+
+    private boolean compressWithStreams(T pixelData, ByteBuffer compressed) {
         this.nioBuffer.rewind();
         int pixelDataLimit = pixelData.limit();
         GZIPOutputStream zip = null;
@@ -252,8 +411,7 @@ public abstract class GZipCompressor<T extends Buffer> implements ICompressor<T>
         return true;
     }
 
-    @Override
-    public void decompress(ByteBuffer compressed, T pixelData) {
+    private void decompressWithStreams(ByteBuffer compressed, T pixelData) {
         this.nioBuffer.rewind();
         TypeConversion<Buffer> typeConverter = getTypeConverter(compressed, pixelData.limit());
         GZIPInputStream zip = null;
@@ -275,6 +433,76 @@ public abstract class GZipCompressor<T extends Buffer> implements ICompressor<T>
         }
     }
 
+    private static boolean overridesStreamHooks(Class<?> compressorClass) {
+        Boolean result = STREAM_HOOKS.get(compressorClass);
+        if (result == null) {
+            result = Boolean.FALSE;
+            for (Class<?> type = compressorClass; type != null && type != GZipCompressor.class; type = type.getSuperclass()) {
+                for (Method method : type.getDeclaredMethods()) {
+                    if (method.getName().equals("createGZipInputStream") || method.getName().equals("createGZipOutputStream")) {
+                        result = Boolean.TRUE;
+                    }
+                }
+            }
+            STREAM_HOOKS.put(compressorClass, result);
+        }
+        return result;
+    }
+
+    private boolean hasNextMember(ByteBuffer compressed) {
+        int position = compressed.position();
+        return compressed.remaining() > 1 && ((compressed.get(position) & BYTE_MASK) | (compressed.get(position + 1) & BYTE_MASK) << FitsIO.BITS_OF_1_BYTE) == GZIP_MAGIC;
+    }
+
+    private void drain(Deflater deflater, ByteBuffer compressed) {
+        if (!compressed.hasRemaining()) {
+            throw new BufferOverflowException();
+        }
+        if (compressed.hasArray()) {
+            int count = deflater.deflate(compressed.array(), compressed.arrayOffset() + compressed.position(), compressed.remaining());
+            compressed.position(compressed.position() + count);
+        } else {
+            byte[] chunk = directChunk();
+            int count = deflater.deflate(chunk, 0, Math.min(chunk.length, compressed.remaining()));
+            compressed.put(chunk, 0, count);
+        }
+    }
+
+    private byte[] directChunk() {
+        if (this.directChunk == null) {
+            this.directChunk = new byte[DIRECT_BUFFER_CHUNK_SIZE];
+        }
+        return this.directChunk;
+    }
+
+    private void finishDeflate(Deflater deflater, ByteBuffer compressed) {
+        deflater.finish();
+        while (!deflater.finished()) {
+            drain(deflater, compressed);
+        }
+        ByteOrder order = compressed.order();
+        compressed.order(ByteOrder.LITTLE_ENDIAN);
+        compressed.putInt((int) this.crc.getValue());
+        compressed.putInt(this.uncompressedCount);
+        compressed.order(order);
+    }
+
+    private void finishInflate(Inflater inflater, ByteBuffer compressed) throws IOException {
+        compressed.position(compressed.limit() - inflater.getRemaining());
+        ByteOrder order = compressed.order();
+        compressed.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (compressed.remaining() < 2 * PrimitiveTypes.INT.size()) {
+                throw new EOFException("unexpected end of gzip trailer");
+            }
+            if (compressed.getInt() != (int) this.crc.getValue() || compressed.getInt() != this.uncompressedCount) {
+                throw new ZipException("corrupt gzip trailer");
+            }
+        } finally {
+            compressed.order(order);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private <B extends Buffer> PrimitiveType<B> getPrimitiveType(int size) {
         return (PrimitiveType<B>) PrimitiveTypeHandler.valueOf(size * FitsIO.BITS_OF_1_BYTE);
@@ -303,16 +531,250 @@ public abstract class GZipCompressor<T extends Buffer> implements ICompressor<T>
         return null;
     }
 
+    private int readUnsignedByte(ByteBuffer compressed) throws EOFException {
+        if (!compressed.hasRemaining()) {
+            throw new EOFException("unexpected end of gzip header");
+        }
+        return compressed.get() & BYTE_MASK;
+    }
+
+    private int readUnsignedShort(ByteBuffer compressed) throws EOFException {
+        return readUnsignedByte(compressed) | readUnsignedByte(compressed) << FitsIO.BITS_OF_1_BYTE;
+    }
+
+    private void skip(ByteBuffer compressed, int count) throws EOFException {
+        if (compressed.remaining() < count) {
+            throw new EOFException("unexpected end of gzip header");
+        }
+        compressed.position(compressed.position() + count);
+    }
+
+    private void skipZeroTerminated(ByteBuffer compressed) throws EOFException {
+        while (readUnsignedByte(compressed) != 0) {
+            continue;
+        }
+    }
+
+    /**
+     * deflate the bytes into the compressed buffer, the bytes are also added
+     * to the checksum of the gzip trailer.
+     *
+     * @param deflater
+     *            the deflater started with {@link #startDeflate(ByteBuffer)}
+     * @param bytes
+     *            the uncompressed bytes
+     * @param length
+     *            the number of bytes to deflate
+     * @param compressed
+     *            the buffer to write the compressed data to
+     */
+    protected void deflate(Deflater deflater, byte[] bytes, int length, ByteBuffer compressed) {
+        this.crc.update(bytes, 0, length);
+        this.uncompressedCount += length;
+        deflater.setInput(bytes, 0, length);
+        while (!deflater.needsInput()) {
+            drain(deflater, compressed);
+        }
+    }
+
+    /**
+     * compress the bytes as one gzip member directly into the compressed
+     * buffer.
+     *
+     * @param bytes
+     *            the uncompressed bytes
+     * @param compressed
+     *            the buffer to write the gzip member to
+     */
+    protected void deflateAll(byte[] bytes, ByteBuffer compressed) {
+        startDeflate(compressed);
+        Deflater deflater = ZLibPool.deflater(this.level);
+        try {
+            deflate(deflater, bytes, bytes.length, compressed);
+            finishDeflate(deflater, compressed);
+        } finally {
+            ZLibPool.release(deflater);
+        }
+    }
+
+    /**
+     * @param compressed
+     *            the buffer containing the gzip data
+     * @return the stream to read the uncompressed data from
+     * @throws IOException
+     *             if the stream could not be created
+     * @deprecated the compressor inflates directly from the tile buffer;
+     *             overriding this method switches it back to the slower
+     *             stream based implementation.
+     */
+    @Deprecated
     protected GZIPInputStream createGZipInputStream(ByteBuffer compressed) throws IOException {
         return new GZIPInputStream(new ByteBufferInputStream(compressed), Math.min(compressed.limit() * 2, DEFAULT_GZIP_BUFFER_SIZE));
     }
 
+    /**
+     * @param length
+     *            the number of primitive values to compress
+     * @param compressed
+     *            the buffer to write the gzip data to
+     * @return the stream to write the uncompressed data to
+     * @throws IOException
+     *             if the stream could not be created
+     * @deprecated the compressor deflates directly into the tile buffer;
+     *             overriding this method switches it back to the slower
+     *             stream based implementation.
+     */
+    @Deprecated
     protected GZIPOutputStream createGZipOutputStream(int length, ByteBuffer compressed) throws IOException {
         return new GZIPOutputStream(new ByteBufferOutputStream(compressed), Math.min(Math.max(length * 2, MINIMAL_GZIP_BUFFER_SIZE), DEFAULT_GZIP_BUFFER_SIZE));
     }
 
     protected abstract void getPixel(T pixelData, byte[] pixelBytes);
 
+    /**
+     * inflate as many bytes as fit into the array, the array is only partly
+     * filled at the end of the compressed data.
+     *
+     * @param inflater
+     *            the inflater started with
+     *            {@link #startInflate(Inflater, ByteBuffer)}
+     * @param bytes
+     *            the array to inflate to
+     * @param length
+     *            the maximum number of bytes to inflate
+     * @return the number of bytes inflated, 0 at the end of the compressed
+     *         data.
+     * @throws IOException
+     *             if the compressed data is corrupt or incomplete
+     */
+    protected int inflate(Inflater inflater, byte[] bytes, int length) throws IOException {
+        return inflate(inflater, bytes, 0, length);
+    }
+
+    private int inflate(Inflater inflater, byte[] bytes, int start, int length) throws IOException {
+        int offset = start;
+        int end = start + length;
+        try {
+            while (offset < end && !inflater.finished()) {
+                int count = inflater.inflate(bytes, offset, end - offset);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("unexpected end of gzip data");
+                }
+                offset += count;
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+        this.crc.update(bytes, start, offset - start);
+        this.uncompressedCount += offset - start;
+        return offset - start;
+    }
+
+    /**
+     * inflate like {@link #inflate(Inflater, byte[], int)}, but continue with
+     * the following gzip member when one ends, as {@link GZIPInputStream}
+     * does. Bytes after the last member that do not start a new member are
+     * ignored.
+     */
+    private int inflateMembers(Inflater inflater, ByteBuffer compressed, byte[] bytes, int length) throws IOException {
+        int count = inflate(inflater, bytes, 0, length);
+        while (count < length && inflater.finished()) {
+            finishInflate(inflater, compressed);
+            if (!hasNextMember(compressed)) {
+                break;
+            }
+            inflater.reset();
+            startInflate(inflater, compressed);
+            count += inflate(inflater, bytes, count, length - count);
+        }
+        return count;
+    }
+
+    /**
+     * decompress one gzip member directly from the compressed buffer. Data
+     * beyond the size of the array is ignored.
+     *
+     * @param compressed
+     *            the buffer containing the gzip member
+     * @param bytes
+     *            the array to inflate to
+     * @return the number of bytes inflated
+     * @throws IOException
+     *             if the compressed data is corrupt or incomplete
+     */
+    protected int inflateAll(ByteBuffer compressed, byte[] bytes) throws IOException {
+        Inflater inflater = ZLibPool.inflater();
+        try {
+            startInflate(inflater, compressed);
+            int count = inflateMembers(inflater, compressed, bytes, bytes.length);
+            if (inflater.finished()) {
+                finishInflate(inflater, compressed);
+            }
+            return count;
+        } finally {
+            ZLibPool.release(inflater);
+        }
+    }
+
     protected abstract void setPixel(T pixelData, byte[] pixelBytes);
 
+    /**
+     * @return true if a subclass overrides one of the deprecated stream
+     *         factories, the stream based implementation is used then.
+     */
+    protected boolean usesGZipStreams() {
+        return this.gzipStreams;
+    }
+
+    /**
+     * write the gzip member header and reset the trailer values.
+     *
+     * @param compressed
+     *            the buffer to write the header to
+     */
+    protected void startDeflate(ByteBuffer compressed) {
+        compressed.put(GZIP_HEADER);
+        this.crc.reset();
+        this.uncompressedCount = 0;
+    }
+
+    /**
+     * skip the gzip member header and hand the rest of the compressed buffer
+     * to the inflater.
+     *
+     * @param inflater
+     *            the inflater to use
+     * @param compressed
+     *            the buffer containing the gzip member
+     * @throws IOException
+     *             if the header is not a valid gzip header
+     */
+    protected void startInflate(Inflater inflater, ByteBuffer compressed) throws IOException {
+        this.crc.reset();
+        this.uncompressedCount = 0;
+        if (readUnsignedShort(compressed) != GZIP_MAGIC || readUnsignedByte(compressed) != Deflater.DEFLATED) {
+            throw new ZipException("not in gzip format");
+        }
+        int flags = readUnsignedByte(compressed);
+        skip(compressed, GZIP_HEADER_SKIP);
+        if ((flags & GZIP_FLAG_EXTRA) != 0) {
+            skip(compressed, readUnsignedShort(compressed));
+        }
+        if ((flags & GZIP_FLAG_NAME) != 0) {
+            skipZeroTerminated(compressed);
+        }
+        if ((flags & GZIP_FLAG_COMMENT) != 0) {
+            skipZeroTerminated(compressed);
+        }
+        if ((flags & GZIP_FLAG_HEADER_CRC) != 0) {
+            skip(compressed, GZIP_HEADER_CRC_SIZE);
+        }
+        if (compressed.hasArray()) {
+            inflater.setInput(compressed.array(), compressed.arrayOffset() + compressed.position(), compressed.remaining());
+        } else {
+            byte[] input = new byte[compressed.remaining()];
+            compressed.get(input);
+            inflater.setInput(input);
+        }
+    }
 }
@@ -0,0 +1,115 @@
+package nom.tam.fits.compression.algorithm.gzip;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Pool of zlib contexts for the tile compressors. Every {@link Deflater} and
+ * {@link Inflater} holds a native zlib context that is only freed by
+ * {@code end()} or the finalizer, creating one per tile is therefore costly
+ * and leads to native memory spikes when many tiles are processed in
+ * parallel. The contexts are raw deflate contexts (nowrap), the gzip member
+ * header and trailer are written by the compressors themselves.
+ */
+final class ZLibPool {
+
+    /**
+     * the number of idle contexts of each kind that are kept, any context
+     * released beyond that is ended immediately.
+     */
+    private static final int MAX_IDLE = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final Queue<Deflater> DEFLATERS = new ConcurrentLinkedQueue<Deflater>();
+
+    private static final AtomicInteger IDLE_DEFLATERS = new AtomicInteger();
+
+    private static final Queue<Inflater> INFLATERS = new ConcurrentLinkedQueue<Inflater>();
+
+    private static final AtomicInteger IDLE_INFLATERS = new AtomicInteger();
+
+    /**
+     * @param level
+     *            the deflate level to use
+     * @return a reset deflater with the requested level, must be handed back
+     *         with {@link #release(Deflater)}.
+     */
+    static Deflater deflater(int level) {
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null) {
+            return new Deflater(level, true);
+        }
+        IDLE_DEFLATERS.decrementAndGet();
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    /**
+     * @return a reset inflater, must be handed back with
+     *         {@link #release(Inflater)}.
+     */
+    static Inflater inflater() {
+        Inflater inflater = INFLATERS.poll();
+        if (inflater == null) {
+            return new Inflater(true);
+        }
+        IDLE_INFLATERS.decrementAndGet();
+        return inflater;
+    }
+
+    static void release(Deflater deflater) {
+        if (IDLE_DEFLATERS.incrementAndGet() <= MAX_IDLE) {
+            deflater.reset();
+            DEFLATERS.offer(deflater);
+        } else {
+            IDLE_DEFLATERS.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    static void release(Inflater inflater) {
+        if (IDLE_INFLATERS.incrementAndGet() <= MAX_IDLE) {
+            inflater.reset();
+            INFLATERS.offer(inflater);
+        } else {
+            IDLE_INFLATERS.decrementAndGet();
+            inflater.end();
+        }
+    }
+
+    private ZLibPool() {
+    }
+}
@@ -42,6 +42,7 @@ import java.nio.ShortBuffer;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+import nom.tam.fits.compression.algorithm.gzip.GZipCompressOption;
 import nom.tam.fits.compression.algorithm.gzip.GZipCompressor;
 import nom.tam.util.SafeClose;
 import nom.tam.util.type.PrimitiveTypes;
@@ -49,12 +50,24 @@ import nom.tam.util.type.PrimitiveTypes;
 public abstract class GZip2Compressor<T extends Buffer> extends GZipCompressor<T> {
 
     public static class ByteGZip2Compressor extends ByteGZipCompressor {
+
+        public ByteGZip2Compressor() {
+            super();
+        }
+
+        public ByteGZip2Compressor(GZipCompressOption option) {
+            super(option);
+        }
     }
 
     public static class IntGZip2Compressor extends GZip2Compressor<IntBuffer> {
 
         public IntGZip2Compressor() {
-            super(PrimitiveTypes.INT.size());
+            this(new GZipCompressOption());
+        }
+
+        public IntGZip2Compressor(GZipCompressOption option) {
+            super(PrimitiveTypes.INT.size(), option);
         }
 
         @Override
@@ -72,7 +85,11 @@ public abstract class GZip2Compressor<T extends Buffer> extends GZipCompressor<T
     public static class FloatGZip2Compressor extends GZip2Compressor<FloatBuffer> {
 
         public FloatGZip2Compressor() {
-            super(PrimitiveTypes.FLOAT.size());
+            this(new GZipCompressOption());
+        }
+
+        public FloatGZip2Compressor(GZipCompressOption option) {
+            super(PrimitiveTypes.FLOAT.size(), option);
         }
 
         @Override
@@ -90,7 +107,11 @@ public abstract class GZip2Compressor<T extends Buffer> extends GZipCompressor<T
     public static class LongGZip2Compressor extends GZip2Compressor<LongBuffer> {
 
         public LongGZip2Compressor() {
-            super(PrimitiveTypes.LONG.size());
+            this(new GZipCompressOption());
+        }
+
+        public LongGZip2Compressor(GZipCompressOption option) {
+            super(PrimitiveTypes.LONG.size(), option);
         }
 
         @Override
@@ -108,7 +129,11 @@ public abstract class GZip2Compressor<T extends Buffer> extends GZipCompressor<T
     public static class DoubleGZip2Compressor extends GZip2Compressor<DoubleBuffer> {
 
         public DoubleGZip2Compressor() {
-            super(PrimitiveTypes.DOUBLE.size());
+            this(new GZipCompressOption());
+        }
+
+        public DoubleGZip2Compressor(GZipCompressOption option) {
+            super(PrimitiveTypes.DOUBLE.size(), option);
         }
 
         @Override
@@ -126,7 +151,11 @@ public abstract class GZip2Compressor<T extends Buffer> extends GZipCompressor<T
     public static class ShortGZip2Compressor extends GZip2Compressor<ShortBuffer> {
 
         public ShortGZip2Compressor() {
-            super(PrimitiveTypes.SHORT.size());
+            this(new GZipCompressOption());
+        }
+
+        public ShortGZip2Compressor(GZipCompressOption option) {
+            super(PrimitiveTypes.SHORT.size(), option);
         }
 
         @Override
@@ -145,6 +174,10 @@ public abstract class GZip2Compressor<T extends Buffer> extends GZipCompressor<T
         super(primitiveSize);
     }
 
+    public GZip2Compressor(int primitiveSize, GZipCompressOption option) {
+        super(primitiveSize, option);
+    }
+
     private int[] calculateOffsets(byte[] byteArray) {
         int[] offset = new int[this.primitiveSize];
         offset[0] = 0;
@@ -159,7 +192,33 @@ public abstract class GZip2Compressor<T extends Buffer> extends GZipCompressor<T
         int pixelDataLimit = pixelData.limit();
         byte[] pixelBytes = new byte[pixelDataLimit * this.primitiveSize];
         getPixel(pixelData, pixelBytes);
-        pixelBytes = shuffle(pixelBytes);
+        if (usesGZipStreams()) {
+            compressWithStreams(pixelDataLimit, shuffle(pixelBytes), compressed);
+        } else {
+            deflateAll(shuffle(pixelBytes), compressed);
+        }
+        return true;
+    }
+
+    @Override
+    public void decompress(ByteBuffer compressed, T pixelData) {
+        int pixelDataLimit = pixelData.limit();
+        byte[] pixelBytes = new byte[pixelDataLimit * this.primitiveSize];
+        try {
+            if (usesGZipStreams()) {
+                decompressWithStreams(compressed, pixelBytes);
+            } else {
+                inflateAll(compressed, pixelBytes);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("could not gunzip data", e);
+        }
+        pixelBytes = unshuffle(pixelBytes);
+        setPixel(pixelData, pixelBytes);
+    }
+
+    @SuppressWarnings("deprecation")
+    private void compressWithStreams(int pixelDataLimit, byte[] pixelBytes, ByteBuffer compressed) {
         GZIPOutputStream zip = null;
         try {
             zip = createGZipOutputStream(pixelDataLimit, compressed);
@@ -169,13 +228,10 @@ public abstract class GZip2Compressor<T extends Buffer> extends GZipCompressor<T
         } finally {
             SafeClose.close(zip);
         }
-        return true;
     }
 
-    @Override
-    public void decompress(ByteBuffer compressed, T pixelData) {
-        int pixelDataLimit = pixelData.limit();
-        byte[] pixelBytes = new byte[pixelDataLimit * this.primitiveSize];
+    @SuppressWarnings("deprecation")
+    private void decompressWithStreams(ByteBuffer compressed, byte[] pixelBytes) throws IOException {
         GZIPInputStream zip = null;
         try {
             zip = createGZipInputStream(compressed);
@@ -187,13 +243,9 @@ public abstract class GZip2Compressor<T extends Buffer> extends GZipCompressor<T
                     offset = offset + count;
                 }
             }
-        } catch (IOException e) {
-            throw new IllegalStateException("could not gunzip data", e);
         } finally {
             SafeClose.close(zip);
         }
-        pixelBytes = unshuffle(pixelBytes);
-        setPixel(pixelData, pixelBytes);
     }
 
     public byte[] shuffle(byte[] byteArray) {
@@ -158,7 +158,7 @@ public class QuantizeProcessor {
 
         DitherFilter(long seed) {
             super(null);
-            this.randomValues = initRandoms();
+            this.randomValues = randomValues();
             initialize(seed);
         }
 
@@ -171,6 +171,15 @@ public class QuantizeProcessor {
             return this.randomValues[this.nextRandom];
         }
 
+        private double[] randomValues() {
+            double[] values = ditherRandomValues;
+            if (values == null) {
+                values = initRandoms();
+                ditherRandomValues = values;
+            }
+            return values;
+        }
+
         private double[] initRandoms() {
 
             /* initialize an tiledImageOperation of random numbers */
@@ -318,6 +327,12 @@ public class QuantizeProcessor {
 
     private static final double MAX_INT_AS_DOUBLE = Integer.MAX_VALUE;
 
+    /**
+     * the random sequence used for dithering is always the same, so it is
+     * created only once and shared by all tiles (it is never modified).
+     */
+    private static volatile double[] ditherRandomValues;
+
     /**
      * number of reserved values, starting with
      */
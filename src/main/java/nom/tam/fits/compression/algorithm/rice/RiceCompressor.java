@@ -62,7 +62,7 @@ public abstract class RiceCompressor<T extends Buffer> implements ICompressor<T>
         private ByteBuffer pixelBuffer;
 
         public ByteRiceCompressor(RiceCompressOption option) {
-            super(option.setDefaultBytePix(PrimitiveTypes.BYTE.size()));
+            super(option, PrimitiveTypes.BYTE.size());
         }
 
         @Override
@@ -108,7 +108,7 @@ public abstract class RiceCompressor<T extends Buffer> implements ICompressor<T>
         private IntBuffer pixelBuffer;
 
         public IntRiceCompressor(RiceCompressOption option) {
-            super(option.setDefaultBytePix(PrimitiveTypes.INT.size()));
+            super(option, PrimitiveTypes.INT.size());
         }
 
         @Override
@@ -140,7 +140,7 @@ public abstract class RiceCompressor<T extends Buffer> implements ICompressor<T>
         private ShortBuffer pixelBuffer;
 
         public ShortRiceCompressor(RiceCompressOption option) {
-            super(option.setDefaultBytePix(PrimitiveTypes.SHORT.size()));
+            super(option, PrimitiveTypes.SHORT.size());
         }
 
         @Override
@@ -216,17 +216,33 @@ public abstract class RiceCompressor<T extends Buffer> implements ICompressor<T>
     };
     // @formatter:on
 
-    private final int bBits;
+    private final int defaultBytePix;
 
-    private final int bitsPerPixel;
+    private int bBits;
 
-    private final int blockSize;
+    private int bitsPerPixel;
 
-    private final int fsBits;
+    private int blockSize;
 
-    private final int fsMax;
+    private int fsBits;
 
-    private RiceCompressor(RiceCompressOption option) {
+    private int fsMax;
+
+    private RiceCompressor(RiceCompressOption option, int defaultBytePix) {
+        this.defaultBytePix = defaultBytePix;
+        setOption(option);
+    }
+
+    /**
+     * apply the block size and bytes per pixel of an option, the whole state
+     * of the compressor, so that one compressor can be reused for tiles with
+     * different options.
+     *
+     * @param option
+     *            the option to use for the following calls.
+     */
+    public void setOption(RiceCompressOption option) {
+        option.setDefaultBytePix(this.defaultBytePix);
         this.blockSize = option.getBlockSize();
         if (option.getBytePix() == PrimitiveTypes.BYTE.size()) {
             this.fsBits = FS_BITS_FOR_BYTE;
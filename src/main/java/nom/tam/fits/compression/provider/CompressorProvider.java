@@ -35,7 +35,9 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,6 +47,8 @@ import nom.tam.fits.FitsException;
 import nom.tam.fits.compression.algorithm.api.ICompressOption;
 import nom.tam.fits.compression.algorithm.api.ICompressor;
 import nom.tam.fits.compression.algorithm.api.ICompressorControl;
+import nom.tam.fits.compression.algorithm.gzip.GZipCompressOption;
+import nom.tam.fits.compression.algorithm.gzip.GZipCompressor;
 import nom.tam.fits.compression.algorithm.gzip.GZipCompressor.ByteGZipCompressor;
 import nom.tam.fits.compression.algorithm.gzip.GZipCompressor.DoubleGZipCompressor;
 import nom.tam.fits.compression.algorithm.gzip.GZipCompressor.FloatGZipCompressor;
@@ -65,6 +69,8 @@ import nom.tam.fits.compression.algorithm.hcompress.HCompressor.ShortHCompressor
 import nom.tam.fits.compression.algorithm.plio.PLIOCompress.BytePLIOCompressor;
 import nom.tam.fits.compression.algorithm.plio.PLIOCompress.IntPLIOCompressor;
 import nom.tam.fits.compression.algorithm.plio.PLIOCompress.ShortPLIOCompressor;
+import nom.tam.fits.compression.algorithm.rice.RiceCompressOption;
+import nom.tam.fits.compression.algorithm.rice.RiceCompressor;
 import nom.tam.fits.compression.algorithm.rice.RiceCompressor.ByteRiceCompressor;
 import nom.tam.fits.compression.algorithm.rice.RiceCompressor.DoubleRiceCompressor;
 import nom.tam.fits.compression.algorithm.rice.RiceCompressor.FloatRiceCompressor;
@@ -99,6 +105,20 @@ public class CompressorProvider implements ICompressorProvider {
 
         private final Class<? extends ICompressOption> optionClass;
 
+        /**
+         * true for compressors that take their option on every call, such
+         * compressors are reused like the ones without option.
+         */
+        private final boolean optionPerCall;
+
+        /**
+         * compressors without option (or used without one, like for the table
+         * tiles) are independent of the tile, so every thread reuses one
+         * instance for all tiles instead of creating a new compressor (and its
+         * work buffers) per tile.
+         */
+        private final ThreadLocal<ICompressor<Buffer>> threadCompressor = new ThreadLocal<ICompressor<Buffer>>();
+
         private final Constructor<ICompressParameters> parametersConstructor;
 
         protected TileCompressorControl(Class<?> compressorClass) {
@@ -107,8 +127,9 @@ public class CompressorProvider implements ICompressorProvider {
 
         @SuppressWarnings("unchecked")
         protected TileCompressorControl(Class<?> compressorClass, Class<?> parametersClass) {
-            this.constructor = (Constructor<ICompressor<Buffer>>) compressorClass.getConstructors()[0];
+            this.constructor = (Constructor<ICompressor<Buffer>>) optionConstructor(compressorClass);
             this.optionClass = (Class<? extends ICompressOption>) (this.constructor.getParameterTypes().length == 0 ? null : this.constructor.getParameterTypes()[0]);
+            this.optionPerCall = GZipCompressor.class.isAssignableFrom(compressorClass) || RiceCompressor.class.isAssignableFrom(compressorClass);
             if (parametersClass != null) {
                 this.parametersConstructor = (Constructor<ICompressParameters>) parametersClass.getConstructors()[0];
             } else {
@@ -153,8 +174,37 @@ public class CompressorProvider implements ICompressorProvider {
             return NULL_OPTION;
         }
 
+        /**
+         * compressors may offer a default constructor next to the option
+         * based one, the option based constructor is preferred.
+         */
+        private static Constructor<?> optionConstructor(Class<?> compressorClass) {
+            Constructor<?> result = null;
+            for (Constructor<?> constructor : compressorClass.getConstructors()) {
+                if (result == null || constructor.getParameterTypes().length > result.getParameterTypes().length) {
+                    result = constructor;
+                }
+            }
+            return result;
+        }
+
         private ICompressor<Buffer> newCompressor(ICompressOption option) throws InstantiationException, IllegalAccessException, InvocationTargetException {
-            return this.constructor.getParameterTypes().length == 0 ? this.constructor.newInstance() : this.constructor.newInstance(option);
+            if (this.optionClass != null && option != null && !this.optionPerCall) {
+                // the option state, like the quantization of the tile, is
+                // fixed at construction of these compressors.
+                return this.constructor.newInstance(option);
+            }
+            ICompressor<Buffer> compressor = this.threadCompressor.get();
+            if (compressor == null) {
+                compressor = this.optionClass == null ? this.constructor.newInstance() : this.constructor.newInstance(option);
+                this.threadCompressor.set(compressor);
+            }
+            if (compressor instanceof GZipCompressor) {
+                ((GZipCompressor<?>) compressor).setOption(option == null ? null : option.unwrap(GZipCompressOption.class));
+            } else if (compressor instanceof RiceCompressor && option != null) {
+                ((RiceCompressor<?>) compressor).setOption(option.unwrap(RiceCompressOption.class));
+            }
+            return compressor;
         }
     }
 
@@ -270,6 +320,12 @@ public class CompressorProvider implements ICompressorProvider {
 
     private static final CompressorControlNameComputer NAME_COMPUTER = new CompressorControlNameComputer();
 
+    /**
+     * the controls are immutable (apart from the thread confined compressors),
+     * so they are created only once per compressor class and shared.
+     */
+    private static final Map<Class<?>, ICompressorControl> CONTROLS = new ConcurrentHashMap<Class<?>, ICompressorControl>();
+
     /**
      * logger to log to.
      */
@@ -297,12 +353,17 @@ public class CompressorProvider implements ICompressorProvider {
         for (Class<?>[] clazz : AVAILABLE_COMPRESSORS) {
             Class<?> compressorClass = clazz[0];
             if (compressorClass.getSimpleName().equals(className)) {
-                if (clazz.length > 1) {
-                    Class<?> parametersClass = clazz[1];
-                    return new TileCompressorControl(compressorClass, parametersClass);
-                } else {
-                    return new TileCompressorControl(compressorClass);
+                ICompressorControl control = CONTROLS.get(compressorClass);
+                if (control == null) {
+                    if (clazz.length > 1) {
+                        Class<?> parametersClass = clazz[1];
+                        control = new TileCompressorControl(compressorClass, parametersClass);
+                    } else {
+                        control = new TileCompressorControl(compressorClass);
+                    }
+                    CONTROLS.put(compressorClass, control);
                 }
+                return control;
             }
         }
         return null;
@@ -33,6 +33,8 @@ package nom.tam.fits.compression.provider.param.base;
 
 import static nom.tam.fits.header.Standard.TTYPEn;
 
+import java.lang.reflect.Array;
+
 import nom.tam.fits.BinaryTable;
 import nom.tam.fits.BinaryTableHDU;
 import nom.tam.fits.FitsException;
@@ -76,6 +78,34 @@ public abstract class CompressParameters implements ICompressParameters {
         }
     }
 
+    /**
+     * initialize the column based options of a single entry from its row in the
+     * binary table, without reading the complete columns. Entries that were not
+     * initialized this way stay at the default value.
+     * 
+     * @param header
+     *            the header of the hdu
+     * @param row
+     *            the row of the binary table
+     * @param index
+     *            the index of the row in the columns
+     * @param size
+     *            the column size
+     */
+    public void initializeColumns(IHeaderAccess header, Object[] row, int index, int size) {
+        for (ICompressColumnParameter parameter : columnParameters()) {
+            Object value = getNullableElement(header, row, parameter.getName());
+            if (value != null) {
+                Object column = parameter.column();
+                if (column == null) {
+                    column = Array.newInstance(value.getClass().getComponentType(), size);
+                    parameter.column(column, size);
+                }
+                Array.set(column, index, Array.get(value, 0));
+            }
+        }
+    }
+
     @Override
     public void initializeColumns(int size) {
         for (ICompressColumnParameter parameter : columnParameters()) {
@@ -97,6 +127,16 @@ public abstract class CompressParameters implements ICompressParameters {
         }
     }
 
+    private Object getNullableElement(IHeaderAccess header, Object[] row, String columnName) {
+        for (int i = 1; i <= row.length; i++) {
+            HeaderCard card = header.findCard(TTYPEn.n(i));
+            if (card != null && card.getValue().trim().equals(columnName)) {
+                return row[i - 1];
+            }
+        }
+        return null;
+    }
+
     private Object getNullableColumn(IHeaderAccess header, BinaryTable binaryTable, String columnName) throws FitsException {
         for (int i = 1; i <= binaryTable.getNCols(); i++) {
             HeaderCard card = header.findCard(TTYPEn.n(i));
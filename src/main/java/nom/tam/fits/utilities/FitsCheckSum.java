@@ -38,16 +38,29 @@ import static nom.tam.util.FitsIO.BYTE_2_OF_LONG_MASK;
 import static nom.tam.util.FitsIO.BYTE_3_OF_LONG_MASK;
 import static nom.tam.util.FitsIO.BYTE_4_OF_LONG_MASK;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import nom.tam.fits.BasicHDU;
 import nom.tam.fits.FitsException;
+import nom.tam.fits.FitsFactory;
 import nom.tam.fits.Header;
 import nom.tam.util.AsciiFuncs;
 import nom.tam.util.BufferedDataOutputStream;
+import nom.tam.util.BufferedFile;
 import nom.tam.util.FitsIO;
+import nom.tam.util.MappedFile;
+import nom.tam.util.ParallelTasks;
+import nom.tam.util.RandomAccess;
 
 public final class FitsCheckSum {
 
@@ -62,6 +75,22 @@ public final class FitsCheckSum {
 
     private static final int CHECKSUM_HALF_BLOCK_SIZE = 2;
 
+    /**
+     * size of the blocks read when checksumming a file in place (64 FITS
+     * blocks).
+     */
+    private static final int CHECKSUM_READ_BLOCK_SIZE = 64 * FitsFactory.FITS_BLOCK_SIZE;
+
+    /**
+     * size of the 4-byte aligned chunks that are summed in parallel (8 MB).
+     */
+    private static final int PARALLEL_CHECKSUM_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * smaller sections are summed in the calling thread.
+     */
+    private static final int PARALLEL_CHECKSUM_MIN_SIZE = 2 * PARALLEL_CHECKSUM_CHUNK_SIZE;
+
     /**
      * Calculate the Seaman-Pence 32-bit 1's complement checksum over the byte
      * stream. The option to start from an intermediate checksum accumulated
@@ -82,39 +111,90 @@ public final class FitsCheckSum {
      * @since 2005-10-05
      */
     public static long checksum(final byte[] data) {
-        long hi = 0;
-        long lo = 0;
-        final int len = CHECKSUM_HALF_BLOCK_SIZE * (data.length / CHECKSUM_BLOCK_SIZE);
-        // System.out.println(data.length + " bytes") ;
         final int remain = data.length % CHECKSUM_BLOCK_SIZE;
         if (remain != 0) {
             throw new IllegalArgumentException("fits blocks always must be devidable by 4");
         }
-        /*
-         * a write(2) on Sparc/PA-RISC would write the MSB first, on Linux the
-         * LSB; by some kind of coincidence, we can stay with the byte order
-         * known from the original C version of the algorithm.
-         */
-        for (int i = 0; i < len; i += CHECKSUM_HALF_BLOCK_SIZE) {
-            /*
-             * The four bytes in this block handled by a single 'i' are each
-             * signed (-128 to 127) in Java and need to be masked indivdually to
-             * avoid sign extension /propagation.
-             */
-            int offset = CHECKSUM_HALF_BLOCK_SIZE * i;
-            hi += data[offset++] << FitsIO.BITS_OF_1_BYTE & BYTE_2_OF_LONG_MASK | data[offset++] & BYTE_1_OF_LONG_MASK;
-            lo += data[offset++] << FitsIO.BITS_OF_1_BYTE & BYTE_2_OF_LONG_MASK | data[offset++] & BYTE_1_OF_LONG_MASK;
+        return checksum(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Calculate the checksum of the remaining bytes of the buffer, for example
+     * the data unit of a HDU in memory or in a mapped file. The checksum is
+     * associative over 4-byte aligned chunks, so large buffers are split into
+     * chunks that are summed in parallel on the thread pool of the
+     * {@link FitsFactory}, with the calling thread summing every chunk no
+     * worker has taken yet, and combined with end-around carry. Incomplete 4-byte
+     * groups at the end count as if they were padded with zeros. The position
+     * of the buffer is not changed.
+     *
+     * @param data
+     *            the bytes to checksum
+     * @return the 32bit checksum in the range from 0 to 2^32-1
+     */
+    public static long checksum(ByteBuffer data) {
+        if (data.remaining() < PARALLEL_CHECKSUM_MIN_SIZE) {
+            return sum(data);
         }
+        List<Callable<Long>> parts = new ArrayList<Callable<Long>>();
+        for (long start = data.position(); start < data.limit(); start += PARALLEL_CHECKSUM_CHUNK_SIZE) {
+            final ByteBuffer part = data.duplicate();
+            part.position((int) start);
+            part.limit((int) Math.min(start + PARALLEL_CHECKSUM_CHUNK_SIZE, data.limit()));
+            parts.add(new Callable<Long>() {
 
-        long hicarry = hi >>> FitsIO.BITS_OF_2_BYTES;
-        long locarry = lo >>> FitsIO.BITS_OF_2_BYTES;
-        while (hicarry != 0 || locarry != 0) {
-            hi = (hi & FitsIO.SHORT_OF_LONG_MASK) + locarry;
-            lo = (lo & FitsIO.SHORT_OF_LONG_MASK) + hicarry;
-            hicarry = hi >>> FitsIO.BITS_OF_2_BYTES;
-            locarry = lo >>> FitsIO.BITS_OF_2_BYTES;
+                @Override
+                public Long call() {
+                    return sum(part);
+                }
+            });
+        }
+        try {
+            return combine(ParallelTasks.run(FitsFactory.threadPool(), parts));
+        } catch (IOException e) {
+            throw new IllegalStateException("could not compute the checksum", e);
+        }
+    }
+
+    /**
+     * Calculate the checksum of a section of a random access file, for example
+     * the header or the data of a HDU on disk. The section is read in blocks,
+     * so the size of the section is not limited by the available memory. Large
+     * sections of a {@link BufferedFile} or {@link MappedFile} are mapped in
+     * chunks that are summed in parallel (see {@link #checksum(ByteBuffer)}).
+     * The file position is restored afterwards.
+     *
+     * @param in
+     *            the file to read
+     * @param offset
+     *            the position of the section in the file
+     * @param length
+     *            the number of bytes in the section
+     * @return the 32bit checksum in the range from 0 to 2^32-1
+     * @throws IOException
+     *             if the section could not be read
+     */
+    public static long checksum(RandomAccess in, long offset, long length) throws IOException {
+        FileChannel channel = channelOf(in);
+        if (channel != null && length >= PARALLEL_CHECKSUM_MIN_SIZE) {
+            return checksum(channel, offset, length);
+        }
+        long oldPosition = in.getFilePointer();
+        try {
+            FitsCheckSumOutputStream sum = new FitsCheckSumOutputStream();
+            byte[] block = new byte[(int) Math.min(length, CHECKSUM_READ_BLOCK_SIZE)];
+            in.seek(offset);
+            long remaining = length;
+            while (remaining > 0) {
+                int count = (int) Math.min(remaining, block.length);
+                in.readFully(block, 0, count);
+                sum.write(block, 0, count);
+                remaining -= count;
+            }
+            return sum.getCheckSum();
+        } finally {
+            in.seek(oldPosition);
         }
-        return hi << FitsIO.BITS_OF_2_BYTES | lo;
     }
 
     /**
@@ -190,6 +270,48 @@ public final class FitsCheckSum {
         return resul.concat(AsciiFuncs.asciiString(asc, 0, CHECKSUM_STRING_SIZE - 1));
     }
 
+    /**
+     * Verify the DATASUM and CHECKSUM keywords of a HDU against the bytes of
+     * the HDU in the file it was read from. The HDU is checksummed in place
+     * block by block, the data of the HDU does not have to be in memory.
+     *
+     * @param hdu
+     *            the HDU read from the file
+     * @param in
+     *            the file the HDU was read from
+     * @return true if the HDU has a DATASUM and/or CHECKSUM keyword and all of
+     *         them are valid.
+     * @throws FitsException
+     *             if the HDU was not read from a file or the file could not be
+     *             read
+     */
+    public static boolean verify(BasicHDU<?> hdu, RandomAccess in) throws FitsException {
+        Header header = hdu.getHeader();
+        boolean hasDataSum = header.containsKey(DATASUM);
+        boolean hasCheckSum = header.containsKey(CHECKSUM);
+        if (!hasDataSum && !hasCheckSum) {
+            return false;
+        }
+        long headerOffset = hdu.getFileOffset();
+        long dataOffset = hdu.getData().getFileOffset();
+        if (headerOffset < 0 || dataOffset < headerOffset) {
+            throw new FitsException("the HDU was not read from a random access file");
+        }
+        try {
+            long dataSum = checksum(in, dataOffset, hdu.getData().getSize());
+            if (hasDataSum && !Long.toString(dataSum).equals(header.getStringValue(DATASUM).trim())) {
+                return false;
+            }
+            if (hasCheckSum) {
+                long headerSum = checksum(in, headerOffset, dataOffset - headerOffset);
+                return add(headerSum, dataSum) == FitsIO.INTEGER_MASK;
+            }
+            return true;
+        } catch (IOException e) {
+            throw new FitsException("Could not verify the checksum!", e);
+        }
+    }
+
     /**
      * Add or update the CHECKSUM keyword. by R J Mathar
      *
@@ -216,42 +338,34 @@ public final class FitsCheckSum {
             hdr.addValue(CHECKSUM, "0000000000000000");
             hdr.addValue(DATASUM, "0");
 
-            // write the header to stream to get the cards sorted. no need to
-            // flush because we will ignore the data.
-            ByteArrayOutputStream hduByteImage = new ByteArrayOutputStream();
-            hdu.getHeader().write(new BufferedDataOutputStream(hduByteImage));
-            hduByteImage.reset();
+            // write the header to stream to get the cards sorted.
+            FitsCheckSumOutputStream hduChecksum = new FitsCheckSumOutputStream();
+            BufferedDataOutputStream bdos = new BufferedDataOutputStream(hduChecksum);
+            hdu.getHeader().write(bdos);
+            bdos.flush();
+            hduChecksum.reset();
 
             /*
-             * Convert the entire sequence of 2880 byte header cards into a byte
-             * tiledImageOperation. The main benefit compared to the C
+             * Stream the data through the checksum instead of collecting a
+             * byte image of it. The main benefit compared to the C
              * implementations is that we do not need to worry about the
              * particular byte order on machines (Linux/VAX/MIPS vs Hp-UX,
              * Sparc...) supposed that the correct implementation is in the
              * write() interface.
              */
-            BufferedDataOutputStream bdos = new BufferedDataOutputStream(hduByteImage);
             hdu.getData().write(bdos);
             bdos.flush();
-            
-            long csd = checksum(hduByteImage.toByteArray());
+
+            long csd = hduChecksum.getCheckSum();
             hdu.getHeader().card(DATASUM).value(Long.toString(csd));
 
             // We already have the checksum of the data. Lets compute it for
             // the header.
-            hduByteImage.reset();
+            hduChecksum.reset();
             hdu.getHeader().write(bdos);
             bdos.flush();
-            
-            long csh = checksum(hduByteImage.toByteArray());
-            
-            long cshdu = csh + csd;
-            // If we had a carry it should go into the
-            // beginning.
-            while ((cshdu & FitsIO.HIGH_INTEGER_MASK) != 0) {
-                long cshduIntPart = cshdu & FitsIO.INTEGER_MASK;
-                cshdu = cshduIntPart + 1;
-            }
+
+            long cshdu = add(hduChecksum.getCheckSum(), csd);
             /*
              * This time we do not use a deleteKey() to ensure that the keyword
              * is replaced "in place". Note that the value of the checksum is
@@ -264,6 +378,136 @@ public final class FitsCheckSum {
         }
     }
 
+    private static FileChannel channelOf(RandomAccess in) throws IOException {
+        if (in instanceof MappedFile) {
+            return ((MappedFile) in).getChannel();
+        } else if (in instanceof BufferedFile) {
+            // pending writes must be visible to the channel.
+            ((BufferedFile) in).flush();
+            return ((BufferedFile) in).getChannel();
+        }
+        return null;
+    }
+
+    private static long checksum(final FileChannel channel, long offset, long length) throws IOException {
+        List<Callable<Long>> parts = new ArrayList<Callable<Long>>();
+        long end = offset + length;
+        for (long start = offset; start < end; start += PARALLEL_CHECKSUM_CHUNK_SIZE) {
+            final long partStart = start;
+            final long partLength = Math.min(PARALLEL_CHECKSUM_CHUNK_SIZE, end - start);
+            parts.add(new Callable<Long>() {
+
+                @Override
+                public Long call() throws IOException {
+                    return sum(channel.map(MapMode.READ_ONLY, partStart, partLength));
+                }
+            });
+        }
+        return combine(ParallelTasks.run(FitsFactory.threadPool(), parts));
+    }
+
+    private static long combine(List<Future<Long>> parts) throws IOException {
+        long result = 0;
+        try {
+            for (Future<Long> part : parts) {
+                result = add(result, part.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while computing the checksum", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("could not compute the checksum", e.getCause());
+        }
+        return result;
+    }
+
+    /**
+     * add two checksums in 1's complement arithmetic, a carry out of the 32
+     * bits goes back into the lowest bit.
+     */
+    private static long add(long checksum1, long checksum2) {
+        long sum = checksum1 + checksum2;
+        while ((sum & FitsIO.HIGH_INTEGER_MASK) != 0) {
+            sum = (sum & FitsIO.INTEGER_MASK) + (sum >>> FitsIO.BITS_OF_4_BYTES);
+        }
+        return sum;
+    }
+
+    /**
+     * reduce the two 16-bit sums of the high-order and the low-order byte
+     * pairs to the 32-bit checksum, folding the carries over.
+     */
+    static long fold(long hiSum, long loSum) {
+        long hi = hiSum;
+        long lo = loSum;
+        long hicarry = hi >>> FitsIO.BITS_OF_2_BYTES;
+        long locarry = lo >>> FitsIO.BITS_OF_2_BYTES;
+        while (hicarry != 0 || locarry != 0) {
+            hi = (hi & FitsIO.SHORT_OF_LONG_MASK) + locarry;
+            lo = (lo & FitsIO.SHORT_OF_LONG_MASK) + hicarry;
+            hicarry = hi >>> FitsIO.BITS_OF_2_BYTES;
+            locarry = lo >>> FitsIO.BITS_OF_2_BYTES;
+        }
+        return hi << FitsIO.BITS_OF_2_BYTES | lo;
+    }
+
+    /**
+     * sum the remaining bytes of the buffer in the calling thread.
+     */
+    private static long sum(ByteBuffer data) {
+        if (data.hasArray()) {
+            return sum(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        ByteBuffer buffer = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+        long hi = 0;
+        long lo = 0;
+        while (buffer.remaining() >= CHECKSUM_BLOCK_SIZE) {
+            int value = buffer.getInt();
+            hi += value >>> FitsIO.BITS_OF_2_BYTES;
+            lo += value & FitsIO.SHORT_MASK;
+        }
+        int shift = FitsIO.BITS_OF_3_BYTES;
+        long rest = 0;
+        while (buffer.hasRemaining()) {
+            rest |= (buffer.get() & BYTE_1_OF_LONG_MASK) << shift;
+            shift -= FitsIO.BITS_OF_1_BYTE;
+        }
+        return fold(hi + (rest >>> FitsIO.BITS_OF_2_BYTES), lo + (rest & FitsIO.SHORT_OF_LONG_MASK));
+    }
+
+    /**
+     * sum a section of the array in the calling thread.
+     */
+    private static long sum(byte[] data, int start, int length) {
+        long hi = 0;
+        long lo = 0;
+        int end = start + length - length % CHECKSUM_BLOCK_SIZE;
+        int offset = start;
+        /*
+         * a write(2) on Sparc/PA-RISC would write the MSB first, on Linux the
+         * LSB; by some kind of coincidence, we can stay with the byte order
+         * known from the original C version of the algorithm.
+         */
+        while (offset < end) {
+            /*
+             * The four bytes in this block are each signed (-128 to 127) in
+             * Java and need to be masked indivdually to avoid sign extension
+             * /propagation.
+             */
+            hi += data[offset++] << FitsIO.BITS_OF_1_BYTE & BYTE_2_OF_LONG_MASK | data[offset++] & BYTE_1_OF_LONG_MASK;
+            lo += data[offset++] << FitsIO.BITS_OF_1_BYTE & BYTE_2_OF_LONG_MASK | data[offset++] & BYTE_1_OF_LONG_MASK;
+        }
+        if (offset < start + length) {
+            byte[] rest = new byte[CHECKSUM_BLOCK_SIZE];
+            System.arraycopy(data, offset, rest, 0, start + length - offset);
+            return add(fold(hi, lo), sum(rest, 0, CHECKSUM_BLOCK_SIZE));
+        }
+        return fold(hi, lo);
+    }
+
     private FitsCheckSum() {
     }
 }
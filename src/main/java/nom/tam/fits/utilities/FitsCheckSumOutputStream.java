@@ -0,0 +1,172 @@
+package nom.tam.fits.utilities;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import nom.tam.util.FitsIO;
+
+/**
+ * Output stream decorator that computes the Seaman-Pence 32-bit 1's
+ * complement checksum (see {@link FitsCheckSum#checksum(byte[])}) of all bytes
+ * written through it, while passing them on to the underlying stream. Wrapped
+ * in a {@link nom.tam.util.BufferedDataOutputStream} it gives an
+ * {@link nom.tam.util.ArrayDataOutput} that checksums a HDU while it is
+ * written, without keeping a copy of the data in memory.
+ */
+public class FitsCheckSumOutputStream extends FilterOutputStream {
+
+    /**
+     * the checksum sums up groups of 4 bytes, this is the mask of the index
+     * within such a group.
+     */
+    private static final int GROUP_INDEX_MASK = 3;
+
+    private static final OutputStream DISCARD = new OutputStream() {
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+
+        @Override
+        public void write(int b) {
+        }
+    };
+
+    /**
+     * sum of the two high-order bytes of the 4-byte groups.
+     */
+    private long hi;
+
+    /**
+     * sum of the two low-order bytes of the 4-byte groups.
+     */
+    private long lo;
+
+    private long count;
+
+    /**
+     * create a stream that only computes the checksum and discards the bytes.
+     */
+    public FitsCheckSumOutputStream() {
+        this(DISCARD);
+    }
+
+    /**
+     * @param out
+     *            the stream to pass the bytes on to.
+     */
+    public FitsCheckSumOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * @return the number of bytes checksummed since the creation or the last
+     *         {@link #reset()}.
+     */
+    public long getByteCount() {
+        return this.count;
+    }
+
+    /**
+     * @return the 32bit checksum of the bytes written since the creation or
+     *         the last {@link #reset()}, in the range from 0 to 2^32-1.
+     *         Incomplete 4-byte groups at the end count as if they were padded
+     *         with zeros.
+     */
+    public long getCheckSum() {
+        return FitsCheckSum.fold(this.hi, this.lo);
+    }
+
+    /**
+     * restart the checksum computation, the underlying stream is not
+     * affected.
+     */
+    public void reset() {
+        this.hi = 0;
+        this.lo = 0;
+        this.count = 0;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        update(b, off, len);
+        this.out.write(b, off, len);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        add(b);
+        this.out.write(b);
+    }
+
+    private void add(int b) {
+        int value = b & FitsIO.BYTE_MASK;
+        switch ((int) (this.count++ & GROUP_INDEX_MASK)) {
+            case 0:
+                this.hi += value << FitsIO.BITS_OF_1_BYTE;
+                break;
+            case 1:
+                this.hi += value;
+                break;
+            case 2:
+                this.lo += value << FitsIO.BITS_OF_1_BYTE;
+                break;
+            default:
+                this.lo += value;
+        }
+    }
+
+    private void update(byte[] b, int off, int len) {
+        int index = off;
+        int end = off + len;
+        while (index < end && (this.count & GROUP_INDEX_MASK) != 0) {
+            add(b[index++]);
+        }
+        int groupsEnd = index + (end - index & ~GROUP_INDEX_MASK);
+        long high = this.hi;
+        long low = this.lo;
+        int offset = index;
+        while (offset < groupsEnd) {
+            high += b[offset++] << FitsIO.BITS_OF_1_BYTE & FitsIO.BYTE_2_OF_LONG_MASK | b[offset++] & FitsIO.BYTE_1_OF_LONG_MASK;
+            low += b[offset++] << FitsIO.BITS_OF_1_BYTE & FitsIO.BYTE_2_OF_LONG_MASK | b[offset++] & FitsIO.BYTE_1_OF_LONG_MASK;
+        }
+        this.hi = high;
+        this.lo = low;
+        this.count += groupsEnd - index;
+        for (index = groupsEnd; index < end; index++) {
+            add(b[index]);
+        }
+    }
+}
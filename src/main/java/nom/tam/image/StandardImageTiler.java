@@ -35,14 +35,22 @@ import java.io.IOException;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import nom.tam.util.ArrayFuncs;
+import nom.tam.util.PositionalReader;
 import nom.tam.util.RandomAccess;
 
 /**
  * This class provides a subset of an N-dimensional image. Modified May 2, 2000
- * by T. McGlynn to permit tiles that go off the edge of the image.
+ * by T. McGlynn to permit tiles that go off the edge of the image. Image data
+ * is read from the file with positional reads that leave the file pointer
+ * alone, so tiles of one file may be read by several threads at once.
  */
 public abstract class StandardImageTiler implements ImageTiler {
 
+    /**
+     * The number of row segments collected before they are read together.
+     */
+    private static final int SEGMENT_BATCH = 4096;
+
     /**
      * @return the offset of a given position.
      * @param dims
@@ -50,9 +58,9 @@ public abstract class StandardImageTiler implements ImageTiler {
      * @param pos
      *            The index requested.
      */
-    public static int getOffset(int[] dims, int[] pos) {
+    public static long getOffset(int[] dims, int[] pos) {
 
-        int offset = 0;
+        long offset = 0;
         for (int i = 0; i < dims.length; i += 1) {
             if (i > 0) {
                 offset *= dims[i];
@@ -97,6 +105,16 @@ public abstract class StandardImageTiler implements ImageTiler {
 
     private final Class<?> base;
 
+    /**
+     * true if a subclass overrides the single segment read.
+     */
+    private final boolean segmentHook;
+
+    /**
+     * true if a subclass overrides the deprecated int offset segment read.
+     */
+    private final boolean intSegmentHook;
+
     /**
      * Create a tiler.
      * 
@@ -118,6 +136,32 @@ public abstract class StandardImageTiler implements ImageTiler {
         this.fileOffset = fileOffset;
         this.dims = dims;
         this.base = base;
+        this.intSegmentHook = overridesSegmentRead(getClass(), int.class);
+        this.segmentHook = this.intSegmentHook || overridesSegmentRead(getClass(), long.class);
+    }
+
+    /**
+     * File a tile segment from a file. Segments are read through this method
+     * only if a subclass overrides it, otherwise neighbouring segments are
+     * merged into larger reads.
+     * 
+     * @param output
+     *            The output tile.
+     * @param delta
+     *            The offset from the beginning of the image in bytes.
+     * @param outputOffset
+     *            The index into the output array.
+     * @param segment
+     *            The number of elements to be read for this segment.
+     * @throws IOException
+     *             if the underlying stream failed
+     */
+    protected void fillFileData(Object output, long delta, int outputOffset, int segment) throws IOException {
+        if (this.intSegmentHook && delta <= Integer.MAX_VALUE) {
+            fillFileData(output, (int) delta, outputOffset, segment);
+        } else {
+            readSegment(output, delta, outputOffset, segment);
+        }
     }
 
     /**
@@ -133,25 +177,70 @@ public abstract class StandardImageTiler implements ImageTiler {
      *            The number of elements to be read for this segment.
      * @throws IOException
      *             if the underlying stream failed
+     * @deprecated override {@link #fillFileData(Object, long, int, int)},
+     *             which also handles images beyond 2 GB.
      */
-    @SuppressFBWarnings(value = "RR_NOT_CHECKED", justification = "this read will never return less than the requested length")
+    @Deprecated
     protected void fillFileData(Object output, int delta, int outputOffset, int segment) throws IOException {
-
-        this.randomAccessFile.seek(this.fileOffset + delta);
-
-        if (this.base == float.class) {
-            this.randomAccessFile.read((float[]) output, outputOffset, segment);
-        } else if (this.base == int.class) {
-            this.randomAccessFile.read((int[]) output, outputOffset, segment);
-        } else if (this.base == short.class) {
-            this.randomAccessFile.read((short[]) output, outputOffset, segment);
-        } else if (this.base == double.class) {
-            this.randomAccessFile.read((double[]) output, outputOffset, segment);
-        } else if (this.base == byte.class) {
-            this.randomAccessFile.read((byte[]) output, outputOffset, segment);
-        } else if (this.base == long.class) {
-            this.randomAccessFile.read((long[]) output, outputOffset, segment);
+        if (this.intSegmentHook) {
+            readSegment(output, delta, outputOffset, segment);
         } else {
+            fillFileData(output, (long) delta, outputOffset, segment);
+        }
+    }
+
+    private void readSegment(Object output, long delta, int outputOffset, int segment) throws IOException {
+        checkBase();
+        PositionalReader.read(this.randomAccessFile, this.fileOffset + delta, output, outputOffset, segment);
+    }
+
+    /**
+     * Fill several tile segments from the file, merging segments that are
+     * close in the file into larger reads.
+     * 
+     * @param output
+     *            The output tile.
+     * @param deltas
+     *            The offsets from the beginning of the image in bytes, made
+     *            absolute in place.
+     * @param outputOffsets
+     *            The indexes into the output array.
+     * @param segments
+     *            The number of elements to be read for each segment.
+     * @param count
+     *            The number of segments.
+     * @throws IOException
+     *             if the underlying stream failed
+     */
+    private void fillFileSegments(Object output, long[] deltas, int[] outputOffsets, int[] segments, int count) throws IOException {
+        if (count == 1 || this.segmentHook) {
+            for (int i = 0; i < count; i++) {
+                fillFileData(output, deltas[i], outputOffsets[i], segments[i]);
+            }
+            return;
+        }
+        checkBase();
+        for (int i = 0; i < count; i++) {
+            deltas[i] += this.fileOffset;
+        }
+        PositionalReader.readSegments(this.randomAccessFile, deltas, output, outputOffsets, segments, count);
+    }
+
+    private static boolean overridesSegmentRead(Class<?> tilerClass, Class<?> deltaType) {
+        for (Class<?> type = tilerClass; type != null && type != StandardImageTiler.class; type = type.getSuperclass()) {
+            try {
+                type.getDeclaredMethod("fillFileData", Object.class, deltaType, int.class, int.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // look further up.
+            }
+        }
+        return false;
+    }
+
+    private void checkBase() throws IOException {
+        if (this.base != float.class && this.base != int.class && this.base != short.class && this.base != double.class && this.base != byte.class
+                && this.base != long.class) {
             throw new IOException("Invalid type for tile array");
         }
     }
@@ -228,13 +317,19 @@ public abstract class StandardImageTiler implements ImageTiler {
         int segment = lengths[n - 1];
 
         System.arraycopy(corners, 0, posits, 0, n);
-        long currentOffset = 0;
-        if (data == null) {
-            currentOffset = this.randomAccessFile.getFilePointer();
-        }
 
         int outputOffset = 0;
 
+        long[] deltas = null;
+        int[] outputOffsets = null;
+        int[] segments = null;
+        int count = 0;
+        if (data == null) {
+            deltas = new long[SEGMENT_BATCH];
+            outputOffsets = new int[SEGMENT_BATCH];
+            segments = new int[SEGMENT_BATCH];
+        }
+
         do {
 
             // This implies there is some overlap
@@ -261,12 +356,12 @@ public abstract class StandardImageTiler implements ImageTiler {
                 if (data != null) {
                     fillMemData(data, posits, segment, o, outputOffset, 0);
                 } else {
-                    int offset = getOffset(newDims, posits) * baseLength;
+                    long offset = getOffset(newDims, posits) * baseLength;
 
                     // Point to offset at real beginning
                     // of segment
                     int actualLen = segment;
-                    int actualOffset = offset;
+                    long actualOffset = offset;
                     int actualOutput = outputOffset;
                     if (posits[mx] < 0) {
                         actualOffset -= posits[mx] * baseLength;
@@ -276,14 +371,21 @@ public abstract class StandardImageTiler implements ImageTiler {
                     if (posits[mx] + segment > newDims[mx]) {
                         actualLen -= posits[mx] + segment - newDims[mx];
                     }
-                    fillFileData(o, actualOffset, actualOutput, actualLen);
+                    deltas[count] = actualOffset;
+                    outputOffsets[count] = actualOutput;
+                    segments[count] = actualLen;
+                    count++;
+                    if (count == SEGMENT_BATCH) {
+                        fillFileSegments(o, deltas, outputOffsets, segments, count);
+                        count = 0;
+                    }
                 }
             }
             outputOffset += segment;
 
         } while (incrementPosition(corners, posits, lengths));
-        if (data == null) {
-            this.randomAccessFile.seek(currentOffset);
+        if (count > 0) {
+            fillFileSegments(o, deltas, outputOffsets, segments, count);
         }
     }
 
@@ -299,11 +401,8 @@ public abstract class StandardImageTiler implements ImageTiler {
         if (this.randomAccessFile == null) {
             throw new IOException("Attempt to read from null file");
         }
-        long currentOffset = this.randomAccessFile.getFilePointer();
         Object o = ArrayFuncs.newInstance(this.base, this.dims);
-        this.randomAccessFile.seek(this.fileOffset);
-        this.randomAccessFile.readLArray(o);
-        this.randomAccessFile.seek(currentOffset);
+        PositionalReader.readArray(this.randomAccessFile, this.fileOffset, o);
         return o;
     }
 
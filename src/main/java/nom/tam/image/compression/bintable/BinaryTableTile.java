@@ -40,11 +40,12 @@ import nom.tam.fits.HeaderCardException;
 import nom.tam.fits.compression.algorithm.api.ICompressorControl;
 import nom.tam.fits.compression.provider.CompressorProvider;
 import nom.tam.fits.header.Compression;
+import nom.tam.image.tile.operation.IExecutableTile;
 import nom.tam.util.ColumnTable;
 import nom.tam.util.type.PrimitiveType;
 import nom.tam.util.type.PrimitiveTypeHandler;
 
-public abstract class BinaryTableTile implements Runnable {
+public abstract class BinaryTableTile implements Runnable, IExecutableTile {
 
     protected final ColumnTable<?> data;
 
@@ -81,6 +82,7 @@ public abstract class BinaryTableTile implements Runnable {
         this.length = (this.rowEnd - this.rowStart) * data.getSizes()[this.column];
     }
 
+    @Override
     public void execute(ExecutorService threadPool) {
         this.future = threadPool.submit(this);
     }
@@ -93,6 +95,7 @@ public abstract class BinaryTableTile implements Runnable {
         return this.tileIndex;
     }
 
+    @Override
     public void waitForResult() {
         try {
             this.future.get();
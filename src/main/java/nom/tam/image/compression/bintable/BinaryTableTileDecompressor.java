@@ -49,7 +49,7 @@ public class BinaryTableTileDecompressor extends BinaryTableTile {
 
     public BinaryTableTileDecompressor(CompressedTableData binData, ColumnTable<?> columnTable, BinaryTableTileDescription description) throws FitsException {
         super(columnTable, description);
-        this.compressedBytes = ByteBuffer.wrap((byte[]) binData.getElement(this.rowStart, this.column));
+        this.compressedBytes = ByteBuffer.wrap((byte[]) binData.getElement(this.tileIndex - 1, this.column));
     }
 
     @Override
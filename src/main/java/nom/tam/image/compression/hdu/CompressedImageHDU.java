@@ -47,6 +47,7 @@ import nom.tam.fits.ImageHDU;
 import nom.tam.fits.compression.algorithm.api.ICompressOption;
 import nom.tam.fits.header.Compression;
 import nom.tam.fits.header.IFitsHeader;
+import nom.tam.image.ImageTiler;
 import nom.tam.util.Cursor;
 
 /**
@@ -168,6 +169,14 @@ public class CompressedImageHDU extends BinaryTableHDU {
         return getData().getUncompressedData(getHeader());
     }
 
+    /**
+     * @return a tiler that reads and decompresses only the tiles of the image
+     *         needed to create the requested sub-image.
+     */
+    public ImageTiler getTiler() {
+        return new CompressedImageTiler(this);
+    }
+
     /**
      * Check that this HDU has a valid header.
      *
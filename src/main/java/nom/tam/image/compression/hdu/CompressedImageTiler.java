@@ -0,0 +1,146 @@
+package nom.tam.image.compression.hdu;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import static nom.tam.fits.header.Compression.ZNAXIS;
+import static nom.tam.fits.header.Compression.ZNAXISn;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+
+import nom.tam.fits.FitsException;
+import nom.tam.fits.Header;
+import nom.tam.image.ImageTiler;
+import nom.tam.image.compression.tile.TiledImageCompressionOperation;
+import nom.tam.image.tile.operation.TileArea;
+import nom.tam.util.ArrayFuncs;
+
+/**
+ * Image tiler for compressed images. Only the tiles of the compressed image
+ * that intersect with the requested sub-image are read and decompressed, so
+ * small cutouts of big images do not need the decompression of the whole
+ * image. Corners and lengths are specified in java order, i.e. the last index
+ * is the x axis of the image.
+ */
+public class CompressedImageTiler implements ImageTiler {
+
+    private final CompressedImageHDU hdu;
+
+    private final int[] dims;
+
+    /**
+     * the tile description of the image, read once on first use.
+     */
+    private TiledImageCompressionOperation tiledImageOperation;
+
+    public CompressedImageTiler(CompressedImageHDU hdu) {
+        this.hdu = hdu;
+        Header header = hdu.getHeader();
+        this.dims = new int[header.getIntValue(ZNAXIS)];
+        for (int i = 0; i < this.dims.length; i++) {
+            this.dims[this.dims.length - i - 1] = header.getIntValue(ZNAXISn.n(i + 1));
+        }
+    }
+
+    @Override
+    public Object getCompleteImage() throws IOException {
+        try {
+            return ArrayFuncs.curl(this.hdu.getUncompressedData().array(), this.dims);
+        } catch (FitsException e) {
+            throw new IOException("could not decompress image", e);
+        }
+    }
+
+    @Override
+    public Object getTile(int[] corners, int[] lengths) throws IOException {
+        checkImage();
+        Object outArray = ArrayFuncs.newInstance(tiledImageOperation().getBaseType().primitiveClass(), checkRequest(corners, lengths));
+        getTile(outArray, corners, lengths);
+        return outArray;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws IllegalArgumentException
+     *             if the request is not two dimensional, not within the
+     *             image or does not fit the array.
+     */
+    @Override
+    public void getTile(Object array, int[] corners, int[] lengths) throws IOException {
+        checkImage();
+        int size = checkRequest(corners, lengths);
+        if (array == null || !array.getClass().isArray() || Array.getLength(array) < size) {
+            throw new IllegalArgumentException("Tile array does not hold the " + size + " pixels of the sub-image");
+        }
+        TileArea area = new TileArea().start(corners[1], corners[0]).end(corners[1] + lengths[1], corners[0] + lengths[0]);
+        try {
+            tiledImageOperation().decompressArea(area, array);
+        } catch (FitsException e) {
+            throw new IOException("could not decompress sub-image", e);
+        }
+    }
+
+    private void checkImage() throws IOException {
+        if (this.dims.length != 2) {
+            throw new IOException("Only two dimensional compressed images can be tiled");
+        }
+    }
+
+    /**
+     * @return the number of pixels of the requested sub-image.
+     */
+    private int checkRequest(int[] corners, int[] lengths) {
+        if (corners == null || lengths == null || corners.length != this.dims.length || lengths.length != this.dims.length) {
+            throw new IllegalArgumentException("Sub-image request must be two dimensional");
+        }
+        int size = 1;
+        for (int i = 0; i < this.dims.length; i += 1) {
+            if (corners[i] < 0 || lengths[i] < 0 || corners[i] > this.dims[i] - lengths[i]) {
+                throw new IllegalArgumentException("Sub-image not within image");
+            }
+            size *= lengths[i];
+        }
+        return size;
+    }
+
+    private TiledImageCompressionOperation tiledImageOperation() throws IOException {
+        if (this.tiledImageOperation == null) {
+            try {
+                this.tiledImageOperation = new TiledImageCompressionOperation(this.hdu.getData()).readDeferred(this.hdu.getHeader());
+            } catch (FitsException e) {
+                throw new IOException("could not read the tiles of the compressed image", e);
+            }
+        }
+        return this.tiledImageOperation;
+    }
+}
@@ -65,9 +65,7 @@ public class CompressedTableData extends BinaryTable {
     }
 
     public void compress(Header header) throws FitsException {
-        for (BinaryTableTile binaryTableTile : this.tiles) {
-            binaryTableTile.execute(FitsFactory.threadPool());
-        }
+        FitsFactory.executeTiles(this.tiles);
         for (BinaryTableTile binaryTableTile : this.tiles) {
             binaryTableTile.waitForResult();
             binaryTableTile.fillHeader(header);
@@ -102,7 +100,7 @@ public class CompressedTableData extends BinaryTable {
                 this.tiles.add(new BinaryTableTileCompressor(this, data,
                         tile()//
                                 .rowStart(rowStart)//
-                                .rowEnd(rowStart + this.rowsPerTile)//
+                                .rowEnd(Math.min(rowStart + this.rowsPerTile, nrows))//
                                 .column(column)//
                                 .tileIndex(tileIndex++)//
                                 .compressionAlgorithm(this.columnCompressionAlgorithms[column])));
@@ -123,14 +121,14 @@ public class CompressedTableData extends BinaryTable {
                 BinaryTableTileDecompressor binaryTableTile = new BinaryTableTileDecompressor(this, dataToFill.getData(),
                         tile()//
                                 .rowStart(rowStart)//
-                                .rowEnd(rowStart + this.rowsPerTile)//
+                                .rowEnd(Math.min(rowStart + this.rowsPerTile, nrows))//
                                 .column(column)//
                                 .tileIndex(tileIndex++)//
                                 .compressionAlgorithm(compressionAlgorithm));
                 this.tiles.add(binaryTableTile);
-                binaryTableTile.execute(FitsFactory.threadPool());
             }
         }
+        FitsFactory.executeTiles(this.tiles);
         for (BinaryTableTile binaryTableTile : this.tiles) {
             binaryTableTile.waitForResult();
         }
@@ -104,16 +104,7 @@ public class CompressedTableHDU extends BinaryTableHDU {
     }
 
     public BinaryTableHDU asBinaryTableHDU() throws FitsException {
-        Header header = new Header();
-        header.addValue(Standard.XTENSION, Standard.XTENSION_BINTABLE);
-        header.addValue(Standard.BITPIX, PrimitiveTypes.BYTE.bitPix());
-        header.addValue(Standard.NAXIS, 2);
-        Cursor<String, HeaderCard> headerIterator = header.iterator();
-        Cursor<String, HeaderCard> iterator = getHeader().iterator();
-        while (iterator.hasNext()) {
-            HeaderCard card = iterator.next();
-            BackupRestoreUnCompressedHeaderCard.backup(card, headerIterator);
-        }
+        Header header = uncompressedHeader();
         BinaryTable data = BinaryTableHDU.manufactureData(header);
         BinaryTableHDU tableHDU = new BinaryTableHDU(header, data);
         getData().asBinaryTable(data, getHeader(), header);
@@ -130,4 +121,34 @@ public class CompressedTableHDU extends BinaryTableHDU {
         return (CompressedTableData) super.getData();
     }
 
+    /**
+     * Create a reader that decompresses the table tile by tile, so that tables
+     * bigger than the available memory can be processed.
+     *
+     * @param tilesInMemory
+     *            the maximum number of decompressed tiles the reader keeps in
+     *            memory (the tiles are decompressed ahead in parallel).
+     * @return the reader returning the decompressed tiles in order.
+     * @throws FitsException
+     *             if the header of the uncompressed table could not be
+     *             created.
+     */
+    public CompressedTableTileReader getTileReader(int tilesInMemory) throws FitsException {
+        return new CompressedTableTileReader(getData(), getHeader(), uncompressedHeader(), tilesInMemory);
+    }
+
+    private Header uncompressedHeader() throws FitsException {
+        Header header = new Header();
+        header.addValue(Standard.XTENSION, Standard.XTENSION_BINTABLE);
+        header.addValue(Standard.BITPIX, PrimitiveTypes.BYTE.bitPix());
+        header.addValue(Standard.NAXIS, 2);
+        Cursor<String, HeaderCard> headerIterator = header.iterator();
+        Cursor<String, HeaderCard> iterator = getHeader().iterator();
+        while (iterator.hasNext()) {
+            HeaderCard card = iterator.next();
+            BackupRestoreUnCompressedHeaderCard.backup(card, headerIterator);
+        }
+        return header;
+    }
+
 }
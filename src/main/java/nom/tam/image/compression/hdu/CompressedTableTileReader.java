@@ -0,0 +1,181 @@
+package nom.tam.image.compression.hdu;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import static nom.tam.fits.header.Standard.NAXIS2;
+import static nom.tam.fits.header.Standard.PCOUNT;
+import static nom.tam.fits.header.Standard.TFIELDS;
+import static nom.tam.fits.header.Standard.THEAP;
+import static nom.tam.image.compression.bintable.BinaryTableTileDescription.tile;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import nom.tam.fits.BinaryTable;
+import nom.tam.fits.BinaryTableHDU;
+import nom.tam.fits.FitsException;
+import nom.tam.fits.FitsFactory;
+import nom.tam.fits.Header;
+import nom.tam.fits.header.Compression;
+import nom.tam.image.compression.bintable.BinaryTableTileDecompressor;
+
+/**
+ * Reads a compressed table tile by tile (the tile size is defined by the
+ * ZTILELEN header). Every call to {@link #next()} returns the decompressed rows
+ * of the next tile as a binary table of its own, so the uncompressed table
+ * never has to fit into memory as a whole. The reader decompresses ahead, but
+ * keeps at most the configured number of decompressed tiles.
+ */
+public class CompressedTableTileReader implements Iterator<BinaryTable> {
+
+    /**
+     * a tile of the table that is being decompressed.
+     */
+    private static final class PendingTile {
+
+        private final int rowStart;
+
+        private final BinaryTable table;
+
+        private final List<BinaryTableTileDecompressor> columns = new ArrayList<BinaryTableTileDecompressor>();
+
+        private PendingTile(int rowStart, BinaryTable table) {
+            this.rowStart = rowStart;
+            this.table = table;
+        }
+    }
+
+    private final CompressedTableData compressedData;
+
+    private final Header compressedHeader;
+
+    /**
+     * the header of the uncompressed table, NAXIS2 is adapted for every tile.
+     */
+    private final Header tileHeader;
+
+    private final int nrows;
+
+    private final int ncols;
+
+    private final int rowsPerTile;
+
+    private final int tilesInMemory;
+
+    private final LinkedList<PendingTile> pendingTiles = new LinkedList<PendingTile>();
+
+    /**
+     * the first row of the next tile to start the decompression for.
+     */
+    private int nextRowStart = 0;
+
+    private int rowOffset = -1;
+
+    protected CompressedTableTileReader(CompressedTableData compressedData, Header compressedHeader, Header uncompressedHeader, int tilesInMemory) throws FitsException {
+        if (tilesInMemory <= 0) {
+            throw new IllegalArgumentException("at least one tile must be kept in memory");
+        }
+        this.compressedData = compressedData;
+        this.compressedHeader = compressedHeader;
+        this.tileHeader = uncompressedHeader;
+        this.nrows = uncompressedHeader.getIntValue(NAXIS2);
+        this.ncols = compressedHeader.getIntValue(TFIELDS);
+        this.rowsPerTile = compressedHeader.getIntValue(Compression.ZTILELEN, this.nrows);
+        this.tilesInMemory = tilesInMemory;
+        // the heap is not part of the tiles.
+        this.tileHeader.deleteKey(THEAP);
+        this.tileHeader.addValue(PCOUNT, 0);
+    }
+
+    /**
+     * @return the row number in the complete table of the first row of the
+     *         tile that was returned by the last call to {@link #next()}.
+     */
+    public int getRowOffset() {
+        return this.rowOffset;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !this.pendingTiles.isEmpty() || this.nextRowStart < this.nrows;
+    }
+
+    @Override
+    public BinaryTable next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            while (this.pendingTiles.size() < this.tilesInMemory && this.nextRowStart < this.nrows) {
+                this.pendingTiles.add(startTile());
+            }
+        } catch (FitsException e) {
+            throw new IllegalStateException("could not read compressed tile", e);
+        }
+        PendingTile tile = this.pendingTiles.removeFirst();
+        for (BinaryTableTileDecompressor column : tile.columns) {
+            column.waitForResult();
+        }
+        this.rowOffset = tile.rowStart;
+        return tile.table;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("compressed tiles can not be removed");
+    }
+
+    private PendingTile startTile() throws FitsException {
+        int rowStart = this.nextRowStart;
+        int rows = Math.min(this.rowsPerTile, this.nrows - rowStart);
+        this.nextRowStart += rows;
+        this.tileHeader.addValue(NAXIS2, rows);
+        BinaryTable table = BinaryTableHDU.manufactureData(this.tileHeader);
+        BinaryTable.createColumnDataFor(table);
+        PendingTile tile = new PendingTile(rowStart, table);
+        for (int column = 0; column < this.ncols; column++) {
+            BinaryTableTileDecompressor columnTile = new BinaryTableTileDecompressor(this.compressedData, table.getData(), //
+                    tile()//
+                            .rowStart(0)//
+                            .rowEnd(rows)//
+                            .column(column)//
+                            .tileIndex(rowStart / this.rowsPerTile + 1)//
+                            .compressionAlgorithm(this.compressedHeader.getStringValue(Compression.ZCTYPn.n(column + 1))));
+            columnTile.execute(FitsFactory.threadPool());
+            tile.columns.add(columnTile);
+        }
+        return tile;
+    }
+}
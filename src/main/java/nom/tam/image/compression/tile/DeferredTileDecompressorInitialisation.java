@@ -0,0 +1,67 @@
+package nom.tam.image.compression.tile;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import nom.tam.image.tile.operation.ITileOperationInitialisation;
+import nom.tam.image.tile.operation.TileArea;
+
+/**
+ * Initialisation of the tiles of a compressed image, without reading the
+ * compressed data of the tiles. The data and the column based options of a
+ * tile are read from the binary table only when the tile is needed.
+ */
+final class DeferredTileDecompressorInitialisation implements ITileOperationInitialisation<TileCompressionOperation> {
+
+    private final TiledImageCompressionOperation imageTilesOperation;
+
+    private int compressedOffset = 0;
+
+    protected DeferredTileDecompressorInitialisation(TiledImageCompressionOperation imageTilesOperation) {
+        this.imageTilesOperation = imageTilesOperation;
+    }
+
+    @Override
+    public TileCompressionOperation createTileOperation(int tileIndex, TileArea area) {
+        return new TileDecompressor(this.imageTilesOperation, tileIndex, area);
+    }
+
+    @Override
+    public void init(TileCompressionOperation tileOperation) {
+        tileOperation.setCompressedOffset(this.compressedOffset);
+        this.compressedOffset += tileOperation.getPixelSize();
+    }
+
+    @Override
+    public void tileCount(int tileCount) {
+        this.imageTilesOperation.compressOptions().getCompressionParameters().initializeColumns(tileCount);
+    }
+}
@@ -32,6 +32,7 @@ package nom.tam.image.compression.tile;
  */
 
 import java.lang.reflect.Array;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 
 import nom.tam.fits.compression.algorithm.api.ICompressOption;
@@ -41,6 +42,7 @@ import nom.tam.image.compression.tile.mask.ImageNullPixelMask;
 import nom.tam.image.tile.operation.AbstractTileOperation;
 import nom.tam.image.tile.operation.ITileOperation;
 import nom.tam.image.tile.operation.TileArea;
+import nom.tam.image.tile.operation.buffer.TileBufferFactory;
 import nom.tam.util.type.PrimitiveTypeHandler;
 import nom.tam.util.type.PrimitiveTypes;
 
@@ -105,6 +107,21 @@ abstract class TileCompressionOperation extends AbstractTileOperation implements
         return getTiledImageOperation().getGzipCompressorControl();
     }
 
+    /**
+     * let the tile operate on a buffer of its own, that only contains the
+     * pixels of this tile, instead of a slice of the buffer describing the
+     * whole image.
+     *
+     * @return the buffer containing the pixels of this tile.
+     */
+    protected Buffer initTileOnlyBuffer() {
+        int width = getTileBuffer().getWidth();
+        Buffer tileOnlyBuffer = getBaseType().newBuffer(getPixelSize());
+        setTileBuffer(TileBufferFactory.createTileBuffer(getBaseType(), 0, width, width, getTileBuffer().getHeight()));
+        getTileBuffer().setData(tileOnlyBuffer);
+        return tileOnlyBuffer;
+    }
+
     protected TileCompressionOperation initTileOptions() {
         ICompressOption compressOptions = getTiledImageOperation().compressOptions();
         this.tileOptions = compressOptions.copy() //
@@ -51,8 +51,9 @@ import static nom.tam.image.compression.tile.TileCompressionType.UNCOMPRESSED;
 import java.lang.reflect.Array;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.ExecutorService;
+import java.util.List;
 
 import nom.tam.fits.BinaryTable;
 import nom.tam.fits.BinaryTableHDU;
@@ -66,6 +67,8 @@ import nom.tam.fits.compression.algorithm.api.ICompressorControl;
 import nom.tam.fits.compression.provider.CompressorProvider;
 import nom.tam.fits.compression.provider.param.api.HeaderAccess;
 import nom.tam.fits.compression.provider.param.api.HeaderCardAccess;
+import nom.tam.fits.compression.provider.param.api.ICompressParameters;
+import nom.tam.fits.compression.provider.param.base.CompressParameters;
 import nom.tam.image.compression.tile.mask.ImageNullPixelMask;
 import nom.tam.image.tile.operation.AbstractTiledImageOperation;
 import nom.tam.image.tile.operation.TileArea;
@@ -103,6 +106,11 @@ public class TiledImageCompressionOperation extends AbstractTiledImageOperation<
 
     private ImageNullPixelMask imageNullPixelMask;
 
+    /**
+     * the header of the hdu, only set if the tiles were read deferred.
+     */
+    private Header deferredHeader;
+
     private static void addColumnToTable(BinaryTableHDU hdu, Object column, String columnName) throws FitsException {
         if (column != null) {
             hdu.setColumnName(hdu.addColumn(column) - 1, columnName, null);
@@ -152,6 +160,63 @@ public class TiledImageCompressionOperation extends AbstractTiledImageOperation<
         return decompressedWholeArea;
     }
 
+    /**
+     * Decompress only the tiles that intersect with the specified area of the
+     * image and copy the pixels of the area into the output array. The
+     * compressed data of the tiles is taken from the rows of the binary table,
+     * so if the table was not yet read (random access input) only the rows of
+     * the needed tiles are read from the file. The tiles must have been read
+     * with {@link #readDeferred(Header)}.
+     *
+     * @param area
+     *            the area of the image to decompress
+     * @param output
+     *            the one dimensional primitive array to fill with the pixels
+     *            of the area (row by row).
+     * @throws FitsException
+     *             if the tiles could not be read from the binary table
+     */
+    public void decompressArea(TileArea area, Object output) throws FitsException {
+        if (this.deferredHeader == null) {
+            throw new IllegalStateException("tiles were not read deferred");
+        }
+        int compressedColumn = findColumn(this.deferredHeader, COMPRESSED_DATA_COLUMN);
+        int gzipColumn = findColumn(this.deferredHeader, GZIP_COMPRESSED_DATA_COLUMN);
+        int uncompressedColumn = findColumn(this.deferredHeader, UNCOMPRESSED_DATA_COLUMN);
+        int nullPixelColumn = findColumn(this.deferredHeader, NULL_PIXEL_MASK_COLUMN);
+        HeaderAccess headerAccess = new HeaderAccess(this.deferredHeader);
+        ICompressParameters parameters = compressOptions().getCompressionParameters();
+        if (!(parameters instanceof CompressParameters)) {
+            // other implementations can only read the complete columns.
+            parameters.initializeColumns(headerAccess, this.binaryTable, getNumberOfTileOperations());
+        }
+        List<TileCompressionOperation> tileOperations = new ArrayList<TileCompressionOperation>();
+        List<Buffer> tileBuffers = new ArrayList<Buffer>();
+        for (TileCompressionOperation tileOperation : getTileOperations()) {
+            if (tileOperation.getArea().intersects(area)) {
+                Object[] row = this.binaryTable.getRow(tileOperation.getTileIndex());
+                tileBuffers.add(tileOperation.initTileOnlyBuffer());
+                tileOperation.setCompressed(getNullableElement(row, compressedColumn), COMPRESSED)//
+                        .setCompressed(getNullableElement(row, uncompressedColumn), UNCOMPRESSED)//
+                        .setCompressed(getNullableElement(row, gzipColumn), GZIP_COMPRESSED);
+                if (parameters instanceof CompressParameters) {
+                    ((CompressParameters) parameters).initializeColumns(headerAccess, row, tileOperation.getTileIndex(), getNumberOfTileOperations());
+                }
+                byte[] nullPixels = (byte[]) getNullableElement(row, nullPixelColumn);
+                if (nullPixels != null && nullPixels.length > 0) {
+                    tileOperation.createImageNullPixelMask(this.imageNullPixelMask).setMask(ByteBuffer.wrap(nullPixels));
+                }
+                tileOperations.add(tileOperation);
+            }
+        }
+        FitsFactory.executeTiles(tileOperations);
+        for (int index = 0; index < tileOperations.size(); index++) {
+            TileCompressionOperation tileOperation = tileOperations.get(index);
+            tileOperation.waitForResult();
+            copyArea(tileOperation.getArea(), tileBuffers.get(index).array(), area, output);
+        }
+    }
+
     public void forceNoLoss(int x, int y, int width, int heigth) {
         TileArea tileArea = new TileArea().start(x, y).end(x + width, y + heigth);
         for (TileCompressionOperation operation : getTileOperations()) {
@@ -224,6 +289,30 @@ public class TiledImageCompressionOperation extends AbstractTiledImageOperation<
         return this;
     }
 
+    /**
+     * Read the description of the tiles from the header, without reading the
+     * compressed data of the tiles. The data of the tiles is read on demand by
+     * {@link #decompressArea(TileArea, Object)}.
+     *
+     * @param header
+     *            the header of the compressed image hdu
+     * @return this
+     * @throws FitsException
+     *             if the header does not describe a valid compressed image
+     */
+    public TiledImageCompressionOperation readDeferred(final Header header) throws FitsException {
+        readPrimaryHeaders(header);
+        setCompressAlgorithm(header.findCard(ZCMPTYPE));
+        setQuantAlgorithm(header.findCard(ZQUANTIZ));
+        createTiles(new DeferredTileDecompressorInitialisation(this));
+        if (findColumn(header, NULL_PIXEL_MASK_COLUMN) >= 0) {
+            this.imageNullPixelMask = new ImageNullPixelMask(getNumberOfTileOperations(), 0L, header.getStringValue(ZMASKCMP));
+        }
+        readCompressionHeaders(header);
+        this.deferredHeader = header;
+        return this;
+    }
+
     public void readPrimaryHeaders(Header header) throws FitsException {
         readBaseType(header);
         readAxis(header);
@@ -244,13 +333,41 @@ public class TiledImageCompressionOperation extends AbstractTiledImageOperation<
         return this;
     }
 
-    private <T> T getNullableColumn(Header header, Class<T> class1, String columnName) throws FitsException {
+    private void copyArea(TileArea tileArea, Object tileData, TileArea area, Object output) {
+        int tileWidth = tileArea.getEnd(0) - tileArea.getStart(0);
+        int outputWidth = area.getEnd(0) - area.getStart(0);
+        int startX = Math.max(tileArea.getStart(0), area.getStart(0));
+        int endX = Math.min(tileArea.getEnd(0), area.getEnd(0));
+        int endY = Math.min(tileArea.getEnd(1), area.getEnd(1));
+        for (int y = Math.max(tileArea.getStart(1), area.getStart(1)); y < endY; y++) {
+            System.arraycopy(tileData, (y - tileArea.getStart(1)) * tileWidth + startX - tileArea.getStart(0), //
+                    output, (y - area.getStart(1)) * outputWidth + startX - area.getStart(0), //
+                    endX - startX);
+        }
+    }
+
+    private int findColumn(Header header, String columnName) {
         for (int i = 1; i <= this.binaryTable.getNCols(); i++) {
             String val = header.getStringValue(TTYPEn.n(i));
             if (val != null && val.trim().equals(columnName)) {
-                return class1.cast(this.binaryTable.getColumn(i - 1));
+                return i - 1;
             }
         }
+        return -1;
+    }
+
+    private <T> T getNullableColumn(Header header, Class<T> class1, String columnName) throws FitsException {
+        int column = findColumn(header, columnName);
+        if (column >= 0) {
+            return class1.cast(this.binaryTable.getColumn(column));
+        }
+        return null;
+    }
+
+    private Object getNullableElement(Object[] row, int column) {
+        if (column >= 0) {
+            return row[column];
+        }
         return null;
     }
 
@@ -272,11 +389,9 @@ public class TiledImageCompressionOperation extends AbstractTiledImageOperation<
     }
 
     private void processAllTiles() {
-        ExecutorService threadPool = FitsFactory.threadPool();
-        for (TileCompressionOperation tileOperation : getTileOperations()) {
-            tileOperation.execute(threadPool);
-        }
-        for (TileCompressionOperation tileOperation : getTileOperations()) {
+        List<TileCompressionOperation> tileOperations = Arrays.asList(getTileOperations());
+        FitsFactory.executeTiles(tileOperations);
+        for (TileCompressionOperation tileOperation : tileOperations) {
             tileOperation.waitForResult();
         }
     }
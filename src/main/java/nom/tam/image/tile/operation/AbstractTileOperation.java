@@ -39,7 +39,7 @@ import nom.tam.image.tile.operation.buffer.TileBuffer;
 import nom.tam.image.tile.operation.buffer.TileBufferFactory;
 import nom.tam.util.type.PrimitiveType;
 
-public abstract class AbstractTileOperation implements Runnable, ITileOperation {
+public abstract class AbstractTileOperation implements Runnable, ITileOperation, IExecutableTile {
 
     private final ITiledImageOperation tiledImageOperation;
 
@@ -57,6 +57,7 @@ public abstract class AbstractTileOperation implements Runnable, ITileOperation
         this.area = area;
     }
 
+    @Override
     public void execute(ExecutorService threadPool) {
         this.future = threadPool.submit(this);
     }
@@ -48,6 +48,24 @@ public class TileArea {
         return this;
     }
 
+    /**
+     * @param axis
+     *            the axis (0 for the x axis)
+     * @return the last pixel position (exclusive) of the area on the axis.
+     */
+    public int getEnd(int axis) {
+        return this.endPoint[axis];
+    }
+
+    /**
+     * @param axis
+     *            the axis (0 for the x axis)
+     * @return the first pixel position (inclusive) of the area on the axis.
+     */
+    public int getStart(int axis) {
+        return this.startPoint[axis];
+    }
+
     /**
      * @param other
      *            the tile to test intersection with
@@ -34,6 +34,7 @@ package nom.tam.util;
 import java.io.EOFException;
 import java.io.IOException;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
 
 import nom.tam.util.type.PrimitiveType;
 import nom.tam.util.type.PrimitiveTypeHandler;
@@ -112,19 +113,80 @@ public abstract class BufferDecoder {
      */
     protected abstract void checkBuffer(int needBytes) throws IOException;
 
+    /**
+     * Fill the buffer for a bulk read of an array. At least needBytes must be
+     * made available, more bytes up to wantBytes may be read if that is cheap.
+     * The default implementation tries to read all wanted bytes.
+     * 
+     * @param needBytes
+     *            the number of bytes needed for the next element.
+     * @param wantBytes
+     *            the number of bytes that would be needed to read the rest of
+     *            the array.
+     * @throws IOException
+     *             if the buffer could not be filled
+     */
+    protected void checkBuffer(int needBytes, int wantBytes) throws IOException {
+        checkBuffer(wantBytes);
+    }
+
     protected abstract int eofCheck(EOFException e, int start, int index, int length) throws EOFException;
 
-    protected int read(boolean[] b, int start, int length) throws IOException {
+    /**
+     * Make sure that at least one element of the given size is available in the
+     * buffer, refilling it with as many elements as possible (but not more than
+     * requested) if necessary.
+     * 
+     * @param elementSize
+     *            the size of one element in bytes
+     * @param elements
+     *            the number of elements still to be read
+     * @return the number of complete elements (at most elements) available in
+     *         the buffer, 0 if the end of the input was reached.
+     * @throws IOException
+     *             if the buffer could not be filled
+     */
+    private int bulkAvailable(int elementSize, int elements) throws IOException {
+        if (this.sharedBuffer.bufferLength - this.sharedBuffer.bufferOffset < elementSize) {
+            int want = Math.min(elements, this.sharedBuffer.buffer.length / elementSize) * elementSize;
+            try {
+                checkBuffer(elementSize, want);
+            } catch (EOFException e) {
+                if (this.sharedBuffer.bufferLength - this.sharedBuffer.bufferOffset < elementSize) {
+                    return 0;
+                }
+            }
+        }
+        return Math.min(elements, (this.sharedBuffer.bufferLength - this.sharedBuffer.bufferOffset) / elementSize);
+    }
+
+    /**
+     * @param count
+     *            the number of elements to decode
+     * @param elementSize
+     *            the size of one element in bytes
+     * @return a big endian view on the next count elements of the buffer, the
+     *         buffer offset is moved behind them.
+     */
+    private ByteBuffer bulkView(int count, int elementSize) {
+        int bytes = count * elementSize;
+        ByteBuffer view = ByteBuffer.wrap(this.sharedBuffer.buffer, this.sharedBuffer.bufferOffset, bytes);
+        this.sharedBuffer.bufferOffset += bytes;
+        return view;
+    }
 
+    protected int read(boolean[] b, int start, int length) throws IOException {
         int i = start;
-        try {
-            for (; i < start + length; i++) {
-                b[i] = readBoolean();
+        while (i < start + length) {
+            int count = bulkAvailable(FitsIO.BYTES_IN_BOOLEAN, start + length - i);
+            if (count == 0) {
+                return eofCheck(new EOFException(), start, i, FitsIO.BYTES_IN_BOOLEAN);
+            }
+            for (int end = i + count; i < end; i++) {
+                b[i] = this.sharedBuffer.buffer[this.sharedBuffer.bufferOffset++] == 1;
             }
-            return length;
-        } catch (EOFException e) {
-            return eofCheck(e, start, i, 1);
         }
+        return length;
     }
 
     protected int read(byte[] buf, int offset, int len) throws IOException {
@@ -176,82 +238,81 @@ public abstract class BufferDecoder {
     }
 
     protected int read(char[] c, int start, int length) throws IOException {
-
         int i = start;
-        try {
-            for (; i < start + length; i++) {
-                c[i] = readChar();
+        while (i < start + length) {
+            int count = bulkAvailable(FitsIO.BYTES_IN_CHAR, start + length - i);
+            if (count == 0) {
+                return eofCheck(new EOFException(), start, i, FitsIO.BYTES_IN_CHAR);
             }
-            return length * FitsIO.BYTES_IN_CHAR;
-        } catch (EOFException e) {
-            return eofCheck(e, start, i, FitsIO.BYTES_IN_CHAR);
+            bulkView(count, FitsIO.BYTES_IN_CHAR).asCharBuffer().get(c, i, count);
+            i += count;
         }
+        return length * FitsIO.BYTES_IN_CHAR;
     }
 
     protected int read(double[] d, int start, int length) throws IOException {
-
         int i = start;
-        try {
-            for (; i < start + length; i++) {
-                d[i] = Double.longBitsToDouble(readLong());
+        while (i < start + length) {
+            int count = bulkAvailable(FitsIO.BYTES_IN_DOUBLE, start + length - i);
+            if (count == 0) {
+                return eofCheck(new EOFException(), start, i, FitsIO.BYTES_IN_DOUBLE);
             }
-            return length * FitsIO.BYTES_IN_DOUBLE;
-        } catch (EOFException e) {
-            return eofCheck(e, start, i, FitsIO.BYTES_IN_DOUBLE);
+            bulkView(count, FitsIO.BYTES_IN_DOUBLE).asDoubleBuffer().get(d, i, count);
+            i += count;
         }
+        return length * FitsIO.BYTES_IN_DOUBLE;
     }
 
     protected int read(float[] f, int start, int length) throws IOException {
-
         int i = start;
-        try {
-            for (; i < start + length; i++) {
-                f[i] = Float.intBitsToFloat(readInt());
+        while (i < start + length) {
+            int count = bulkAvailable(FitsIO.BYTES_IN_FLOAT, start + length - i);
+            if (count == 0) {
+                return eofCheck(new EOFException(), start, i, FitsIO.BYTES_IN_FLOAT);
             }
-            return length * FitsIO.BYTES_IN_FLOAT;
-        } catch (EOFException e) {
-            return eofCheck(e, start, i, FitsIO.BYTES_IN_FLOAT);
+            bulkView(count, FitsIO.BYTES_IN_FLOAT).asFloatBuffer().get(f, i, count);
+            i += count;
         }
+        return length * FitsIO.BYTES_IN_FLOAT;
     }
 
     protected int read(int[] i, int start, int length) throws IOException {
-
         int ii = start;
-        try {
-            for (; ii < start + length; ii++) {
-                i[ii] = readInt();
+        while (ii < start + length) {
+            int count = bulkAvailable(FitsIO.BYTES_IN_INTEGER, start + length - ii);
+            if (count == 0) {
+                return eofCheck(new EOFException(), start, ii, FitsIO.BYTES_IN_INTEGER);
             }
-            return length * FitsIO.BYTES_IN_INTEGER;
-        } catch (EOFException e) {
-            return eofCheck(e, start, ii, FitsIO.BYTES_IN_INTEGER);
+            bulkView(count, FitsIO.BYTES_IN_INTEGER).asIntBuffer().get(i, ii, count);
+            ii += count;
         }
+        return length * FitsIO.BYTES_IN_INTEGER;
     }
 
     protected int read(long[] l, int start, int length) throws IOException {
-
         int i = start;
-        try {
-            for (; i < start + length; i++) {
-                l[i] = readLong();
+        while (i < start + length) {
+            int count = bulkAvailable(FitsIO.BYTES_IN_LONG, start + length - i);
+            if (count == 0) {
+                return eofCheck(new EOFException(), start, i, FitsIO.BYTES_IN_LONG);
             }
-            return length * FitsIO.BYTES_IN_LONG;
-        } catch (EOFException e) {
-            return eofCheck(e, start, i, FitsIO.BYTES_IN_LONG);
+            bulkView(count, FitsIO.BYTES_IN_LONG).asLongBuffer().get(l, i, count);
+            i += count;
         }
-
+        return length * FitsIO.BYTES_IN_LONG;
     }
 
     protected int read(short[] s, int start, int length) throws IOException {
-
         int i = start;
-        try {
-            for (; i < start + length; i++) {
-                s[i] = readShort();
+        while (i < start + length) {
+            int count = bulkAvailable(FitsIO.BYTES_IN_SHORT, start + length - i);
+            if (count == 0) {
+                return eofCheck(new EOFException(), start, i, FitsIO.BYTES_IN_SHORT);
             }
-            return length * FitsIO.BYTES_IN_SHORT;
-        } catch (EOFException e) {
-            return eofCheck(e, start, i, FitsIO.BYTES_IN_SHORT);
+            bulkView(count, FitsIO.BYTES_IN_SHORT).asShortBuffer().get(s, i, count);
+            i += count;
         }
+        return length * FitsIO.BYTES_IN_SHORT;
     }
 
     /**
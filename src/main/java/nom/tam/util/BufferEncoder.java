@@ -33,6 +33,7 @@ package nom.tam.util;
 
 import java.io.IOException;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
 
 public abstract class BufferEncoder {
 
@@ -44,47 +45,174 @@ public abstract class BufferEncoder {
 
     protected abstract void needBuffer(int need) throws IOException;
 
+    /**
+     * Reserve space in the buffer for a bulk write of an array. At least
+     * needBytes must be reserved, more up to wantBytes if the buffer has space
+     * for it. The reserved bytes start at the current buffer offset.
+     * 
+     * @param needBytes
+     *            the number of bytes needed for the next element.
+     * @param wantBytes
+     *            the number of bytes needed to write the rest of the array.
+     * @return the number of bytes reserved, a multiple of needBytes.
+     * @throws IOException
+     *             if the buffer could not be flushed
+     */
+    protected int reserveBuffer(int needBytes, int wantBytes) throws IOException {
+        needBuffer(needBytes);
+        int free = Math.min(wantBytes, this.sharedBuffer.buffer.length - this.sharedBuffer.bufferOffset);
+        return Math.max(needBytes, free - free % needBytes);
+    }
+
+    /**
+     * Array segments that are larger than the buffer may be encoded into a
+     * direct buffer and written directly to the underlying channel. The default
+     * implementation does not support this and returns null.
+     * 
+     * @param bytes
+     *            the number of bytes needed to write the rest of the array.
+     * @return a cleared direct buffer or null if the shared buffer should be
+     *         used.
+     * @throws IOException
+     *             if pending output could not be written
+     */
+    protected ByteBuffer directBuffer(long bytes) throws IOException {
+        return null;
+    }
+
+    /**
+     * Write the first bytes of a buffer obtained from
+     * {@link #directBuffer(long)} to the underlying channel.
+     * 
+     * @param buffer
+     *            the direct buffer with the encoded data
+     * @param bytes
+     *            the number of bytes to write
+     * @throws IOException
+     *             if the write failed
+     */
+    protected void writeDirect(ByteBuffer buffer, int bytes) throws IOException {
+        throw new IOException("direct writes are not supported");
+    }
+
+    /**
+     * @param elementSize
+     *            the size of one element in bytes
+     * @param elements
+     *            the number of elements still to be written
+     * @return a big endian buffer positioned at the space to encode the next
+     *         elements into, its remaining bytes are a multiple of the element
+     *         size.
+     * @throws IOException
+     *             if the buffer could not be flushed
+     */
+    private ByteBuffer bulkBuffer(int elementSize, int elements) throws IOException {
+        long wantBytes = (long) elements * elementSize;
+        ByteBuffer direct = directBuffer(wantBytes);
+        if (direct != null) {
+            int bytes = (int) Math.min(direct.capacity(), wantBytes);
+            direct.limit(bytes - bytes % elementSize);
+            return direct;
+        }
+        int bytes = reserveBuffer(elementSize, (int) Math.min(this.sharedBuffer.buffer.length, wantBytes));
+        ByteBuffer view = ByteBuffer.wrap(this.sharedBuffer.buffer, this.sharedBuffer.bufferOffset, bytes);
+        this.sharedBuffer.bufferOffset += bytes;
+        return view;
+    }
+
+    /**
+     * Finish the bulk write of count elements encoded in the buffer.
+     * 
+     * @param buffer
+     *            the buffer obtained from {@link #bulkBuffer(int, int)}
+     * @param bytes
+     *            the number of bytes encoded
+     * @throws IOException
+     *             if the direct write failed
+     */
+    private void bulkWritten(ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.isDirect()) {
+            writeDirect(buffer, bytes);
+        }
+    }
+
     protected void write(boolean[] b, int start, int length) throws IOException {
-        for (int i = start; i < start + length; i++) {
-            writeBoolean(b[i]);
+        int i = start;
+        while (i < start + length) {
+            ByteBuffer buffer = bulkBuffer(FitsIO.BYTES_IN_BOOLEAN, start + length - i);
+            int count = buffer.remaining();
+            for (int end = i + count; i < end; i++) {
+                buffer.put(b[i] ? (byte) 1 : (byte) 0);
+            }
+            bulkWritten(buffer, count);
         }
     }
 
     protected abstract void write(byte[] buf, int offset, int length) throws IOException;
 
     protected void write(char[] c, int start, int length) throws IOException {
-        for (int i = start; i < start + length; i++) {
-            writeChar(c[i]);
+        int i = start;
+        while (i < start + length) {
+            ByteBuffer buffer = bulkBuffer(FitsIO.BYTES_IN_CHAR, start + length - i);
+            int count = Math.min(buffer.remaining() / FitsIO.BYTES_IN_CHAR, start + length - i);
+            buffer.asCharBuffer().put(c, i, count);
+            bulkWritten(buffer, count * FitsIO.BYTES_IN_CHAR);
+            i += count;
         }
     }
 
     protected void write(double[] d, int start, int length) throws IOException {
-        for (int i = start; i < start + length; i++) {
-            writeLong(Double.doubleToLongBits(d[i]));
+        int i = start;
+        while (i < start + length) {
+            ByteBuffer buffer = bulkBuffer(FitsIO.BYTES_IN_DOUBLE, start + length - i);
+            int count = Math.min(buffer.remaining() / FitsIO.BYTES_IN_DOUBLE, start + length - i);
+            buffer.asDoubleBuffer().put(d, i, count);
+            bulkWritten(buffer, count * FitsIO.BYTES_IN_DOUBLE);
+            i += count;
         }
     }
 
     protected void write(float[] f, int start, int length) throws IOException {
-        for (int i = start; i < start + length; i++) {
-            writeInt(Float.floatToIntBits(f[i]));
+        int i = start;
+        while (i < start + length) {
+            ByteBuffer buffer = bulkBuffer(FitsIO.BYTES_IN_FLOAT, start + length - i);
+            int count = Math.min(buffer.remaining() / FitsIO.BYTES_IN_FLOAT, start + length - i);
+            buffer.asFloatBuffer().put(f, i, count);
+            bulkWritten(buffer, count * FitsIO.BYTES_IN_FLOAT);
+            i += count;
         }
     }
 
     protected void write(int[] i, int start, int length) throws IOException {
-        for (int ii = start; ii < start + length; ii++) {
-            writeInt(i[ii]);
+        int ii = start;
+        while (ii < start + length) {
+            ByteBuffer buffer = bulkBuffer(FitsIO.BYTES_IN_INTEGER, start + length - ii);
+            int count = Math.min(buffer.remaining() / FitsIO.BYTES_IN_INTEGER, start + length - ii);
+            buffer.asIntBuffer().put(i, ii, count);
+            bulkWritten(buffer, count * FitsIO.BYTES_IN_INTEGER);
+            ii += count;
         }
     }
 
     protected void write(long[] l, int start, int length) throws IOException {
-        for (int i = start; i < start + length; i++) {
-            writeLong(l[i]);
+        int i = start;
+        while (i < start + length) {
+            ByteBuffer buffer = bulkBuffer(FitsIO.BYTES_IN_LONG, start + length - i);
+            int count = Math.min(buffer.remaining() / FitsIO.BYTES_IN_LONG, start + length - i);
+            buffer.asLongBuffer().put(l, i, count);
+            bulkWritten(buffer, count * FitsIO.BYTES_IN_LONG);
+            i += count;
         }
     }
 
     protected void write(short[] s, int start, int length) throws IOException {
-        for (int i = start; i < start + length; i++) {
-            writeShort(s[i]);
+        int i = start;
+        while (i < start + length) {
+            ByteBuffer buffer = bulkBuffer(FitsIO.BYTES_IN_SHORT, start + length - i);
+            int count = Math.min(buffer.remaining() / FitsIO.BYTES_IN_SHORT, start + length - i);
+            buffer.asShortBuffer().put(s, i, count);
+            bulkWritten(buffer, count * FitsIO.BYTES_IN_SHORT);
+            i += count;
         }
     }
 
@@ -81,7 +81,13 @@ public class BufferedDataInputStream extends BufferedInputStream implements Arra
      */
     private static final int SKIP_BUFFER_SIZE = 8192;
 
-    private final BufferPointer sharedBuffer = new BufferPointer().init(FitsIO.BYTES_IN_LONG);
+    /**
+     * size of the buffer used to decode primitive values and arrays, arrays
+     * are decoded in chunks of this size.
+     */
+    private static final int DECODE_BUFFER_SIZE = 8192;
+
+    private final BufferPointer sharedBuffer = new BufferPointer().init(DECODE_BUFFER_SIZE);
 
     private final BufferDecoder bufferDecoder = new BufferDecoder(this.sharedBuffer) {
 
@@ -92,6 +98,18 @@ public class BufferedDataInputStream extends BufferedInputStream implements Arra
             }
         }
 
+        /**
+         * Only take the bytes that are already buffered for bulk reads, and
+         * read element by element if the buffer of the stream is exhausted.
+         * Like this an end of file is detected at the exact element
+         * boundary.
+         */
+        @Override
+        protected void checkBuffer(int needBytes, int wantBytes) throws IOException {
+            int buffered = BufferedDataInputStream.this.count - BufferedDataInputStream.this.pos;
+            readBytesIntoSharedBuffer(Math.max(needBytes, Math.min(wantBytes, buffered - buffered % needBytes)));
+        }
+
         @Override
         protected int eofCheck(EOFException e, int start, int index, int length) throws EOFException {
             return BufferedDataInputStream.this.eofCheck(e, index, start, length);
@@ -271,7 +289,8 @@ public class BufferedDataInputStream extends BufferedInputStream implements Arra
 
     private void readBytesIntoSharedBuffer(int bytes) throws IOException, EOFException {
         this.sharedBuffer.invalidate();
-        if (read(this.sharedBuffer.buffer, 0, bytes) < bytes) {
+        this.sharedBuffer.bufferLength = read(this.sharedBuffer.buffer, 0, bytes);
+        if (this.sharedBuffer.bufferLength < bytes) {
             throw new EOFException();
         }
     }
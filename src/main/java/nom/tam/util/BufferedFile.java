@@ -65,10 +65,12 @@ import java.io.File;
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class BufferedFile implements ArrayDataOutput, RandomAccess {
+public class BufferedFile implements ArrayDataOutput, RandomAccess, PositionalInput {
 
     private static final int DEFAULT_BUFFER_SIZE = 32768;
 
@@ -119,8 +121,24 @@ public class BufferedFile implements ArrayDataOutput, RandomAccess {
         protected void write(byte[] buf, int offset, int length) throws IOException {
             BufferedFile.this.write(buf, offset, length);
         }
+
+        @Override
+        protected ByteBuffer directBuffer(long bytes) throws IOException {
+            return BufferedFile.this.directBuffer(bytes);
+        }
+
+        @Override
+        protected void writeDirect(ByteBuffer buffer, int bytes) throws IOException {
+            BufferedFile.this.writeDirect(buffer, bytes);
+        }
     };
 
+    /**
+     * reusable direct buffer for writing large arrays to the channel, created
+     * on first use.
+     */
+    private ByteBuffer directBuffer;
+
     /**
      * The underlying access to the file system
      */
@@ -298,6 +316,40 @@ public class BufferedFile implements ArrayDataOutput, RandomAccess {
         }
     }
 
+    /**
+     * Arrays that do not fit in the buffer are encoded into a direct buffer
+     * (of the same size) and written directly to the file channel.
+     * 
+     * @param bytes
+     *            the number of bytes still to write
+     * @return the cleared direct buffer or null if the data fits in the
+     *         normal buffer.
+     * @throws IOException
+     *             if pending output could not be written
+     */
+    private ByteBuffer directBuffer(long bytes) throws IOException {
+        if (bytes < this.bufferPointer.buffer.length) {
+            return null;
+        }
+        needBuffer(0);
+        flush();
+        if (this.directBuffer == null) {
+            this.directBuffer = ByteBuffer.allocateDirect(this.bufferPointer.buffer.length);
+        }
+        this.directBuffer.clear();
+        return this.directBuffer;
+    }
+
+    private void writeDirect(ByteBuffer buffer, int bytes) throws IOException {
+        buffer.position(0);
+        buffer.limit(bytes);
+        FileChannel channel = getChannel();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        this.fileOffset += bytes;
+    }
+
     @Override
     public void flush() throws IOException {
 
@@ -308,6 +360,28 @@ public class BufferedFile implements ArrayDataOutput, RandomAccess {
         }
     }
 
+    /**
+     * Read bytes at an absolute position through the file channel, without
+     * using the buffer or moving the file pointer. Pending output is flushed
+     * first, synchronized on this file, so concurrent positional reads are
+     * safe; they must not overlap with the stream methods of another thread.
+     */
+    @Override
+    public void readFully(long position, byte[] buf, int offset, int len) throws IOException {
+        if (!this.doingInput) {
+            synchronized (this) {
+                flush();
+            }
+        }
+        FileChannel channel = getChannel();
+        ByteBuffer buffer = ByteBuffer.wrap(buf, offset, len);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position() - offset) < 0) {
+                throw new EOFException("Positional read beyond the end of the file at " + position);
+            }
+        }
+    }
+
     /**
      * Get the channel associated with this file. Note that this returns the
      * channel of the associated RandomAccessFile. Note that since the
@@ -31,12 +31,21 @@ package nom.tam.util;
  * #L%
  */
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import nom.tam.util.type.PrimitiveType;
@@ -65,6 +74,12 @@ public class ColumnTable<T> implements DataTable {
 
     private static final int MAX_TYPE_VALUE = MAX_COLUMN_INDEXES;
 
+    /**
+     * The preferred number of bytes of raw rows read in one go by
+     * {@link #read(ArrayDataInput, ExecutorService)}.
+     */
+    private static final int READ_BLOCK_SIZE = 1024 * 1024;
+
     private interface PointerAccess<X extends Object> {
 
         void set(ColumnTable<?> table, X array);
@@ -75,6 +90,11 @@ public class ColumnTable<T> implements DataTable {
 
         void read(ColumnTable<?> table, ArrayDataInput is, int index, int arrOffset, int size) throws IOException;
 
+        /**
+         * Copy the values of one column out of a block of raw rows.
+         */
+        void decode(Object column, ByteBuffer buffer, int position, int rowBytes, int rows, int arrOffset, int size);
+
     }
 
     private static final Map<PrimitiveType<?>, PointerAccess<?>> POINTER_ACCESSORS;
@@ -103,6 +123,14 @@ public class ColumnTable<T> implements DataTable {
             public void read(ColumnTable<?> table, ArrayDataInput is, int index, int arrOffset, int size) throws IOException {
                 is.read(table.bytePointers[index], arrOffset, size);
             }
+
+            @Override
+            public void decode(Object column, ByteBuffer buffer, int position, int rowBytes, int rows, int arrOffset, int size) {
+                byte[] array = (byte[]) column;
+                for (int row = 0; row < rows; row++) {
+                    System.arraycopy(buffer.array(), position + row * rowBytes, array, arrOffset + row * size, size);
+                }
+            }
         };
         POINTER_ACCESSORS_BY_TYPE[PrimitiveTypes.BOOLEAN.type()] = new PointerAccess<boolean[][]>() {
 
@@ -125,6 +153,19 @@ public class ColumnTable<T> implements DataTable {
             public void read(ColumnTable<?> table, ArrayDataInput is, int index, int arrOffset, int size) throws IOException {
                 is.read(table.booleanPointers[index], arrOffset, size);
             }
+
+            @Override
+            public void decode(Object column, ByteBuffer buffer, int position, int rowBytes, int rows, int arrOffset, int size) {
+                boolean[] array = (boolean[]) column;
+                int offset = arrOffset;
+                for (int row = 0; row < rows; row++) {
+                    int pos = position + row * rowBytes;
+                    for (int i = 0; i < size; i++) {
+                        array[offset++] = buffer.get(pos) == 1;
+                        pos += FitsIO.BYTES_IN_BOOLEAN;
+                    }
+                }
+            }
         };
         POINTER_ACCESSORS_BY_TYPE[PrimitiveTypes.SHORT.type()] = new PointerAccess<short[][]>() {
 
@@ -147,6 +188,19 @@ public class ColumnTable<T> implements DataTable {
             public void read(ColumnTable<?> table, ArrayDataInput is, int index, int arrOffset, int size) throws IOException {
                 is.read(table.shortPointers[index], arrOffset, size);
             }
+
+            @Override
+            public void decode(Object column, ByteBuffer buffer, int position, int rowBytes, int rows, int arrOffset, int size) {
+                short[] array = (short[]) column;
+                int offset = arrOffset;
+                for (int row = 0; row < rows; row++) {
+                    int pos = position + row * rowBytes;
+                    for (int i = 0; i < size; i++) {
+                        array[offset++] = buffer.getShort(pos);
+                        pos += FitsIO.BYTES_IN_SHORT;
+                    }
+                }
+            }
         };
         POINTER_ACCESSORS_BY_TYPE[PrimitiveTypes.CHAR.type()] = new PointerAccess<char[][]>() {
 
@@ -170,6 +224,19 @@ public class ColumnTable<T> implements DataTable {
             public void read(ColumnTable<?> table, ArrayDataInput is, int index, int arrOffset, int size) throws IOException {
                 is.read(table.charPointers[index], arrOffset, size);
             }
+
+            @Override
+            public void decode(Object column, ByteBuffer buffer, int position, int rowBytes, int rows, int arrOffset, int size) {
+                char[] array = (char[]) column;
+                int offset = arrOffset;
+                for (int row = 0; row < rows; row++) {
+                    int pos = position + row * rowBytes;
+                    for (int i = 0; i < size; i++) {
+                        array[offset++] = buffer.getChar(pos);
+                        pos += FitsIO.BYTES_IN_CHAR;
+                    }
+                }
+            }
         };
         POINTER_ACCESSORS_BY_TYPE[PrimitiveTypes.INT.type()] = new PointerAccess<int[][]>() {
 
@@ -192,6 +259,19 @@ public class ColumnTable<T> implements DataTable {
             public void read(ColumnTable<?> table, ArrayDataInput is, int index, int arrOffset, int size) throws IOException {
                 is.read(table.intPointers[index], arrOffset, size);
             }
+
+            @Override
+            public void decode(Object column, ByteBuffer buffer, int position, int rowBytes, int rows, int arrOffset, int size) {
+                int[] array = (int[]) column;
+                int offset = arrOffset;
+                for (int row = 0; row < rows; row++) {
+                    int pos = position + row * rowBytes;
+                    for (int i = 0; i < size; i++) {
+                        array[offset++] = buffer.getInt(pos);
+                        pos += FitsIO.BYTES_IN_INTEGER;
+                    }
+                }
+            }
         };
         POINTER_ACCESSORS_BY_TYPE[PrimitiveTypes.LONG.type()] = new PointerAccess<long[][]>() {
 
@@ -214,6 +294,19 @@ public class ColumnTable<T> implements DataTable {
             public void read(ColumnTable<?> table, ArrayDataInput is, int index, int arrOffset, int size) throws IOException {
                 is.read(table.longPointers[index], arrOffset, size);
             }
+
+            @Override
+            public void decode(Object column, ByteBuffer buffer, int position, int rowBytes, int rows, int arrOffset, int size) {
+                long[] array = (long[]) column;
+                int offset = arrOffset;
+                for (int row = 0; row < rows; row++) {
+                    int pos = position + row * rowBytes;
+                    for (int i = 0; i < size; i++) {
+                        array[offset++] = buffer.getLong(pos);
+                        pos += FitsIO.BYTES_IN_LONG;
+                    }
+                }
+            }
         };
         POINTER_ACCESSORS_BY_TYPE[PrimitiveTypes.FLOAT.type()] = new PointerAccess<float[][]>() {
 
@@ -236,6 +329,19 @@ public class ColumnTable<T> implements DataTable {
             public void read(ColumnTable<?> table, ArrayDataInput is, int index, int arrOffset, int size) throws IOException {
                 is.read(table.floatPointers[index], arrOffset, size);
             }
+
+            @Override
+            public void decode(Object column, ByteBuffer buffer, int position, int rowBytes, int rows, int arrOffset, int size) {
+                float[] array = (float[]) column;
+                int offset = arrOffset;
+                for (int row = 0; row < rows; row++) {
+                    int pos = position + row * rowBytes;
+                    for (int i = 0; i < size; i++) {
+                        array[offset++] = buffer.getFloat(pos);
+                        pos += FitsIO.BYTES_IN_FLOAT;
+                    }
+                }
+            }
         };
         POINTER_ACCESSORS_BY_TYPE[PrimitiveTypes.DOUBLE.type()] = new PointerAccess<double[][]>() {
 
@@ -258,6 +364,19 @@ public class ColumnTable<T> implements DataTable {
             public void read(ColumnTable<?> table, ArrayDataInput is, int index, int arrOffset, int size) throws IOException {
                 is.read(table.doublePointers[index], arrOffset, size);
             }
+
+            @Override
+            public void decode(Object column, ByteBuffer buffer, int position, int rowBytes, int rows, int arrOffset, int size) {
+                double[] array = (double[]) column;
+                int offset = arrOffset;
+                for (int row = 0; row < rows; row++) {
+                    int pos = position + row * rowBytes;
+                    for (int i = 0; i < size; i++) {
+                        array[offset++] = buffer.getDouble(pos);
+                        pos += FitsIO.BYTES_IN_DOUBLE;
+                    }
+                }
+            }
         };
         Map<PrimitiveType<?>, PointerAccess<?>> pointerAccess = new HashMap<PrimitiveType<?>, PointerAccess<?>>();
         pointerAccess.put(PrimitiveTypes.BYTE, POINTER_ACCESSORS_BY_TYPE[PrimitiveTypes.BYTE.type()]);
@@ -280,6 +399,13 @@ public class ColumnTable<T> implements DataTable {
     /** The number of rows */
     private int nrow;
 
+    /**
+     * The number of rows the column arrays have room for. This may exceed
+     * nrow after rows have been appended; the arrays are trimmed back to
+     * nrow before they are handed out or written.
+     */
+    private int capacity;
+
     /**
      * The base type of each row (using the second character of the [x class
      * names of the arrays.
@@ -339,9 +465,10 @@ public class ColumnTable<T> implements DataTable {
      *             of the rows/columns
      */
     public void addColumn(Object newColumn, int size) throws TableException {
-
+        trimToSize();
         String classname = newColumn.getClass().getName();
         this.nrow = checkColumnConsistency(newColumn, classname, this.nrow, size);
+        this.capacity = this.nrow;
 
         int ncol = this.arrays.length;
 
@@ -400,8 +527,8 @@ public class ColumnTable<T> implements DataTable {
     }
 
     /**
-     * Add a row to the table. This method is very inefficient for adding
-     * multiple rows and should be avoided if possible.
+     * Add a row to the table. The column arrays grow geometrically, so adding
+     * rows one at a time takes amortized constant time per row.
      * 
      * @param row
      *            the row to add
@@ -415,20 +542,71 @@ public class ColumnTable<T> implements DataTable {
                 addColumn(element, Array.getLength(element));
             }
         } else {
-            if (row.length != this.arrays.length) {
-                throw new TableException("Row length mismatch");
-            }
-            for (int i = 0; i < row.length; i += 1) {
-                if (row[i].getClass() != this.arrays[i].getClass() || Array.getLength(row[i]) != this.sizes[i]) {
-                    throw new TableException("Row column mismatch at column:" + i);
-                }
-                Object xarray = ArrayFuncs.newInstance(this.bases[i], (this.nrow + 1) * this.sizes[i]);
-                System.arraycopy(this.arrays[i], 0, xarray, 0, this.nrow * this.sizes[i]);
-                System.arraycopy(row[i], 0, xarray, this.nrow * this.sizes[i], this.sizes[i]);
-                this.arrays[i] = xarray;
-            }
-            initializePointers();
-            this.nrow += 1;
+            checkRow(row);
+            ensureCapacity(this.nrow + 1);
+            appendRow(row);
+        }
+    }
+
+    /**
+     * Add a set of rows to the table. All rows are checked before any of them
+     * is added, and the column arrays are grown at most once.
+     * 
+     * @param rows
+     *            the rows to add, each one laid out as for
+     *            {@link #addRow(Object[])}
+     * @throws TableException
+     *             if the structure of one of the rows does not fit the
+     *             structure of the rows/columns
+     */
+    public void addRows(Object[][] rows) throws TableException {
+        int first = 0;
+        if (this.arrays.length == 0 && rows.length > 0) {
+            addRow(rows[0]);
+            first = 1;
+        }
+        for (int i = first; i < rows.length; i += 1) {
+            checkRow(rows[i]);
+        }
+        ensureCapacity(this.nrow + rows.length - first);
+        for (int i = first; i < rows.length; i += 1) {
+            appendRow(rows[i]);
+        }
+    }
+
+    /**
+     * Make sure the column arrays can hold at least the specified number of
+     * rows without being reallocated. The capacity grows by at least half of
+     * its current value.
+     * 
+     * @param rows
+     *            the number of rows the table should have room for
+     * @throws TableException
+     *             if a column array cannot hold that many rows
+     */
+    public void ensureCapacity(int rows) throws TableException {
+        if (rows <= this.capacity) {
+            return;
+        }
+        int maxSize = 1;
+        for (int size : this.sizes) {
+            maxSize = Math.max(maxSize, size);
+        }
+        int maxRows = Integer.MAX_VALUE / maxSize;
+        if (rows < 0 || rows > maxRows) {
+            throw new TableException("Column arrays cannot hold " + (rows < 0 ? "more than 2 G elements" : rows + " rows"));
+        }
+        long newCapacity = this.capacity + (this.capacity >> 1) + 1L;
+        resize((int) Math.max(rows, Math.min(newCapacity, maxRows)));
+    }
+
+    /**
+     * Release any unused capacity, so that each column array holds exactly the
+     * current rows of the table.
+     */
+    public void trimToSize() {
+        if (this.capacity != this.nrow) {
+            resize(this.nrow);
         }
     }
 
@@ -477,6 +655,7 @@ public class ColumnTable<T> implements DataTable {
         }
 
         this.nrow = ratio;
+        this.capacity = ratio;
         this.arrays = newArrays;
         this.sizes = newSizes;
     }
@@ -516,6 +695,7 @@ public class ColumnTable<T> implements DataTable {
     }
 
     public ColumnTable<T> copy() throws TableException {
+        trimToSize();
         return new ColumnTable<T>((Object[]) ArrayFuncs.deepClone(this.arrays), this.sizes.clone());
     }
 
@@ -614,6 +794,7 @@ public class ColumnTable<T> implements DataTable {
             this.arrays[col] = newArr;
         }
         this.nrow -= length;
+        this.capacity = this.nrow;
         initializePointers();
     }
 
@@ -637,6 +818,7 @@ public class ColumnTable<T> implements DataTable {
      */
     @Override
     public Object getColumn(int col) {
+        trimToSize();
         return this.arrays[col];
     }
 
@@ -645,6 +827,7 @@ public class ColumnTable<T> implements DataTable {
      */
     @SuppressFBWarnings(value = "EI_EXPOSE_REP", justification = "intended exposure of mutable data")
     public Object[] getColumns() {
+        trimToSize();
         return this.arrays;
     }
 
@@ -759,18 +942,47 @@ public class ColumnTable<T> implements DataTable {
      *             if the reading failed
      */
     public void read(ArrayDataInput is) throws IOException {
-        int[] columnIndex = new int[MAX_COLUMN_INDEXES];
-        // While we have not finished reading the table..
-        for (int row = 0; row < this.nrow; row += 1) {
-            Arrays.fill(columnIndex, 0);
-            // Loop over the columns within the row.
-            for (int col = 0; col < this.arrays.length; col += 1) {
-                int arrOffset = this.sizes[col] * row;
-                int size = this.sizes[col];
-                char colType = this.types[col];
-                PointerAccess<?> accessor = POINTER_ACCESSORS_BY_TYPE[colType];
-                accessor.read(this, is, columnIndex[colType], arrOffset, size);
-                columnIndex[colType] += 1;
+        read(is, null);
+    }
+
+    /**
+     * Read a table. The raw rows are read in large blocks, and each block is
+     * then split up column by column instead of reading every cell from the
+     * input separately.
+     * 
+     * @param is
+     *            The input stream to read from.
+     * @param executor
+     *            if not null, the columns of each block are decoded
+     *            concurrently on this executor.
+     * @throws IOException
+     *             if the reading failed
+     */
+    public void read(ArrayDataInput is, ExecutorService executor) throws IOException {
+        int ncol = this.arrays.length;
+        int[] positions = new int[ncol];
+        int rowBytes = 0;
+        for (int col = 0; col < ncol; col += 1) {
+            positions[col] = rowBytes;
+            rowBytes += this.sizes[col] * PrimitiveTypeHandler.valueOf(this.types[col]).size();
+        }
+        if (rowBytes == 0 || this.nrow == 0) {
+            return;
+        }
+        int blockRows = Math.max(1, Math.min(this.nrow, READ_BLOCK_SIZE / rowBytes));
+        ByteBuffer block = ByteBuffer.wrap(new byte[blockRows * rowBytes]);
+        for (int row = 0; row < this.nrow; row += blockRows) {
+            int rows = Math.min(blockRows, this.nrow - row);
+            int complete = readFully(is, block.array(), rows * rowBytes) / rowBytes;
+            if (executor == null || ncol == 1) {
+                for (int col = 0; col < ncol; col += 1) {
+                    decode(block, rowBytes, row, complete, positions, col);
+                }
+            } else {
+                decodeConcurrently(executor, block, rowBytes, row, complete, positions);
+            }
+            if (complete < rows) {
+                throw new EOFException("Table ended after " + (row + complete) + " of " + this.nrow + " rows");
             }
         }
     }
@@ -789,6 +1001,7 @@ public class ColumnTable<T> implements DataTable {
      */
     @Override
     public void setColumn(int col, Object newColumn) throws TableException {
+        trimToSize();
 
         boolean reset = newColumn.getClass() != this.arrays[col].getClass() || Array.getLength(newColumn) != Array.getLength(this.arrays[col]);
         this.arrays[col] = newColumn;
@@ -866,6 +1079,97 @@ public class ColumnTable<T> implements DataTable {
         }
     }
 
+    private void appendRow(Object[] row) {
+        for (int i = 0; i < row.length; i += 1) {
+            System.arraycopy(row[i], 0, this.arrays[i], this.nrow * this.sizes[i], this.sizes[i]);
+        }
+        this.nrow += 1;
+    }
+
+    private void decode(ByteBuffer block, int rowBytes, int firstRow, int rows, int[] positions, int col) {
+        int size = this.sizes[col];
+        POINTER_ACCESSORS_BY_TYPE[this.types[col]].decode(this.arrays[col], block, positions[col], rowBytes, rows, firstRow * size, size);
+    }
+
+    private void decodeConcurrently(ExecutorService executor, final ByteBuffer block, final int rowBytes, final int firstRow, final int rows, final int[] positions)
+            throws IOException {
+        int ncol = this.arrays.length;
+        int tasks = Math.min(ncol, Runtime.getRuntime().availableProcessors());
+        List<Callable<Void>> work = new ArrayList<Callable<Void>>(tasks);
+        for (int task = 0; task < tasks; task += 1) {
+            final int fromCol = task * ncol / tasks;
+            final int toCol = (task + 1) * ncol / tasks;
+            work.add(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+                    for (int col = fromCol; col < toCol; col += 1) {
+                        decode(block, rowBytes, firstRow, rows, positions, col);
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            // the calling thread decodes the columns no worker has taken, so
+            // this does not block when called from a task of the executor.
+            for (Future<Void> future : ParallelTasks.run(executor, work)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decoding table columns");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Could not decode table columns", cause);
+        }
+    }
+
+    /**
+     * Read up to length bytes, stopping early only at the end of the input.
+     */
+    private static int readFully(ArrayDataInput is, byte[] buffer, int length) throws IOException {
+        int total = 0;
+        try {
+            while (total < length) {
+                int n = is.read(buffer, total, length - total);
+                if (n <= 0) {
+                    break;
+                }
+                total += n;
+            }
+        } catch (EOFException e) {
+            return total;
+        }
+        return total;
+    }
+
+    private void checkRow(Object[] row) throws TableException {
+        if (row.length != this.arrays.length) {
+            throw new TableException("Row length mismatch");
+        }
+        for (int i = 0; i < row.length; i += 1) {
+            if (row[i].getClass() != this.arrays[i].getClass() || Array.getLength(row[i]) != this.sizes[i]) {
+                throw new TableException("Row column mismatch at column:" + i);
+            }
+        }
+    }
+
+    private void resize(int rows) {
+        for (int col = 0; col < this.arrays.length; col += 1) {
+            Object xarray = ArrayFuncs.newInstance(this.bases[col], rows * this.sizes[col]);
+            System.arraycopy(this.arrays[col], 0, xarray, 0, this.nrow * this.sizes[col]);
+            this.arrays[col] = xarray;
+        }
+        this.capacity = rows;
+        initializePointers();
+    }
+
     /**
      * Actually perform the initialization.
      * 
@@ -891,6 +1195,7 @@ public class ColumnTable<T> implements DataTable {
      *             if the write operation failed
      */
     public void write(ArrayDataOutput os) throws IOException {
+        trimToSize();
         int[] columnIndex = new int[MAX_COLUMN_INDEXES];
         for (int row = 0; row < this.nrow; row += 1) {
             Arrays.fill(columnIndex, 0);
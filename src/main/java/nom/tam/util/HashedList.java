@@ -56,9 +56,13 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 /**
- * a ordered hash map implementation.
+ * a ordered hash map implementation. The ordered entries are kept in an
+ * implicit balanced tree (a treap indexed by subtree size), so that positional
+ * access, insertion and removal as well as locating a keyed entry are all
+ * O(log n) even for headers with very many cards.
  *
  * @param <VALUE>
  *            value of the map
@@ -79,6 +83,30 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
         }
     }
 
+    /**
+     * A node of the ordered tree. The size is the number of entries in the
+     * subtree rooted at this node and is used to locate entries by position.
+     */
+    private static final class Node<VALUE> {
+
+        private final VALUE value;
+
+        private final int priority;
+
+        private Node<VALUE> left;
+
+        private Node<VALUE> right;
+
+        private Node<VALUE> parent;
+
+        private int size = 1;
+
+        private Node(VALUE value, int priority) {
+            this.value = value;
+            this.priority = priority;
+        }
+    }
+
     private class HashedListIterator implements Cursor<String, VALUE> {
 
         /**
@@ -87,6 +115,15 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
          */
         private int current;
 
+        /** The node last returned by next, to step to its successor cheaply. */
+        private Node<VALUE> last;
+
+        /** The index of the last returned node. */
+        private int lastIndex = -1;
+
+        /** The modification count of the list when last was returned. */
+        private int lastModCount;
+
         HashedListIterator(int start) {
             this.current = start;
         }
@@ -103,13 +140,13 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
 
         @Override
         public VALUE end() {
-            this.current = Math.max(0, HashedList.this.ordered.size() - 1);
+            this.current = Math.max(0, HashedList.this.size() - 1);
             return next();
         }
 
         @Override
         public boolean hasNext() {
-            return this.current >= 0 && this.current < HashedList.this.ordered.size();
+            return this.current >= 0 && this.current < HashedList.this.size();
         }
 
         @Override
@@ -119,13 +156,20 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
 
         @Override
         public VALUE next() {
-            if (this.current < 0 || this.current >= HashedList.this.ordered.size()) {
+            if (this.current < 0 || this.current >= HashedList.this.size()) {
                 throw new NoSuchElementException("Outside list");
+            }
+            Node<VALUE> node;
+            if (this.last != null && this.lastModCount == HashedList.this.modCount && this.lastIndex == this.current - 1) {
+                node = successor(this.last);
             } else {
-                VALUE entry = HashedList.this.ordered.get(this.current);
-                this.current++;
-                return entry;
+                node = nodeAt(this.current);
             }
+            this.last = node;
+            this.lastIndex = this.current;
+            this.lastModCount = HashedList.this.modCount;
+            this.current++;
+            return node.value;
         }
 
         @Override
@@ -141,32 +185,41 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
             if (this.current <= 0) {
                 throw new NoSuchElementException("Before beginning of list");
             }
-            return HashedList.this.ordered.get(--this.current);
+            return get(--this.current);
         }
 
         @Override
         public void remove() {
-            if (this.current > 0 && this.current <= HashedList.this.ordered.size()) {
+            if (this.current > 0 && this.current <= HashedList.this.size()) {
                 HashedList.this.remove(--this.current);
             }
         }
 
         @Override
         public void setKey(String key) {
-            VALUE entry = HashedList.this.keyed.get(key);
+            VALUE entry = HashedList.this.get(key);
             if (entry != null) {
                 this.current = indexOf(entry);
             } else {
-                this.current = HashedList.this.ordered.size();
+                this.current = HashedList.this.size();
             }
         }
     }
 
-    /** An ordered list of the keys */
-    private final ArrayList<VALUE> ordered = new ArrayList<VALUE>();
+    /** The root of the tree holding the entries in order */
+    private Node<VALUE> root;
 
-    /** The key value pairs */
-    private final HashMap<String, VALUE> keyed = new HashMap<String, VALUE>();
+    /** The key to node pairs */
+    private final HashMap<String, Node<VALUE>> keyed = new HashMap<String, Node<VALUE>>();
+
+    /** Counts structural changes, so cursors know when their position cache is stale. */
+    private int modCount;
+
+    /** Random priorities keep the tree balanced whatever the edit order. */
+    private final Random priorities = new Random();
+
+    /** The right hand part left over by the last split. */
+    private Node<VALUE> splitRest;
 
     /**
      * Add an element to the list at a specified position. If that element was
@@ -187,17 +240,14 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
         if (this.keyed.containsKey(key) && !unkeyedKey(key)) {
             int oldPos = indexOf(entry);
             this.keyed.remove(key);
-            this.ordered.remove(oldPos);
+            removeNode(oldPos);
             if (oldPos < pos) {
                 pos--;
             }
         }
-        this.keyed.put(key, entry);
-        if (pos >= this.ordered.size()) {
-            this.ordered.add(entry);
-        } else {
-            this.ordered.add(pos, entry);
-        }
+        Node<VALUE> node = new Node<VALUE>(entry, this.priorities.nextInt());
+        this.keyed.put(key, node);
+        insertNode(Math.min(pos, size()), node);
     }
 
     private static boolean unkeyedKey(String key) {
@@ -206,7 +256,7 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
 
     @Override
     public boolean add(VALUE e) {
-        add(this.ordered.size(), e);
+        add(size(), e);
         return true;
     }
 
@@ -221,12 +271,16 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
     @Override
     public void clear() {
         this.keyed.clear();
-        this.ordered.clear();
+        this.root = null;
+        this.modCount++;
     }
 
     @Override
     public boolean contains(Object o) {
-        for (VALUE entry : this.ordered) {
+        if (keyedNode(o) != null) {
+            return true;
+        }
+        for (VALUE entry : values()) {
             if (o.equals(entry)) {
                 return true;
             }
@@ -237,7 +291,7 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
     @Override
     public boolean containsAll(Collection<?> c) {
         List<?> values = new ArrayList<Object>(c);
-        for (VALUE entry : this.ordered) {
+        for (VALUE entry : values()) {
             values.remove(entry);
         }
         return values.isEmpty();
@@ -258,7 +312,10 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
      *            the index to get
      */
     public VALUE get(int n) {
-        return this.ordered.get(n);
+        if (n < 0 || n >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + n + ", Size: " + size());
+        }
+        return nodeAt(n).value;
     }
 
     /**
@@ -268,7 +325,8 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
      *            the key to search for
      */
     public VALUE get(Object key) {
-        return this.keyed.get(key);
+        Node<VALUE> node = this.keyed.get(key);
+        return node == null ? null : node.value;
     }
 
     // Note that, if the entry is not found, a NoSuchElementException is
@@ -276,18 +334,26 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
     // the method is used internally in situations where the entry must be
     // there.
     int indexOf(VALUE entry) {
-        for (int index = 0; index < this.ordered.size(); index++) {
-            String searchKey = entry.getKey();
-            if (searchKey.equals(this.ordered.get(index).getKey())) {
+        String searchKey = entry.getKey();
+        Node<VALUE> node = this.keyed.get(searchKey);
+        // keyed entries are unique, so the mapped node is the only one with
+        // that key; unkeyed ones (and stale keys) need the first match.
+        if (node != null && !unkeyedKey(searchKey) && searchKey.equals(node.value.getKey())) {
+            return indexOfNode(node);
+        }
+        int index = 0;
+        for (VALUE value : values()) {
+            if (searchKey.equals(value.getKey())) {
                 return index;
             }
+            index++;
         }
-        throw new NoSuchElementException("Internal error: " + entry + " should have been found in " + ordered);
+        throw new NoSuchElementException("Internal error: " + entry + " should have been found in " + this);
     }
 
     @Override
     public boolean isEmpty() {
-        return this.ordered.isEmpty();
+        return this.root == null;
     }
 
     /**
@@ -304,7 +370,7 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
      *            the index to start the iterator
      */
     public Cursor<String, VALUE> iterator(int n) {
-        if (n >= 0 && n <= this.ordered.size()) {
+        if (n >= 0 && n <= size()) {
             return new HashedListIterator(n);
         } else {
             throw new NoSuchElementException("Invalid index for iterator:" + n);
@@ -318,7 +384,7 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
      *            the key to use as a start point
      */
     public HashedListIterator iterator(String key) {
-        VALUE entry = this.keyed.get(key);
+        VALUE entry = get(key);
         if (entry != null) {
             return new HashedListIterator(indexOf(entry));
         } else {
@@ -334,25 +400,30 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
      * @return true if the index was in range
      */
     public boolean remove(int index) {
-        if (index >= 0 && index < this.ordered.size()) {
-            return internalRemove(index, this.ordered.get(index));
+        if (index >= 0 && index < size()) {
+            return internalRemove(index, nodeAt(index).value);
         }
         return false;
     }
 
     private boolean internalRemove(int index, VALUE entry) {
         this.keyed.remove(entry.getKey());
-        this.ordered.remove(index);
+        removeNode(index);
         return true;
     }
 
     @Override
     public boolean remove(Object o) {
-        for (int i = 0; i < this.ordered.size(); i++) {
-            VALUE entry = this.ordered.get(i);
+        Node<VALUE> node = keyedNode(o);
+        if (node != null) {
+            return internalRemove(indexOfNode(node), node.value);
+        }
+        int index = 0;
+        for (VALUE entry : values()) {
             if (o.equals(entry)) {
-                return internalRemove(i, entry);
+                return internalRemove(index, entry);
             }
+            index++;
         }
         return false;
     }
@@ -375,11 +446,11 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
      * @return <code>true</code> if the key was removed
      */
     public boolean removeKey(Object key) {
-        VALUE entry = this.keyed.get(key);
+        VALUE entry = get(key);
         if (entry != null) {
             int index = indexOf(entry);
             this.keyed.remove(key);
-            this.ordered.remove(index);
+            removeNode(index);
             return true;
         }
         return false;
@@ -399,8 +470,8 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
         if (!this.keyed.containsKey(oldKey) || this.keyed.containsKey(newKey)) {
             return false;
         }
-        VALUE oldVal = this.keyed.get(oldKey);
-        // same entry in hashmap and ordered so only one change.
+        Node<VALUE> oldVal = this.keyed.get(oldKey);
+        // same node in hashmap and tree so only one change.
         this.keyed.remove(oldKey);
         this.keyed.put(newKey, oldVal);
         return true;
@@ -423,7 +494,7 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
 
     @Override
     public int size() {
-        return this.ordered.size();
+        return size(this.root);
     }
 
     /**
@@ -433,21 +504,204 @@ public class HashedList<VALUE extends CursorValue<String>> implements Collection
      *            the comparator to use for the sorting
      */
     public void sort(final Comparator<String> comp) {
-        java.util.Collections.sort(this.ordered, new EntryComparator<VALUE>(comp));
+        final EntryComparator<VALUE> entryComp = new EntryComparator<VALUE>(comp);
+        List<Node<VALUE>> sorted = nodes();
+        java.util.Collections.sort(sorted, new Comparator<Node<VALUE>>() {
+
+            @Override
+            public int compare(Node<VALUE> o1, Node<VALUE> o2) {
+                return entryComp.compare(o1.value, o2.value);
+            }
+        });
+        this.root = null;
+        for (Node<VALUE> node : sorted) {
+            node.left = null;
+            node.right = null;
+            node.parent = null;
+            node.size = 1;
+            this.root = merge(this.root, node);
+        }
+        this.modCount++;
     }
 
     @Override
     public Object[] toArray() {
-        return ordered.toArray();
+        return values().toArray();
     }
 
     @Override
     public <T> T[] toArray(T[] o) {
-        return ordered.toArray(o);
+        return values().toArray(o);
     }
 
     @Override
     public String toString() {
-        return this.ordered.toString();
+        return values().toString();
+    }
+
+    /**
+     * @return the node of a keyed entry if the object is that very entry, so
+     *         that it can be found without scanning the list.
+     */
+    private Node<VALUE> keyedNode(Object o) {
+        if (o instanceof CursorValue<?>) {
+            Object key = ((CursorValue<?>) o).getKey();
+            Node<VALUE> node = this.keyed.get(key);
+            if (node != null && node.value == o) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private List<Node<VALUE>> nodes() {
+        List<Node<VALUE>> result = new ArrayList<Node<VALUE>>(size());
+        Node<VALUE> node = this.root;
+        if (node != null) {
+            while (node.left != null) {
+                node = node.left;
+            }
+        }
+        while (node != null) {
+            result.add(node);
+            node = successor(node);
+        }
+        return result;
+    }
+
+    private List<VALUE> values() {
+        List<VALUE> result = new ArrayList<VALUE>(size());
+        for (Node<VALUE> node : nodes()) {
+            result.add(node.value);
+        }
+        return result;
+    }
+
+    private void insertNode(int pos, Node<VALUE> node) {
+        Node<VALUE> head = split(this.root, pos);
+        Node<VALUE> tail = this.splitRest;
+        this.splitRest = null;
+        this.root = merge(merge(head, node), tail);
+        this.root.parent = null;
+        this.modCount++;
+    }
+
+    private void removeNode(int pos) {
+        Node<VALUE> head = split(this.root, pos);
+        Node<VALUE> rest = this.splitRest;
+        split(rest, 1);
+        Node<VALUE> tail = this.splitRest;
+        this.splitRest = null;
+        this.root = merge(head, tail);
+        if (this.root != null) {
+            this.root.parent = null;
+        }
+        this.modCount++;
+    }
+
+    private Node<VALUE> nodeAt(int index) {
+        Node<VALUE> node = this.root;
+        int n = index;
+        while (true) {
+            int leftSize = size(node.left);
+            if (n < leftSize) {
+                node = node.left;
+            } else if (n == leftSize) {
+                return node;
+            } else {
+                n -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private static <VALUE> int indexOfNode(Node<VALUE> node) {
+        int index = size(node.left);
+        Node<VALUE> child = node;
+        while (child.parent != null) {
+            if (child == child.parent.right) {
+                index += size(child.parent.left) + 1;
+            }
+            child = child.parent;
+        }
+        return index;
+    }
+
+    private static <VALUE> Node<VALUE> successor(Node<VALUE> node) {
+        Node<VALUE> next = node.right;
+        if (next != null) {
+            while (next.left != null) {
+                next = next.left;
+            }
+            return next;
+        }
+        Node<VALUE> child = node;
+        while (child.parent != null && child == child.parent.right) {
+            child = child.parent;
+        }
+        return child.parent;
+    }
+
+    private static <VALUE> int size(Node<VALUE> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static <VALUE> void update(Node<VALUE> node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        if (node.left != null) {
+            node.left.parent = node;
+        }
+        if (node.right != null) {
+            node.right.parent = node;
+        }
+    }
+
+    /**
+     * Split a tree after the first count entries.
+     *
+     * @return the tree with the first count entries; the remainder is left in
+     *         splitRest.
+     */
+    private Node<VALUE> split(Node<VALUE> node, int count) {
+        if (node == null) {
+            this.splitRest = null;
+            return null;
+        }
+        int leftSize = size(node.left);
+        if (count <= leftSize) {
+            Node<VALUE> head = split(node.left, count);
+            node.left = this.splitRest;
+            update(node);
+            node.parent = null;
+            this.splitRest = node;
+            if (head != null) {
+                head.parent = null;
+            }
+            return head;
+        }
+        node.right = split(node.right, count - leftSize - 1);
+        update(node);
+        node.parent = null;
+        if (this.splitRest != null) {
+            this.splitRest.parent = null;
+        }
+        return node;
+    }
+
+    private static <VALUE> Node<VALUE> merge(Node<VALUE> head, Node<VALUE> tail) {
+        if (head == null) {
+            return tail;
+        }
+        if (tail == null) {
+            return head;
+        }
+        if (head.priority > tail.priority) {
+            head.right = merge(head.right, tail);
+            update(head);
+            return head;
+        }
+        tail.left = merge(head, tail.left);
+        update(tail);
+        return tail;
     }
 }
@@ -0,0 +1,1008 @@
+package nom.tam.util;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A random access file that reads and writes through memory mapped windows of
+ * the underlying file instead of copying the data through an intermediate
+ * byte[] buffer. Primitive arrays are decoded (and encoded) in bulk directly
+ * from the mapped region using the big endian views of the mapped buffer.
+ * <p>
+ * Only a window of the file is mapped at any time, so files larger than 2 GB
+ * are supported. When a read or write falls outside the current window a new
+ * window starting at the current file position is mapped. Seeks within the
+ * window are essentially free, seeks outside it only cost a new mapping when
+ * data is accessed.
+ * <p>
+ * Note that mapped windows can not be released explicitly in Java, they are
+ * unmapped when they are garbage collected. When the file is opened for
+ * writing, the file is grown in steps of the window size while writing and
+ * truncated to the written length on {@link #flush()} and {@link #close()}.
+ * Like the {@link BufferedFile} the methods of this class are not
+ * synchronized.
+ */
+public class MappedFile implements ArrayDataOutput, RandomAccess, PositionalInput {
+
+    /**
+     * default size of the mapped window: 64 MB.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The underlying access to the file system
+     */
+    private final RandomAccessFile randomAccessFile;
+
+    /**
+     * The channel used to map the windows.
+     */
+    private final FileChannel channel;
+
+    /**
+     * read-only or read-write mapping.
+     */
+    private final MapMode mapMode;
+
+    /**
+     * the maximum size of a mapped window.
+     */
+    private final int windowSize;
+
+    /**
+     * The currently mapped window, or null if no window is mapped (the file
+     * pointer is then held in windowOffset).
+     */
+    private MappedByteBuffer window;
+
+    /**
+     * The offset in the file of the start of the current window.
+     */
+    private long windowOffset;
+
+    /**
+     * the logical length of the file, the physical length may be larger while
+     * writing.
+     */
+    private long fileLength;
+
+    /**
+     * the physical length of the file.
+     */
+    private long physicalLength;
+
+    /**
+     * marker position in the file.
+     */
+    private long marker;
+
+    /**
+     * Create a read-only mapped file.
+     * 
+     * @param file
+     *            the file to open.
+     * @throws IOException
+     *             if the file could not be opened
+     */
+    public MappedFile(File file) throws IOException {
+        this(file, "r", MappedFile.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Create a mapped file with the given mode.
+     * 
+     * @param file
+     *            the file to open.
+     * @param mode
+     *            the mode to open the file in ("r" or "rw")
+     * @throws IOException
+     *             if the file could not be opened
+     */
+    public MappedFile(File file, String mode) throws IOException {
+        this(file, mode, MappedFile.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Create a mapped file with the given mode and window size.
+     * 
+     * @param file
+     *            the file to open.
+     * @param mode
+     *            the mode to open the file in ("r" or "rw")
+     * @param windowSize
+     *            the maximum number of bytes that are mapped at once.
+     * @throws IOException
+     *             if the file could not be opened
+     */
+    public MappedFile(File file, String mode, int windowSize) throws IOException {
+        if (windowSize < FitsIO.BYTES_IN_LONG) {
+            throw new IllegalArgumentException("window size too small: " + windowSize);
+        }
+        this.randomAccessFile = new RandomAccessFile(file, mode);
+        this.channel = this.randomAccessFile.getChannel();
+        this.mapMode = "r".equals(mode) ? MapMode.READ_ONLY : MapMode.READ_WRITE;
+        this.windowSize = windowSize;
+        this.fileLength = this.randomAccessFile.length();
+        this.physicalLength = this.fileLength;
+    }
+
+    /**
+     * Create a read-only mapped file.
+     * 
+     * @param filename
+     *            the name of the file to open
+     * @throws IOException
+     *             if the file could not be opened
+     */
+    public MappedFile(String filename) throws IOException {
+        this(new File(filename), "r", MappedFile.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Create a mapped file with the given mode.
+     * 
+     * @param filename
+     *            the name of the file to open
+     * @param mode
+     *            the mode to open the file in ("r" or "rw")
+     * @throws IOException
+     *             if the file could not be opened
+     */
+    public MappedFile(String filename, String mode) throws IOException {
+        this(new File(filename), mode, MappedFile.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Make sure that at least one element of the given size can be read from
+     * the current window and return how many elements (at most wanted) can be
+     * read from it.
+     * 
+     * @param elementSize
+     *            the size of one element in bytes
+     * @param wanted
+     *            the number of elements that should be read
+     * @return the number of elements readable from the window, 0 at the end of
+     *         the file.
+     * @throws IOException
+     *             if the window could not be mapped
+     */
+    private int readable(int elementSize, int wanted) throws IOException {
+        long position = getFilePointer();
+        long left = this.fileLength - position;
+        if (left < elementSize) {
+            return 0;
+        }
+        if (this.window == null || this.window.remaining() < elementSize) {
+            map(position, this.physicalLength - position);
+        }
+        long available = Math.min(this.window.remaining(), left) / elementSize;
+        return (int) Math.min(wanted, available);
+    }
+
+    /**
+     * Make sure that at least one element of the given size can be read from
+     * the current window.
+     * 
+     * @param needBytes
+     *            the number of bytes needed for the next read operation.
+     * @throws IOException
+     *             if the bytes are not available
+     */
+    private void checkRead(int needBytes) throws IOException {
+        if (readable(needBytes, 1) < 1) {
+            throw new EOFException();
+        }
+    }
+
+    /**
+     * Make sure that at least one element of the given size can be written to
+     * the current window and return how many elements (at most wanted) can be
+     * written into it. The file is grown as necessary.
+     * 
+     * @param elementSize
+     *            the size of one element in bytes
+     * @param wanted
+     *            the number of elements that should be written
+     * @return the number of elements writable to the window.
+     * @throws IOException
+     *             if the window could not be mapped
+     */
+    private int writable(int elementSize, int wanted) throws IOException {
+        if (this.mapMode != MapMode.READ_WRITE) {
+            throw new IOException("Attempt to write a read-only file");
+        }
+        if (this.window == null || this.window.remaining() < elementSize) {
+            long position = getFilePointer();
+            long need = (long) elementSize * wanted;
+            if (position + need > this.physicalLength) {
+                this.physicalLength = position + Math.max(need, this.windowSize);
+                this.randomAccessFile.setLength(this.physicalLength);
+            }
+            map(position, this.physicalLength - position);
+        }
+        return Math.min(wanted, this.window.remaining() / elementSize);
+    }
+
+    /**
+     * the window was written up to the current position, adapt the logical
+     * file length.
+     */
+    private void written() {
+        long position = getFilePointer();
+        if (position > this.fileLength) {
+            this.fileLength = position;
+        }
+    }
+
+    private void map(long position, long available) throws IOException {
+        int size = (int) Math.min(this.windowSize, available);
+        this.window = this.channel.map(this.mapMode, position, size);
+        this.windowOffset = position;
+    }
+
+    private void unmap() {
+        this.windowOffset = getFilePointer();
+        this.window = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        unmap();
+        this.randomAccessFile.close();
+    }
+
+    /**
+     * Truncate the file to the written length, the data itself is written to
+     * the file system by the operating system.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (this.physicalLength > this.fileLength) {
+            unmap();
+            this.randomAccessFile.setLength(this.fileLength);
+            this.physicalLength = this.fileLength;
+        }
+    }
+
+    /**
+     * @return the channel associated with this file.
+     */
+    public FileChannel getChannel() {
+        return this.channel;
+    }
+
+    @Override
+    public long getFilePointer() {
+        if (this.window == null) {
+            return this.windowOffset;
+        }
+        return this.windowOffset + this.window.position();
+    }
+
+    /**
+     * @return the current length of the file.
+     */
+    public long length() {
+        return this.fileLength;
+    }
+
+    @Override
+    public void mark(int readlimit) throws IOException {
+        this.marker = getFilePointer();
+    }
+
+    /**
+     * @return Read a byte.
+     * @throws IOException
+     *             if the underlying read operation fails
+     */
+    public int read() throws IOException {
+        checkRead(FitsIO.BYTES_IN_BYTE);
+        return this.window.get();
+    }
+
+    @Override
+    public int read(boolean[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(boolean[] b, int start, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int count = readable(FitsIO.BYTES_IN_BOOLEAN, length - done);
+            if (count == 0) {
+                return eofCheck(done, FitsIO.BYTES_IN_BOOLEAN);
+            }
+            for (int index = start + done; index < start + done + count; index++) {
+                b[index] = this.window.get() == 1;
+            }
+            done += count;
+        }
+        return length;
+    }
+
+    @Override
+    public int read(byte[] buf) throws IOException {
+        return read(buf, 0, buf.length);
+    }
+
+    @Override
+    public int read(byte[] buf, int offset, int len) throws IOException {
+        int done = 0;
+        while (done < len) {
+            int count = readable(FitsIO.BYTES_IN_BYTE, len - done);
+            if (count == 0) {
+                return eofCheck(done, FitsIO.BYTES_IN_BYTE);
+            }
+            this.window.get(buf, offset + done, count);
+            done += count;
+        }
+        return len;
+    }
+
+    @Override
+    public int read(char[] c) throws IOException {
+        return read(c, 0, c.length);
+    }
+
+    @Override
+    public int read(char[] c, int start, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int count = readable(FitsIO.BYTES_IN_CHAR, length - done);
+            if (count == 0) {
+                return eofCheck(done, FitsIO.BYTES_IN_CHAR);
+            }
+            this.window.asCharBuffer().get(c, start + done, count);
+            skipInWindow(count * FitsIO.BYTES_IN_CHAR);
+            done += count;
+        }
+        return length * FitsIO.BYTES_IN_CHAR;
+    }
+
+    @Override
+    public int read(double[] d) throws IOException {
+        return read(d, 0, d.length);
+    }
+
+    @Override
+    public int read(double[] d, int start, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int count = readable(FitsIO.BYTES_IN_DOUBLE, length - done);
+            if (count == 0) {
+                return eofCheck(done, FitsIO.BYTES_IN_DOUBLE);
+            }
+            this.window.asDoubleBuffer().get(d, start + done, count);
+            skipInWindow(count * FitsIO.BYTES_IN_DOUBLE);
+            done += count;
+        }
+        return length * FitsIO.BYTES_IN_DOUBLE;
+    }
+
+    @Override
+    public int read(float[] f) throws IOException {
+        return read(f, 0, f.length);
+    }
+
+    @Override
+    public int read(float[] f, int start, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int count = readable(FitsIO.BYTES_IN_FLOAT, length - done);
+            if (count == 0) {
+                return eofCheck(done, FitsIO.BYTES_IN_FLOAT);
+            }
+            this.window.asFloatBuffer().get(f, start + done, count);
+            skipInWindow(count * FitsIO.BYTES_IN_FLOAT);
+            done += count;
+        }
+        return length * FitsIO.BYTES_IN_FLOAT;
+    }
+
+    @Override
+    public int read(int[] i) throws IOException {
+        return read(i, 0, i.length);
+    }
+
+    @Override
+    public int read(int[] i, int start, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int count = readable(FitsIO.BYTES_IN_INTEGER, length - done);
+            if (count == 0) {
+                return eofCheck(done, FitsIO.BYTES_IN_INTEGER);
+            }
+            this.window.asIntBuffer().get(i, start + done, count);
+            skipInWindow(count * FitsIO.BYTES_IN_INTEGER);
+            done += count;
+        }
+        return length * FitsIO.BYTES_IN_INTEGER;
+    }
+
+    @Override
+    public int read(long[] l) throws IOException {
+        return read(l, 0, l.length);
+    }
+
+    @Override
+    public int read(long[] l, int start, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int count = readable(FitsIO.BYTES_IN_LONG, length - done);
+            if (count == 0) {
+                return eofCheck(done, FitsIO.BYTES_IN_LONG);
+            }
+            this.window.asLongBuffer().get(l, start + done, count);
+            skipInWindow(count * FitsIO.BYTES_IN_LONG);
+            done += count;
+        }
+        return length * FitsIO.BYTES_IN_LONG;
+    }
+
+    @Override
+    public int read(short[] s) throws IOException {
+        return read(s, 0, s.length);
+    }
+
+    @Override
+    public int read(short[] s, int start, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int count = readable(FitsIO.BYTES_IN_SHORT, length - done);
+            if (count == 0) {
+                return eofCheck(done, FitsIO.BYTES_IN_SHORT);
+            }
+            this.window.asShortBuffer().get(s, start + done, count);
+            skipInWindow(count * FitsIO.BYTES_IN_SHORT);
+            done += count;
+        }
+        return length * FitsIO.BYTES_IN_SHORT;
+    }
+
+    @Deprecated
+    @Override
+    public int readArray(Object o) throws IOException {
+        return (int) readLArray(o);
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        checkRead(FitsIO.BYTES_IN_BOOLEAN);
+        return this.window.get() == 1;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        checkRead(FitsIO.BYTES_IN_BYTE);
+        return this.window.get();
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        checkRead(FitsIO.BYTES_IN_CHAR);
+        return this.window.getChar();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        checkRead(FitsIO.BYTES_IN_DOUBLE);
+        return this.window.getDouble();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        checkRead(FitsIO.BYTES_IN_FLOAT);
+        return this.window.getFloat();
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IOException("Attempt to read outside byte array");
+        }
+        if (read(b, off, len) < len) {
+            throw new EOFException();
+        }
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        checkRead(FitsIO.BYTES_IN_INTEGER);
+        return this.window.getInt();
+    }
+
+    @Override
+    public long readLArray(Object o) throws IOException {
+        if (o == null) {
+            return 0;
+        }
+        if (!o.getClass().isArray()) {
+            throw new IOException("Invalid object passed to MappedFile.readLArray:" + o.getClass().getName());
+        }
+        int length = Array.getLength(o);
+        if (o instanceof boolean[]) {
+            return read((boolean[]) o, 0, length);
+        } else if (o instanceof byte[]) {
+            int len = read((byte[]) o, 0, length);
+            if (len < length) {
+                throw new EOFException();
+            }
+            return len;
+        } else if (o instanceof char[]) {
+            return read((char[]) o, 0, length);
+        } else if (o instanceof short[]) {
+            return read((short[]) o, 0, length);
+        } else if (o instanceof int[]) {
+            return read((int[]) o, 0, length);
+        } else if (o instanceof long[]) {
+            return read((long[]) o, 0, length);
+        } else if (o instanceof float[]) {
+            return read((float[]) o, 0, length);
+        } else if (o instanceof double[]) {
+            return read((double[]) o, 0, length);
+        }
+        long count = 0;
+        for (int index = 0; index < length; index++) {
+            count += readLArray(Array.get(o, index));
+        }
+        return count;
+    }
+
+    /**
+     * Read a line of input, only "\n" is used as line separator.
+     * 
+     * @return the next line.
+     */
+    @Override
+    public String readLine() throws IOException {
+        StringBuilder b = new StringBuilder(0);
+        while (readable(FitsIO.BYTES_IN_BYTE, 1) > 0) {
+            int chr = this.window.get() & FitsIO.BYTE_MASK;
+            if (chr == '\n') {
+                return b.toString();
+            }
+            b.append((char) chr);
+        }
+        return b.length() == 0 ? null : b.toString();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        checkRead(FitsIO.BYTES_IN_LONG);
+        return this.window.getLong();
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        checkRead(FitsIO.BYTES_IN_SHORT);
+        return this.window.getShort();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return readByte() & FitsIO.BYTE_MASK;
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return readShort() & FitsIO.SHORT_MASK;
+    }
+
+    /**
+     * Read bytes at an absolute position through the file channel, without
+     * using the mapped window or moving the file pointer.
+     */
+    @Override
+    public void readFully(long position, byte[] buf, int offset, int len) throws IOException {
+        if (position + len > this.fileLength) {
+            throw new EOFException("Positional read beyond the end of the file at " + position);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(buf, offset, len);
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer, position + buffer.position() - offset) < 0) {
+                throw new EOFException("Positional read beyond the end of the file at " + position);
+            }
+        }
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+
+    @Override
+    public void reset() throws IOException {
+        seek(this.marker);
+    }
+
+    @Override
+    public void seek(long offsetFromStart) throws IOException {
+        if (offsetFromStart < 0) {
+            offsetFromStart = 0;
+        }
+        if (this.window != null && this.windowOffset <= offsetFromStart && offsetFromStart <= this.windowOffset + this.window.limit()) {
+            this.window.position((int) (offsetFromStart - this.windowOffset));
+        } else {
+            this.window = null;
+            this.windowOffset = offsetFromStart;
+        }
+    }
+
+    /**
+     * Set the length of the file.
+     * 
+     * @param newLength
+     *            The number of bytes at which the file is set.
+     * @throws IOException
+     *             if the resizing of the underlying file fails
+     */
+    public void setLength(long newLength) throws IOException {
+        long position = getFilePointer();
+        unmap();
+        this.randomAccessFile.setLength(newLength);
+        this.fileLength = newLength;
+        this.physicalLength = newLength;
+        seek(Math.min(position, newLength));
+    }
+
+    @Override
+    public long skip(long offset) throws IOException {
+        long position = getFilePointer();
+        if (offset > 0 && position + offset > this.fileLength) {
+            offset = this.fileLength - position;
+        } else if (position + offset < 0) {
+            offset = -position;
+        }
+        seek(position + offset);
+        return offset;
+    }
+
+    @Override
+    public void skipAllBytes(int toSkip) throws IOException {
+        skipAllBytes((long) toSkip);
+    }
+
+    @Override
+    public void skipAllBytes(long toSkip) throws IOException {
+        // Note that we allow negative skips...
+        if (skip(toSkip) < toSkip) {
+            throw new EOFException();
+        }
+    }
+
+    @Override
+    public int skipBytes(int n) throws IOException {
+        skipAllBytes(n);
+        return n;
+    }
+
+    private void skipInWindow(int bytes) {
+        this.window.position(this.window.position() + bytes);
+    }
+
+    @Override
+    public void write(boolean[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(boolean[] b, int start, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int count = writable(FitsIO.BYTES_IN_BOOLEAN, length - done);
+            for (int index = start + done; index < start + done + count; index++) {
+                this.window.put(b[index] ? (byte) 1 : (byte) 0);
+            }
+            done += count;
+        }
+        written();
+    }
+
+    @Override
+    public void write(byte[] buf) throws IOException {
+        write(buf, 0, buf.length);
+    }
+
+    @Override
+    public void write(byte[] buf, int offset, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int count = writable(FitsIO.BYTES_IN_BYTE, length - done);
+            this.window.put(buf, offset + done, count);
+            done += count;
+        }
+        written();
+    }
+
+    @Override
+    public void write(char[] c) throws IOException {
+        write(c, 0, c.length);
+    }
+
+    @Override
+    public void write(char[] c, int start, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int count = writable(FitsIO.BYTES_IN_CHAR, length - done);
+            this.window.asCharBuffer().put(c, start + done, count);
+            skipInWindow(count * FitsIO.BYTES_IN_CHAR);
+            done += count;
+        }
+        written();
+    }
+
+    @Override
+    public void write(double[] d) throws IOException {
+        write(d, 0, d.length);
+    }
+
+    @Override
+    public void write(double[] d, int start, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int count = writable(FitsIO.BYTES_IN_DOUBLE, length - done);
+            this.window.asDoubleBuffer().put(d, start + done, count);
+            skipInWindow(count * FitsIO.BYTES_IN_DOUBLE);
+            done += count;
+        }
+        written();
+    }
+
+    @Override
+    public void write(float[] f) throws IOException {
+        write(f, 0, f.length);
+    }
+
+    @Override
+    public void write(float[] f, int start, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int count = writable(FitsIO.BYTES_IN_FLOAT, length - done);
+            this.window.asFloatBuffer().put(f, start + done, count);
+            skipInWindow(count * FitsIO.BYTES_IN_FLOAT);
+            done += count;
+        }
+        written();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        writeByte(b);
+    }
+
+    @Override
+    public void write(int[] i) throws IOException {
+        write(i, 0, i.length);
+    }
+
+    @Override
+    public void write(int[] i, int start, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int count = writable(FitsIO.BYTES_IN_INTEGER, length - done);
+            this.window.asIntBuffer().put(i, start + done, count);
+            skipInWindow(count * FitsIO.BYTES_IN_INTEGER);
+            done += count;
+        }
+        written();
+    }
+
+    @Override
+    public void write(long[] l) throws IOException {
+        write(l, 0, l.length);
+    }
+
+    @Override
+    public void write(long[] l, int start, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int count = writable(FitsIO.BYTES_IN_LONG, length - done);
+            this.window.asLongBuffer().put(l, start + done, count);
+            skipInWindow(count * FitsIO.BYTES_IN_LONG);
+            done += count;
+        }
+        written();
+    }
+
+    @Override
+    public void write(short[] s) throws IOException {
+        write(s, 0, s.length);
+    }
+
+    @Override
+    public void write(short[] s, int start, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int count = writable(FitsIO.BYTES_IN_SHORT, length - done);
+            this.window.asShortBuffer().put(s, start + done, count);
+            skipInWindow(count * FitsIO.BYTES_IN_SHORT);
+            done += count;
+        }
+        written();
+    }
+
+    @Override
+    public void write(String[] s) throws IOException {
+        write(s, 0, s.length);
+    }
+
+    @Override
+    public void write(String[] s, int start, int length) throws IOException {
+        for (int i = start; i < start + length; i++) {
+            writeBytes(s[i]);
+        }
+    }
+
+    @Override
+    public void writeArray(Object o) throws IOException {
+        if (!o.getClass().isArray()) {
+            throw new IOException("Invalid object passed to MappedFile.writeArray:" + o.getClass().getName());
+        }
+        int length = Array.getLength(o);
+        if (o instanceof boolean[]) {
+            write((boolean[]) o, 0, length);
+        } else if (o instanceof byte[]) {
+            write((byte[]) o, 0, length);
+        } else if (o instanceof char[]) {
+            write((char[]) o, 0, length);
+        } else if (o instanceof short[]) {
+            write((short[]) o, 0, length);
+        } else if (o instanceof int[]) {
+            write((int[]) o, 0, length);
+        } else if (o instanceof long[]) {
+            write((long[]) o, 0, length);
+        } else if (o instanceof float[]) {
+            write((float[]) o, 0, length);
+        } else if (o instanceof double[]) {
+            write((double[]) o, 0, length);
+        } else if (o instanceof String[]) {
+            write((String[]) o, 0, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                writeArray(Array.get(o, i));
+            }
+        }
+    }
+
+    @Override
+    public void writeBoolean(boolean b) throws IOException {
+        writable(FitsIO.BYTES_IN_BOOLEAN, 1);
+        this.window.put(b ? (byte) 1 : (byte) 0);
+        written();
+    }
+
+    @Override
+    public void writeByte(int b) throws IOException {
+        writable(FitsIO.BYTES_IN_BYTE, 1);
+        this.window.put((byte) b);
+        written();
+    }
+
+    @Override
+    public void writeBytes(String s) throws IOException {
+        write(AsciiFuncs.getBytes(s), 0, s.length());
+    }
+
+    @Override
+    public void writeChar(int c) throws IOException {
+        writable(FitsIO.BYTES_IN_CHAR, 1);
+        this.window.putChar((char) c);
+        written();
+    }
+
+    @Override
+    public void writeChars(String s) throws IOException {
+        write(s.toCharArray());
+    }
+
+    @Override
+    public void writeDouble(double d) throws IOException {
+        writable(FitsIO.BYTES_IN_DOUBLE, 1);
+        this.window.putDouble(d);
+        written();
+    }
+
+    @Override
+    public void writeFloat(float f) throws IOException {
+        writable(FitsIO.BYTES_IN_FLOAT, 1);
+        this.window.putFloat(f);
+        written();
+    }
+
+    @Override
+    public void writeInt(int i) throws IOException {
+        writable(FitsIO.BYTES_IN_INTEGER, 1);
+        this.window.putInt(i);
+        written();
+    }
+
+    @Override
+    public void writeLong(long l) throws IOException {
+        writable(FitsIO.BYTES_IN_LONG, 1);
+        this.window.putLong(l);
+        written();
+    }
+
+    @Override
+    public void writeShort(int s) throws IOException {
+        writable(FitsIO.BYTES_IN_SHORT, 1);
+        this.window.putShort((short) s);
+        written();
+    }
+
+    @Override
+    public void writeUTF(String s) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(s);
+        out.close();
+        write(bytes.toByteArray());
+    }
+
+    /**
+     * For array reads return an EOF if unable to read any data.
+     * 
+     * @param done
+     *            the number of elements read
+     * @param elementSize
+     *            the element length
+     * @return the number of bytes read before the end of file.
+     * @throws EOFException
+     *             if no element could be read
+     */
+    private int eofCheck(int done, int elementSize) throws EOFException {
+        if (done == 0) {
+            throw new EOFException();
+        }
+        return done * elementSize;
+    }
+}
@@ -0,0 +1,89 @@
+package nom.tam.util;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs a batch of tasks on an executor while the calling thread helps: every
+ * task that no worker has started yet when the caller is done submitting is
+ * run by the caller itself. Waiting for the results therefore never depends
+ * on a free worker, so a batch may be started from a task that already runs
+ * on the same (bounded) executor without deadlocking it.
+ */
+public final class ParallelTasks {
+
+    private ParallelTasks() {
+    }
+
+    /**
+     * Run the tasks and return their futures in the order of the tasks. When
+     * this method returns every task has either completed or is running on a
+     * worker of the executor, so {@link Future#get()} never waits for a free
+     * worker.
+     *
+     * @param executor
+     *            the executor to share the work with
+     * @param tasks
+     *            the tasks to run
+     * @param <T>
+     *            the result type of the tasks
+     * @return the futures of the tasks
+     */
+    public static <T> List<Future<T>> run(ExecutorService executor, List<? extends Callable<T>> tasks) {
+        List<FutureTask<T>> futures = new ArrayList<FutureTask<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(new FutureTask<T>(task));
+        }
+        // keep the first task for the caller, it runs in any case.
+        for (int index = 1; index < futures.size(); index++) {
+            try {
+                executor.execute(futures.get(index));
+            } catch (RejectedExecutionException e) {
+                // the caller runs it below.
+                break;
+            }
+        }
+        // run from the end, the workers take the tasks from the start. A
+        // task already started by a worker is not run again.
+        for (int index = futures.size() - 1; index >= 0; index--) {
+            futures.get(index).run();
+        }
+        return new ArrayList<Future<T>>(futures);
+    }
+}
@@ -0,0 +1,61 @@
+package nom.tam.util;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.IOException;
+
+/**
+ * An input that can read bytes at an absolute position without moving its file
+ * pointer. Positional reads do not share state with each other, so several
+ * threads may read one file concurrently through this interface, as long as no
+ * thread uses the stream methods of the same file meanwhile.
+ * {@link PositionalReader} uses it to read deferred data.
+ */
+public interface PositionalInput {
+
+    /**
+     * Read exactly len bytes starting at the given position of the file. The
+     * file pointer is not changed.
+     * 
+     * @param position
+     *            the position in the file of the first byte to read
+     * @param buf
+     *            the buffer to read into
+     * @param offset
+     *            the index in the buffer of the first byte
+     * @param len
+     *            the number of bytes to read
+     * @throws IOException
+     *             if the read failed or the end of the file was reached first
+     */
+    void readFully(long position, byte[] buf, int offset, int len) throws IOException;
+}
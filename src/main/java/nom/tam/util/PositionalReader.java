@@ -0,0 +1,319 @@
+package nom.tam.util;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Reads of primitive arrays at absolute positions of a random access input.
+ * Inputs that implement {@link PositionalInput} (a {@link BufferedFile} or a
+ * {@link MappedFile}) are read without touching their file pointer, and the
+ * bytes are decoded in a buffer that belongs to the calling thread, so several
+ * threads may read deferred data of the same file at once while nothing else
+ * uses the file. Other inputs are read with seek and restore, synchronized on
+ * the input.
+ * Note that interrupting a thread while it reads from a file channel closes the
+ * channel for all threads.
+ */
+public final class PositionalReader {
+
+    /**
+     * size of the per thread decode buffer.
+     */
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    /**
+     * segments separated by at most this many bytes are read together.
+     */
+    private static final int MAX_SEGMENT_GAP = 16 * 1024;
+
+    /**
+     * the largest number of bytes read at once for merged segments.
+     */
+    private static final int MAX_MERGED_READ = 1024 * 1024;
+
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    /**
+     * per thread buffer for merged segment reads, grown up to
+     * {@link #MAX_MERGED_READ} bytes.
+     */
+    private static final ThreadLocal<byte[]> MERGE_BUFFER = new ThreadLocal<byte[]>();
+
+    private PositionalReader() {
+    }
+
+    /**
+     * Read exactly len bytes at the given position of the input, the file
+     * pointer is left where it was.
+     * 
+     * @param in
+     *            the input to read from
+     * @param position
+     *            the position in the input of the first byte
+     * @param buf
+     *            the buffer to read into
+     * @param offset
+     *            the index in the buffer of the first byte
+     * @param len
+     *            the number of bytes to read
+     * @throws IOException
+     *             if the read failed or the end of the input was reached first
+     */
+    public static void readFully(RandomAccess in, long position, byte[] buf, int offset, int len) throws IOException {
+        if (in instanceof PositionalInput) {
+            ((PositionalInput) in).readFully(position, buf, offset, len);
+            return;
+        }
+        synchronized (in) {
+            long pointer = in.getFilePointer();
+            try {
+                in.seek(position);
+                in.readFully(buf, offset, len);
+            } finally {
+                in.seek(pointer);
+            }
+        }
+    }
+
+    /**
+     * Read a (possibly multi-dimensional) primitive array at the given
+     * position of the input, the file pointer is left where it was.
+     * 
+     * @param in
+     *            the input to read from
+     * @param position
+     *            the position in the input of the first element
+     * @param array
+     *            the array to fill
+     * @return the position following the array
+     * @throws IOException
+     *             if the read failed or the array is not a primitive array
+     */
+    public static long readArray(RandomAccess in, long position, Object array) throws IOException {
+        long size = ArrayFuncs.computeLSize(array);
+        byte[] buffer = BUFFER.get();
+        if (size <= buffer.length) {
+            readFully(in, position, buffer, 0, (int) size);
+            decode(ByteBuffer.wrap(buffer, 0, (int) size), array);
+        } else if (array instanceof Object[]) {
+            long pos = position;
+            for (Object element : (Object[]) array) {
+                pos = readArray(in, pos, element);
+            }
+        } else {
+            read(in, position, array, 0, Array.getLength(array));
+        }
+        return position + size;
+    }
+
+    /**
+     * Read a section of a one-dimensional primitive array at the given
+     * position of the input, the file pointer is left where it was.
+     * 
+     * @param in
+     *            the input to read from
+     * @param position
+     *            the position in the input of the first element
+     * @param array
+     *            the primitive array to fill
+     * @param start
+     *            the index of the first element to fill
+     * @param length
+     *            the number of elements to read
+     * @throws IOException
+     *             if the read failed or the array is not a primitive array
+     */
+    public static void read(RandomAccess in, long position, Object array, int start, int length) throws IOException {
+        int elementSize = ArrayFuncs.getBaseLength(array);
+        if (elementSize <= 0 || !array.getClass().getComponentType().isPrimitive()) {
+            throw new IOException("Invalid type for positional read: " + array.getClass().getName());
+        }
+        byte[] buffer = BUFFER.get();
+        int done = 0;
+        while (done < length) {
+            int count = Math.min(length - done, buffer.length / elementSize);
+            readFully(in, position + (long) done * elementSize, buffer, 0, count * elementSize);
+            decode(ByteBuffer.wrap(buffer, 0, count * elementSize), array, start + done, count);
+            done += count;
+        }
+    }
+
+    /**
+     * Read several sections of a one-dimensional primitive array at the given
+     * positions of the input, the file pointer is left where it was. The
+     * segments are read in file order, and segments that are adjacent or
+     * close to each other are merged into a single larger read, so a tile made
+     * of many short rows costs few I/O operations.
+     * 
+     * @param in
+     *            the input to read from
+     * @param positions
+     *            the position in the input of the first element of each
+     *            segment
+     * @param array
+     *            the primitive array to fill
+     * @param starts
+     *            the index in the array of the first element of each segment
+     * @param lengths
+     *            the number of elements of each segment
+     * @param count
+     *            the number of segments
+     * @throws IOException
+     *             if the read failed or the array is not a primitive array
+     */
+    public static void readSegments(RandomAccess in, final long[] positions, Object array, int[] starts, int[] lengths, int count) throws IOException {
+        int elementSize = ArrayFuncs.getBaseLength(array);
+        if (elementSize <= 0 || !array.getClass().getComponentType().isPrimitive()) {
+            throw new IOException("Invalid type for positional read: " + array.getClass().getName());
+        }
+        Integer[] order = fileOrder(positions, count);
+        int first = 0;
+        while (first < count) {
+            int segment = index(order, first);
+            long groupStart = positions[segment];
+            long groupEnd = groupStart + (long) lengths[segment] * elementSize;
+            int last = first + 1;
+            while (last < count) {
+                int next = index(order, last);
+                long nextEnd = positions[next] + (long) lengths[next] * elementSize;
+                if (positions[next] - groupEnd > MAX_SEGMENT_GAP || Math.max(groupEnd, nextEnd) - groupStart > MAX_MERGED_READ) {
+                    break;
+                }
+                groupEnd = Math.max(groupEnd, nextEnd);
+                last++;
+            }
+            if (last == first + 1) {
+                read(in, groupStart, array, starts[segment], lengths[segment]);
+            } else {
+                int span = (int) (groupEnd - groupStart);
+                byte[] buffer = mergeBuffer(span);
+                readFully(in, groupStart, buffer, 0, span);
+                for (int i = first; i < last; i++) {
+                    int merged = index(order, i);
+                    int from = (int) (positions[merged] - groupStart);
+                    decode(ByteBuffer.wrap(buffer, from, lengths[merged] * elementSize), array, starts[merged], lengths[merged]);
+                }
+            }
+            first = last;
+        }
+    }
+
+    private static byte[] mergeBuffer(int size) {
+        byte[] buffer = MERGE_BUFFER.get();
+        if (buffer == null || buffer.length < size) {
+            buffer = new byte[Math.max(size, BUFFER_SIZE)];
+            MERGE_BUFFER.set(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * @return the segment indexes sorted by position, or null if the segments
+     *         are in file order already (the usual case for image tiles).
+     */
+    private static Integer[] fileOrder(final long[] positions, int count) {
+        for (int i = 1; i < count; i++) {
+            if (positions[i] < positions[i - 1]) {
+                Integer[] order = new Integer[count];
+                for (int j = 0; j < count; j++) {
+                    order[j] = j;
+                }
+                Arrays.sort(order, new Comparator<Integer>() {
+
+                    @Override
+                    public int compare(Integer o1, Integer o2) {
+                        long p1 = positions[o1];
+                        long p2 = positions[o2];
+                        return p1 < p2 ? -1 : p1 == p2 ? 0 : 1;
+                    }
+                });
+                return order;
+            }
+        }
+        return null;
+    }
+
+    private static int index(Integer[] order, int i) {
+        return order == null ? i : order[i];
+    }
+
+    private static void decode(ByteBuffer buffer, Object array) throws IOException {
+        if (array instanceof Object[]) {
+            for (Object element : (Object[]) array) {
+                decode(buffer, element);
+            }
+        } else if (array != null && array.getClass().isArray() && array.getClass().getComponentType().isPrimitive()) {
+            decode(buffer, array, 0, Array.getLength(array));
+        } else {
+            throw new IOException("Invalid type for positional read: " + (array == null ? null : array.getClass().getName()));
+        }
+    }
+
+    private static void decode(ByteBuffer buffer, Object array, int start, int length) {
+        if (array instanceof byte[]) {
+            buffer.get((byte[]) array, start, length);
+            return;
+        }
+        if (array instanceof boolean[]) {
+            boolean[] b = (boolean[]) array;
+            for (int i = start; i < start + length; i++) {
+                b[i] = buffer.get() == 1;
+            }
+            return;
+        }
+        if (array instanceof short[]) {
+            buffer.asShortBuffer().get((short[]) array, start, length);
+        } else if (array instanceof char[]) {
+            buffer.asCharBuffer().get((char[]) array, start, length);
+        } else if (array instanceof int[]) {
+            buffer.asIntBuffer().get((int[]) array, start, length);
+        } else if (array instanceof long[]) {
+            buffer.asLongBuffer().get((long[]) array, start, length);
+        } else if (array instanceof float[]) {
+            buffer.asFloatBuffer().get((float[]) array, start, length);
+        } else if (array instanceof double[]) {
+            buffer.asDoubleBuffer().get((double[]) array, start, length);
+        }
+        buffer.position(buffer.position() + length * ArrayFuncs.getBaseLength(array));
+    }
+}
@@ -128,8 +128,8 @@ public class BasicHduFailureTest {
                 @Override
                 public void flush() throws IOException {
                     count++;
-                    // the 3e flush happens in the basic hdu write.
-                    if (count == 3) {
+                    // the 2nd flush happens in the basic hdu write.
+                    if (count == 2) {
                         throw new IOException("could not flush");
                     } else {
                         super.flush();
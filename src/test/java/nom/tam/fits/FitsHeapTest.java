@@ -35,6 +35,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.Arrays;
 
 import nom.tam.util.BufferedDataInputStream;
 import nom.tam.util.BufferedDataOutputStream;
@@ -141,4 +142,39 @@ public class FitsHeapTest {
         Assert.assertTrue(actual.getCause().getMessage().equals("testHeapWriteFailures"));
     }
 
+    @Test
+    public void testSegmentedHeap() throws Exception {
+        FitsHeap heap = new FitsHeap(0, 100);
+        double[][] data = new double[40][];
+        long[] offsets = new long[data.length];
+        for (int index = 0; index < data.length; index++) {
+            data[index] = new double[index % 7 * 3];
+            for (int value = 0; value < data[index].length; value++) {
+                data[index][value] = index * 1000 + value;
+            }
+            offsets[index] = heap.putData(data[index]);
+        }
+        Assert.assertEquals(offsets[data.length - 1] + data[data.length - 1].length * 8, heap.getSize());
+        for (int index = data.length - 1; index >= 0; index -= 3) {
+            double[] value = new double[data[index].length];
+            heap.getData(offsets[index], value);
+            Assert.assertArrayEquals(data[index], value, 0);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BufferedDataOutputStream out = new BufferedDataOutputStream(bytes);
+        heap.write(out);
+        out.flush();
+        Assert.assertEquals(heap.getSize(), bytes.size());
+
+        FitsHeap read = new FitsHeap(heap.getSize(), 64);
+        read.read(new BufferedDataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        FitsHeap copy = read.copy();
+        for (int index = 0; index < data.length; index += 2) {
+            double[] value = new double[data[index].length];
+            copy.getData(offsets[index], value);
+            Assert.assertTrue(Arrays.equals(data[index], value));
+        }
+    }
+
 }
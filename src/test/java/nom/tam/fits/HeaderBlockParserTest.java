@@ -0,0 +1,188 @@
+package nom.tam.fits;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.util.Arrays;
+
+import nom.tam.util.AsciiFuncs;
+import nom.tam.util.BufferedDataInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HeaderBlockParserTest {
+
+    private static final String[][] CARDS = {
+        {
+            "SIMPLE  =                    T / conforms"
+        },
+        {
+            "NAXIS1  =                  100"
+        },
+        {
+            "FLT     = 1.5E10/c"
+        },
+        {
+            "OBJECT  = 'M31 it''s  '       / a / b"
+        },
+        {
+            "EMPTY   = ''"
+        },
+        {
+            "DATE    = 'x'/"
+        },
+        {
+            "COMMENT   hello there  "
+        },
+        {
+            "HISTORY"
+        },
+        {
+            "        a comment without keyword"
+        },
+        {
+            "KEYWORD no equals"
+        },
+        {
+            "BAD     = 'unterminated"
+        },
+        {
+            "ODD/KEY = 5 / odd"
+        },
+        {
+            "QUOTE   = 12 / it's"
+        },
+        {
+            "HIERARCH ESO DET CHIP = 3 / hierarch"
+        },
+        {
+            "HIERARCH ESO INS NAME = 'long&'",
+            "CONTINUE  'string&' / first",
+            "CONTINUE  'end' / second"
+        },
+        {
+            "AMP     = 'not continued&'",
+            "NEXT    = 1"
+        }
+    };
+
+    private static byte[] block(String... cards) {
+        byte[] bytes = new byte[FitsFactory.FITS_BLOCK_SIZE];
+        Arrays.fill(bytes, (byte) ' ');
+        for (int i = 0; i < cards.length; i++) {
+            byte[] card = AsciiFuncs.getBytes(cards[i]);
+            System.arraycopy(card, 0, bytes, i * HeaderCard.FITS_HEADER_CARD_SIZE, card.length);
+        }
+        return bytes;
+    }
+
+    private static Object parse(boolean blockwise, byte[] bytes) {
+        BufferedDataInputStream in = new BufferedDataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            HeaderCard card = blockwise ? new HeaderBlockParser(in).nextCard() : new HeaderCard(in);
+            return Arrays.asList(card.getKey(), card.getValue(), card.getComment(), card.isStringValue());
+        } catch (Exception e) {
+            return e.getClass();
+        }
+    }
+
+    @Test
+    public void testSameAsCardParser() throws Exception {
+        boolean hierarch = FitsFactory.getUseHierarch();
+        boolean longStrings = FitsFactory.isLongStringsEnabled();
+        try {
+            for (boolean enabled : new boolean[]{
+                false,
+                true
+            }) {
+                FitsFactory.setUseHierarch(enabled);
+                FitsFactory.setLongStringsEnabled(enabled);
+                for (String[] cards : CARDS) {
+                    byte[] bytes = block(cards);
+                    Assert.assertEquals(cards[0], parse(false, bytes), parse(true, bytes));
+                }
+            }
+        } finally {
+            FitsFactory.setUseHierarch(hierarch);
+            FitsFactory.setLongStringsEnabled(longStrings);
+        }
+    }
+
+    @Test
+    public void testBlocks() throws Exception {
+        FitsFactory.setLongStringsEnabled(true);
+        try {
+            String[] cards = new String[HeaderCard.FITS_HEADER_CARD_SIZE / 2 + 1];
+            for (int i = 0; i < cards.length; i++) {
+                cards[i] = String.format("%-8s= %d", "KEY" + i, i);
+            }
+            // a long string continued over the block border.
+            cards[FitsFactory.FITS_BLOCK_SIZE / HeaderCard.FITS_HEADER_CARD_SIZE - 1] = "LONG    = 'a&'";
+            cards[FitsFactory.FITS_BLOCK_SIZE / HeaderCard.FITS_HEADER_CARD_SIZE] = "CONTINUE  'b'";
+            byte[] bytes = new byte[2 * FitsFactory.FITS_BLOCK_SIZE];
+            System.arraycopy(block(Arrays.copyOf(cards, FitsFactory.FITS_BLOCK_SIZE / HeaderCard.FITS_HEADER_CARD_SIZE)), 0, bytes, 0, FitsFactory.FITS_BLOCK_SIZE);
+            System.arraycopy(block(Arrays.copyOfRange(cards, FitsFactory.FITS_BLOCK_SIZE / HeaderCard.FITS_HEADER_CARD_SIZE, cards.length)), 0, bytes,
+                    FitsFactory.FITS_BLOCK_SIZE, FitsFactory.FITS_BLOCK_SIZE);
+            HeaderBlockParser parser = new HeaderBlockParser(new BufferedDataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 10)));
+            for (int i = 0; i < cards.length; i++) {
+                HeaderCard card = parser.nextCard();
+                if (card.getKey().equals("LONG")) {
+                    Assert.assertEquals("ab", card.getValue());
+                    i++;
+                } else {
+                    Assert.assertEquals(Integer.toString(i), card.getValue());
+                }
+            }
+            Assert.assertEquals(cards.length, parser.getPhysicalCardsRead());
+            Assert.assertEquals(bytes.length - 10, parser.getBytesRead());
+            for (int i = cards.length; i < 2 * FitsFactory.FITS_BLOCK_SIZE / HeaderCard.FITS_HEADER_CARD_SIZE - 1; i++) {
+                Assert.assertEquals("", parser.nextCard().getKey());
+            }
+            try {
+                parser.nextCard();
+                Assert.fail("truncated card expected");
+            } catch (TruncatedFileException e) {
+                // expected
+            }
+        } finally {
+            FitsFactory.setLongStringsEnabled(false);
+        }
+        try {
+            new HeaderBlockParser(new BufferedDataInputStream(new ByteArrayInputStream(new byte[0]))).nextCard();
+            Assert.fail("end of file expected");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+}
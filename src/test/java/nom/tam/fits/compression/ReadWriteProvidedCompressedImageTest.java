@@ -43,6 +43,11 @@ import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
@@ -51,16 +56,19 @@ import javax.swing.JLabel;
 import nom.tam.fits.BasicHDU;
 import nom.tam.fits.Fits;
 import nom.tam.fits.FitsException;
+import nom.tam.fits.FitsFactory;
 import nom.tam.fits.Header;
 import nom.tam.fits.HeaderCard;
 import nom.tam.fits.ImageData;
 import nom.tam.fits.ImageHDU;
+import nom.tam.fits.compression.algorithm.gzip.GZipCompressOption;
 import nom.tam.fits.compression.algorithm.hcompress.HCompressorOption;
 import nom.tam.fits.compression.algorithm.quant.QuantizeOption;
 import nom.tam.fits.compression.algorithm.rice.RiceCompressOption;
 import nom.tam.fits.header.Compression;
 import nom.tam.fits.header.Standard;
 import nom.tam.fits.util.BlackBoxImages;
+import nom.tam.image.ImageTiler;
 import nom.tam.image.compression.hdu.CompressedImageHDU;
 import nom.tam.util.ArrayFuncs;
 import nom.tam.util.BufferedDataOutputStream;
@@ -477,6 +485,162 @@ public class ReadWriteProvidedCompressedImageTest {
         }
     }
 
+    @Test
+    public void readRealTiles() throws Exception {
+        Fits f = null;
+        try {
+            f = new Fits("src/test/resources/nom/tam/image/provided/m13real_rice.fits");
+            CompressedImageHDU hdu = (CompressedImageHDU) f.getHDU(1);
+            float[] tile = (float[]) hdu.getTiler().getTile(new int[]{
+                120,
+                80
+            }, new int[]{
+                40,
+                50
+            });
+            float[] expected = (float[]) hdu.getUncompressedData().array();
+            for (int y = 0; y < 40; y++) {
+                for (int x = 0; x < 50; x++) {
+                    Assert.assertEquals(expected[(y + 120) * 300 + x + 80], tile[y * 50 + x], 0f);
+                }
+            }
+        } finally {
+            SafeClose.close(f);
+        }
+    }
+
+    @Test
+    public void readRiceTiles() throws Exception {
+        Fits f = null;
+        try {
+            f = new Fits("src/test/resources/nom/tam/image/provided/m13_rice.fits");
+            CompressedImageHDU hdu = (CompressedImageHDU) f.getHDU(1);
+            assertTile(hdu.getTiler(), 120, 80, 40, 50);
+            assertTile(hdu.getTiler(), 0, 0, 1, 300);
+            assertTile(hdu.getTiler(), 299, 290, 1, 10);
+        } finally {
+            SafeClose.close(f);
+        }
+    }
+
+    @Test
+    public void readRiceTilesOfSquareTiles() throws Exception {
+        Fits f = null;
+        try {
+            f = new Fits();
+            CompressedImageHDU compressedHdu = CompressedImageHDU.fromImageHDU(this.m13, 25, 20);
+            compressedHdu.setCompressAlgorithm(Compression.ZCMPTYPE_RICE_1);
+            compressedHdu.compress();
+            f.addHDU(compressedHdu);
+            BufferedDataOutputStream bdos = null;
+            try {
+                bdos = new BufferedDataOutputStream(new FileOutputStream("target/m13_square_tiles.fits.fz"));
+                f.write(bdos);
+            } finally {
+                SafeClose.close(bdos);
+            }
+        } finally {
+            SafeClose.close(f);
+        }
+        try {
+            f = new Fits("target/m13_square_tiles.fits.fz");
+            CompressedImageHDU hdu = (CompressedImageHDU) f.getHDU(1);
+            ImageTiler tiler = hdu.getTiler();
+            assertTile(tiler, 10, 10, 5, 5);
+            assertTile(tiler, 13, 17, 33, 61);
+            assertTile(tiler, 270, 280, 30, 20);
+            assertTile(tiler, 0, 0, 300, 300);
+        } finally {
+            SafeClose.close(f);
+        }
+    }
+
+    @Test
+    public void readTilesWithBadRequests() throws Exception {
+        Fits f = null;
+        try {
+            f = new Fits("src/test/resources/nom/tam/image/provided/m13_rice.fits");
+            ImageTiler tiler = ((CompressedImageHDU) f.getHDU(1)).getTiler();
+            int[][][] requests = {
+                {
+                    {
+                        0,
+                        0,
+                        0
+                    },
+                    {
+                        1,
+                        1,
+                        1
+                    }
+                },
+                {
+                    {
+                        290,
+                        0
+                    },
+                    {
+                        20,
+                        10
+                    }
+                },
+                {
+                    {
+                        -1,
+                        0
+                    },
+                    {
+                        10,
+                        10
+                    }
+                }
+            };
+            for (int[][] request : requests) {
+                try {
+                    tiler.getTile(request[0], request[1]);
+                    Assert.fail("bad request accepted");
+                } catch (IllegalArgumentException e) {
+                    // expected
+                }
+                try {
+                    tiler.getTile(new short[100000], request[0], request[1]);
+                    Assert.fail("bad request accepted");
+                } catch (IllegalArgumentException e) {
+                    // expected
+                }
+            }
+            try {
+                tiler.getTile(new short[10], new int[]{
+                    0,
+                    0
+                }, new int[]{
+                    10,
+                    10
+                });
+                Assert.fail("too small array accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        } finally {
+            SafeClose.close(f);
+        }
+    }
+
+    private void assertTile(ImageTiler tiler, int y0, int x0, int height, int width) throws IOException {
+        short[] tile = (short[]) tiler.getTile(new int[]{
+            y0,
+            x0
+        }, new int[]{
+            height,
+            width
+        });
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                Assert.assertEquals(this.m13_data[y + y0][x + x0], tile[y * width + x]);
+            }
+        }
+    }
+
     @Test
     public void readRiceAsImageHDU() throws Exception {
         ImageHDU image = readCompressedHdu("src/test/resources/nom/tam/image/provided/m13_rice.fits", 1);
@@ -732,6 +896,38 @@ public class ReadWriteProvidedCompressedImageTest {
         }
     }
 
+    @Test
+    public void writeGzipWithOwnThreadPool() throws Exception {
+        final AtomicInteger executedTiles = new AtomicInteger();
+        // the queue can not take all tiles at once, so the tiles must be
+        // submitted with back pressure.
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(2)) {
+
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                executedTiles.incrementAndGet();
+            }
+        };
+        FitsFactory.useThreadLocalSettings(true);
+        try {
+            FitsFactory.setThreadPool(threadPool);
+            FitsFactory.setMaxPendingTiles(2);
+            CompressedImageHDU compressedHdu = CompressedImageHDU.fromImageHDU(this.m13, 300, 15);
+            compressedHdu.setCompressAlgorithm(Compression.ZCMPTYPE_GZIP_1)//
+                    .setQuantAlgorithm((String) null)//
+                    .getCompressOption(GZipCompressOption.class)//
+                    /**/.setLevel(Deflater.BEST_COMPRESSION);
+            compressedHdu.compress();
+            Assert.assertEquals(20, executedTiles.get());
+            short[][] actualShortArray = (short[][]) compressedHdu.asImageHDU().getData().getData();
+            Assert.assertArrayEquals(this.m13_data, actualShortArray);
+            Assert.assertEquals(40, executedTiles.get());
+        } finally {
+            FitsFactory.useThreadLocalSettings(false);
+            threadPool.shutdown();
+        }
+    }
+
     @Test
     public void writeHcompress() throws Exception {
         Fits f = null;
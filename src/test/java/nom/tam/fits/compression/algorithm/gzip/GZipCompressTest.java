@@ -31,6 +31,7 @@ package nom.tam.fits.compression.algorithm.gzip;
  * #L%
  */
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -42,6 +43,8 @@ import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
 import java.nio.ShortBuffer;
+import java.util.Random;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
 import nom.tam.fits.compression.algorithm.gzip.GZipCompressor.ByteGZipCompressor;
@@ -419,4 +422,80 @@ public class GZipCompressTest {
             SafeClose.close(file);
         }
     }
+
+    @Test
+    public void testConcatenatedMembers() throws Exception {
+        byte[] bytes = new byte[3000];
+        new Random(2).nextBytes(bytes);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int part = 0; part < 3; part++) {
+            GZIPOutputStream zip = new GZIPOutputStream(out);
+            zip.write(bytes, part * 1000, 1000);
+            zip.finish();
+        }
+        byte[] decompressed = new byte[bytes.length];
+        new ByteGZipCompressor().decompress(ByteBuffer.wrap(out.toByteArray()), ByteBuffer.wrap(decompressed));
+        Assert.assertArrayEquals(bytes, decompressed);
+    }
+
+    @Test
+    public void testGzipLevel() throws Exception {
+        int[] data = new int[10000];
+        for (int index = 0; index < data.length; index++) {
+            data[index] = index % 100;
+        }
+        ByteBuffer stored = ByteBuffer.allocate(data.length * 8);
+        new IntGZipCompressor(new GZipCompressOption().setLevel(Deflater.NO_COMPRESSION)).compress(IntBuffer.wrap(data), stored);
+        ByteBuffer best = ByteBuffer.allocate(data.length * 8);
+        new IntGZipCompressor(new GZipCompressOption().setLevel(Deflater.BEST_COMPRESSION)).compress(IntBuffer.wrap(data), best);
+        Assert.assertTrue(best.limit() < stored.limit());
+
+        for (ByteBuffer compressed : new ByteBuffer[]{
+            stored,
+            best
+        }) {
+            compressed.rewind();
+            int[] decompressed = new int[data.length];
+            new IntGZipCompressor().decompress(compressed, IntBuffer.wrap(decompressed));
+            Assert.assertArrayEquals(data, decompressed);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGzipIllegalLevel() throws Exception {
+        new GZipCompressOption().setLevel(Deflater.BEST_COMPRESSION + 1);
+    }
+
+    @Test
+    public void testGzipHeaderWithName() throws Exception {
+        byte[] bytes = new byte[1000];
+        new Random(1).nextBytes(bytes);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream zip = new GZIPOutputStream(out);
+        zip.write(bytes);
+        zip.close();
+        byte[] member = out.toByteArray();
+        // a gzip member written by an other tool with the original file name
+        byte[] name = "tile.bin\0".getBytes("US-ASCII");
+        byte[] named = new byte[member.length + name.length];
+        System.arraycopy(member, 0, named, 0, 10);
+        named[3] |= 8;
+        System.arraycopy(name, 0, named, 10, name.length);
+        System.arraycopy(member, 10, named, 10 + name.length, member.length - 10);
+
+        byte[] decompressed = new byte[bytes.length];
+        new ByteGZipCompressor().decompress(ByteBuffer.wrap(named), ByteBuffer.wrap(decompressed));
+        Assert.assertArrayEquals(bytes, decompressed);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGzipCorruptTrailer() throws Exception {
+        byte[] bytes = new byte[1000];
+        new Random(1).nextBytes(bytes);
+        ByteBuffer compressed = ByteBuffer.allocate(2000);
+        new ByteGZipCompressor().compress(ByteBuffer.wrap(bytes), compressed);
+        compressed.put(compressed.limit() - 8, (byte) (compressed.get(compressed.limit() - 8) + 1));
+        compressed.rewind();
+        new ByteGZipCompressor().decompress(compressed, ByteBuffer.wrap(new byte[bytes.length]));
+    }
 }
@@ -31,6 +31,7 @@ package nom.tam.fits.compression.algorithm.gzip2;
  * #L%
  */
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -43,11 +44,13 @@ import java.nio.IntBuffer;
 import java.nio.LongBuffer;
 import java.nio.ShortBuffer;
 import java.util.Random;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import nom.tam.fits.compression.algorithm.gzip.GZipCompressOption;
 import nom.tam.fits.compression.algorithm.gzip2.GZip2Compressor.ByteGZip2Compressor;
 import nom.tam.fits.compression.algorithm.gzip2.GZip2Compressor.DoubleGZip2Compressor;
 import nom.tam.fits.compression.algorithm.gzip2.GZip2Compressor.FloatGZip2Compressor;
@@ -406,4 +409,48 @@ public class GZip2CompressTest {
             SafeClose.close(file);
         }
     }
+
+    @Test
+    public void testGzip2Level() throws Exception {
+        short[] data = new short[10000];
+        for (int index = 0; index < data.length; index++) {
+            data[index] = (short) (index % 300);
+        }
+        ByteBuffer fast = ByteBuffer.allocate(data.length * 4);
+        new ShortGZip2Compressor(new GZipCompressOption().setLevel(Deflater.BEST_SPEED)).compress(ShortBuffer.wrap(data), fast);
+        ByteBuffer best = ByteBuffer.allocate(data.length * 4);
+        new ShortGZip2Compressor(new GZipCompressOption().setLevel(Deflater.BEST_COMPRESSION)).compress(ShortBuffer.wrap(data), best);
+        Assert.assertTrue(best.position() <= fast.position());
+
+        for (ByteBuffer compressed : new ByteBuffer[]{
+            fast,
+            best
+        }) {
+            compressed.flip();
+            short[] decompressed = new short[data.length];
+            new ShortGZip2Compressor().decompress(compressed, ShortBuffer.wrap(decompressed));
+            Assert.assertArrayEquals(data, decompressed);
+        }
+    }
+
+    @Test
+    public void testConcatenatedMembers() throws Exception {
+        short[] data = new short[1500];
+        for (int index = 0; index < data.length; index++) {
+            data[index] = (short) (index * 7);
+        }
+        ShortGZip2Compressor compressor = new ShortGZip2Compressor();
+        ByteBuffer pixelBytes = ByteBuffer.allocate(data.length * 2);
+        pixelBytes.asShortBuffer().put(data);
+        byte[] shuffled = compressor.shuffle(pixelBytes.array());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int part = 0; part < 3; part++) {
+            GZIPOutputStream zip = new GZIPOutputStream(out);
+            zip.write(shuffled, part * 1000, 1000);
+            zip.finish();
+        }
+        short[] decompressed = new short[data.length];
+        compressor.decompress(ByteBuffer.wrap(out.toByteArray()), ShortBuffer.wrap(decompressed));
+        Assert.assertArrayEquals(data, decompressed);
+    }
 }
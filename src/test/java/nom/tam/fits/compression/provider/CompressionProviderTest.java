@@ -31,9 +31,16 @@ package nom.tam.fits.compression.provider;
  * #L%
  */
 
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.zip.Deflater;
+
 import nom.tam.fits.FitsException;
 import nom.tam.fits.compression.algorithm.api.ICompressOption;
 import nom.tam.fits.compression.algorithm.api.ICompressorControl;
+import nom.tam.fits.compression.algorithm.gzip.GZipCompressOption;
+import nom.tam.fits.compression.algorithm.rice.RiceCompressOption;
 import nom.tam.fits.compression.provider.param.api.ICompressParameters;
 
 import org.junit.Assert;
@@ -41,6 +48,97 @@ import org.junit.Test;
 
 public class CompressionProviderTest {
 
+    @Test
+    public void testReusedCompressor() {
+        ICompressorControl control = CompressorProvider.findCompressorControl(null, "GZIP_1", int.class);
+        Assert.assertSame(control, CompressorProvider.findCompressorControl(null, "GZIP_1", int.class));
+        for (int size : new int[]{
+            100000,
+            10,
+            30000
+        }) {
+            int[] data = new int[size];
+            for (int index = 0; index < size; index++) {
+                data[index] = index * 7;
+            }
+            ByteBuffer compressed = ByteBuffer.allocate(size * 4 + 1024);
+            Assert.assertTrue(control.compress(IntBuffer.wrap(data), compressed, null));
+            compressed.rewind();
+            IntBuffer decompressed = IntBuffer.allocate(size);
+            control.decompress(compressed, decompressed, null);
+            Assert.assertArrayEquals(data, decompressed.array());
+        }
+    }
+
+    @Test
+    public void testReusedCompressorWithOption() throws Exception {
+        ICompressorControl control = CompressorProvider.findCompressorControl(null, "GZIP_1", int.class);
+        Field field = CompressorProvider.TileCompressorControl.class.getDeclaredField("threadCompressor");
+        field.setAccessible(true);
+        ThreadLocal<?> threadCompressor = (ThreadLocal<?>) field.get(control);
+        int[] data = new int[10000];
+        for (int index = 0; index < data.length; index++) {
+            data[index] = index % 100;
+        }
+        int[] sizes = new int[2];
+        Object compressor = null;
+        int[] levels = new int[]{
+            Deflater.NO_COMPRESSION,
+            Deflater.BEST_COMPRESSION
+        };
+        for (int index = 0; index < levels.length; index++) {
+            ICompressOption option = control.option();
+            option.unwrap(GZipCompressOption.class).setLevel(levels[index]);
+            ByteBuffer compressed = ByteBuffer.allocate(data.length * 8);
+            Assert.assertTrue(control.compress(IntBuffer.wrap(data), compressed, option));
+            sizes[index] = compressed.limit();
+            if (compressor != null) {
+                Assert.assertSame(compressor, threadCompressor.get());
+            }
+            compressor = threadCompressor.get();
+            Assert.assertNotNull(compressor);
+
+            compressed.rewind();
+            IntBuffer decompressed = IntBuffer.allocate(data.length);
+            control.decompress(compressed, decompressed, option);
+            Assert.assertArrayEquals(data, decompressed.array());
+        }
+        Assert.assertTrue(sizes[1] < sizes[0]);
+    }
+
+    @Test
+    public void testReusedRiceCompressorWithOption() throws Exception {
+        ICompressorControl control = CompressorProvider.findCompressorControl(null, "RICE_1", int.class);
+        Field field = CompressorProvider.TileCompressorControl.class.getDeclaredField("threadCompressor");
+        field.setAccessible(true);
+        ThreadLocal<?> threadCompressor = (ThreadLocal<?>) field.get(control);
+        Object compressor = null;
+        int[] data = new int[1000];
+        for (int index = 0; index < data.length; index++) {
+            data[index] = index % 37;
+        }
+        int[] blockSizes = new int[]{
+            32,
+            32,
+            16
+        };
+        for (int blockSize : blockSizes) {
+            ICompressOption option = control.option().copy();
+            option.unwrap(RiceCompressOption.class).setBlockSize(blockSize).setBytePix(4);
+            ByteBuffer compressed = ByteBuffer.allocate(data.length * 8);
+            Assert.assertTrue(control.compress(IntBuffer.wrap(data), compressed, option));
+            compressed.flip();
+            IntBuffer decompressed = IntBuffer.allocate(data.length);
+            control.decompress(compressed, decompressed, option);
+            Assert.assertArrayEquals(data, decompressed.array());
+            if (compressor != null) {
+                Assert.assertSame(compressor, threadCompressor.get());
+            }
+            compressor = threadCompressor.get();
+            Assert.assertNotNull(compressor);
+        }
+    }
+
     @Test
     public void testNullOptions() {
         ICompressorControl compressor = CompressorProvider.findCompressorControl(null, "GZIP_1", byte.class);
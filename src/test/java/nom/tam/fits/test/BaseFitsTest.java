@@ -52,16 +52,19 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 import nom.tam.fits.AsciiTableHDU;
 import nom.tam.fits.BadData;
 import nom.tam.fits.BasicHDU;
+import nom.tam.fits.BinaryTable;
 import nom.tam.fits.BinaryTableHDU;
 import nom.tam.fits.Data;
 import nom.tam.fits.Fits;
 import nom.tam.fits.FitsException;
 import nom.tam.fits.FitsFactory;
 import nom.tam.fits.FitsUtil;
+import nom.tam.fits.HDUIndex;
 import nom.tam.fits.Header;
 import nom.tam.fits.HeaderCard;
 import nom.tam.fits.HeaderCardException;
@@ -1157,4 +1160,162 @@ public class BaseFitsTest {
     public void testFitsReadEmpty() throws Exception {
         Assert.assertArrayEquals(new BasicHDU<?>[0], new Fits().read());
     }
+
+    @Test
+    public void testHDUIndex() throws Exception {
+        Fits f = new Fits();
+        try {
+            f.addHDU(Fits.makeHDU(new int[]{
+                0
+            }));
+            for (int i = 1; i <= 30; i++) {
+                BasicHDU<?> hdu = Fits.makeHDU(new short[i][3]);
+                hdu.addValue("EXTNAME", "E" + i % 10, "");
+                hdu.addValue("EXTVER", i / 10, "");
+                ((short[][]) hdu.getKernel())[0][0] = (short) i;
+                f.addHDU(hdu);
+            }
+            f.write(new File("target/hduIndex.fits"));
+        } finally {
+            SafeClose.close(f);
+        }
+        File sidecar = new File("target/hduIndex.fits.idx");
+        sidecar.delete();
+
+        f = new Fits("target/hduIndex.fits");
+        try {
+            HDUIndex index = f.getIndex(sidecar);
+            Assert.assertTrue(sidecar.isFile());
+            assertEquals(31, index.size());
+            assertEquals(0, index.getHeaderOffset(0));
+            Assert.assertNull(index.getExtName(0));
+            assertEquals("E7", index.getExtName(17));
+            assertEquals(1, index.getExtVer(17));
+            assertEquals(17, index.indexOf("E7", 1));
+            assertEquals(7, index.indexOf("E7"));
+            assertEquals(-1, index.indexOf("X"));
+
+            BasicHDU<?> hdu = f.getHDU(25);
+            assertEquals(25, ((short[][]) hdu.getKernel())[0][0]);
+            assertEquals(25, ((short[][]) hdu.getKernel()).length);
+            assertEquals(hdu, f.getHDU("E5", 2));
+            Assert.assertNull(f.getHDU(31));
+            assertEquals(0, f.getNumberOfHDUs());
+            f.getHDU(0);
+            for (int i = 1; i <= 30; i++) {
+                assertEquals(i, ((short[][]) f.getHDU(i).getKernel())[0][0]);
+            }
+            assertEquals(hdu, f.getHDU(25));
+            assertEquals(31, f.getNumberOfHDUs());
+        } finally {
+            SafeClose.close(f);
+        }
+
+        f = new Fits("target/hduIndex.fits");
+        try {
+            Assert.assertNotNull(HDUIndex.read(sidecar, new File("target/hduIndex.fits")));
+            f.getIndex(sidecar);
+            f.getHDU(0);
+            f.skipHDU(10);
+            assertEquals(11, ((short[][]) f.readHDU().getKernel())[0][0]);
+            assertEquals(12, ((short[][]) f.getHDU("E2", 1).getKernel())[0][0]);
+        } finally {
+            SafeClose.close(f);
+        }
+
+        // a HDU cached by an index lookup is returned by readHDU, skipHDU
+        // must continue behind it.
+        f = new Fits("target/hduIndex.fits");
+        try {
+            f.getIndex(sidecar);
+            f.getHDU(3);
+            for (int i = 0; i < 3; i++) {
+                f.readHDU();
+            }
+            assertEquals(3, ((short[][]) f.readHDU().getKernel())[0][0]);
+            f.skipHDU();
+            assertEquals(5, ((short[][]) f.readHDU().getKernel())[0][0]);
+        } finally {
+            SafeClose.close(f);
+        }
+        Assert.assertTrue(new File("target/hduIndex.fits").setLastModified(System.currentTimeMillis() - 60000));
+        Assert.assertNull(HDUIndex.read(sidecar, new File("target/hduIndex.fits")));
+    }
+
+    @Test
+    public void testConcurrentDeferredReads() throws Exception {
+        final int[][] image = new int[200][150];
+        final int[] ids = new int[500];
+        final float[][] vars = new float[ids.length][];
+        for (int y = 0; y < image.length; y++) {
+            for (int x = 0; x < image[y].length; x++) {
+                image[y][x] = y * 1000 + x;
+            }
+        }
+        for (int row = 0; row < ids.length; row++) {
+            ids[row] = row;
+            vars[row] = new float[row % 7 + 1];
+            Arrays.fill(vars[row], row);
+        }
+        Fits f = new Fits();
+        try {
+            f.addHDU(Fits.makeHDU(image));
+            BinaryTable btab = new BinaryTable();
+            btab.addColumn(ids);
+            btab.addColumn(vars);
+            f.addHDU(Fits.makeHDU(btab));
+            f.write(new File("target/concurrentReads.fits"));
+        } finally {
+            SafeClose.close(f);
+        }
+
+        f = new Fits("target/concurrentReads.fits");
+        try {
+            f.read();
+            final ImageHDU imageHDU = (ImageHDU) f.getHDU(0);
+            final BinaryTable table = ((BinaryTableHDU) f.getHDU(1)).getData();
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                final int seed = t;
+                threads[t] = new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 0; i < 200; i++) {
+                                int y = (seed * 37 + i * 13) % (image.length - 10);
+                                int x = (seed * 11 + i * 7) % (image[0].length - 10);
+                                int[] tile = (int[]) imageHDU.getTiler().getTile(new int[]{
+                                    y,
+                                    x
+                                }, new int[]{
+                                    10,
+                                    10
+                                });
+                                assertEquals(image[y + 9][x + 9], tile[99]);
+                                int row = (seed * 101 + i * 17) % ids.length;
+                                Object[] values = table.getRow(row);
+                                assertEquals(row, ((int[]) values[0])[0]);
+                                Assert.assertArrayEquals(vars[row], (float[]) values[1], 0f);
+                                Assert.assertArrayEquals(vars[row], (float[]) table.getElement(row, 1), 0f);
+                            }
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+            Assert.assertArrayEquals(image, (int[][]) imageHDU.getKernel());
+        } finally {
+            SafeClose.close(f);
+        }
+    }
 }
@@ -31,6 +31,7 @@ package nom.tam.fits.test;
  * #L%
  */
 
+import static nom.tam.fits.header.Standard.NAXIS2;
 import static nom.tam.fits.header.Standard.XTENSION;
 import static nom.tam.fits.header.Standard.XTENSION_BINTABLE;
 import static org.junit.Assert.assertArrayEquals;
@@ -48,6 +49,10 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Handler;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
@@ -62,6 +67,7 @@ import nom.tam.fits.FitsHeap;
 import nom.tam.fits.Header;
 import nom.tam.fits.HeaderCard;
 import nom.tam.fits.PaddingException;
+import nom.tam.fits.RowCursor;
 import nom.tam.fits.header.Standard;
 import nom.tam.util.ArrayDataOutput;
 import nom.tam.util.ArrayFuncs;
@@ -1276,9 +1282,9 @@ public class BinaryTableTest {
 
     @Test
     public void testFitsHeap() throws Exception {
-        Constructor<FitsHeap> declaredConstructor = FitsHeap.class.getDeclaredConstructor(int.class);
+        Constructor<FitsHeap> declaredConstructor = FitsHeap.class.getDeclaredConstructor(long.class);
         declaredConstructor.setAccessible(true);
-        FitsHeap fitsHeap = declaredConstructor.newInstance(10);
+        FitsHeap fitsHeap = declaredConstructor.newInstance(10L);
         Exception ex = null;
         try {
             fitsHeap.reset();
@@ -1949,6 +1955,483 @@ public class BinaryTableTest {
         new BinaryTableHDU(BinaryTableHDU.manufactureHeader(btab), btab).encapsulate(Integer.valueOf(1));
     }
 
+    @Test
+    public void testColumnTableAddRowsGrowth() throws Exception {
+        ColumnTable<Object> table = new ColumnTable<Object>(new Object[]{
+            new int[0],
+            new double[0]
+        }, new int[]{
+            1,
+            2
+        });
+        for (int i = 0; i < 1000; i++) {
+            table.addRow(new Object[]{
+                new int[]{
+                    i
+                },
+                new double[]{
+                    i,
+                    -i
+                }
+            });
+        }
+        Object[][] rows = new Object[500][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new Object[]{
+                new int[]{
+                    1000 + i
+                },
+                new double[]{
+                    1000 + i,
+                    -1000 - i
+                }
+            };
+        }
+        table.addRows(rows);
+        assertEquals(1500, table.getNRows());
+        assertArrayEquals(new double[]{
+            1499,
+            -1499
+        }, (double[]) table.getElement(1499, 1), 0);
+
+        int[] ints = (int[]) table.getColumn(0);
+        assertEquals(1500, ints.length);
+        assertEquals(2 * 1500, ((double[]) table.getColumns()[1]).length);
+        for (int i = 0; i < ints.length; i++) {
+            assertEquals(i, ints[i]);
+        }
+
+        try {
+            table.addRows(new Object[][]{
+                {
+                    new int[]{
+                        1
+                    },
+                    new double[]{
+                        1,
+                        2
+                    }
+                },
+                {
+                    new int[]{
+                        1
+                    },
+                    new float[]{
+                        1,
+                        2
+                    }
+                }
+            });
+            Assert.fail("expected TableException");
+        } catch (TableException e) {
+            assertEquals(1500, table.getNRows());
+        }
+    }
+
+    @Test
+    public void testAddRowsWithBadLastRowLeavesTableUnchanged() throws Exception {
+        BinaryTableHDU hdu = (BinaryTableHDU) Fits.makeHDU(new BinaryTable(new Object[]{
+            new double[][]{
+                {
+                    1
+                },
+                {
+                    1,
+                    2
+                }
+            },
+            new int[][]{
+                {
+                    1
+                },
+                {
+                    2
+                }
+            }
+        }));
+        BinaryTable btab = hdu.getData();
+        long heapSize = btab.getHeapSizeLong();
+        Assert.assertTrue(heapSize > 0);
+        try {
+            hdu.addRows(new Object[][]{
+                {
+                    new double[]{
+                        3,
+                        4,
+                        5
+                    },
+                    new int[]{
+                        3
+                    }
+                },
+                {
+                    new double[]{
+                        6
+                    },
+                    new int[]{
+                        4,
+                        5
+                    }
+                }
+            });
+            Assert.fail("expected FitsException");
+        } catch (FitsException e) {
+            // the int column of the last row has the wrong size
+        }
+        assertEquals(2, btab.getNRows());
+        assertEquals(heapSize, btab.getHeapSizeLong());
+        assertEquals(2, hdu.getHeader().getIntValue(NAXIS2));
+        assertEquals(2, ((double[]) btab.getElement(1, 0)).length);
+    }
+
+    @Test
+    public void testBinaryTableHDUAddRows() throws Exception {
+        Object[][] rows = new Object[NROWS][];
+        for (int i = 0; i < NROWS; i++) {
+            rows[i] = new Object[]{
+                new float[]{
+                    this.floats[i][0][0],
+                    this.floats[i][0][1]
+                },
+                new int[]{
+                    this.ints[i]
+                },
+                new double[]{
+                    this.doubles[i]
+                }
+            };
+        }
+        BinaryTable btab = new BinaryTable();
+        btab.addRow(rows[0]);
+        BinaryTableHDU hdu = (BinaryTableHDU) Fits.makeHDU(btab);
+        Object[][] rest = new Object[NROWS - 1][];
+        System.arraycopy(rows, 1, rest, 0, rest.length);
+        assertEquals(NROWS, hdu.addRows(rest));
+        assertEquals(NROWS, hdu.getHeader().getIntValue(NAXIS2));
+
+        Fits f = new Fits();
+        try {
+            f.addHDU(hdu);
+            BufferedFile bf = new BufferedFile("target/btAddRows.fits", "rw");
+            f.write(bf);
+            bf.close();
+        } finally {
+            SafeClose.close(f);
+        }
+        f = new Fits("target/btAddRows.fits");
+        try {
+            BinaryTableHDU read = (BinaryTableHDU) f.getHDU(1);
+            assertEquals(NROWS, read.getNRows());
+            for (int i = 0; i < NROWS; i++) {
+                assertEquals(this.ints[i], ((int[]) read.getElement(i, 1))[0]);
+                assertEquals(this.doubles[i], ((double[]) read.getElement(i, 2))[0], 0);
+                assertEquals(this.floats[i][0][1], ((float[]) read.getElement(i, 0))[1], 0);
+            }
+        } finally {
+            SafeClose.close(f);
+        }
+    }
+
+    @Test
+    public void testColumnTableBlockRead() throws Exception {
+        int rows = 20000;
+        Object[] columns = blockReadColumns(rows);
+        int[] sizes = {
+            3,
+            1,
+            1,
+            2,
+            1,
+            1,
+            5,
+            1
+        };
+        for (int i = 0; i < rows; i++) {
+            ((byte[]) columns[0])[3 * i + 2] = (byte) i;
+            ((boolean[]) columns[1])[i] = i % 3 == 0;
+            ((short[]) columns[2])[i] = (short) -i;
+            ((char[]) columns[3])[2 * i + 1] = (char) ('a' + i % 26);
+            ((int[]) columns[4])[i] = i * 7;
+            ((long[]) columns[5])[i] = (long) i << 33;
+            ((float[]) columns[6])[5 * i + 4] = i / 3f;
+            ((double[]) columns[7])[i] = Math.sqrt(i);
+        }
+        ColumnTable<Object> table = new ColumnTable<Object>(columns, sizes);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BufferedDataOutputStream out = new BufferedDataOutputStream(bytes);
+        table.write(out);
+        out.close();
+        byte[] raw = bytes.toByteArray();
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (ExecutorService pool : new ExecutorService[]{
+                null,
+                executor
+            }) {
+                ColumnTable<Object> read = new ColumnTable<Object>(blockReadColumns(rows), sizes);
+                read.read(new BufferedDataInputStream(new ByteArrayInputStream(raw)), pool);
+                for (int col = 0; col < columns.length; col++) {
+                    assertEquals("column " + col, true, TestArrayFuncs.arrayEquals(columns[col], read.getColumn(col)));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // reading from the only worker of the pool must not wait for another
+        // worker to decode the columns.
+        final ExecutorService single = Executors.newFixedThreadPool(1);
+        try {
+            final byte[] input = raw;
+            final int nrows = rows;
+            final int[] colSizes = sizes;
+            ColumnTable<?> nested = single.submit(new Callable<ColumnTable<Object>>() {
+
+                @Override
+                public ColumnTable<Object> call() throws Exception {
+                    ColumnTable<Object> read = new ColumnTable<Object>(blockReadColumns(nrows), colSizes);
+                    read.read(new BufferedDataInputStream(new ByteArrayInputStream(input)), single);
+                    return read;
+                }
+            }).get(60, TimeUnit.SECONDS);
+            for (int col = 0; col < columns.length; col++) {
+                assertEquals("column " + col, true, TestArrayFuncs.arrayEquals(columns[col], nested.getColumn(col)));
+            }
+        } finally {
+            single.shutdown();
+        }
+
+        ColumnTable<Object> truncated = new ColumnTable<Object>(blockReadColumns(rows), sizes);
+        byte[] part = new byte[raw.length / 2];
+        System.arraycopy(raw, 0, part, 0, part.length);
+        try {
+            truncated.read(new BufferedDataInputStream(new ByteArrayInputStream(part)));
+            Assert.fail("expected EOFException");
+        } catch (EOFException e) {
+            assertEquals(((int[]) columns[4])[rows / 2 - 1], ((int[]) truncated.getColumn(4))[rows / 2 - 1]);
+        }
+    }
+
+    @Test
+    public void testParallelTableRead() throws Exception {
+        BinaryTable btab = createTestTable();
+        Fits f = new Fits();
+        try {
+            f.addHDU(Fits.makeHDU(btab));
+            BufferedFile bf = new BufferedFile("target/btParallel.fits", "rw");
+            f.write(bf);
+            bf.close();
+        } finally {
+            SafeClose.close(f);
+        }
+        FitsFactory.setUseParallelTableReads(true);
+        try {
+            f = new Fits("target/btParallel.fits");
+            BinaryTableHDU hdu = (BinaryTableHDU) f.getHDU(1);
+            assertEquals(true, TestArrayFuncs.arrayEquals(this.floats, hdu.getColumn(0)));
+            assertEquals(true, TestArrayFuncs.arrayEquals(this.strings, hdu.getColumn(2)));
+            assertEquals(true, TestArrayFuncs.arrayEquals(this.vbool, hdu.getColumn(3)));
+            assertEquals(true, TestArrayFuncs.arrayEquals(this.ints, hdu.getColumn(4)));
+            assertEquals(true, TestArrayFuncs.arrayEquals(this.complex, hdu.getColumn(6)));
+        } finally {
+            FitsFactory.setUseParallelTableReads(false);
+            SafeClose.close(f);
+        }
+    }
+
+    @Test
+    public void testDeferredColumnRead() throws Exception {
+        int rows = 40;
+        double[][] wide = new double[rows][3000];
+        short[] narrow = new short[rows];
+        for (int i = 0; i < rows; i++) {
+            wide[i][i] = i;
+            narrow[i] = (short) (i * 3);
+        }
+        Fits f = new Fits();
+        try {
+            f.addHDU(Fits.makeHDU(createTestTable()));
+            f.addHDU(Fits.makeHDU(new BinaryTable(new Object[]{
+                narrow,
+                wide,
+                narrow
+            })));
+            BufferedFile bf = new BufferedFile("target/btDeferredColumn.fits", "rw");
+            f.write(bf);
+            bf.close();
+        } finally {
+            SafeClose.close(f);
+        }
+        f = new Fits("target/btDeferredColumn.fits");
+        try {
+            BinaryTableHDU hdu = (BinaryTableHDU) f.getHDU(1);
+            BinaryTableHDU wideHdu = (BinaryTableHDU) f.getHDU(2);
+            assertEquals(true, TestArrayFuncs.arrayEquals(this.strings, hdu.getColumn(2)));
+            assertEquals(true, TestArrayFuncs.arrayEquals(this.vf, hdu.getColumn(1)));
+            assertEquals(true, TestArrayFuncs.arrayEquals(this.vbool, hdu.getColumn(3)));
+            assertEquals(true, TestArrayFuncs.arrayEquals(this.complex, hdu.getColumn(6)));
+            assertEquals(true, TestArrayFuncs.arrayEquals(narrow, wideHdu.getColumn(2)));
+            assertEquals(true, TestArrayFuncs.arrayEquals(wide, wideHdu.getColumn(1)));
+            Field table = BinaryTable.class.getDeclaredField("table");
+            table.setAccessible(true);
+            Assert.assertNull(table.get(hdu.getData()));
+            Assert.assertNull(table.get(wideHdu.getData()));
+            assertEquals(true, TestArrayFuncs.arrayEquals(this.ints, hdu.getColumn(4)));
+        } finally {
+            SafeClose.close(f);
+        }
+    }
+
+    @Test
+    public void testRowCursor() throws Exception {
+        Fits f = new Fits();
+        try {
+            f.addHDU(Fits.makeHDU(createTestTable()));
+            BufferedFile bf = new BufferedFile("target/btRowCursor.fits", "rw");
+            f.write(bf);
+            bf.close();
+        } finally {
+            SafeClose.close(f);
+        }
+        f = new Fits("target/btRowCursor.fits");
+        try {
+            BinaryTable btab = (BinaryTable) f.getHDU(1).getData();
+            RowCursor cursor = new RowCursor(btab, 7);
+            int row = 0;
+            while (cursor.next()) {
+                assertEquals(row, cursor.getRow());
+                assertEquals(this.floats[row][1][1], cursor.getFloat(0, 5), 0);
+                assertEquals(this.floats[row][0][0], cursor.getDouble(0), 0);
+                assertEquals(this.vf[row].length, cursor.getLong(1, 0));
+                assertEquals(this.strings[row].trim(), cursor.getString(2));
+                assertEquals(this.ints[row], cursor.getInt(4));
+                assertEquals(this.ints[row], cursor.getDouble(4), 0);
+                row++;
+            }
+            assertEquals(NROWS, row);
+            try {
+                cursor.getInt(0);
+                Assert.fail("expected IllegalStateException");
+            } catch (IllegalStateException e) {
+                // no current row after the end.
+            }
+            cursor = new RowCursor(btab);
+            cursor.next();
+            try {
+                cursor.getInt(0);
+                Assert.fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // floats can not be read as int
+            }
+        } finally {
+            SafeClose.close(f);
+        }
+    }
+
+    @Test
+    public void testLongTableHeader() throws Exception {
+        Header header = new Header();
+        header.setXtension("BINTABLE");
+        header.setBitpix(8);
+        header.setNaxes(2);
+        header.setNaxis(1, 16);
+        header.addValue("NAXIS2", 3000000000L, "");
+        header.addValue("PCOUNT", 5000000000L, "");
+        header.addValue("GCOUNT", 1, "");
+        header.addValue("TFIELDS", 1, "");
+        header.addValue("TFORM1", "1QJ", "");
+        BinaryTable btab = new BinaryTable(header);
+        assertEquals(3000000000L, btab.getNRowsLong());
+        assertEquals(5000000000L, btab.getHeapSizeLong());
+        assertEquals(0L, btab.getHeapOffsetLong());
+        try {
+            btab.getNRows();
+            Assert.fail("row count should not fit into an int");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("3000000000"));
+        }
+        try {
+            btab.getHeapSize();
+            Assert.fail("heap size should not fit into an int");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("5000000000"));
+        }
+        assertEquals(3000000000L * 16 + 5000000000L, btab.getTrueSize());
+        try {
+            btab.getData();
+            Assert.fail("table should not fit in memory");
+        } catch (FitsException e) {
+            Assert.assertTrue(e.getMessage().contains("deferred"));
+        }
+    }
+
+    @Test
+    public void testHeapRandomAccess() throws Exception {
+        BinaryTable btab = createTestTable();
+        for (int i = NROWS - 1; i >= 0; i--) {
+            int row = i * 7 % NROWS;
+            assertEquals(true, TestArrayFuncs.arrayEquals(this.vc[row], btab.getElement(row, 5)));
+            assertEquals(true, TestArrayFuncs.arrayEquals(this.vf[row], btab.getElement(row, 1)));
+            assertEquals(true, TestArrayFuncs.arrayEquals(this.vbool[row], btab.getElement(row, 3)));
+        }
+    }
+
+    @Test
+    public void testFileBackedHeap() throws Exception {
+        Fits f = new Fits();
+        try {
+            f.addHDU(Fits.makeHDU(createTestTable()));
+            BufferedFile bf = new BufferedFile("target/btFileHeap.fits", "rw");
+            f.write(bf);
+            bf.close();
+        } finally {
+            SafeClose.close(f);
+        }
+        Field heapField = BinaryTable.class.getDeclaredField("heap");
+        heapField.setAccessible(true);
+        Field bytesField = FitsHeap.class.getDeclaredField("segments");
+        bytesField.setAccessible(true);
+        for (long cacheSize : new long[]{
+            0,
+            1
+        }) {
+            FitsFactory.setHeapCacheSize(cacheSize);
+            f = new Fits("target/btFileHeap.fits");
+            try {
+                BinaryTable btab = (BinaryTable) f.getHDU(1).getData();
+                for (int i = NROWS - 1; i >= 0; i -= 3) {
+                    Object[] row = btab.getRow(i);
+                    assertEquals(true, TestArrayFuncs.arrayEquals(this.vf[i], row[1]));
+                    assertEquals(true, TestArrayFuncs.arrayEquals(this.vbool[i], row[3]));
+                    assertEquals(true, TestArrayFuncs.arrayEquals(this.vc[i], row[5]));
+                }
+                assertEquals(true, TestArrayFuncs.arrayEquals(this.vf, btab.getColumn(1)));
+                Assert.assertNull(bytesField.get(heapField.get(btab)));
+                // loading the table loads the heap as well.
+                btab.getData();
+                Assert.assertNotNull(bytesField.get(heapField.get(btab)));
+                assertEquals(true, TestArrayFuncs.arrayEquals(this.vc, btab.getColumn(5)));
+            } finally {
+                FitsFactory.setHeapCacheSize(0);
+                SafeClose.close(f);
+            }
+        }
+    }
+
+    private static Object[] blockReadColumns(int rows) {
+        return new Object[]{
+            new byte[rows * 3],
+            new boolean[rows],
+            new short[rows],
+            new char[rows * 2],
+            new int[rows],
+            new long[rows],
+            new float[rows * 5],
+            new double[rows]
+        };
+    }
+
     private BinaryTable createTestTable() throws FitsException {
         BinaryTable btab = new BinaryTable();
 
@@ -0,0 +1,337 @@
+package nom.tam.fits.test;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import static nom.tam.fits.header.Standard.NAXIS1;
+import static nom.tam.fits.header.Standard.NAXIS2;
+import static nom.tam.fits.header.Standard.PCOUNT;
+import static nom.tam.fits.header.Standard.TFORMn;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import nom.tam.fits.BasicHDU;
+import nom.tam.fits.BinaryTable;
+import nom.tam.fits.BinaryTableHDU;
+import nom.tam.fits.BinaryTableWriter;
+import nom.tam.fits.Fits;
+import nom.tam.fits.FitsException;
+import nom.tam.fits.Header;
+import nom.tam.util.BufferedDataOutputStream;
+import nom.tam.util.BufferedFile;
+import nom.tam.util.SafeClose;
+
+import org.junit.Test;
+
+public class BinaryTableWriterTest {
+
+    private static final int NROWS = 1000;
+
+    private static Header templateHeader() throws FitsException {
+        BinaryTable template = new BinaryTable(new Object[]{
+            new float[][]{
+                {
+                    1,
+                    2,
+                    3
+                },
+                {
+                    4,
+                    5,
+                    6
+                }
+            },
+            new int[]{
+                1,
+                2
+            },
+            new String[]{
+                "abcdefgh",
+                "x"
+            },
+            new boolean[][]{
+                {
+                    true,
+                    false
+                },
+                {
+                    false,
+                    true
+                }
+            },
+            new double[][]{
+                {
+                    1
+                },
+                {
+                    1,
+                    2
+                }
+            }
+        });
+        return BinaryTableHDU.manufactureHeader(template);
+    }
+
+    private static Object[] row(int i) {
+        double[] vary = new double[i % 7];
+        for (int j = 0; j < vary.length; j++) {
+            vary[j] = i + j;
+        }
+        return new Object[]{
+            new float[]{
+                i,
+                i + 1,
+                i + 2
+            },
+            new int[]{
+                i
+            },
+            "r" + i,
+            new boolean[]{
+                i % 2 == 0,
+                i % 3 == 0
+            },
+            vary
+        };
+    }
+
+    @Test
+    public void testWriteRowsAndPatchHeader() throws Exception {
+        Header header = templateHeader();
+        header.addValue(NAXIS2, 0);
+        BufferedFile bf = new BufferedFile("target/btWriter.fits", "rw");
+        try {
+            BasicHDU.getDummyHDU().write(bf);
+            BinaryTableWriter writer = new BinaryTableWriter(bf, header);
+            for (int i = 0; i < NROWS / 2; i++) {
+                writer.writeRow(row(i));
+            }
+            int batch = NROWS / 2;
+            float[][] floats = new float[batch][];
+            int[] ints = new int[batch];
+            String[] strings = new String[batch];
+            boolean[][] booleans = new boolean[batch][];
+            double[][] varying = new double[batch][];
+            for (int i = 0; i < batch; i++) {
+                Object[] row = row(batch + i);
+                floats[i] = (float[]) row[0];
+                ints[i] = ((int[]) row[1])[0];
+                strings[i] = (String) row[2];
+                booleans[i] = (boolean[]) row[3];
+                varying[i] = (double[]) row[4];
+            }
+            writer.writeColumns(new Object[]{
+                floats,
+                ints,
+                strings,
+                booleans,
+                varying
+            });
+            assertEquals(NROWS, writer.getNRows());
+            writer.close();
+        } finally {
+            SafeClose.close(bf);
+        }
+
+        Fits f = new Fits("target/btWriter.fits");
+        try {
+            BinaryTableHDU hdu = (BinaryTableHDU) f.getHDU(1);
+            assertEquals(NROWS, hdu.getNRows());
+            assertEquals(NROWS, hdu.getHeader().getIntValue(NAXIS2));
+            for (int i = 0; i < NROWS; i++) {
+                Object[] expected = row(i);
+                Object[] actual = hdu.getRow(i);
+                assertArrayEquals((float[]) expected[0], (float[]) actual[0], 0);
+                assertArrayEquals((int[]) expected[1], (int[]) actual[1]);
+                assertEquals(expected[2], ((String) actual[2]).trim());
+                assertTrue(Arrays.equals((boolean[]) expected[3], (boolean[]) actual[3]));
+                assertArrayEquals((double[]) expected[4], (double[]) actual[4], 0);
+            }
+        } finally {
+            SafeClose.close(f);
+        }
+    }
+
+    @Test
+    public void testLongDescriptors() throws Exception {
+        Header header = templateHeader();
+        header.addValue(NAXIS2, 0);
+        header.addValue(TFORMn.n(5), "1QD");
+        header.addValue(NAXIS1, header.getIntValue(NAXIS1) + 8);
+        BufferedFile bf = new BufferedFile("target/btWriterQ.fits", "rw");
+        try {
+            BasicHDU.getDummyHDU().write(bf);
+            BinaryTableWriter writer = new BinaryTableWriter(bf, header);
+            for (int i = 0; i < NROWS; i++) {
+                writer.writeRow(row(i));
+            }
+            writer.close();
+        } finally {
+            SafeClose.close(bf);
+        }
+
+        Fits f = new Fits("target/btWriterQ.fits");
+        try {
+            BinaryTableHDU hdu = (BinaryTableHDU) f.getHDU(1);
+            for (int i = NROWS - 1; i >= 0; i -= 7) {
+                assertArrayEquals((double[]) row(i)[4], (double[]) hdu.getRow(i)[4], 0);
+            }
+            Object[] column = (Object[]) hdu.getColumn(4);
+            for (int i = 0; i < NROWS; i++) {
+                assertArrayEquals((double[]) row(i)[4], (double[]) column[i], 0);
+            }
+        } finally {
+            SafeClose.close(f);
+        }
+    }
+
+    @Test
+    public void testMissingSizeCards() throws Exception {
+        Header header = templateHeader();
+        header.deleteKey(NAXIS2);
+        header.deleteKey(PCOUNT);
+        BufferedFile bf = new BufferedFile("target/btWriterNoSizes.fits", "rw");
+        try {
+            BasicHDU.getDummyHDU().write(bf);
+            BinaryTableWriter writer = new BinaryTableWriter(bf, header);
+            for (int i = 0; i < NROWS; i++) {
+                writer.writeRow(row(i));
+            }
+            writer.close();
+        } finally {
+            SafeClose.close(bf);
+        }
+
+        Fits f = new Fits("target/btWriterNoSizes.fits");
+        try {
+            BinaryTableHDU hdu = (BinaryTableHDU) f.getHDU(1);
+            assertEquals(NROWS, hdu.getNRows());
+            assertArrayEquals((float[]) row(0)[0], (float[]) hdu.getRow(0)[0], 0);
+            assertArrayEquals((double[]) row(NROWS - 1)[4], (double[]) hdu.getRow(NROWS - 1)[4], 0);
+        } finally {
+            SafeClose.close(f);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testHeaderGrownAfterWrite() throws Exception {
+        Header header = templateHeader();
+        BufferedFile bf = new BufferedFile("target/btWriterGrown.fits", "rw");
+        try {
+            BinaryTableWriter writer = new BinaryTableWriter(bf, header);
+            writer.writeRow(row(1));
+            for (int i = 0; i < 40; i++) {
+                header.insertComment("added after the header was written " + i);
+            }
+            writer.close();
+        } finally {
+            SafeClose.close(bf);
+        }
+    }
+
+    @Test
+    public void testKnownSizesOnStream() throws Exception {
+        Header header = templateHeader();
+        BinaryTableWriter writer = new BinaryTableWriter(new BufferedDataOutputStream(new ByteArrayOutputStream()), header);
+        writer.writeRow(row(1));
+        writer.writeRow(row(2));
+        writer.close();
+        assertEquals(header.getLongValue(PCOUNT), writer.getHeapSize());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownSizesOnStream() throws Exception {
+        BinaryTableWriter writer = new BinaryTableWriter(new BufferedDataOutputStream(new ByteArrayOutputStream()), templateHeader());
+        writer.writeRow(row(1));
+        writer.close();
+    }
+
+    @Test(expected = FitsException.class)
+    public void testWrongElementType() throws Exception {
+        BinaryTableWriter writer = new BinaryTableWriter(new BufferedDataOutputStream(new ByteArrayOutputStream()), templateHeader());
+        Object[] row = row(1);
+        row[1] = new long[]{
+            1L
+        };
+        writer.writeRow(row);
+    }
+
+    @Test
+    public void testBadLastColumnLeavesOutputUnchanged() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BufferedDataOutputStream out = new BufferedDataOutputStream(bytes);
+        BinaryTableWriter writer = new BinaryTableWriter(out, templateHeader());
+        writer.writeRow(row(1));
+        out.flush();
+        int size = bytes.size();
+
+        Object[] row = row(2);
+        row[4] = new int[]{
+            1
+        };
+        try {
+            writer.writeRow(row);
+            fail("row with a bad last column was accepted");
+        } catch (FitsException e) {
+            // expected
+        }
+        try {
+            writer.writeColumns(new Object[]{
+                new float[][]{
+                    (float[]) row[0]
+                },
+                row[1],
+                new String[]{
+                    (String) row[2]
+                },
+                new boolean[][]{
+                    (boolean[]) row[3]
+                },
+                new Object[]{
+                    row[4]
+                }
+            });
+            fail("batch with a bad last column was accepted");
+        } catch (FitsException e) {
+            // expected
+        }
+        out.flush();
+        assertEquals(size, bytes.size());
+        assertEquals(1, writer.getNRows());
+        assertEquals(((double[]) row(1)[4]).length * 8, writer.getHeapSize());
+    }
+}
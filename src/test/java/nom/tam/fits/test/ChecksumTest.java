@@ -32,12 +32,22 @@ package nom.tam.fits.test;
  */
 
 import static nom.tam.fits.header.Checksum.CHECKSUM;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import nom.tam.fits.BasicHDU;
 import nom.tam.fits.Fits;
@@ -49,9 +59,13 @@ import nom.tam.fits.ImageData;
 import nom.tam.fits.ImageHDU;
 import nom.tam.fits.header.Standard;
 import nom.tam.fits.utilities.FitsCheckSum;
+import nom.tam.fits.utilities.FitsCheckSumOutputStream;
 import nom.tam.util.BufferedDataInputStream;
 import nom.tam.util.BufferedDataOutputStream;
+import nom.tam.util.BufferedFile;
 import nom.tam.util.Cursor;
+import nom.tam.util.RandomAccess;
+import nom.tam.util.SafeClose;
 import nom.tam.util.test.ThrowAnyException;
 
 import org.junit.Test;
@@ -170,4 +184,146 @@ public class ChecksumTest {
         // TODO: activate this
       //  assertEquals("CVfXFTeVCTeVCTeV", imageHdu.getHeader().card(CHECKSUM).card().getValue());
     }
+
+    @Test
+    public void testStreamingChecksum() throws Exception {
+        byte[] bytes = new byte[2880 * 5];
+        new Random(1).nextBytes(bytes);
+        ByteArrayOutputStream destination = new ByteArrayOutputStream();
+        FitsCheckSumOutputStream out = new FitsCheckSumOutputStream(destination);
+        int offset = 0;
+        int chunk = 1;
+        while (offset < bytes.length) {
+            int count = Math.min(chunk, bytes.length - offset);
+            if (count == 1) {
+                out.write(bytes[offset]);
+            } else {
+                out.write(bytes, offset, count);
+            }
+            offset += count;
+            chunk = chunk * 3 + 2;
+        }
+        out.close();
+        assertEquals(FitsCheckSum.checksum(bytes), out.getCheckSum());
+        assertEquals(bytes.length, out.getByteCount());
+        assertArrayEquals(bytes, destination.toByteArray());
+    }
+
+    @Test
+    public void testVerifyInPlace() throws Exception {
+        int[][] data = new int[200][200];
+        for (int index = 0; index < data.length; index++) {
+            Arrays.fill(data[index], index * 1000);
+        }
+        BasicHDU<?> hdu = FitsFactory.hduFactory(data);
+        FitsCheckSum.setChecksum(hdu);
+        BufferedFile file = new BufferedFile("target/checksumVerify.fits", "rw");
+        try {
+            hdu.write(file);
+        } finally {
+            SafeClose.close(file);
+        }
+        Fits fits = new Fits("target/checksumVerify.fits");
+        long dataOffset;
+        try {
+            BasicHDU<?> readHdu = fits.readHDU();
+            assertTrue(FitsCheckSum.verify(readHdu, (RandomAccess) fits.getStream()));
+            dataOffset = readHdu.getData().getFileOffset();
+        } finally {
+            SafeClose.close(fits);
+        }
+
+        RandomAccessFile corrupt = new RandomAccessFile("target/checksumVerify.fits", "rw");
+        try {
+            corrupt.seek(dataOffset + 10);
+            corrupt.write(0x55);
+        } finally {
+            SafeClose.close(corrupt);
+        }
+        fits = new Fits("target/checksumVerify.fits");
+        try {
+            assertFalse(FitsCheckSum.verify(fits.readHDU(), (RandomAccess) fits.getStream()));
+        } finally {
+            SafeClose.close(fits);
+        }
+    }
+
+    @Test
+    public void testParallelChecksum() throws Exception {
+        byte[] bytes = new byte[2880 * 8000];
+        new Random(2).nextBytes(bytes);
+        FitsCheckSumOutputStream sequential = new FitsCheckSumOutputStream();
+        sequential.write(bytes);
+        long expected = sequential.getCheckSum();
+
+        assertEquals(expected, FitsCheckSum.checksum(bytes));
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        direct.flip();
+        assertEquals(expected, FitsCheckSum.checksum(direct));
+        assertEquals(0, direct.position());
+
+        RandomAccessFile raw = new RandomAccessFile("target/checksumParallel.bin", "rw");
+        try {
+            raw.setLength(0);
+            raw.write(new byte[2880]);
+            raw.write(bytes);
+        } finally {
+            SafeClose.close(raw);
+        }
+        BufferedFile file = new BufferedFile("target/checksumParallel.bin", "r");
+        try {
+            assertEquals(expected, FitsCheckSum.checksum(file, 2880, bytes.length));
+            assertEquals(0, file.getFilePointer());
+        } finally {
+            SafeClose.close(file);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testChecksumNestedInOneThreadPool() throws Exception {
+        final byte[] bytes = new byte[2880 * 8000];
+        new Random(3).nextBytes(bytes);
+        FitsCheckSumOutputStream sequential = new FitsCheckSumOutputStream();
+        sequential.write(bytes);
+        long expected = sequential.getCheckSum();
+
+        RandomAccessFile raw = new RandomAccessFile("target/checksumNested.bin", "rw");
+        try {
+            raw.setLength(0);
+            raw.write(bytes);
+        } finally {
+            SafeClose.close(raw);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(1);
+        FitsFactory.setThreadPool(pool);
+        try {
+            // the only worker computes the checksum, so the chunks can only
+            // be summed by the calling thread.
+            Future<Long> inMemory = pool.submit(new Callable<Long>() {
+
+                @Override
+                public Long call() {
+                    return FitsCheckSum.checksum(bytes);
+                }
+            });
+            assertEquals(expected, inMemory.get().longValue());
+            Future<Long> inFile = pool.submit(new Callable<Long>() {
+
+                @Override
+                public Long call() throws Exception {
+                    BufferedFile file = new BufferedFile("target/checksumNested.bin", "r");
+                    try {
+                        return FitsCheckSum.checksum(file, 0, bytes.length);
+                    } finally {
+                        SafeClose.close(file);
+                    }
+                }
+            });
+            assertEquals(expected, inFile.get().longValue());
+        } finally {
+            FitsFactory.setThreadPool(null);
+            pool.shutdown();
+        }
+    }
 }
@@ -547,4 +547,45 @@ public class HeaderCardTest {
         type = headerCard.valueType();
         assertEquals(Integer.class, type);
     }
+    @Test
+    public void testCachedValueAndImage() throws Exception {
+        HeaderCard headerCard = new HeaderCard("XX", 5, "COMMENT");
+        assertEquals(Integer.valueOf(5), headerCard.getValue(Integer.class, 0));
+        assertEquals(Double.valueOf(5), headerCard.getValue(Double.class, 0.));
+        String image = headerCard.toString();
+        Assert.assertSame(image, headerCard.toString());
+
+        headerCard.setValue(3000000000L);
+        assertEquals(Long.valueOf(3000000000L), headerCard.getValue(Long.class, 0L));
+        assertEquals(new BigDecimal("3000000000"), headerCard.getValue(BigDecimal.class, null));
+        try {
+            headerCard.getValue(Integer.class, 0);
+            Assert.fail("int overflow expected");
+        } catch (ArithmeticException e) {
+            // expected
+        }
+        assertTrue(headerCard.toString().contains("3000000000"));
+
+        headerCard.setValue("-12.5E3");
+        assertEquals(Double.valueOf(-12500.), headerCard.getValue(Double.class, 0.));
+        assertEquals(Float.valueOf(-12500f), headerCard.getValue(Float.class, 0f));
+        headerCard.setValue("ABC");
+        assertEquals(Double.valueOf(1.), headerCard.getValue(Double.class, 1.));
+
+        headerCard.setComment("changed");
+        assertTrue(headerCard.toString().contains("changed"));
+
+        boolean longStrings = FitsFactory.isLongStringsEnabled();
+        try {
+            FitsFactory.setLongStringsEnabled(false);
+            HeaderCard stringCard = new HeaderCard("STR", "", "");
+            stringCard.setValue("this is a very long string value that does not fit in a single card of eighty characters");
+            String plain = stringCard.toString();
+            FitsFactory.setLongStringsEnabled(true);
+            assertTrue(stringCard.toString().contains("CONTINUE"));
+            Assert.assertFalse(plain.contains("CONTINUE"));
+        } finally {
+            FitsFactory.setLongStringsEnabled(longStrings);
+        }
+    }
 }
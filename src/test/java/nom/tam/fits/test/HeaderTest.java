@@ -1016,4 +1016,51 @@ public class HeaderTest {
         assertEquals("T",header.findCard(SIMPLE).getValue());
         assertEquals("T",header.findCard(EXTEND).getValue());
     }
+
+    @Test
+    public void testWriteCardImagesAcrossBlocks() throws Exception {
+        FitsFactory.setLongStringsEnabled(true);
+        Header hdr = new Header();
+        hdr.setSimple(true);
+        hdr.setBitpix(8);
+        hdr.setNaxes(0);
+        for (int i = 0; i < 32; i++) {
+            hdr.addValue("KEY" + i, i, "card " + i);
+        }
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            longValue.append("0123456789");
+        }
+        hdr.addValue("LONGVAL", longValue.toString(), "spans a block boundary");
+
+        byte[] first = writeHeader(hdr);
+        assertEquals(0, first.length % FitsFactory.FITS_BLOCK_SIZE);
+        assertEquals(2 * FitsFactory.FITS_BLOCK_SIZE, first.length);
+        assertEquals(expectedImage(hdr, first.length), AsciiFuncs.asciiString(first));
+
+        hdr.findCard("KEY5").setValue(555);
+        byte[] second = writeHeader(hdr);
+        assertEquals(expectedImage(hdr, second.length), AsciiFuncs.asciiString(second));
+        assertTrue(AsciiFuncs.asciiString(second).contains("KEY5    =                  555"));
+    }
+
+    private byte[] writeHeader(Header hdr) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BufferedDataOutputStream out = new BufferedDataOutputStream(bytes);
+        hdr.write(out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private String expectedImage(Header hdr, int length) {
+        StringBuilder expected = new StringBuilder();
+        Cursor<String, HeaderCard> iter = hdr.iterator();
+        while (iter.hasNext()) {
+            expected.append(iter.next().toString());
+        }
+        while (expected.length() < length) {
+            expected.append(' ');
+        }
+        return expected.toString();
+    }
 }
@@ -38,6 +38,7 @@ import java.lang.reflect.Array;
 
 import nom.tam.fits.Fits;
 import nom.tam.fits.FitsException;
+import nom.tam.fits.FitsFactory;
 import nom.tam.fits.ImageHDU;
 import nom.tam.image.StandardImageTiler;
 import nom.tam.util.ArrayFuncs;
@@ -131,6 +132,23 @@ public class TilerTest {
         doTest(data, "float");
     }
 
+    @Test
+    public void testFloatMapped() throws Exception {
+
+        float[][] data = new float[300][300];
+        for (int i = 0; i < 300; i += 1) {
+            for (int j = 0; j < 300; j += 1) {
+                data[i][j] = 1000 * i + j;
+            }
+        }
+        FitsFactory.setUseMappedFiles(true);
+        try {
+            doTest(data, "floatMapped");
+        } finally {
+            FitsFactory.setUseMappedFiles(false);
+        }
+    }
+
     @Test
     public void testDouble() throws Exception {
 
@@ -37,6 +37,7 @@ import java.util.Arrays;
 
 import nom.tam.util.ArrayFuncs;
 import nom.tam.util.BufferedFile;
+import nom.tam.util.PositionalReader;
 import nom.tam.util.RandomAccess;
 import nom.tam.util.SafeClose;
 
@@ -64,6 +65,12 @@ public class StandardImageTilerTest {
             declaredField.set(this, file);
         }
 
+        public RandomAccess randomAccessFile() throws Exception {
+            Field declaredField = StandardImageTiler.class.getDeclaredField("randomAccessFile");
+            declaredField.setAccessible(true);
+            return (RandomAccess) declaredField.get(this);
+        }
+
         public void setBase(Object base) throws Exception {
             Field declaredField = StandardImageTiler.class.getDeclaredField("base");
             declaredField.setAccessible(true);
@@ -221,4 +228,155 @@ public class StandardImageTilerTest {
         Assert.assertArrayEquals(new int[25], tile);
     }
 
+    @Test
+    public void testLongOffset() {
+        Assert.assertEquals(2499999999L, StandardImageTiler.getOffset(new int[]{
+            50000,
+            50000
+        }, new int[]{
+            49999,
+            49999
+        }));
+    }
+
+    @Test
+    public void testFileTileOfCube() throws Exception {
+        int[][][] cube = new int[6][30][40];
+        for (int i = 0; i < cube.length; i++) {
+            for (int j = 0; j < cube[i].length; j++) {
+                for (int k = 0; k < cube[i][j].length; k++) {
+                    cube[i][j][k] = (i * 100 + j) * 100 + k;
+                }
+            }
+        }
+        BufferedFile cubeFile = new BufferedFile("target/StandardImageTilerTestCube", "rw");
+        try {
+            cubeFile.writeArray(cube);
+            dataArray = null;
+            TestImageTiler cubeTiler = new TestImageTiler(cubeFile, 0, ArrayFuncs.getDimensions(cube), int.class);
+            int[] tile = (int[]) cubeTiler.getTile(new int[]{
+                1,
+                2,
+                3
+            }, new int[]{
+                4,
+                25,
+                30
+            });
+            int index = 0;
+            for (int i = 1; i < 5; i++) {
+                for (int j = 2; j < 27; j++) {
+                    for (int k = 3; k < 33; k++) {
+                        Assert.assertEquals(cube[i][j][k], tile[index++]);
+                    }
+                }
+            }
+        } finally {
+            SafeClose.close(cubeFile);
+        }
+    }
+
+    @Test
+    public void testReadUnsortedSegments() throws Exception {
+        BufferedFile segmentFile = new BufferedFile("target/StandardImageTilerTestSegments", "rw");
+        try {
+            short[] values = new short[100000];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (short) i;
+            }
+            segmentFile.writeArray(values);
+            long[] positions = new long[]{
+                2 * 50000,
+                2 * 10,
+                2 * 20,
+                2 * 99990
+            };
+            int[] starts = new int[]{
+                0,
+                5,
+                10,
+                15
+            };
+            int[] lengths = new int[]{
+                5,
+                5,
+                5,
+                10
+            };
+            short[] result = new short[25];
+            PositionalReader.readSegments(segmentFile, positions, result, starts, lengths, positions.length);
+            for (int i = 0; i < positions.length; i++) {
+                for (int j = 0; j < lengths[i]; j++) {
+                    Assert.assertEquals((short) (positions[i] / 2 + j), result[starts[i] + j]);
+                }
+            }
+        } finally {
+            SafeClose.close(segmentFile);
+        }
+    }
+
+    @Test
+    public void testOverriddenSegmentReadSeesEverySegment() throws Exception {
+        final int[] calls = new int[1];
+        StandardImageTiler hooked = new StandardImageTiler(tiler.randomAccessFile(), 0, new int[]{
+            10,
+            10
+        }, int.class) {
+
+            @Override
+            protected Object getMemoryImage() {
+                return null;
+            }
+
+            @Override
+            protected void fillFileData(Object output, long delta, int outputOffset, int segment) throws IOException {
+                calls[0]++;
+                super.fillFileData(output, delta, outputOffset, segment);
+            }
+        };
+        int[] tile = (int[]) hooked.getTile(new int[]{
+            2,
+            3
+        }, new int[]{
+            5,
+            4
+        });
+        Assert.assertEquals(5, calls[0]);
+        int[] expected = new int[20];
+        Arrays.fill(expected, 1);
+        Assert.assertArrayEquals(expected, tile);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testOverriddenIntSegmentReadSeesEverySegment() throws Exception {
+        final int[] calls = new int[1];
+        StandardImageTiler hooked = new StandardImageTiler(tiler.randomAccessFile(), 0, new int[]{
+            10,
+            10
+        }, int.class) {
+
+            @Override
+            protected Object getMemoryImage() {
+                return null;
+            }
+
+            @Override
+            protected void fillFileData(Object output, int delta, int outputOffset, int segment) throws IOException {
+                calls[0]++;
+                super.fillFileData(output, delta, outputOffset, segment);
+            }
+        };
+        int[] tile = (int[]) hooked.getTile(new int[]{
+            2,
+            3
+        }, new int[]{
+            5,
+            4
+        });
+        Assert.assertEquals(5, calls[0]);
+        int[] expected = new int[20];
+        Arrays.fill(expected, 1);
+        Assert.assertArrayEquals(expected, tile);
+    }
 }
@@ -45,6 +45,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import nom.tam.fits.BinaryTable;
 import nom.tam.fits.BinaryTableHDU;
 import nom.tam.fits.Fits;
 import nom.tam.fits.Header;
@@ -126,6 +127,41 @@ public class CompressedTableTest {
         fits.close();
     }
 
+    @Test
+    public void testTileReader() throws Exception {
+        Fits fitsComp = null;
+        Fits fits = null;
+        try {
+            fitsComp = new Fits("src/test/resources/nom/tam/table/comp/testBinaryTable.fits.fz");
+            BinaryTableHDU orgTable = ((CompressedTableHDU) fitsComp.getHDU(1)).asBinaryTableHDU();
+            fits = new Fits();
+            fits.addHDU(CompressedTableHDU.fromBinaryTableHDU(orgTable, 7).compress());
+            fits.write(new File("target/testBinaryTable_tiles.fits.fz"));
+            fits.close();
+
+            fits = new Fits("target/testBinaryTable_tiles.fits.fz");
+            CompressedTableTileReader reader = ((CompressedTableHDU) fits.getHDU(1)).getTileReader(3);
+            int rows = 0;
+            while (reader.hasNext()) {
+                BinaryTable tile = reader.next();
+                Assert.assertEquals(rows, reader.getRowOffset());
+                Assert.assertEquals(Math.min(7, 50 - rows), tile.getNRows());
+                for (int row = 0; row < tile.getNRows(); row++) {
+                    Assert.assertArrayEquals("row " + (rows + row), (double[][]) orgTable.getElement(rows + row, 0), (double[][]) tile.getElement(row, 0));
+                }
+                rows += tile.getNRows();
+            }
+            Assert.assertEquals(50, rows);
+            BinaryTableHDU decompressed = ((CompressedTableHDU) fits.getHDU(1)).asBinaryTableHDU();
+            for (int row = 0; row < 50; row++) {
+                Assert.assertArrayEquals((double[][]) orgTable.getElement(row, 0), (double[][]) decompressed.getElement(row, 0));
+            }
+        } finally {
+            SafeClose.close(fits);
+            SafeClose.close(fitsComp);
+        }
+    }
+
     @Test
     public void testCompressedVarTable() throws Exception {
         String compressedVarTable = BlackBoxImages.getBlackBoxImage("map_one_source_a_level_1_cal.fits.fz");
@@ -135,4 +135,54 @@ public class BufferedFileTest {
             file.close();
         }
     }
+
+    @Test
+    public void testWriteLargeArrays() throws IOException {
+        double[] doubles = new double[10000];
+        short[] shorts = new short[30001];
+        boolean[] booleans = new boolean[5000];
+        for (int index = 0; index < doubles.length; index++) {
+            doubles[index] = index * 0.125;
+        }
+        for (int index = 0; index < shorts.length; index++) {
+            shorts[index] = (short) index;
+        }
+        for (int index = 0; index < booleans.length; index++) {
+            booleans[index] = index % 3 == 0;
+        }
+        BufferedFile file = new BufferedFile("target/BufferedFileLargeArrays", "rw", 1024);
+        try {
+            file.setLength(0);
+            file.writeInt(1);
+            file.writeInt(2);
+            file.seek(0);
+            Assert.assertEquals(1, file.readInt());
+            // switch from reading to writing with data larger than the buffer
+            file.write(doubles);
+            file.write(shorts);
+            file.write(booleans);
+            file.writeByte(3);
+            Assert.assertEquals(4 + doubles.length * 8 + shorts.length * 2 + booleans.length + 1, file.getFilePointer());
+        } finally {
+            file.close();
+        }
+        file = new BufferedFile("target/BufferedFileLargeArrays", "r", 1024);
+        try {
+            Assert.assertEquals(1, file.readInt());
+            double[] readDoubles = new double[doubles.length];
+            short[] readShorts = new short[shorts.length];
+            boolean[] readBooleans = new boolean[booleans.length];
+            file.read(readDoubles);
+            file.read(readShorts);
+            file.read(readBooleans);
+            Assert.assertArrayEquals(doubles, readDoubles, 0d);
+            Assert.assertArrayEquals(shorts, readShorts);
+            for (int index = 0; index < booleans.length; index++) {
+                Assert.assertEquals(booleans[index], readBooleans[index]);
+            }
+            Assert.assertEquals(3, file.readByte());
+        } finally {
+            file.close();
+        }
+    }
 }
@@ -35,8 +35,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -389,4 +392,45 @@ public class HashedListTest {
         assertFalse(h.replaceKey("K1", "K2"));
         assertFalse(h.replaceKey("K", "K"));
     }
+
+    @Test
+    public void testManyInsertsAndRemovals() {
+        HashedList<TestCursorValue> h = new HashedList<TestCursorValue>();
+        List<TestCursorValue> model = new ArrayList<TestCursorValue>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            int op = random.nextInt(4);
+            if (op < 2 || model.isEmpty()) {
+                int pos = random.nextInt(model.size() + 1);
+                TestCursorValue value = new TestCursorValue("K" + i, "V" + i);
+                h.iterator(pos).add(value);
+                model.add(pos, value);
+            } else if (op == 2) {
+                int pos = random.nextInt(model.size());
+                assertTrue(h.remove(pos));
+                model.remove(pos);
+            } else {
+                TestCursorValue value = model.remove(random.nextInt(model.size()));
+                assertTrue(h.removeKey(value.getKey()));
+            }
+            if (!model.isEmpty()) {
+                int pos = random.nextInt(model.size());
+                TestCursorValue value = model.get(pos);
+                assertEquals(value, h.get(pos));
+                assertEquals(pos, h.indexOf(value));
+                assertEquals(value, h.get(value.getKey()));
+            }
+        }
+        assertEquals(model.size(), h.size());
+        Iterator<TestCursorValue> iter = h.iterator();
+        for (TestCursorValue value : model) {
+            assertEquals(value, iter.next());
+        }
+        assertFalse(iter.hasNext());
+
+        TestCursorValue first = model.get(0);
+        assertTrue(h.remove(first));
+        assertFalse(h.containsKey(first.getKey()));
+        assertEquals(model.get(1), h.get(0));
+    }
 }
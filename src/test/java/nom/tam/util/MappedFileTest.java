@@ -0,0 +1,245 @@
+package nom.tam.util;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2016 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MappedFileTest {
+
+    private static final int SMALL_WINDOW = 64;
+
+    @Test
+    public void testReadWriteArraysOverWindows() throws IOException {
+        File target = new File("target/MappedFileArrays");
+        int[] ints = new int[100];
+        float[] floats = new float[77];
+        double[] doubles = new double[33];
+        long[] longs = new long[21];
+        short[] shorts = new short[55];
+        for (int index = 0; index < ints.length; index++) {
+            ints[index] = index * 1000003;
+        }
+        for (int index = 0; index < floats.length; index++) {
+            floats[index] = index * 1.5f;
+        }
+        for (int index = 0; index < doubles.length; index++) {
+            doubles[index] = index * -2.25;
+        }
+        for (int index = 0; index < longs.length; index++) {
+            longs[index] = index * 10000000007L;
+        }
+        for (int index = 0; index < shorts.length; index++) {
+            shorts[index] = (short) (index * 311);
+        }
+        MappedFile file = new MappedFile(target, "rw", SMALL_WINDOW);
+        try {
+            file.setLength(0);
+            // an odd byte makes sure elements are split over window borders.
+            file.writeByte(7);
+            file.write(ints);
+            file.write(floats);
+            file.write(doubles);
+            file.write(longs);
+            file.write(shorts);
+        } finally {
+            file.close();
+        }
+        Assert.assertEquals(1 + ints.length * 4 + floats.length * 4 + doubles.length * 8 + longs.length * 8 + shorts.length * 2, target.length());
+
+        BufferedFile check = new BufferedFile(target);
+        try {
+            Assert.assertEquals(7, check.readByte());
+            int[] checkInts = new int[ints.length];
+            check.read(checkInts);
+            Assert.assertArrayEquals(ints, checkInts);
+        } finally {
+            check.close();
+        }
+
+        file = new MappedFile(target.getPath(), "r");
+        try {
+            Assert.assertEquals(7, file.readByte());
+            int[] readInts = new int[ints.length];
+            float[] readFloats = new float[floats.length];
+            double[] readDoubles = new double[doubles.length];
+            long[] readLongs = new long[longs.length];
+            short[] readShorts = new short[shorts.length];
+            Assert.assertEquals(readInts.length * 4, file.read(readInts));
+            file.read(readFloats);
+            file.read(readDoubles);
+            file.read(readLongs);
+            file.read(readShorts);
+            Assert.assertArrayEquals(ints, readInts);
+            Assert.assertArrayEquals(floats, readFloats, 0f);
+            Assert.assertArrayEquals(doubles, readDoubles, 0d);
+            Assert.assertArrayEquals(longs, readLongs);
+            Assert.assertArrayEquals(shorts, readShorts);
+            Assert.assertEquals(target.length(), file.getFilePointer());
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void testPositionalReads() throws IOException {
+        File target = new File("target/MappedFilePositional");
+        int[] ints = new int[20000];
+        for (int index = 0; index < ints.length; index++) {
+            ints[index] = index * 7;
+        }
+        MappedFile file = new MappedFile(target, "rw", SMALL_WINDOW);
+        try {
+            file.setLength(0);
+            file.writeByte(3);
+            file.write(ints);
+            file.flush();
+            file.seek(1);
+            int[][] pair = new int[2][3];
+            Assert.assertEquals(1 + 4 * 4 + 6 * 4, PositionalReader.readArray(file, 1 + 4 * 4, pair));
+            Assert.assertArrayEquals(new int[]{
+                28,
+                35,
+                42
+            }, pair[0]);
+            int[] all = new int[ints.length];
+            PositionalReader.read(file, 1, all, 0, all.length);
+            Assert.assertArrayEquals(ints, all);
+            Assert.assertEquals(1, file.getFilePointer());
+            try {
+                PositionalReader.read(file, 5, all, 0, all.length);
+                Assert.fail("expected EOF");
+            } catch (EOFException e) {
+                // expected
+            }
+        } finally {
+            file.close();
+        }
+
+        BufferedFile check = new BufferedFile(target, "rw");
+        try {
+            check.seek(check.length());
+            check.writeInt(-1);
+            int[] last = new int[2];
+            PositionalReader.readArray(check, 1 + 4 * (ints.length - 1), last);
+            Assert.assertArrayEquals(new int[]{
+                ints[ints.length - 1],
+                -1
+            }, last);
+        } finally {
+            check.close();
+        }
+    }
+
+    @Test
+    public void testSeekAndScalars() throws IOException {
+        MappedFile file = new MappedFile(new File("target/MappedFileScalars"), "rw", SMALL_WINDOW);
+        try {
+            file.setLength(0);
+            for (int index = 0; index < 100; index++) {
+                file.writeInt(index);
+            }
+            file.writeLong(Long.MIN_VALUE);
+            file.writeDouble(Math.PI);
+            file.writeFloat(1.25f);
+            file.writeShort(-2);
+            file.writeChar('x');
+            file.writeBoolean(true);
+            file.writeUTF("mapped");
+
+            file.seek(4 * 77);
+            Assert.assertEquals(77, file.readInt());
+            file.seek(4 * 3);
+            Assert.assertEquals(3, file.readInt());
+            file.mark(1);
+            Assert.assertEquals(4, file.readInt());
+            file.reset();
+            Assert.assertEquals(4, file.readInt());
+            file.skipAllBytes(4 * 95);
+            Assert.assertEquals(Long.MIN_VALUE, file.readLong());
+            Assert.assertEquals(Math.PI, file.readDouble(), 0d);
+            Assert.assertEquals(1.25f, file.readFloat(), 0f);
+            Assert.assertEquals(-2, file.readShort());
+            Assert.assertEquals('x', file.readChar());
+            Assert.assertTrue(file.readBoolean());
+            Assert.assertEquals("mapped", file.readUTF());
+            EOFException eofException = null;
+            try {
+                file.readInt();
+            } catch (EOFException e) {
+                eofException = e;
+            }
+            Assert.assertNotNull(eofException);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void testCheckEof() throws IOException {
+        MappedFile file = new MappedFile(new File("target/MappedFileCheckEof"), "rw");
+        file.setLength(0);
+        file.write(new byte[2]);
+        file.close();
+        file = new MappedFile(new File("target/MappedFileCheckEof"), "rw");
+        try {
+            // there are only 2 so ready them
+            Assert.assertEquals(2, file.read(new char[3]));
+            EOFException eofException = null;
+            try {
+                // nothing left now a eof should happen
+                file.read(new char[3]);
+            } catch (EOFException e) {
+                eofException = e;
+            }
+            Assert.assertNotNull(eofException);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteReadOnly() throws IOException {
+        MappedFile file = new MappedFile(new File("target/MappedFileReadOnly"), "rw");
+        file.close();
+        file = new MappedFile("target/MappedFileReadOnly");
+        try {
+            file.writeInt(1);
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -601,6 +601,37 @@ public class StreamTest {
         Assert.assertNotNull(expectedEof);
     }
 
+    @Test
+    public void testBulkReadOverBufferBorders() throws Exception {
+        float[] floats = new float[50000];
+        long[] longs = new long[10001];
+        for (int index = 0; index < floats.length; index++) {
+            floats[index] = index / 3f;
+        }
+        for (int index = 0; index < longs.length; index++) {
+            longs[index] = index * 0x100000001L;
+        }
+        ByteArrayOutputStream o = new ByteArrayOutputStream();
+        BufferedDataOutputStream out = new BufferedDataOutputStream(o);
+        // one byte to get all elements misaligned to the buffers
+        out.writeByte(1);
+        out.write(floats);
+        out.write(longs);
+        out.close();
+
+        BufferedDataInputStream input = new BufferedDataInputStream(new ByteArrayInputStream(o.toByteArray()), 1000);
+        Assert.assertEquals(1, input.readByte());
+        float[] readFloats = new float[floats.length];
+        long[] readLongs = new long[longs.length + 1];
+        Assert.assertEquals(floats.length * 4, input.read(readFloats));
+        Assert.assertEquals(longs.length * 8, input.read(readLongs));
+        Assert.assertArrayEquals(floats, readFloats, 0f);
+        for (int index = 0; index < longs.length; index++) {
+            Assert.assertEquals(longs[index], readLongs[index]);
+        }
+        input.close();
+    }
+
     @Test
     public void testEofHandlingByteArray() throws Exception {
 